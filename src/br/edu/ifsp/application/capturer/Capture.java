@@ -1,30 +1,45 @@
 package br.edu.ifsp.application.capturer;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.openni.Device;
-import org.openni.ImageRegistrationMode;
-import org.openni.OpenNI;
-import org.openni.SensorType;
-import org.openni.VideoFrameRef;
-import org.openni.VideoMode;
-import org.openni.VideoStream;
-
-import com.primesense.nite.NiTE;
 import com.primesense.nite.PoseType;
-import com.primesense.nite.SkeletonState;
-import com.primesense.nite.UserData;
-import com.primesense.nite.UserTracker;
-import com.primesense.nite.UserTrackerFrameRef;
 
+import br.edu.ifsp.capturer.CompositeFrame;
 import br.edu.ifsp.capturer.Coordinate;
+import br.edu.ifsp.capturer.DepthCodec;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameCodec;
+import br.edu.ifsp.capturer.FramePipeline;
+import br.edu.ifsp.capturer.FramePipeline.DropPolicy;
+import br.edu.ifsp.capturer.FrameSource;
+import br.edu.ifsp.capturer.FrameSynchronizer;
+import br.edu.ifsp.capturer.GestureTrigger;
 import br.edu.ifsp.capturer.ImageCapture;
+import br.edu.ifsp.capturer.LatencyStats;
+import br.edu.ifsp.capturer.PreRollBuffer;
 import br.edu.ifsp.capturer.Segmentation;
+import br.edu.ifsp.capturer.SensorFrameSource;
 import br.edu.ifsp.capturer.ShowObject;
-import br.edu.ifsp.util.CaptureData;;
+import br.edu.ifsp.capturer.SkeletonTrack;
+import br.edu.ifsp.capturer.StreamCounters;
+import br.edu.ifsp.capturer.UserFrame;
+import br.edu.ifsp.util.CaptureData;
+import br.edu.ifsp.util.RecordingWriter;
 
 /**
  * This is the class responsible for recording the movements of the users. It
@@ -34,21 +49,46 @@ import br.edu.ifsp.util.CaptureData;;
  * @author Matheus da Silva Ferreira
  *
  */
-public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFrameListener {
-
-	private UserTracker userTracker = null;
-	private UserTrackerFrameRef frame;
-	private VideoStream videoColor;
-	private VideoFrameRef frameColor, frameDepth;
-	private PoseType startingPose = null, stoppingPose = null;
-	private boolean startRecordingUsers = false, startTimer = false;
+public class Capture implements FrameSource.Listener, FrameSynchronizer.CompositeFrameListener {
+
+	private static final int RECORD_CAPACITY = 60, DISPLAY_CAPACITY = 2;
+	private static final Logger LOGGER = Logger.getLogger(Capture.class.getName());
+
+	private FrameSource source;
+	private UserFrame frame;
+	private int colorWidth, colorHeight;
+	private GestureTrigger startingTrigger = null, stoppingTrigger = null;
+	private volatile boolean startRecordingUsers = false;
+	private volatile boolean startTimer = false;
+	private long countdownEnd;
 	private ShowObject view = null;
 	private Coordinate coor = null;
 	private Segmentation seg = null;
 	private ImageCapture imgColor = null, imgDepth = null;
-	private Set<Long> timestamp = new TreeSet<>();
-	private Integer seconds, secondsRemaining = 0;
-	private int delay;
+	private FrameSynchronizer sync;
+	private List<CompositeFrame> frames = createFramesStructure();
+	private volatile RecordingWriter writer = null;
+	private volatile FramePipeline segmentationPipeline = null;
+	/* The last color frame recorded, since the synchronizer can join it to two depth frames */
+	private Frame storedColor = null;
+	private long writtenColor = Long.MIN_VALUE;
+	private volatile DropPolicy segmentationPolicy = DropPolicy.BLOCK;
+	private volatile boolean compressSkeleton = false;
+	private volatile int streamedFrames = 0;
+	private volatile PreRollBuffer preRoll = null;
+	private int seconds = 0;
+	private volatile int secondsRemaining = 0;
+	private volatile BackpressurePolicy policy = BackpressurePolicy.BLOCK;
+	private AtomicLongArray received = new AtomicLongArray(Frame.SEGMENTATION + 1);
+	private AtomicLongArray recorded = new AtomicLongArray(Frame.SEGMENTATION + 1);
+	private AtomicLongArray rejected = new AtomicLongArray(Frame.SEGMENTATION + 1);
+	private AtomicLongArray late = new AtomicLongArray(Frame.SEGMENTATION + 1);
+	private LatencyStats latency = new LatencyStats();
+	private volatile long memoryBudget = 0;
+	private volatile BudgetPolicy budgetPolicy = BudgetPolicy.STOP;
+	private volatile File spillDirectory;
+	private volatile boolean overBudget = false;
+	private long lastColor = Long.MIN_VALUE, lastDepth = Long.MIN_VALUE, lastStatistics = Long.MIN_VALUE;
 
 	private StateChangedListener stateChanged = null;
 
@@ -68,40 +108,60 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	 *            The object used to show the images created by the sensor.
 	 */
 	public Capture(ShowObject view) {
-		System.out.println("Loading libraries");
-		try {
-			OpenNI.initialize();
-			NiTE.initialize();
-		} catch (Exception e) {
-			System.out.println("Error during the loading of the dependents libraries.");			
-			e.printStackTrace();
-		}
+		this(view, new SensorFrameSource());
+	}
+
+	/**
+	 * This Constructor allows you to set where the frames come from, such as
+	 * a sensor or a recording saved before.
+	 * 
+	 * @param view
+	 *            The object used to show the images, or null.
+	 * @param source
+	 *            The source of the frames. It is started by this constructor.
+	 */
+	public Capture(ShowObject view, FrameSource source) {
 		coor = new Coordinate(view);
 		seg = new Segmentation(view);
 		imgColor = new ImageCapture(view, ShowObject.COLOR);
 		imgDepth = new ImageCapture(view, ShowObject.DEPTH);
 		this.view = view;
 
-		System.out.println("Creating streams");
-		Device d = null;
-		try {
-			d = Device.open(OpenNI.enumerateDevices().get(0).getUri());
-
-			this.userTracker = UserTracker.create();
+		coor.setLatencyStats(latency);
+		seg.setLatencyStats(latency);
+		imgColor.setLatencyStats(latency);
+		imgDepth.setLatencyStats(latency);
+		if (view != null) {
+			view.setLatencyStats(latency);
+		}
 
-			userTracker.addNewFrameListener(this);
+		/*
+		 * The recorded color and depth frames are joined by timestamp before
+		 * being stored, so each recorded instant has one frame of each stream.
+		 */
+		sync = new FrameSynchronizer(FrameSynchronizer.DEFAULT_TOLERANCE, 4, this);
+		imgColor.setFrameSink(new FramePipeline.Stage() {
 
-			if (d.isImageRegistrationModeSupported(ImageRegistrationMode.DEPTH_TO_COLOR)) {
-				d.setImageRegistrationMode(ImageRegistrationMode.DEPTH_TO_COLOR);
+			@Override
+			public void process(Frame frame) {
+				sync.offerColor(frame.retain());
 			}
+		});
+		imgDepth.setFrameSink(new FramePipeline.Stage() {
 
-			// d.setDepthColorSyncEnabled(true);
-
-			VideoStream video = VideoStream.create(d, SensorType.COLOR);
-
-			video.addNewFrameListener(this);
-			video.start();
+			@Override
+			public void process(Frame frame) {
+				sync.offerDepth(frame.retain());
+			}
+		});
+		seg.setFrameSink(segmentationSink);
 
+		System.out.println("Creating streams");
+		this.source = source;
+		source.setListener(this);
+		try {
+			source.start();
+			coor.setProjection(source.getProjection());
 		} catch (Exception e) {
 			System.out.println("Error during the loading of the sensor.");
 			System.out.println("Make sure that there is a sensor connected and try again.");
@@ -110,67 +170,201 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 		}
 	}
 
-	@Override
-	public void onFrameReady(VideoStream videoStream) {
-		this.videoColor = videoStream;
+	/**
+	 * The segmentation is recorded by the NiTE thread, with the same timestamp
+	 * of the depth frame, so it is joined when the recording is read. While
+	 * streaming, it goes to the disk through a stage with the policy of the
+	 * depth stream, so a full writer does not stall the NiTE thread.
+	 */
+	private FramePipeline.Stage segmentationSink = new FramePipeline.Stage() {
+
+		@Override
+		public void process(Frame frame) {
+			PreRollBuffer preRoll = Capture.this.preRoll;
+			/* Refused when the take has begun meanwhile, so the frame is recorded */
+			if (!startRecordingUsers && preRoll != null && preRoll.addSegmentation(frame)) {
+				return;
+			}
+			FramePipeline pipeline = segmentationPipeline;
+			/* A stage stopped by finishStreaming meanwhile refuses the frame, which is then stored */
+			if (pipeline != null && (pipeline.submit(frame.retain()) || pipeline.isRunning())) {
+				return;
+			}
+			segmentationWriter.process(frame);
+		}
+	};
+
+	/**
+	 * Write a segmentation frame while streaming, or store it when the writer
+	 * has been closed or refuses it.
+	 */
+	private FramePipeline.Stage segmentationWriter = new FramePipeline.Stage() {
+
+		@Override
+		public void process(Frame frame) {
+			RecordingWriter writer = Capture.this.writer;
+			if (writer == null || !writer.write(frame.retain())) {
+				seg.store(frame);
+			}
+			recorded.incrementAndGet(Frame.SEGMENTATION);
+		}
+	};
 
-		this.frameColor = videoStream.readFrame();
+	/**
+	 * Check the frames must be copied, either to be recorded or to be kept in
+	 * the pre-roll buffer.
+	 */
+	private boolean isCapturing() {
+		return startRecordingUsers || preRoll != null;
+	}
+
+	/**
+	 * Method called every time that a new color frame was created.
+	 */
+	@Override
+	public void onColorFrame(ByteBuffer pixels, long timestamp, int width, int height) {
+		this.colorWidth = width;
+		this.colorHeight = height;
+		received.incrementAndGet(Frame.COLOR);
+		if (timestamp <= lastColor) {
+			late.incrementAndGet(Frame.COLOR);
+		}
+		lastColor = timestamp;
 
 		/* If the recording is not allowed. */
-		if (!startRecordingUsers) {
+		if (!isCapturing()) {
 			imgColor.stopRecording();
 		} else {
 			imgColor.startRecording();
 		}
 
-		// new Thread(new Runnable() {
+		imgColor.setImageData(pixels, timestamp, width, height);
+	}
 
-		// @Override
-		// public void run() {
-		imgColor.setImageData(frameColor);
-		// }
-		// }).start();
+	/**
+	 * Method called every time that a depth frame recorded was joined to the
+	 * color frame with the nearest timestamp.
+	 */
+	@Override
+	public void onCompositeFrame(CompositeFrame frame) {
+		PreRollBuffer preRoll = this.preRoll;
+		/* Refused when the take has begun meanwhile, so the frame is recorded */
+		if (!startRecordingUsers && preRoll != null && preRoll.addComposite(frame)) {
+			return;
+		}
+		record(frame);
+	}
 
-		if (startRecordingUsers) {
-			timestamp.add(frameColor.getTimestamp());
+	private void record(CompositeFrame frame) {
+		boolean hasColor = frame.getColor() != null;
+		long colorTime = hasColor ? frame.getColor().getTimestamp() : Long.MIN_VALUE;
+		long created = frame.getDepth().getCreated();
+		RecordingWriter writer = this.writer;
+		if (writer != null) {
+			boolean newColor;
+			/* The pre-roll buffer may be recorded by another thread */
+			synchronized (frames) {
+				newColor = hasColor && colorTime != writtenColor;
+				if (newColor) {
+					writtenColor = colorTime;
+				}
+			}
+			/* The writer releases the frames after writing them */
+			boolean written;
+			if (hasColor && !newColor) {
+				written = writer.write(frame.getDepth().retain());
+				frame.release();
+			} else {
+				written = writer.write(frame);
+			}
+			if (written) {
+				streamedFrames++;
+				count(recorded, newColor);
+			} else {
+				count(rejected, newColor);
+			}
+		} else {
+			/* When the frames are compressed, the composite frame keeps the frames encoded */
+			List<CompositeFrame> frames = this.frames;
+			synchronized (frames) {
+				Frame depth = imgDepth.store(frame.getDepth());
+				Frame color = null;
+				boolean repeated = hasColor && storedColor != null && storedColor.getTimestamp() == colorTime;
+				boolean newColor = false;
+				if (depth != null && repeated) {
+					color = storedColor;
+				} else if (depth != null && hasColor) {
+					color = imgColor.store(frame.getColor());
+					storedColor = color;
+					newColor = color != null;
+				}
+				/* The frames discarded by the encoders are counted as dropped */
+				if (depth != null) {
+					count(recorded, newColor);
+					frames.add(depth == frame.getDepth() && color == frame.getColor() ? frame
+							: new CompositeFrame(depth, color));
+				} else if (hasColor && !repeated) {
+					/* A color frame without its depth frame is not stored */
+					rejected.incrementAndGet(Frame.COLOR);
+				}
+			}
+			frame.release();
 
-			/* Call the client's listener that are waiting for some events. */
-			if (stateChanged != null) {
-				stateChanged.stateChanged(Capture.StateChangedListener.NEW_DATA_ARRIVED);
+			/* The policy is applied by the thread of NiTE, in the next frame */
+			if (memoryBudget > 0 && !overBudget && getRetainedBytes() > memoryBudget) {
+				overBudget = true;
 			}
 		}
+
+		latency.recordSince(LatencyStats.END_TO_END, created);
+
+		/* Call the client's listener that are waiting for some events. */
+		if (stateChanged != null) {
+			stateChanged.stateChanged(Capture.StateChangedListener.NEW_DATA_ARRIVED);
+		}
+	}
+
+	private static void count(AtomicLongArray counters, boolean hasColor) {
+		counters.incrementAndGet(Frame.DEPTH);
+		if (hasColor) {
+			counters.incrementAndGet(Frame.COLOR);
+		}
 	}
 
 	/**
-	 * Method called every time that a new frame was created by the NiTE
-	 * middleware.
+	 * Method called every time that a new depth frame was created, with the
+	 * users found in it.
 	 */
 	@Override
-	public synchronized void onNewFrame(UserTracker userTracker) {
-		this.userTracker = userTracker;
+	public synchronized void onUserFrame(UserFrame frame) {
+		this.frame = frame;
+		int width = frame.getWidth(), height = frame.getHeight();
+		countDepth(frame);
+		if (overBudget && startRecordingUsers && writer == null) {
+			/* The budget may have been changed since it was reached */
+			if (memoryBudget > 0 && getRetainedBytes() > memoryBudget) {
+				applyBudgetPolicy();
+			} else {
+				overBudget = false;
+			}
+		}
+
 		/*
-		 * Get the object that stores all the information of the currently frame
-		 * that NiTE is able to say
+		 * The triggers only act on the state of the beginning of the frame, so
+		 * a gesture which stops the recording does not start it again.
 		 */
-		this.frame = userTracker.readFrame();
-
-		this.frameDepth = frame.getDepthFrame();
-		// System.out.println("NiTE: "+frame.getDepthFrame().getFrameIndex());
+		boolean recording = startRecordingUsers;
 
-		/* For each users detected by the middleware NiTE in this frame */
-		List<UserData> users = frame.getUsers();
-		for (UserData user : users) {
+		/* For each users detected in this frame */
+		for (int i = 0; i < frame.getUserCount(); i++) {
 
 			/* If the currently user is not ready to be tracked */
-			if (!isUserTracked(user)) {
+			if (!isUserTracked(frame, i)) {
 				continue;
 			}
 
-			/* Call the method that has the policy of the startingPose */
-			detectingStartingPose(user);
-
-			/* Call the method that has the policy of the stoppingPose */
-			detectingStoppingPose(user);
+			/* Call the method that has the policy of the triggers */
+			detectingTriggers(frame, i, recording);
 
 			/* If the recording is not allowed. */
 			if (!startRecordingUsers) {
@@ -179,18 +373,22 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 				coor.startRecording();
 			}
 
-			// new Thread(new Runnable() {
-			// @Override
-			// public void run() {
-			coor.getUserJoints(userTracker, user, frameDepth.getTimestamp(), frameDepth.getWidth(),
-					frameDepth.getHeight());
-			// }
-			// }).start();
+			coor.setUserJoints(frame.getId(i), frame.getTimestamp(), frame.getJoints(),
+					i * SkeletonTrack.FRAME_SIZE, frame.getConfidences(), i * SkeletonTrack.JOINTS, width, height);
 
+			/* The take begins under the lock of this object, so the skeleton is always kept */
+			PreRollBuffer preRoll = this.preRoll;
+			if (!startRecordingUsers && preRoll != null) {
+				preRoll.addSkeleton(frame.getId(i), frame.getTimestamp(), frame.getJoints(),
+						i * SkeletonTrack.FRAME_SIZE, frame.getConfidences(), i * SkeletonTrack.JOINTS);
+			}
 		}
 
+		/* The chronometer counts the time of the sensor */
+		updateCountdown(frame.getTimestamp());
+
 		/* If the recording is not allowed. */
-		if (!startRecordingUsers) {
+		if (!isCapturing()) {
 			seg.stopRecording();
 			imgDepth.stopRecording();
 		} else {
@@ -198,212 +396,278 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 			imgDepth.startRecording();
 		}
 
-		// new Thread(new Runnable() {
-		// @Override
-		// public void run() {
-		seg.setUserMap(frame.getUserMap(), frame.getTimestamp());
-		// }
-		// }).start();
+		if (frame.getUserMap() != null) {
+			seg.setUserMap(frame.getUserMap(), width, height, frame.getUserMapStride(), frame.getTimestamp());
+		}
 
-		// new Thread(new Runnable() {
-		// @Override
-		// public void run() {
-		imgDepth.setImageData(frameDepth);
-		// }
-		// }).start();
+		imgDepth.setImageData(frame.getDepth(), frame.getTimestamp(), width, height);
+	}
 
-		if (startRecordingUsers) {
-			timestamp.add(frameDepth.getTimestamp());
+	/**
+	 * Count the depth frame and its segmentation, and tell the listener about
+	 * the counters once per second of the sensor.
+	 */
+	private void countDepth(UserFrame frame) {
+		long timestamp = frame.getTimestamp();
+		received.incrementAndGet(Frame.DEPTH);
+		if (frame.getUserMap() != null) {
+			received.incrementAndGet(Frame.SEGMENTATION);
+		}
+		if (timestamp <= lastDepth) {
+			late.incrementAndGet(Frame.DEPTH);
+			if (frame.getUserMap() != null) {
+				late.incrementAndGet(Frame.SEGMENTATION);
+			}
+		}
+		lastDepth = timestamp;
 
+		if (lastStatistics == Long.MIN_VALUE || timestamp < lastStatistics
+				|| timestamp - lastStatistics >= 1_000_000) {
+			lastStatistics = timestamp;
 			/* Call the client's listener that are waiting for some events. */
 			if (stateChanged != null) {
-				stateChanged.stateChanged(Capture.StateChangedListener.NEW_DATA_ARRIVED);
+				stateChanged.stateChanged(StateChangedListener.COUNTERS_CHANGED);
 			}
 		}
 	}
 
 	/**
-	 * Method that has the policy of the startingPose.
-	 * 
-	 * @param user
-	 *            The user to check.
+	 * Stop keeping the frames in memory as they are, because they have
+	 * reached the budget. The policy COMPRESS only stops the recording if the
+	 * budget is reached again after the depth frames are compressed.
 	 */
-	private void detectingStartingPose(UserData user) {
-		/* If there is not a startingPose */
-		if (startingPose == null) {
+	private void applyBudgetPolicy() {
+		if (budgetPolicy == BudgetPolicy.COMPRESS && imgDepth.getPendingEncodes() > 0) {
+			/* The frames still being compressed may bring it under the budget */
 			return;
 		}
-
-		/* If the system is already recording the user movements */
-		if (startRecordingUsers) {
-			return;
+		LOGGER.log(Level.WARNING, "The recording has reached the memory budget: {0} bytes", getRetainedBytes());
+		if (budgetPolicy == BudgetPolicy.COMPRESS && imgDepth.getCodec() == null) {
+			compressDepth();
+			overBudget = false;
+		} else if (budgetPolicy == BudgetPolicy.SPILL && spillDirectory != null) {
+			File directory = new File(spillDirectory, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+			try {
+				startStreaming(directory, RECORD_CAPACITY);
+			} catch (IOException | IllegalStateException e) {
+				LOGGER.log(Level.SEVERE, "The recording could not be spilled to " + directory, e);
+				stopRecording();
+			}
+		} else {
+			stopRecording();
 		}
 
-		/*
-		 * If the delay still not arrived at the value 0. Used to create a time
-		 * between the detection of the startingPose and the stoppingPose
-		 */
-		if (delay > 0) {
-			delay--;
-			return;
+		/* Call the client's listener that are waiting for some events. */
+		if (stateChanged != null) {
+			stateChanged.stateChanged(StateChangedListener.BUDGET_REACHED);
 		}
+	}
 
-		if (user.getPoses(startingPose).isHeld()) {
-			System.out.println("Start: " + startingPose + " is Held");
+	/**
+	 * Compress the depth frames recorded in memory by {@link DepthCodec}, and
+	 * the next depth frames of the take too. The composite frames are changed
+	 * to use the frames compressed.
+	 */
+	private void compressDepth() {
+		List<CompositeFrame> frames = this.frames;
+		/* No frame is stored while the composite frames are changed */
+		synchronized (frames) {
+			Map<Long, Frame> depths = imgDepth.compressRecordedData(new DepthCodec());
+			for (ListIterator<CompositeFrame> it = frames.listIterator(); it.hasNext();) {
+				CompositeFrame frame = it.next();
+				Frame depth = depths.get(frame.getTimestamp());
+				if (depth != null) {
+					it.set(new CompositeFrame(depth, frame.getColor()));
+				}
+			}
 		}
+	}
 
-		/*
-		 * If the seconds remaining are lower than 1, it means that it is time
-		 * to record the user movements. However, it will only start the
-		 * recording of the current user if he is holding the startingPose, or
-		 * the chronometer has been started.
-		 */
-		if (secondsRemaining <= 0 && (user.getPoses(startingPose).isHeld() || startTimer)) {
-			startRecording(user);
+	/**
+	 * Method that has the policy of the triggers. Both triggers are evaluated
+	 * in every frame, so each one knows for how long the gesture is held, but
+	 * only the trigger of the current state acts.
+	 * 
+	 * @param frame
+	 *            The current frame.
+	 * @param user
+	 *            The index of the user to check.
+	 * @param recording
+	 *            true if the system was recording at the beginning of the
+	 *            frame, false otherwise.
+	 */
+	private void detectingTriggers(UserFrame frame, int user, boolean recording) {
+		boolean start = startingTrigger != null && startingTrigger.update(frame, user);
+		boolean stop = stoppingTrigger != null && stoppingTrigger.update(frame, user);
+
+		if (recording) {
+			if (stop && startRecordingUsers) {
+				System.out.println("Stop: " + stoppingTrigger.getName() + " is Held");
+				stopRecording();
+			}
+		} else if (start && !startRecordingUsers && !startTimer) {
+			System.out.println("Start: " + startingTrigger.getName() + " is Held");
+			if (seconds <= 0) {
+				startRecording();
+			} else {
+				startCountdown(frame.getTimestamp());
+			}
 		}
+	}
 
-		/*
-		 * If the user is holding the startingPose, the seconds remaining are
-		 * greater than 0 and the chronometer has not been started, the system
-		 * will create a new {@link Timer} object, that will count the seconds;
-		 * start the chronometer and then it will stop detecting the
-		 * startingPose.
-		 */
-		if (user.getPoses(startingPose).isHeld() && secondsRemaining > 0 && !startTimer) {
-			new Thread(new Timer()).start();
-			startTimer = true;
-			userTracker.stopPoseDetection(user.getId(), startingPose);
-		}
+	/**
+	 * Start the chronometer, which will start the recording when the seconds
+	 * informed by {@link #startRecordingUsers(GestureTrigger, int)} have
+	 * passed.
+	 * 
+	 * @param timestamp
+	 *            The timestamp of the current frame, in microseconds.
+	 */
+	private void startCountdown(long timestamp) {
+		countdownEnd = timestamp + seconds * 1_000_000L;
+		secondsRemaining = seconds;
+		startTimer = true;
 
+		/* Call the client's listener that are waiting for some events. */
+		if (stateChanged != null) {
+			stateChanged.stateChanged(StateChangedListener.TIMER_CHANGED);
+		}
 	}
 
 	/**
-	 * Method that has the policy of the stoppingPose.
+	 * Decrease the seconds remaining of the chronometer, using the timestamp of
+	 * the frames instead of the clock, and start the recording when they end.
 	 * 
-	 * @param user
-	 *            The user to check.
+	 * @param timestamp
+	 *            The timestamp of the current frame, in microseconds.
 	 */
-	private void detectingStoppingPose(UserData user) {
-		/* If there is not a stoppingPose */
-		if (stoppingPose == null) {
+	private void updateCountdown(long timestamp) {
+		if (!startTimer) {
 			return;
 		}
-
-		/* If the system is not recording the user movements */
-		if (!startRecordingUsers) {
+		long remaining = countdownEnd - timestamp;
+		if (remaining <= 0) {
+			startRecording();
 			return;
 		}
+		int value = (int) ((remaining + 999_999) / 1_000_000);
+		if (value != secondsRemaining) {
+			secondsRemaining = value;
 
-		if (user.getPoses(stoppingPose).isHeld()) {
-			System.out.println("Stop: " + stoppingPose + " is Held");
-		}
-
-		/* If the user is helding the startingPose */
-		if (user.getPoses(stoppingPose).isHeld()) {
-			userTracker.stopPoseDetection(user.getId(), stoppingPose);
-
-			stopRecording(user);
+			/* Call the client's listener that are waiting for some events. */
+			if (stateChanged != null) {
+				stateChanged.stateChanged(StateChangedListener.TIMER_CHANGED);
+			}
 		}
 	}
 
 	/**
 	 * Method responsible for starting recording the user movements.
-	 * 
-	 * @param user
-	 *            Current user. It is used when a pose detection has been
-	 *            defined.
 	 */
-	private void startRecording(UserData user) {
-
-		/*
-		 * If there is a pose detection defined to start recording, the system
-		 * will stop detecting this pose.
-		 */
-		if (startingPose != null) {
-			userTracker.stopPoseDetection(user.getId(), startingPose);
-		}
+	private void startRecording() {
 
 		/* Turn off the chronometer */
 		startTimer = false;
 
 		secondsRemaining = 0;
-		startRecordingUsers = true;
+		beginTake();
 
 		/* Call the client's listener that are waiting for some events. */
 		if (stateChanged != null) {
 			stateChanged.stateChanged(StateChangedListener.RECORDING_STARTED);
 		}
-
-		/*
-		 * If there is a pose detection defined to stop recording, the system
-		 * will start detecting this pose.
-		 */
-		if (stoppingPose != null) {
-			userTracker.startPoseDetection(user.getId(), stoppingPose);
-		}
 	}
 
 	/**
 	 * Method responsible for stopping recording the user movements.
-	 * 
-	 * @param user
-	 *            Current user. It is used when a pose detection has been
-	 *            defined.
 	 */
-	private void stopRecording(UserData user) {
+	private void stopRecording() {
+		sync.flush();
+		PreRollBuffer preRoll = this.preRoll;
+		if (preRoll != null) {
+			preRoll.startKeeping();
+		}
 		startRecordingUsers = false;
+		LOGGER.log(Level.INFO, "{0}", latency);
 
-		/* The amount of frames to wait before allowing the recording. */
-		delay = 60;
+		/* Prepare the seconds of the chronometer. */
+		secondsRemaining = seconds;
 
 		/* Call the client's listener that are waiting for some events. */
 		if (stateChanged != null) {
 			stateChanged.stateChanged(StateChangedListener.RECORDING_STOPPED);
 		}
+	}
 
-		/*
-		 * If there is a pose detection defined to start recording, the system
-		 * will stop detecting this pose and prepare the seconds of the
-		 * chronometer.
-		 */
-		if (startingPose != null) {
+	/**
+	 * Allow the recording, and move the frames kept by the pre-roll buffer to
+	 * the recording. The frames that arrive while the buffer is moved are
+	 * already recorded, so the frames are sorted when the recording is read.
+	 */
+	private void beginTake() {
+		if (startRecordingUsers) {
+			return;
+		}
+		latency.reset();
+		startRecordingUsers = true;
 
-			if (user.getPoses(startingPose).isHeld()) {
-				System.out.println("Start: " + startingPose + " is Held");
+		PreRollBuffer preRoll = this.preRoll;
+		if (preRoll == null) {
+			return;
+		}
+		/* The frames added from now on are recorded by the threads which add them */
+		preRoll.stopKeeping();
+
+		/* The skeletons kept came with the frames of the current stream, so they use its resolution */
+		final UserFrame current = frame;
+		preRoll.drainSkeletons(new PreRollBuffer.SkeletonListener() {
+
+			@Override
+			public void onSkeleton(short user, long timestamp, float[] real, int offset, float[] confidence,
+					int confidenceOffset) {
+				coor.store(user, timestamp, real, offset, confidence, confidenceOffset, current.getWidth(),
+						current.getHeight());
 			}
+		});
+		preRoll.drainSegmentation(segmentationSink);
+		preRoll.drainComposites(new FrameSynchronizer.CompositeFrameListener() {
 
-			userTracker.startPoseDetection(user.getId(), startingPose);
-			secondsRemaining = seconds;
-		}
+			@Override
+			public void onCompositeFrame(CompositeFrame frame) {
+				record(frame);
+			}
+		});
+	}
 
+	/**
+	 * Keep the frames of the last seconds while nothing is being recorded, so
+	 * they are added to the beginning of the next recording.
+	 * 
+	 * @param seconds
+	 *            The amount of seconds kept, or 0 to keep nothing.
+	 */
+	public void setPreRoll(int seconds) {
+		PreRollBuffer old = preRoll;
+		int fps = source.getFps() > 0 ? source.getFps() : 30;
+		preRoll = seconds > 0 ? new PreRollBuffer(seconds * fps, 2) : null;
+		if (old != null) {
+			old.clear();
+		}
 	}
 
 	/**
 	 * Start recording the user movements right away
 	 */
-	public void startRecordingUsers() {
-		for (UserData user : frame.getUsers()) {
-			startRecording(user);
-		}
-		startRecordingUsers = true;
-		/* Call the client's listener that are waiting for some events. */
-		if (stateChanged != null) {
-			stateChanged.stateChanged(StateChangedListener.RECORDING_STARTED);
-		}
+	public synchronized void startRecordingUsers() {
+		startRecording();
 	}
 
 	/**
 	 * Stop recording the user movements right away
 	 */
-	public void stopRecordingUsers() {
-		for (UserData user : frame.getUsers()) {
-			stopRecording(user);
-		}
-		startRecordingUsers = false;
-		/* Call the client's listener that are waiting for some events. */
-		if (stateChanged != null) {
-			stateChanged.stateChanged(StateChangedListener.RECORDING_STOPPED);
-		}
+	public synchronized void stopRecordingUsers() {
+		startTimer = false;
+		stopRecording();
 	}
 
 	/**
@@ -417,18 +681,27 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	 *            The amount of seconds to wait before start the recording.
 	 */
 	public void startRecordingUsers(PoseType pose, int seconds) {
+		startRecordingUsers(pose == null ? null : GestureTrigger.pose(pose), seconds);
+	}
+
+	/**
+	 * Start recording the user movements. When an user held the gesture
+	 * informed, the system will wait the amount of seconds informed before
+	 * start the recording.
+	 * 
+	 * @param trigger
+	 *            The gesture to be detected, or null to start the recording
+	 *            only by {@link #startRecordingUsers()}.
+	 * @param seconds
+	 *            The amount of seconds to wait before start the recording.
+	 */
+	public synchronized void startRecordingUsers(GestureTrigger trigger, int seconds) {
 		this.seconds = seconds;
-		this.secondsRemaining = seconds;
-		for (UserData user : frame.getUsers()) {
-			if (this.startingPose != null) {
-				userTracker.stopPoseDetection(user.getId(), startingPose);
-			}
-			if (pose != null)
-				if (!startRecordingUsers) {
-					userTracker.startPoseDetection(user.getId(), pose);
-				}
+		if (!startTimer) {
+			this.secondsRemaining = seconds;
 		}
-		this.startingPose = pose;
+		setPoseDetection(startingTrigger, trigger, stoppingTrigger);
+		this.startingTrigger = trigger;
 	}
 
 	/**
@@ -438,46 +711,288 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	 *            Pose to be detected
 	 */
 	public void stopRecordingUsers(PoseType pose) {
-		for (UserData user : frame.getUsers()) {
-			if (this.stoppingPose != null) {
-				userTracker.stopPoseDetection(user.getId(), stoppingPose);
+		stopRecordingUsers(pose == null ? null : GestureTrigger.pose(pose));
+	}
+
+	/**
+	 * Stop recording the user movements when an user held the gesture
+	 * informed.
+	 * 
+	 * @param trigger
+	 *            The gesture to be detected, or null to stop the recording
+	 *            only by {@link #stopRecordingUsers()}.
+	 */
+	public synchronized void stopRecordingUsers(GestureTrigger trigger) {
+		setPoseDetection(stoppingTrigger, trigger, startingTrigger);
+		this.stoppingTrigger = trigger;
+	}
+
+	/**
+	 * Change the poses detected by NiTE for the users of the current frame,
+	 * when a trigger is replaced.
+	 * 
+	 * @param old
+	 *            The trigger replaced, or null.
+	 * @param trigger
+	 *            The new trigger, or null.
+	 * @param other
+	 *            The other trigger, whose pose must still be detected.
+	 */
+	private void setPoseDetection(GestureTrigger old, GestureTrigger trigger, GestureTrigger other) {
+		PoseType oldPose = old == null ? null : old.getPose();
+		PoseType newPose = trigger == null ? null : trigger.getPose();
+		PoseType otherPose = other == null ? null : other.getPose();
+		for (int i = 0; frame != null && i < frame.getUserCount(); i++) {
+			if (oldPose != null && oldPose != newPose && oldPose != otherPose) {
+				source.stopPoseDetection(frame.getId(i), oldPose);
+			}
+			if (newPose != null) {
+				source.startPoseDetection(frame.getId(i), newPose);
+			}
+		}
+	}
+
+	/**
+	 * Set what happens when the frames arrive faster than they can be
+	 * recorded. The frames waiting to be recorded are discarded, so it should
+	 * be called while nothing is being recorded.
+	 * 
+	 * @param policy
+	 *            The policy used by the color and the depth streams.
+	 */
+	public void setBackpressurePolicy(BackpressurePolicy policy) {
+		DropPolicy color, depth;
+		switch (policy) {
+		case DROP_OLDEST:
+			color = depth = DropPolicy.DROP_OLDEST;
+			break;
+		case DROP_NEWEST:
+			color = depth = DropPolicy.DROP_NEWEST;
+			break;
+		case DECIMATE_COLOR:
+			color = DropPolicy.DECIMATE;
+			depth = DropPolicy.BLOCK;
+			break;
+		default:
+			color = depth = DropPolicy.BLOCK;
+		}
+		imgColor.setPipelinePolicy(RECORD_CAPACITY, color, DISPLAY_CAPACITY, DropPolicy.DROP_OLDEST);
+		imgDepth.setPipelinePolicy(RECORD_CAPACITY, depth, DISPLAY_CAPACITY, DropPolicy.DROP_OLDEST);
+		/* The segmentation follows the depth frames, which have the same timestamps */
+		segmentationPolicy = depth;
+		this.policy = policy;
+	}
+
+	public BackpressurePolicy getBackpressurePolicy() {
+		return policy;
+	}
+
+	/**
+	 * Set the codec used to compress the frames of one stream, both in memory
+	 * and on the disk. The frames are compressed by a pool of threads, apart
+	 * from the thread which records them. The codec is used from the next
+	 * take, or at once if nothing was recorded yet.
+	 * 
+	 * @param stream
+	 *            The stream. Please, use the constants {@link Frame}.COLOR or
+	 *            {@link Frame}.DEPTH.
+	 * @param codec
+	 *            The codec, or null to keep the frames as they are captured.
+	 */
+	public void setCodec(int stream, FrameCodec codec) {
+		if (stream == Frame.COLOR) {
+			imgColor.setCodec(codec);
+		} else if (stream == Frame.DEPTH) {
+			imgDepth.setCodec(codec);
+		}
+	}
+
+	/**
+	 * Choose how the movements are written to the disk: as text or compressed
+	 * by {@link br.edu.ifsp.capturer.SkeletonCodec}.
+	 * 
+	 * @param compress
+	 *            true to compress the movements, false to write them as text.
+	 */
+	public void setCompressSkeleton(boolean compress) {
+		this.compressSkeleton = compress;
+	}
+
+	public boolean isCompressSkeleton() {
+		return compressSkeleton;
+	}
+
+	/**
+	 * Get the codec used to compress the frames of one stream.
+	 * 
+	 * @return The codec, or null if the frames are kept as they are captured.
+	 */
+	public FrameCodec getCodec(int stream) {
+		if (stream == Frame.COLOR) {
+			return imgColor.getCodec();
+		} else if (stream == Frame.DEPTH) {
+			return imgDepth.getCodec();
+		}
+		return null;
+	}
+
+	/**
+	 * Set the biggest amount of bytes of frames and skeletons kept in memory,
+	 * and what happens when the recording reaches it.
+	 * 
+	 * @param bytes
+	 *            The budget, in bytes, or 0 for no budget.
+	 * @param policy
+	 *            What happens when the budget is reached.
+	 * @param spillDirectory
+	 *            Where the recording is written when the policy is SPILL. A
+	 *            new directory is created inside it.
+	 */
+	public void setMemoryBudget(long bytes, BudgetPolicy policy, File spillDirectory) {
+		this.budgetPolicy = policy;
+		this.spillDirectory = spillDirectory;
+		this.memoryBudget = bytes;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Get the amount of bytes of one stream recorded in memory.
+	 * 
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 * @return The amount of bytes retained by the stream.
+	 */
+	public long getRetainedBytes(int stream) {
+		switch (stream) {
+		case Frame.COLOR:
+			return imgColor.getRetainedBytes();
+		case Frame.DEPTH:
+			return imgDepth.getRetainedBytes();
+		case Frame.SEGMENTATION:
+			return seg.getRetainedBytes();
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the amount of bytes of the movements of all the users.
+	 */
+	public long getSkeletonRetainedBytes() {
+		return coor.getRetainedBytes();
+	}
+
+	/**
+	 * Get the amount of bytes of all the streams recorded in memory.
+	 */
+	public long getRetainedBytes() {
+		return imgColor.getRetainedBytes() + imgDepth.getRetainedBytes() + seg.getRetainedBytes()
+				+ coor.getRetainedBytes();
+	}
+
+	/**
+	 * Get the latency of each stage of the frames, since the last recording
+	 * started. The latency is also shown when the recording stops.
+	 * 
+	 * @return The latency of the stages.
+	 */
+	public LatencyStats getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Get the counters of one stream since the capture started. The frames
+	 * dropped are the ones discarded by the record stage, by the
+	 * synchronizer, or refused by the writer. The frames late are the ones
+	 * which arrived with a timestamp not newer than the previous one, and, for
+	 * the color stream, the ones which arrived after their depth frame was
+	 * recorded.
+	 * 
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 * @return A copy of the counters of the stream.
+	 */
+	public StreamCounters getCounters(int stream) {
+		long dropped = rejected.get(stream), lateFrames = late.get(stream);
+		if (stream == Frame.COLOR) {
+			dropped += imgColor.getDropped() + sync.getDropped();
+			lateFrames += sync.getLate();
+		} else if (stream == Frame.DEPTH) {
+			dropped += imgDepth.getDropped();
+		} else {
+			FramePipeline pipeline = segmentationPipeline;
+			if (pipeline != null) {
+				dropped += pipeline.getDropped();
 			}
-			if (pose != null)
-				if (startRecordingUsers) {
-					userTracker.startPoseDetection(user.getId(), pose);
-				}
 		}
-		this.stoppingPose = pose;
+		return new StreamCounters(stream, received.get(stream), recorded.get(stream), dropped, lateFrames);
+	}
+
+	/**
+	 * Get the counters of the streams color, depth and segmentation.
+	 */
+	public StreamCounters[] getCounters() {
+		return new StreamCounters[] { getCounters(Frame.COLOR), getCounters(Frame.DEPTH),
+				getCounters(Frame.SEGMENTATION) };
 	}
 
 	public CaptureData getRecordedData() {
 		CaptureData data = new CaptureData();
 
-		data.setWidth(videoColor.getVideoMode().getResolutionX());
-		data.setHeight(videoColor.getVideoMode().getResolutionY());
-		data.setFps(videoColor.getVideoMode().getFps());
+		data.setWidth(colorWidth);
+		data.setHeight(colorHeight);
+		data.setFps(source.getFps());
 
-		data.setTimestamp(timestamp);
+		data.setProjection(coor.getProjection());
 
 		data.setSegmentation(seg.getRecordedData());
 
 		data.setImageDepth(imgDepth.getRecordedData());
 		data.setImageColor(imgColor.getRecordedData());
 
-		Map<Short, Map<Long, Float[][]>> depth = coor.getRecordedDepthData();
-		Short idShort = null;
-		int maxValue = -1;
-		for (Short id : depth.keySet()) {
-			if (depth.get(id).size() > maxValue) {
-				idShort = id;
-			}
+		/*
+		 * The tracks are copied and sorted, since the skeletons of the
+		 * pre-roll buffer can be stored after newer ones. The main user is the
+		 * one with more frames.
+		 */
+		data.setUserTracks(coor.getTracks());
+
+		/*
+		 * The segmentation and the skeleton have the same timestamp of the
+		 * depth frame, so they are joined to the composite frames here.
+		 */
+		List<CompositeFrame> recorded;
+		synchronized (frames) {
+			recorded = new ArrayList<>(frames);
 		}
+		Collections.sort(recorded, new Comparator<CompositeFrame>() {
 
-		data.setCoordinateDepth(coor.getRecordedDepthData().get(idShort));
-		data.setCoordinateReal(coor.getRecordedRealData().get(idShort));
+			@Override
+			public int compare(CompositeFrame o1, CompositeFrame o2) {
+				return Long.compare(o1.getTimestamp(), o2.getTimestamp());
+			}
+		});
+		Set<Long> timestamp = new TreeSet<>();
+		Map<Long, Frame> segmentation = seg.getRecordedFrames();
+		for (CompositeFrame frame : recorded) {
+			frame.setSegmentation(segmentation.get(frame.getTimestamp()));
+			if (data.getSkeletonDepth() != null) {
+				frame.setSkeleton(data.getSkeletonDepth().indexOf(frame.getTimestamp()));
+			}
+			timestamp.add(frame.getTimestamp());
+		}
+		data.setFrames(recorded);
+		data.setTimestamp(timestamp);
 		return data;
 	}
 
+	private static List<CompositeFrame> createFramesStructure() {
+		return Collections.synchronizedList(new ArrayList<CompositeFrame>());
+	}
+
 	/**
 	 * Get the amount of frames stored. This method identify what user has more
 	 * frames stored, and return the amount of frames for this user.
@@ -485,7 +1000,107 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	 * @return The amount of frames stored to the user who has more frames
 	 */
 	public int getFramesCount() {
-		return timestamp.size();
+		if (writer != null) {
+			/* The frames recorded before the recording was spilled */
+			return frames.size() + streamedFrames;
+		}
+		return frames.size();
+	}
+
+	/**
+	 * Write the frames to the disk while they are recorded, instead of keeping
+	 * them in memory. The segmentation is written by a stage of its own, with
+	 * the policy of the depth stream. The skeletons are kept in memory and
+	 * written by {@link #finishStreaming()}.
+	 * 
+	 * @param directory
+	 *            The directory of the recording. It must not exist.
+	 * @param window
+	 *            The amount of frames that can wait to be written.
+	 * @throws IOException
+	 *             If the directories of the recording could not be created.
+	 */
+	public synchronized void startStreaming(File directory, int window) throws IOException {
+		if (writer != null) {
+			throw new IllegalStateException("The recording is already being written to " + writer.getDirectory());
+		}
+		RecordingWriter writer = new RecordingWriter(directory, window);
+		writer.setCodec(Frame.COLOR, imgColor.getCodec());
+		writer.setCodec(Frame.DEPTH, imgDepth.getCodec());
+		writer.setCompressCoordinates(compressSkeleton);
+		writer.start();
+		streamedFrames = 0;
+		this.writer = writer;
+
+		FramePipeline pipeline = new FramePipeline("Segmentation");
+		pipeline.addStage("write", segmentationWriter, RECORD_CAPACITY, segmentationPolicy);
+		pipeline.start();
+		segmentationPipeline = pipeline;
+	}
+
+	/**
+	 * Wait until all the frames are written, write the data kept in memory and
+	 * delete it. The take being recorded ends here, so the frames captured
+	 * after it are not lost when the data is deleted. The frames still
+	 * waiting in the record stages and in the synchronizer are written first.
+	 * It waits for the disk, so it must not be called by the thread of the
+	 * user interface.
+	 * 
+	 * @return The directory of the recording, or null if the recording was not
+	 *         being written to the disk.
+	 * @throws IOException
+	 *             If any file of the recording could not be written.
+	 */
+	public File finishStreaming() throws IOException {
+		RecordingWriter writer = this.writer;
+		if (writer == null) {
+			return null;
+		}
+		/* The frames received until now still go to the writer */
+		try {
+			imgColor.drain();
+			imgDepth.drain();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		FramePipeline pipeline;
+		synchronized (this) {
+			if (this.writer != writer) {
+				return null;
+			}
+			if (startRecordingUsers) {
+				stopRecording();
+			} else {
+				sync.flush();
+			}
+			this.writer = null;
+			pipeline = segmentationPipeline;
+			segmentationPipeline = null;
+		}
+		/* The segmentation still waiting is stored, and written by finish */
+		try {
+			pipeline.drain();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pipeline.stop();
+		rejected.addAndGet(Frame.SEGMENTATION, pipeline.getDropped());
+		try {
+			writer.finish(getRecordedData());
+		} finally {
+			clearMoviments();
+		}
+		return writer.getDirectory();
+	}
+
+	/**
+	 * Check the frames are being written to the disk.
+	 * 
+	 * @return true if the frames are being written to the disk, false
+	 *         otherwise.
+	 */
+	public boolean isStreaming() {
+		return writer != null;
 	}
 
 	/**
@@ -493,7 +1108,12 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	 * stored.
 	 */
 	public void clearMoviments() {
-		timestamp = new TreeSet<>();
+		overBudget = false;
+		synchronized (frames) {
+			storedColor = null;
+			writtenColor = Long.MIN_VALUE;
+		}
+		frames = createFramesStructure();
 		coor.clearRecordedData();
 		seg.clearRecordedData();
 		imgColor.clearRecordedData();
@@ -502,7 +1122,8 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 
 	/**
 	 * Get the seconds remaining to start storing the movements. Useful when a
-	 * chronometer has already been started. Use the class
+	 * chronometer has already been started. The chronometer counts the time of
+	 * the frames, so it follows the recording when the frames are replayed. Use the class
 	 * {@link Capture.StateChangedListener} to receive more informations.
 	 * 
 	 * @return The seconds remaining to start storing the movements.
@@ -534,114 +1155,79 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 	}
 
 	/**
-	 * Check if the user informed was already tracked.
+	 * Check if the user informed was already tracked. The users lost are not
+	 * informed by the {@link FrameSource}, which also stops tracking them.
 	 * 
+	 * @param frame
+	 *            The current frame.
 	 * @param user
-	 *            User to check.
+	 *            The index of the user to check.
 	 * @return true if the user was tracked, false otherwise.
 	 */
-	private boolean isUserTracked(UserData user) {
-
-		/*
-		 * Check if the user was in the previous frame, but no longer in this
-		 * one
-		 */
-		if (user.isLost()) {
-
-			/* Stop tracking this user */
-			userTracker.stopSkeletonTracking(user.getId());
-
-			/*
-			 * If there is a startingPose, stop detecting this pose for this
-			 * user
-			 */
-			if (startingPose != null) {
-				userTracker.stopPoseDetection(user.getId(), startingPose);
-			}
-
-			/*
-			 * If there is a stoppingPose, stop detecting this pose for this
-			 * user
-			 */
-			if (stoppingPose != null) {
-				userTracker.stopPoseDetection(user.getId(), stoppingPose);
-			}
-			return false;
-		}
-
-		/* If the user is not visible */
-		if (!user.isVisible()) {
-			return false;
-		}
-
-		/* Start tracking this user */
-		userTracker.startSkeletonTracking(user.getId());
+	private boolean isUserTracked(UserFrame frame, int user) {
 
 		/* Check if the user was not in the previous frame */
-		if (user.isNew()) {
-
-			/* Start tracking this user */
-			userTracker.startSkeletonTracking(user.getId());
+		if (frame.isNew(user)) {
 
 			/*
-			 * If there is a startingPose and the system is not recording the
-			 * user moves
+			 * The poses of both triggers are always detected, so the triggers
+			 * know for how long each pose is held.
 			 */
-			if (startingPose != null && !startRecordingUsers) {
-				userTracker.startPoseDetection(user.getId(), startingPose);
+			if (startingTrigger != null && startingTrigger.getPose() != null) {
+				source.startPoseDetection(frame.getId(user), startingTrigger.getPose());
 			}
-
-			/*
-			 * If there is a stoppingPose and the system is recording the user
-			 * moves
-			 */
-			if (stoppingPose != null && startRecordingUsers) {
-				userTracker.startPoseDetection(user.getId(), stoppingPose);
+			if (stoppingTrigger != null && stoppingTrigger.getPose() != null) {
+				source.startPoseDetection(frame.getId(user), stoppingTrigger.getPose());
 			}
 
 			return false;
 		}
 
 		/* If the user was not tracked yet */
-		if (user.getSkeleton().getState() != SkeletonState.TRACKED) {
-			return false;
-		}
-		return true;
+		return frame.isTracked(user);
 	}
 
 	/**
-	 * This class is an implementation of the class {@link Runnable}. It is used
-	 * as a chronometer, which will decrease the seconds of the seconds
-	 * remaining.
+	 * What happens when the frames arrive faster than they can be recorded.
+	 * The frames are shown with their own queue, which is not changed.
 	 * 
 	 * @author Matheus da Silva Ferreira
 	 *
 	 */
-	private class Timer implements Runnable {
-
-		@Override
-		public void run() {
-			/* If the seconds remaining are greater than 0 */
-			while (secondsRemaining > 0) {
-
-				/*
-				 * Call the client's listener that are waiting for some events.
-				 */
-				if (stateChanged != null) {
-					stateChanged.stateChanged(StateChangedListener.TIMER_CHANGED);
-				}
-
-				/* This thread will sleep for one second */
-				try {
-					Thread.sleep(1_000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+	public static enum BackpressurePolicy {
+		/** The thread of the sensor waits until the frame can be recorded. */
+		BLOCK,
+		/** The oldest frame waiting to be recorded is discarded. */
+		DROP_OLDEST,
+		/** The newest frame is discarded. */
+		DROP_NEWEST,
+		/**
+		 * While the color frames are late, one of every two color frames is
+		 * discarded, and the depth frames are never discarded.
+		 */
+		DECIMATE_COLOR
+	}
 
-				/* Decrease 1 second of the seconds remaining. */
-				secondsRemaining--;
-			}
-		}
+	/**
+	 * What happens when the frames kept in memory reach the budget.
+	 * 
+	 * @author Matheus da Silva Ferreira
+	 *
+	 */
+	public static enum BudgetPolicy {
+		/** The recording stops. */
+		STOP,
+		/**
+		 * The next frames are written to the disk, and the frames already in
+		 * memory are written when the recording is saved.
+		 */
+		SPILL,
+		/**
+		 * The depth frames already in memory and the next ones are compressed
+		 * without losses. If the budget is reached again, the recording
+		 * stops.
+		 */
+		COMPRESS
 	}
 
 	/**
@@ -657,6 +1243,8 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 		public static final int RECORDING_STOPPED = 1;
 		public static final int TIMER_CHANGED = 2;
 		public static final int NEW_DATA_ARRIVED = 3;
+		public static final int COUNTERS_CHANGED = 4;
+		public static final int BUDGET_REACHED = 5;
 
 		/**
 		 * The method that will be called every time that a new event happens.
@@ -673,6 +1261,10 @@ public class Capture implements UserTracker.NewFrameListener, VideoStream.NewFra
 		 *            <li>BodyCoordinate.StateChangedListener.TIMER_CHANGED</li>
 		 *            <li>BodyCoordinate.StateChangedListener.
 		 *            NEW_SKELETON_STORED</li>
+		 *            <li>BodyCoordinate.StateChangedListener.COUNTERS_CHANGED
+		 *            </li>
+		 *            <li>BodyCoordinate.StateChangedListener.BUDGET_REACHED
+		 *            </li>
 		 *            </ul>
 		 */
 		public void stateChanged(int value);
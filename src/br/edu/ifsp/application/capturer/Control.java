@@ -3,6 +3,7 @@ package br.edu.ifsp.application.capturer;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
+import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.GridLayout;
@@ -11,15 +12,18 @@ import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JSpinner;
@@ -30,9 +34,12 @@ import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
-import com.primesense.nite.PoseType;
-
+import br.edu.ifsp.capturer.ColorCodec;
+import br.edu.ifsp.capturer.DepthCodec;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.GestureTrigger;
 import br.edu.ifsp.capturer.ShowObject;
+import br.edu.ifsp.capturer.StreamCounters;
 import br.edu.ifsp.util.Save;
 
 public class Control extends JFrame implements ItemListener, ActionListener, ChangeListener {
@@ -42,14 +49,21 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 	private Capture capture;
 	private Capture.StateChangedListener stateChanged;
 
-	private String poseOptions[] = new String[] { "Manual", "Crossed Hands", "PSI" };
+	private String poseOptions[] = getPoseOptions();
 	private JComboBox<String> cbStartingPose = new JComboBox<String>(poseOptions);
 	private JComboBox<String> cbStoppingPose = new JComboBox<String>(poseOptions);
+	private JComboBox<Capture.BackpressurePolicy> cbPolicy = new JComboBox<Capture.BackpressurePolicy>(
+			Capture.BackpressurePolicy.values());
 	private JPanel pnTimer, pnCameras, pnSetup, pnRecord, pnSave;
 	private JRadioButton rbColor, rbDepth, rbIr;
 	private ButtonGroup btCamerasGroup;
-	private JSpinner sSeconds;
+	private JSpinner sSeconds, sPreRoll, sBudget;
+	private JComboBox<String> cbColorCodec = new JComboBox<String>(
+			new String[] { "None", "PNG (lossless)", "JPEG 95%", "JPEG 85%", "JPEG 70%" });
+	private JComboBox<Capture.BudgetPolicy> cbBudgetPolicy = new JComboBox<Capture.BudgetPolicy>(
+			Capture.BudgetPolicy.values());
 	private JButton btStart, btStop, btSave, btClear;
+	private JCheckBox ckStream, ckCompressDepth, ckCompressSkeleton;
 	private JLabel lblSeconds, lblCount;
 
 	public Control() {
@@ -60,7 +74,7 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		setLocation(camera.getLocation().x + camera.getWidth(), camera.getLocation().y);
-		setSize(500, 375);
+		setSize(500, 640);
 		setVisible(true);
 	}
 
@@ -87,6 +101,9 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 				case Capture.StateChangedListener.RECORDING_STOPPED:
 					lblSeconds.setText("\u25A0");
 					view.setStatus("\u25A0");
+					/* The latency of the take, shown over the counters */
+					lblCount.setToolTipText(
+							"<html>" + capture.getLatency().toString().replace("\n", "<br>") + "</html>");
 
 					cbStartingPose.setEnabled(true);
 					btStart.setEnabled(true);
@@ -103,6 +120,12 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 					btStop.setEnabled(false);
 					break;
 				case Capture.StateChangedListener.NEW_DATA_ARRIVED:
+				case Capture.StateChangedListener.COUNTERS_CHANGED:
+					statusBar();
+					break;
+				case Capture.StateChangedListener.BUDGET_REACHED:
+					ckStream.setSelected(capture.isStreaming());
+					ckCompressDepth.setSelected(capture.getCodec(Frame.DEPTH) != null);
 					statusBar();
 					break;
 				}
@@ -112,11 +135,36 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 	}
 
 	private void statusBar() {
-		Runtime run = Runtime.getRuntime();
-		long used = (run.maxMemory() - run.freeMemory());
-		double p = (100 * used / run.maxMemory());
-		lblCount.setText(
-				"Frames: " + capture.getFramesCount() + " | Memory:  " + (used / 1_048_576) + " Mb (" + (p) + "%)");
+		StreamCounters color = capture.getCounters(Frame.COLOR), depth = capture.getCounters(Frame.DEPTH);
+		String budget = capture.getMemoryBudget() > 0 ? " of " + megabytes(capture.getMemoryBudget()) : "";
+		lblCount.setText("<html>Frames: " + capture.getFramesCount() + " | Dropped: " + color.getDropped()
+				+ " color, " + depth.getDropped() + " depth | Late: " + color.getLate() + "<br>Memory: "
+				+ megabytes(capture.getRetainedBytes()) + budget + " (Color "
+				+ megabytes(capture.getRetainedBytes(Frame.COLOR)) + ", Depth "
+				+ megabytes(capture.getRetainedBytes(Frame.DEPTH)) + ", Segmentation "
+				+ megabytes(capture.getRetainedBytes(Frame.SEGMENTATION)) + ", Skeleton "
+				+ megabytes(capture.getSkeletonRetainedBytes()) + ")</html>");
+	}
+
+	private static String megabytes(long bytes) {
+		return String.format("%.1f MB", bytes / 1_048_576.0);
+	}
+
+	private ColorCodec getColorCodec() {
+		String option = (String) cbColorCodec.getSelectedItem();
+		if (option.startsWith("PNG")) {
+			return ColorCodec.png();
+		} else if (option.startsWith("JPEG")) {
+			return ColorCodec.jpeg(Integer.parseInt(option.replaceAll("[^0-9]", "")) / 100f);
+		}
+		return null;
+	}
+
+	private void memoryBudget() {
+		long megabytes = (int) sBudget.getValue();
+		capture.setMemoryBudget(megabytes * 1_048_576, (Capture.BudgetPolicy) cbBudgetPolicy.getSelectedItem(),
+				new File(System.getProperty("user.home")));
+		statusBar();
 	}
 
 	private void initializeComponentsForm() {
@@ -127,7 +175,7 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 		pnTimer = new JPanel(new GridLayout(1, 1, 0, 0));
 		pnSetup = new JPanel(new BorderLayout(0, 0));
 		pnCameras = new JPanel(new FlowLayout(FlowLayout.LEADING, 0, 0));
-		pnRecord = new JPanel(new GridLayout(8, 1, 0, 1));
+		pnRecord = new JPanel(new GridLayout(12, 1, 0, 1));
 		JPanel pnStatus = new JPanel(new BorderLayout());
 		pnSave = new JPanel(new GridLayout(0, 1));
 		rbColor = new JRadioButton("Color");
@@ -135,10 +183,15 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 		rbIr = new JRadioButton("IR");
 		btCamerasGroup = new ButtonGroup();
 		sSeconds = new JSpinner(new SpinnerNumberModel(5, 0, null, 1));
+		sPreRoll = new JSpinner(new SpinnerNumberModel(2, 0, 10, 1));
+		sBudget = new JSpinner(new SpinnerNumberModel(0, 0, null, 256));
 		btStart = new JButton("Start Recording");
 		btStop = new JButton("Stop Recording");
 		btSave = new JButton("Save");
 		btClear = new JButton("Clear");
+		ckStream = new JCheckBox("Stream to disk");
+		ckCompressDepth = new JCheckBox("Compress depth (lossless)");
+		ckCompressSkeleton = new JCheckBox("Compress skeleton");
 		lblSeconds = new JLabel();
 		lblCount = new JLabel("Frames: 0");
 
@@ -148,11 +201,20 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 		rbIr.addItemListener(this);
 		cbStartingPose.addItemListener(this);
 		cbStoppingPose.addItemListener(this);
+		cbPolicy.addItemListener(this);
 		btStart.addActionListener(this);
 		btStop.addActionListener(this);
 		btSave.addActionListener(this);
 		btClear.addActionListener(this);
+		ckStream.addActionListener(this);
+		ckCompressDepth.addActionListener(this);
+		ckCompressSkeleton.addActionListener(this);
+		cbColorCodec.addItemListener(this);
 		sSeconds.addChangeListener(this);
+		sPreRoll.addChangeListener(this);
+		sBudget.addChangeListener(this);
+		cbBudgetPolicy.addItemListener(this);
+		capture.setPreRoll((int) sPreRoll.getValue());
 
 		// Basic configurations
 		rbColor.setSelected(true);
@@ -181,10 +243,14 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 
 		pnRecord.add(new JLabel("Seconds:"));
 		pnRecord.add(sSeconds);
+		pnRecord.add(new JLabel("Pre-roll Seconds:"));
+		pnRecord.add(sPreRoll);
 		pnRecord.add(new JLabel("Start Recording Pose:"));
 		pnRecord.add(cbStartingPose);
 		pnRecord.add(new JLabel("Stop Recording Pose:"));
 		pnRecord.add(cbStoppingPose);
+		pnRecord.add(new JLabel("When Frames Are Late:"));
+		pnRecord.add(cbPolicy);
 		pnRecord.add(btStart);
 		pnRecord.add(btStop);
 
@@ -198,6 +264,14 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 		c.add(BorderLayout.SOUTH, pnStatus);
 
 		pnSave.setBorder(new TitledBorder("Save"));
+		pnSave.add(new JLabel("Memory Budget (MB, 0 for none):"));
+		pnSave.add(sBudget);
+		pnSave.add(cbBudgetPolicy);
+		pnSave.add(ckCompressDepth);
+		pnSave.add(ckCompressSkeleton);
+		pnSave.add(new JLabel("Color Compression:"));
+		pnSave.add(cbColorCodec);
+		pnSave.add(ckStream);
 		pnSave.add(btSave);
 		pnSave.add(btClear);
 		pnSetup.add(BorderLayout.SOUTH, pnSave);
@@ -226,31 +300,51 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 		} else if (ie.getSource() == cbStoppingPose) {
 			// btStop.setEnabled(cbStoppingPose.getSelectedItem().equals("Manual"));
 			stoppingPoseDetection();
+
+		} else if (ie.getSource() == cbColorCodec) {
+			/* Used from the next take, if something was already recorded */
+			capture.setCodec(Frame.COLOR, getColorCodec());
+
+		} else if (ie.getSource() == cbBudgetPolicy) {
+			memoryBudget();
+
+		} else if (ie.getSource() == cbPolicy) {
+			capture.setBackpressurePolicy((Capture.BackpressurePolicy) cbPolicy.getSelectedItem());
 		}
 	}
 
+	/**
+	 * The option "Manual" followed by the gestures known by
+	 * {@link GestureTrigger}.
+	 */
+	private static String[] getPoseOptions() {
+		String presets[] = GestureTrigger.getPresetNames();
+		String options[] = new String[presets.length + 1];
+		options[0] = "Manual";
+		System.arraycopy(presets, 0, options, 1, presets.length);
+		return options;
+	}
+
 	private void startingPoseDetection() {
-		if (cbStartingPose.getSelectedItem().equals("Crossed Hands")) {
-			capture.startRecordingUsers(PoseType.CROSSED_HANDS, (int) sSeconds.getValue());
-		} else if (cbStartingPose.getSelectedItem().equals("PSI")) {
-			capture.startRecordingUsers(PoseType.PSI, (int) sSeconds.getValue());
-		} else if (cbStartingPose.getSelectedItem().equals("Manual")) {
-			capture.startRecordingUsers(null, (int) sSeconds.getValue());
-		}
+		/* The option "Manual" has no gesture, so the trigger is null */
+		capture.startRecordingUsers(GestureTrigger.forName((String) cbStartingPose.getSelectedItem()),
+				(int) sSeconds.getValue());
 	}
 
 	private void stoppingPoseDetection() {
-		if (cbStoppingPose.getSelectedItem().equals("Crossed Hands")) {
-			capture.stopRecordingUsers(PoseType.CROSSED_HANDS);
-		} else if (cbStoppingPose.getSelectedItem().equals("PSI")) {
-			capture.stopRecordingUsers(PoseType.PSI);
-		} else if (cbStoppingPose.getSelectedItem().equals("Manual")) {
-			capture.stopRecordingUsers(null);
-		}
+		capture.stopRecordingUsers(GestureTrigger.forName((String) cbStoppingPose.getSelectedItem()));
 	}
 
 	@Override
 	public void stateChanged(ChangeEvent e) {
+		if (e.getSource() == sPreRoll) {
+			capture.setPreRoll((int) sPreRoll.getValue());
+			return;
+		}
+		if (e.getSource() == sBudget) {
+			memoryBudget();
+			return;
+		}
 		startingPoseDetection();
 	}
 
@@ -260,24 +354,89 @@ public class Control extends JFrame implements ItemListener, ActionListener, Cha
 			capture.startRecordingUsers();
 		} else if (ae.getSource() == btStop) {
 			capture.stopRecordingUsers();
+		} else if (ae.getSource() == ckStream) {
+			if (ckStream.isSelected()) {
+				startStreaming();
+			} else {
+				finishStreaming();
+			}
+		} else if (ae.getSource() == ckCompressDepth) {
+			/* Used from the next take, if something was already recorded */
+			capture.setCodec(Frame.DEPTH, ckCompressDepth.isSelected() ? new DepthCodec() : null);
+		} else if (ae.getSource() == ckCompressSkeleton) {
+			capture.setCompressSkeleton(ckCompressSkeleton.isSelected());
+		} else if (ae.getSource() == btSave && capture.isStreaming()) {
+			finishStreaming();
 		} else if (ae.getSource() == btSave) {
 			Save save = new Save();
+			save.setCompressCoordinates(capture.isCompressSkeleton());
 			File f = save.openFile(this);
 			if (f != null) {
 				save.saveFile(this, f, capture.getRecordedData());
 				save.clearData();
 			}
 		} else if (ae.getSource() == btClear) {
+			/* The buffers of the frames go back to their pools */
 			capture.clearMoviments();
-
-			Runtime run = Runtime.getRuntime();
-			run.runFinalization();
-			run.gc();
-
 			statusBar();
 		}
 	}
 
+	private void startStreaming() {
+		File f = new Save().openFile(this);
+		if (f == null) {
+			ckStream.setSelected(false);
+			return;
+		}
+		try {
+			capture.startStreaming(f, 60);
+		} catch (IOException | IllegalStateException e) {
+			ckStream.setSelected(false);
+			JOptionPane.showMessageDialog(this, "Error: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+		statusBar();
+	}
+
+	/**
+	 * Write the frames still waiting and the data kept in memory. The disk is
+	 * written by another thread, so the window is not frozen meanwhile.
+	 */
+	private void finishStreaming() {
+		ckStream.setEnabled(false);
+		btSave.setEnabled(false);
+		new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				File f = null;
+				IOException error = null;
+				try {
+					f = capture.finishStreaming();
+				} catch (IOException e) {
+					error = e;
+				}
+				final File saved = f;
+				final IOException failure = error;
+				EventQueue.invokeLater(new Runnable() {
+
+					@Override
+					public void run() {
+						if (failure != null) {
+							JOptionPane.showMessageDialog(Control.this, "Error: " + failure.getMessage(), "Error",
+									JOptionPane.ERROR_MESSAGE);
+						} else if (saved != null) {
+							JOptionPane.showMessageDialog(Control.this, "Saved in " + saved.getAbsolutePath());
+						}
+						ckStream.setSelected(false);
+						ckStream.setEnabled(true);
+						btSave.setEnabled(true);
+						statusBar();
+					}
+				});
+			}
+		}, "Control-finishStreaming").start();
+	}
+
 	public static void main(String args[]) {
 		System.out.println("Started");
 		for (javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels()) {
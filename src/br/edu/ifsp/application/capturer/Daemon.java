@@ -0,0 +1,353 @@
+package br.edu.ifsp.application.capturer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import br.edu.ifsp.capturer.ColorCodec;
+import br.edu.ifsp.capturer.DepthCodec;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameSource;
+import br.edu.ifsp.capturer.ReplayFrameSource;
+import br.edu.ifsp.capturer.SensorFrameSource;
+import br.edu.ifsp.capturer.StreamCounters;
+
+/**
+ * Record the movements of the users without a graphical interface. The
+ * frames are written to the disk while they are recorded, and nothing is
+ * shown, so no time is spent creating images.
+ * <p>
+ * The daemon is controlled by commands, one per line, read from the standard
+ * input and, optionally, from a socket which only accepts local connections:
+ * <ul>
+ * <li>start [name]: start a new recording in the directory informed;</li>
+ * <li>stop: stop recording the movements;</li>
+ * <li>save: finish writing the recording;</li>
+ * <li>clear: discard the movements not written yet;</li>
+ * <li>status: show the state of the recording, the counters of each
+ * stream and the latency of each stage;</li>
+ * <li>policy name: set what happens when the frames arrive faster than they
+ * can be recorded (block, drop_oldest, drop_newest or decimate_color);</li>
+ * <li>compress depth on|off: compress the depth frames without losses, from
+ * the next recording;</li>
+ * <li>compress color png|jpeg [quality]|off: compress the color frames as PNG,
+ * or as JPEG with the quality informed, from 1 to 100, from the next
+ * recording;</li>
+ * <li>compress skeleton on|off: write the movements compressed instead of as
+ * text;</li>
+ * <li>quit: finish the recording and close the daemon.</li>
+ * </ul>
+ * Usage: Daemon [-d directory] [-p port] [-w window] [-b seconds] [-r recording [-f]]
+ * <p>
+ * With -b, the frames of the last seconds before each start are also
+ * recorded.
+ * <p>
+ * With -r, the frames come from a recording saved before instead of a
+ * sensor. The recording is replayed once, at the speed it was recorded or, with
+ * -f, as fast as possible, written again to the directory informed, and the
+ * throughput of the pipeline is shown.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class Daemon {
+
+	private Capture capture;
+	private File directory;
+	private int window;
+	private volatile boolean running = true;
+
+	/**
+	 * Create a daemon.
+	 *
+	 * @param directory
+	 *            The directory where the recordings are created.
+	 * @param window
+	 *            The amount of frames that can wait to be written.
+	 * @param source
+	 *            Where the frames come from.
+	 */
+	public Daemon(File directory, int window, FrameSource source) {
+		this(directory, window, source, 0);
+	}
+
+	/**
+	 * Create a daemon which keeps the frames received before the recording
+	 * starts.
+	 *
+	 * @param directory
+	 *            The directory where the recordings are created.
+	 * @param window
+	 *            The amount of frames that can wait to be written.
+	 * @param source
+	 *            Where the frames come from.
+	 * @param preRoll
+	 *            The amount of seconds kept before the recording starts.
+	 */
+	public Daemon(File directory, int window, FrameSource source, int preRoll) {
+		this.directory = directory;
+		this.window = window;
+		this.capture = new Capture(null, source);
+		this.capture.setStateChanged(new Capture.StateChangedListener() {
+
+			@Override
+			public void stateChanged(int value) {
+				switch (value) {
+				case Capture.StateChangedListener.RECORDING_STARTED:
+					System.out.println("Recording started");
+					break;
+				case Capture.StateChangedListener.RECORDING_STOPPED:
+					System.out.println("Recording stopped");
+					break;
+				}
+			}
+		});
+		this.capture.setPreRoll(preRoll);
+	}
+
+	/**
+	 * Execute one command.
+	 *
+	 * @param line
+	 *            The command and its arguments.
+	 * @return The answer to the command.
+	 */
+	public synchronized String execute(String line) {
+		String[] args = line.trim().split("\\s+");
+		try {
+			switch (args[0].toLowerCase()) {
+			case "start":
+				return start(args.length > 1 ? args[1] : null);
+			case "stop":
+				capture.stopRecordingUsers();
+				return "OK " + capture.getFramesCount() + " frames";
+			case "save":
+				return save();
+			case "clear":
+				if (capture.isStreaming()) {
+					return "ERROR the recording is being written, use save";
+				}
+				capture.clearMoviments();
+				return "OK";
+			case "status":
+				StringBuilder sb = new StringBuilder();
+				sb.append("OK " + (capture.isStreaming() ? "recording" : "idle") + " " + capture.getFramesCount()
+						+ " frames, policy " + capture.getBackpressurePolicy());
+				for (StreamCounters counters : capture.getCounters()) {
+					sb.append("\n" + counters);
+				}
+				sb.append("\n" + capture.getLatency());
+				return sb.toString();
+			case "policy":
+				if (args.length < 2) {
+					return "ERROR inform the policy";
+				}
+				capture.setBackpressurePolicy(Capture.BackpressurePolicy.valueOf(args[1].toUpperCase()));
+				return "OK " + capture.getBackpressurePolicy();
+			case "compress":
+				return compress(args);
+			case "quit":
+				String answer = save();
+				running = false;
+				return answer;
+			case "":
+				return "";
+			default:
+				return "ERROR unknown command: " + args[0];
+			}
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			return "ERROR " + e.getMessage();
+		}
+	}
+
+	private String start(String name) throws IOException {
+		String answer = "OK recording";
+		if (!capture.isStreaming()) {
+			if (name == null) {
+				name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			}
+			File f = new File(directory, name);
+			capture.startStreaming(f, window);
+			answer = "OK " + f.getAbsolutePath();
+		}
+		capture.startRecordingUsers();
+		return answer;
+	}
+
+	private String compress(String[] args) {
+		if (args.length < 3) {
+			return "ERROR usage: compress depth on|off, compress color png|jpeg [quality]|off, "
+					+ "compress skeleton on|off";
+		}
+		if (args[1].equalsIgnoreCase("skeleton")) {
+			boolean on = args[2].equalsIgnoreCase("on");
+			capture.setCompressSkeleton(on);
+			return "OK skeleton " + (on ? "compressed" : "not compressed");
+		}
+		if (args[1].equalsIgnoreCase("depth")) {
+			boolean on = args[2].equalsIgnoreCase("on");
+			capture.setCodec(Frame.DEPTH, on ? new DepthCodec() : null);
+			return "OK depth " + (on ? "compressed" : "not compressed");
+		}
+		if (!args[1].equalsIgnoreCase("color")) {
+			return "ERROR unknown stream: " + args[1];
+		}
+		ColorCodec codec = null;
+		if (args[2].equalsIgnoreCase("png")) {
+			codec = ColorCodec.png();
+		} else if (args[2].equalsIgnoreCase("jpeg")) {
+			codec = ColorCodec.jpeg(args.length > 3 ? Integer.parseInt(args[3]) / 100f : ColorCodec.DEFAULT_QUALITY);
+		}
+		capture.setCodec(Frame.COLOR, codec);
+		return "OK color " + (codec == null ? "not compressed" : codec);
+	}
+
+	private String save() throws IOException {
+		capture.stopRecordingUsers();
+		File f = capture.finishStreaming();
+		return f == null ? "OK nothing to save" : "OK " + f.getAbsolutePath();
+	}
+
+	/**
+	 * Record a whole replay, and show how fast the frames were recorded.
+	 *
+	 * @param source
+	 *            The source used by this daemon.
+	 */
+	public void benchmark(ReplayFrameSource source) throws IOException, InterruptedException {
+		/*
+		 * The source starts with the capture. When it is as fast as possible,
+		 * this first replay is used to warm up the pipeline.
+		 */
+		if (!source.isRealTime()) {
+			source.waitFinished();
+		}
+		source.stop();
+		source.waitFinished();
+
+		System.out.println(execute("start"));
+		long start = System.nanoTime();
+		source.start();
+		source.waitFinished();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int frames = capture.getFramesCount();
+		System.out.println(execute("save"));
+
+		System.out.printf("%d frames replayed, %d composite frames recorded in %.3f s (%.1f frames/s)%n",
+				source.getDelivered(), frames, seconds, frames / seconds);
+		for (StreamCounters counters : capture.getCounters()) {
+			System.out.println(counters);
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Read the commands of the stream informed until it ends or the daemon is
+	 * closed.
+	 *
+	 * @param in
+	 *            The commands.
+	 * @param out
+	 *            Where the answers are written.
+	 */
+	public void serve(BufferedReader in, PrintWriter out) throws IOException {
+		String line;
+		while (running && (line = in.readLine()) != null) {
+			out.println(execute(line));
+			out.flush();
+		}
+	}
+
+	/**
+	 * Accept the local connections of the port informed, in a new thread.
+	 *
+	 * @param port
+	 *            The port.
+	 */
+	public void listen(int port) throws IOException {
+		final ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (running) {
+					try (Socket socket = server.accept()) {
+						serve(new BufferedReader(new InputStreamReader(socket.getInputStream())),
+								new PrintWriter(socket.getOutputStream()));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "Daemon-" + port);
+		thread.setDaemon(true);
+		thread.start();
+		System.out.println("Listening on " + server.getLocalSocketAddress());
+	}
+
+	public static void main(String args[]) throws IOException {
+		File directory = new File(".");
+		int port = -1;
+		int window = 60;
+		int preRoll = 0;
+		File replay = null;
+		boolean realTime = true;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-f")) {
+				realTime = false;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				break;
+			}
+			if (args[i].equals("-r")) {
+				replay = new File(args[++i]);
+			} else if (args[i].equals("-d")) {
+				directory = new File(args[++i]);
+			} else if (args[i].equals("-p")) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-b")) {
+				preRoll = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-w")) {
+				window = Integer.parseInt(args[++i]);
+			}
+		}
+
+		if (replay != null) {
+			ReplayFrameSource source = new ReplayFrameSource(replay, realTime);
+			try {
+				new Daemon(directory, window, source, preRoll).benchmark(source);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			System.exit(0);
+		}
+
+		Daemon daemon = new Daemon(directory, window, new SensorFrameSource(), preRoll);
+		if (port > 0) {
+			daemon.listen(port);
+		}
+		daemon.serve(new BufferedReader(new InputStreamReader(System.in)), new PrintWriter(System.out));
+
+		/* The standard input was closed, but the socket can still be used */
+		while (daemon.isRunning() && port > 0) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,167 @@
+package br.edu.ifsp.capturer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * A codec for the color frames, with three bytes per pixel in the order RGB,
+ * which saves them as PNG, without losses, or as JPEG, with the quality
+ * informed. The frames are encoded by the writers of {@link ImageIO}, so they
+ * can be opened by any program.
+ * <p>
+ * A frame of 640x480 pixels, which has 900 KB, has tens of KB as JPEG, so a
+ * minute of recording fits in tens of MB. The PNG frames are several times
+ * bigger and slower to encode.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class ColorCodec implements FrameCodec {
+
+	public static final float DEFAULT_QUALITY = 0.85f;
+
+	private String format, extension;
+	private float quality;
+
+	private ColorCodec(String format, String extension, float quality) {
+		this.format = format;
+		this.extension = extension;
+		this.quality = quality;
+	}
+
+	/**
+	 * Create a codec which saves the frames as PNG, without losses.
+	 */
+	public static ColorCodec png() {
+		return new ColorCodec("png", "png", 1f);
+	}
+
+	/**
+	 * Create a codec which saves the frames as JPEG.
+	 *
+	 * @param quality
+	 *            The quality of the frames, from 0 to 1.
+	 */
+	public static ColorCodec jpeg(float quality) {
+		if (quality <= 0 || quality > 1) {
+			throw new IllegalArgumentException("Invalid quality: " + quality);
+		}
+		return new ColorCodec("jpeg", "jpg", quality);
+	}
+
+	/**
+	 * Check the frames are encoded without losses.
+	 */
+	public boolean isLossless() {
+		return format.equals("png");
+	}
+
+	public float getQuality() {
+		return quality;
+	}
+
+	@Override
+	public byte[] encode(ByteBuffer pixels, int width, int height) {
+		int size = width * height * 3;
+		if (width <= 0 || height <= 0 || pixels.limit() < size) {
+			throw new IllegalArgumentException("The frame does not have " + width + "x" + height + " pixels");
+		}
+
+		/* The images of Java keep the pixels in the order BGR */
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		ByteBuffer rgb = pixels.duplicate();
+		rgb.rewind();
+		rgb.get(bgr, 0, size);
+		swap(bgr, size);
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new IllegalStateException("There is no writer of " + format);
+		}
+		/* The writers keep a state, so each frame has its own writer */
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size / 8);
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+			writer.setOutput(stream);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (!isLossless()) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(quality);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} catch (IOException e) {
+			/* The frame is written to the memory */
+			throw new IllegalStateException("Could not encode the frame", e);
+		} finally {
+			writer.dispose();
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public ByteBuffer decode(byte[] encoded) {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new ByteArrayInputStream(encoded));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("The data is not an image", e);
+		}
+		if (image == null) {
+			throw new IllegalArgumentException("The data is not an image");
+		}
+
+		int width = image.getWidth(), height = image.getHeight(), size = width * height * 3;
+		byte[] rgb;
+		if (image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			rgb = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			swap(rgb, size);
+		} else {
+			rgb = new byte[size];
+			int[] row = new int[width];
+			for (int y = 0, i = 0; y < height; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int x = 0; x < width; x++) {
+					rgb[i++] = (byte) (row[x] >> 16);
+					rgb[i++] = (byte) (row[x] >> 8);
+					rgb[i++] = (byte) row[x];
+				}
+			}
+		}
+		return ByteBuffer.wrap(rgb, 0, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Swap the first and the third bytes of each pixel, converting RGB to BGR
+	 * and back.
+	 */
+	private static void swap(byte[] pixels, int size) {
+		for (int i = 0; i < size; i += 3) {
+			byte b = pixels[i];
+			pixels[i] = pixels[i + 2];
+			pixels[i + 2] = b;
+		}
+	}
+
+	@Override
+	public String getExtension() {
+		return extension;
+	}
+
+	@Override
+	public String toString() {
+		return isLossless() ? "PNG" : "JPEG " + Math.round(quality * 100) + "%";
+	}
+}
@@ -0,0 +1,104 @@
+package br.edu.ifsp.capturer;
+
+/**
+ * All the data recorded at one instant: the depth frame, the color frame with
+ * the nearest timestamp, the segmentation of the depth frame and the skeleton
+ * of the user. The timestamp of the composite frame is the timestamp of its
+ * depth frame, which is also the timestamp of the segmentation and of the
+ * skeleton, since they are created by the middleware NiTE from the same depth
+ * frame.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class CompositeFrame {
+
+	private long timestamp;
+	private Frame color, depth, segmentation;
+	private int skeleton = -1;
+
+	/**
+	 * Create a composite frame. The composite frame keeps the references of
+	 * the frames informed, which are released by {@link #release()}.
+	 *
+	 * @param depth
+	 *            The depth frame.
+	 * @param color
+	 *            The color frame with the nearest timestamp, or null.
+	 */
+	public CompositeFrame(Frame depth, Frame color) {
+		this.depth = depth;
+		this.color = color;
+		this.timestamp = depth.getTimestamp();
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Frame getDepth() {
+		return depth;
+	}
+
+	public Frame getColor() {
+		return color;
+	}
+
+	public Frame getSegmentation() {
+		return segmentation;
+	}
+
+	public void setSegmentation(Frame segmentation) {
+		this.segmentation = segmentation;
+	}
+
+	/**
+	 * Get the index of the skeleton of this instant in the
+	 * {@link SkeletonTrack} of the recording.
+	 *
+	 * @return The index of the skeleton, or -1 if there is no skeleton.
+	 */
+	public int getSkeleton() {
+		return skeleton;
+	}
+
+	public void setSkeleton(int skeleton) {
+		this.skeleton = skeleton;
+	}
+
+	/**
+	 * Get the frame of the stream informed.
+	 *
+	 * @param stream
+	 *            Please, use the constants {@link Frame}.COLOR,
+	 *            {@link Frame}.DEPTH or {@link Frame}.SEGMENTATION.
+	 * @return The frame, or null if there is no frame of this stream.
+	 */
+	public Frame getFrame(int stream) {
+		switch (stream) {
+		case Frame.COLOR:
+			return color;
+		case Frame.DEPTH:
+			return depth;
+		case Frame.SEGMENTATION:
+			return segmentation;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Release the references of the frames kept by this composite frame.
+	 */
+	public void release() {
+		if (depth != null) {
+			depth.release();
+		}
+		if (color != null) {
+			color.release();
+		}
+		if (segmentation != null) {
+			segmentation.release();
+		}
+	}
+}
@@ -36,10 +36,18 @@ public class Coordinate implements UserTracker.NewFrameListener {
 
 	private UserTracker userTracker = null;
 	private UserTrackerFrameRef frame;
-	private Map<Short, Map<Long, Float[][]>> coordinatesDepth = null;
-	private Map<Short, Map<Long, Float[][]>> coordinatesReal = null;
-	private boolean startRecordingUsers = false;
+	private UserTracks tracks = new UserTracks();
+	private volatile boolean startRecordingUsers = false;
 	private ShowObject view = null;
+	private DepthProjection projection = null;
+	private LatencyStats latency;
+
+	private static final JointType[] JOINT_TYPES = JointType.values();
+	private float[] jointsReal = new float[SkeletonTrack.FRAME_SIZE];
+	private float[] jointsDepth = new float[SkeletonTrack.FRAME_SIZE];
+	private float[] jointsConfidence = new float[SkeletonTrack.JOINTS];
+	@SuppressWarnings("unchecked")
+	private Point3D<Float>[] positions = (Point3D<Float>[]) new Point3D<?>[SkeletonTrack.JOINTS];
 
 	/**
 	 * Default Constructor
@@ -57,8 +65,6 @@ public class Coordinate implements UserTracker.NewFrameListener {
 	 *            The object used to show the images created by the sensor.
 	 */
 	public Coordinate(ShowObject view) {
-		this.coordinatesDepth = createUserStructure();
-		this.coordinatesReal = createUserStructure();
 		this.view = view;
 	}
 
@@ -79,7 +85,7 @@ public class Coordinate implements UserTracker.NewFrameListener {
 	 * 
 	 * @return The Map which store the movements of all user.
 	 */
-	public static Map<Short, Map<Long, Float[][]>> createUserStructure() {
+	public static Map<Short, SkeletonTrack> createUserStructure() {
 		return new HashMap<>();
 	}
 
@@ -104,6 +110,23 @@ public class Coordinate implements UserTracker.NewFrameListener {
 		this.view = view;
 	}
 
+	/**
+	 * Set the projection model of the depth camera. When it is informed, the
+	 * joints are converted to the depth coordinate system without calling the
+	 * middleware NiTE for each joint.
+	 * 
+	 * @param projection
+	 *            The projection model of the depth camera, or null to use the
+	 *            middleware NiTE.
+	 */
+	public void setProjection(DepthProjection projection) {
+		this.projection = projection;
+	}
+
+	public DepthProjection getProjection() {
+		return projection;
+	}
+
 	/**
 	 * Method called every time that a new frame was created by the NiTE
 	 * middleware.
@@ -138,80 +161,202 @@ public class Coordinate implements UserTracker.NewFrameListener {
 		this.frame.release();
 	}
 
+	/**
+	 * Read the joints of the user informed, store them if the recording is
+	 * allowed, and feed the {@link ShowObject} object with the newest data.
+	 * The coordinates are written in arrays owned by this object, so no
+	 * structure is created for each frame.
+	 * 
+	 * @param userTracker
+	 *            The tracker that created the frame.
+	 * @param user
+	 *            The user whose joints will be read.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param width
+	 *            The width of the depth frame.
+	 * @param height
+	 *            The height of the depth frame.
+	 */
 	public synchronized void getUserJoints(UserTracker userTracker, UserData user, long timestamp, int width, int height) {
-		/* Get the joints of the current user */
+		if (projection != null) {
+			projection = projection.withResolution(width, height);
+		}
+		getUserJoints(userTracker, user, jointsReal, jointsDepth, jointsConfidence);
 
-		/* Get the skeleton of the current user */
-		Skeleton skeleton = user.getSkeleton();
+		if (startRecordingUsers) {
+			record(user.getId(), timestamp, jointsReal, jointsDepth, jointsConfidence);
+		}
 
-		/* Temporary structure */
-		JointType[] jointTypes = JointType.values();
-		Float[][] depth = new Float[jointTypes.length][3];
-		Float[][] realWorld = new Float[jointTypes.length][3];
+		if (view != null) {
+			view.setUserCoordinate(user.getId(), jointsDepth, width, height);
+		}
+	}
 
-		/* For each joint available in the middleware NiTE */
-		for (int i = 0; i < jointTypes.length; i++) {
+	/**
+	 * Receive the joints of one user read by a {@link FrameSource}, store them
+	 * if the recording is allowed, and feed the {@link ShowObject} object with
+	 * the newest data.
+	 * 
+	 * @param id
+	 *            The id of the user.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param real
+	 *            The joints in the real world coordinate system.
+	 * @param offset
+	 *            The position of the first coordinate in the array real.
+	 * @param confidence
+	 *            The confidence of each joint, or null.
+	 * @param confidenceOffset
+	 *            The position of the first joint in the array confidence.
+	 * @param width
+	 *            The width of the depth frame.
+	 * @param height
+	 *            The height of the depth frame.
+	 */
+	public synchronized void setUserJoints(short id, long timestamp, float[] real, int offset, float[] confidence,
+			int confidenceOffset, int width, int height) {
+		long start = System.nanoTime();
+		if (projection == null) {
+			projection = new DepthProjection(width, height);
+		}
+		projection = projection.withResolution(width, height);
 
-			/* Get the current joint of the current user */
-			SkeletonJoint joint = skeleton.getJoint(jointTypes[i]);
+		System.arraycopy(real, offset, jointsReal, 0, SkeletonTrack.FRAME_SIZE);
+		if (confidence != null) {
+			System.arraycopy(confidence, confidenceOffset, jointsConfidence, 0, SkeletonTrack.JOINTS);
+		}
+		projection.realToDepth(jointsReal, 0, jointsDepth, 0, SkeletonTrack.JOINTS);
 
-			// Float[] system = converterCoordinateSystem(joint.getPosition());
+		if (startRecordingUsers) {
+			record(id, timestamp, jointsReal, jointsDepth, confidence == null ? null : jointsConfidence);
+		}
 
-			/*
-			 * Check if it is necessary to convert the coordinate system. It is
-			 * necessary when the client request the data in depth format, or
-			 * when a {@link ComponentViewer} object has been supplied. The
-			 * converted values will be stored in a temporary structure.
-			 */
-			Point3D<Float> point3D = joint.getPosition();
-			Point2D<Float> pointDepth = userTracker.convertJointCoordinatesToDepth(point3D);
-			depth[i][X] = pointDepth.getX();
-			depth[i][Y] = pointDepth.getY();
-			depth[i][Z] = joint.getPosition().getZ();
-
-			/*
-			 * Return the data in the coordinate format that the client wanted.
-			 * If it is in real world, the system will return the values
-			 * received by the middleware NiTE. Otherwise, it will return the
-			 * converted values which are stored in the temporary structure.
-			 */
-
-			realWorld[i][X] = joint.getPosition().getX();
-			realWorld[i][Y] = joint.getPosition().getY();
-			realWorld[i][Z] = joint.getPosition().getZ();
+		if (view != null) {
+			view.setUserCoordinate(id, jointsDepth, width, height);
 		}
-		
-		/*
-		System.out.print("");
-		for (Float[] fs : depth) {
-			System.out.print(Arrays.toString(fs));
+		if (latency != null) {
+			latency.recordSince(LatencyStats.SKELETON, start);
 		}
-		System.out.println();*/
-
-		if(startRecordingUsers){
-			//System.out.println("Skeleton Received");
-			
-			Map<Long, Float[][]> userDepth = coordinatesDepth.get(user.getId());
-			if (userDepth == null) {
-				userDepth = createMapStructure();
-				coordinatesDepth.put(user.getId(), userDepth);
-			}
-			
-			userDepth.put(timestamp, depth);
-			
-			Map<Long, Float[][]> userReal = coordinatesReal.get(user.getId());
-			if(userReal == null){
-				userReal = createMapStructure();
-				coordinatesReal.put(user.getId(), userReal);
+	}
+
+	/**
+	 * Set where the latency of the joints received is counted.
+	 * 
+	 * @param latency
+	 *            The latency of the stages, or null to count nothing.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Store the joints of one user, even if the recording is not allowed. Used
+	 * to add the joints received before the recording started.
+	 * 
+	 * @param id
+	 *            The id of the user.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param real
+	 *            The joints in the real world coordinate system.
+	 * @param offset
+	 *            The position of the first coordinate in the array real.
+	 * @param confidence
+	 *            The confidence of each joint.
+	 * @param confidenceOffset
+	 *            The position of the first joint in the array confidence.
+	 * @param width
+	 *            The width of the depth frame.
+	 * @param height
+	 *            The height of the depth frame.
+	 */
+	public synchronized void store(short id, long timestamp, float[] real, int offset, float[] confidence,
+			int confidenceOffset, int width, int height) {
+		System.arraycopy(real, offset, jointsReal, 0, SkeletonTrack.FRAME_SIZE);
+		System.arraycopy(confidence, confidenceOffset, jointsConfidence, 0, SkeletonTrack.JOINTS);
+		if (projection == null) {
+			projection = new DepthProjection(width, height);
+		}
+		projection = projection.withResolution(width, height);
+		projection.realToDepth(jointsReal, 0, jointsDepth, 0, SkeletonTrack.JOINTS);
+		record(id, timestamp, jointsReal, jointsDepth, jointsConfidence);
+	}
+
+	/**
+	 * Read the joints of the user informed into the arrays informed. Each
+	 * array must have, at least, {@link SkeletonTrack}.FRAME_SIZE positions,
+	 * in the order joint, axis. The position of each joint is read only once
+	 * from the middleware NiTE, and all the joints are converted to the depth
+	 * coordinate system together.
+	 * 
+	 * @param userTracker
+	 *            The tracker that created the frame.
+	 * @param user
+	 *            The user whose joints will be read.
+	 * @param real
+	 *            The array which will receive the coordinates in the real
+	 *            world coordinate system.
+	 * @param depth
+	 *            The array which will receive the coordinates in the depth
+	 *            coordinate system.
+	 * @param confidence
+	 *            The array which will receive the confidence of each joint, or
+	 *            null.
+	 */
+	public synchronized void getUserJoints(UserTracker userTracker, UserData user, float[] real, float[] depth,
+			float[] confidence) {
+		readJoints(user.getSkeleton(), real, confidence);
+		convertToDepth(userTracker, real, depth);
+	}
+
+	/**
+	 * Read the position of each joint of the skeleton informed.
+	 */
+	private void readJoints(Skeleton skeleton, float[] real, float[] confidence) {
+		/* For each joint available in the middleware NiTE */
+		for (int i = 0, pos = 0; i < JOINT_TYPES.length; i++) {
+
+			/* Get the current joint of the current user */
+			SkeletonJoint joint = skeleton.getJoint(JOINT_TYPES[i]);
+			Point3D<Float> point3D = joint.getPosition();
+			positions[i] = point3D;
+
+			real[pos++] = point3D.getX();
+			real[pos++] = point3D.getY();
+			real[pos++] = point3D.getZ();
+
+			if (confidence != null) {
+				confidence[i] = joint.getPositionConfidence();
 			}
-			
-			userReal.put(timestamp, realWorld);
 		}
-		
-		if (view != null) {
-			view.setUserCoordinate(depth, width, height);
+	}
+
+	/**
+	 * Convert the joints read by {@link #readJoints} to the depth coordinate
+	 * system. The axis Z is the same in both coordinate systems. When there is
+	 * a {@link DepthProjection}, the conversion is done without calling the
+	 * middleware NiTE.
+	 */
+	private void convertToDepth(UserTracker userTracker, float[] real, float[] depth) {
+		if (projection != null) {
+			projection.realToDepth(real, 0, depth, 0, SkeletonTrack.JOINTS);
+			return;
+		}
+		for (int i = 0, pos = 0; i < JOINT_TYPES.length; i++, pos += 3) {
+			Point2D<Float> pointDepth = userTracker.convertJointCoordinatesToDepth(positions[i]);
+			depth[pos + X] = pointDepth.getX();
+			depth[pos + Y] = pointDepth.getY();
+			depth[pos + Z] = real[pos + Z];
 		}
-		
+	}
+
+	/**
+	 * Store the joints of one user in the tracks of this user.
+	 */
+	private void record(short id, long timestamp, float[] real, float[] depth, float[] confidence) {
+		tracks.record(id, timestamp, real, depth, confidence);
 	}
 
 	/**
@@ -228,12 +373,67 @@ public class Coordinate implements UserTracker.NewFrameListener {
 		startRecordingUsers = false;
 	}
 
+	/**
+	 * Get the amount of bytes used to store the movements of all the users.
+	 */
+	public long getRetainedBytes() {
+		return tracks.getRetainedBytes();
+	}
+
+	/**
+	 * Get a copy of the movements stored of all the users, sorted by
+	 * timestamp. The copy is not changed by the joints recorded after it.
+	 * 
+	 * @return The tracks of all the users.
+	 */
+	public UserTracks getTracks() {
+		return tracks.snapshot();
+	}
+
+	/**
+	 * Get a copy of the movements stored, in the depth coordinate system, of
+	 * each user.
+	 * 
+	 * @return The tracks of the users, by the id of the user.
+	 */
+	public Map<Short, SkeletonTrack> getDepthTracks() {
+		UserTracks copy = getTracks();
+		Map<Short, SkeletonTrack> map = createUserStructure();
+		for (short id : copy.getUsers()) {
+			map.put(id, copy.getDepth(id));
+		}
+		return map;
+	}
+
+	/**
+	 * Get a copy of the movements stored, in the real world coordinate
+	 * system, of each user.
+	 * 
+	 * @return The tracks of the users, by the id of the user.
+	 */
+	public Map<Short, SkeletonTrack> getRealTracks() {
+		UserTracks copy = getTracks();
+		Map<Short, SkeletonTrack> map = createUserStructure();
+		for (short id : copy.getUsers()) {
+			map.put(id, copy.getReal(id));
+		}
+		return map;
+	}
+
 	public Map<Short, Map<Long, Float[][]>> getRecordedDepthData() {
-		return coordinatesDepth;
+		return asMaps(getDepthTracks());
 	}
 
 	public Map<Short, Map<Long, Float[][]>> getRecordedRealData() {
-		return coordinatesReal;
+		return asMaps(getRealTracks());
+	}
+
+	private static Map<Short, Map<Long, Float[][]>> asMaps(Map<Short, SkeletonTrack> tracks) {
+		Map<Short, Map<Long, Float[][]>> maps = new HashMap<>();
+		for (Map.Entry<Short, SkeletonTrack> entry : tracks.entrySet()) {
+			maps.put(entry.getKey(), entry.getValue().asMap());
+		}
+		return maps;
 	}
 
 	/**
@@ -251,8 +451,7 @@ public class Coordinate implements UserTracker.NewFrameListener {
 	 * stored.
 	 */
 	public void clearRecordedData() {
-		coordinatesDepth = createUserStructure();
-		coordinatesReal = createUserStructure();
+		tracks.clear();
 	}
 
 	/**
@@ -0,0 +1,312 @@
+package br.edu.ifsp.capturer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A lossless codec for the depth frames, with 16 bits per pixel. Each pixel
+ * is predicted from its neighbours on the left, above and above on the left,
+ * with the median predictor of LOCO-I, and the difference is written with a
+ * Rice code whose parameter follows the mean of the last differences. The
+ * pixels predicted without error, which are most of the background and of the
+ * shadows of the sensor, are written as runs.
+ * <p>
+ * Each frame is encoded apart from the others, so any frame of a recording
+ * can be decoded without reading the previous ones.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class DepthCodec implements FrameCodec {
+
+	public static final String EXTENSION = "dpk";
+
+	private static final int MAGIC = 0x44504B31;
+	/** The longest unary part of a Rice code, before the value is written as it is. */
+	private static final int LIMIT = 24;
+	/** The amount of differences after which the mean is halved. */
+	private static final int RESET = 64;
+	private static final int MAX_PARAMETER = 15;
+
+	@Override
+	public byte[] encode(ByteBuffer pixels, int width, int height) {
+		int size = width * height;
+		if (width <= 0 || height <= 0 || pixels.limit() < size * 2) {
+			throw new IllegalArgumentException("The frame does not have " + width + "x" + height + " pixels");
+		}
+		short[] values = new short[size];
+		ByteBuffer buff = pixels.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		buff.rewind();
+		buff.asShortBuffer().get(values);
+
+		BitWriter out = new BitWriter(size / 2);
+		out.write(MAGIC, 32);
+		out.write(width, 32);
+		out.write(height, 32);
+
+		int sum = 4, count = 1, run = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				int error = (short) ((values[i] & 0xFFFF) - predict(values, i, x, y, width));
+				int value = (error << 1) ^ (error >> 31);
+				if (value == 0) {
+					run++;
+					continue;
+				}
+
+				int k = parameter(sum, count);
+				if (run > 0) {
+					/* A zero is followed by the length of the run */
+					out.writeRice(0, k, LIMIT);
+					out.writeGamma(run);
+					run = 0;
+					if (++count == RESET) {
+						sum >>= 1;
+						count >>= 1;
+					}
+					k = parameter(sum, count);
+				}
+				out.writeRice(value, k, LIMIT);
+				sum += value;
+				if (++count == RESET) {
+					sum >>= 1;
+					count >>= 1;
+				}
+			}
+		}
+		if (run > 0) {
+			out.writeRice(0, parameter(sum, count), LIMIT);
+			out.writeGamma(run);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public ByteBuffer decode(byte[] encoded) {
+		BitReader in = new BitReader(encoded);
+		if (encoded.length < 12 || in.read(32) != MAGIC) {
+			throw new IllegalArgumentException("The data is not a depth frame encoded");
+		}
+		int width = in.read(32), height = in.read(32);
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+		}
+
+		short[] values = new short[width * height];
+		int sum = 4, count = 1, run = 0;
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				int prediction = predict(values, i, x, y, width);
+				if (run > 0) {
+					values[i] = (short) prediction;
+					run--;
+					continue;
+				}
+
+				int value = in.readRice(parameter(sum, count), LIMIT);
+				sum += value;
+				if (++count == RESET) {
+					sum >>= 1;
+					count >>= 1;
+				}
+				if (value == 0) {
+					run = in.readGamma() - 1;
+					values[i] = (short) prediction;
+					continue;
+				}
+				int error = (value >>> 1) ^ -(value & 1);
+				values[i] = (short) (prediction + error);
+			}
+		}
+
+		ByteBuffer pixels = ByteBuffer.allocate(values.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		pixels.asShortBuffer().put(values);
+		return pixels;
+	}
+
+	@Override
+	public String getExtension() {
+		return EXTENSION;
+	}
+
+	/**
+	 * Predict a pixel with the median of its neighbours on the left (a),
+	 * above (b) and above on the left (c). On the edges of the frame, the
+	 * missing neighbours are replaced by the ones available.
+	 */
+	private static int predict(short[] values, int i, int x, int y, int width) {
+		if (y == 0) {
+			return x == 0 ? 0 : values[i - 1] & 0xFFFF;
+		}
+		int b = values[i - width] & 0xFFFF;
+		if (x == 0) {
+			return b;
+		}
+		int a = values[i - 1] & 0xFFFF, c = values[i - width - 1] & 0xFFFF;
+		if (c >= Math.max(a, b)) {
+			return Math.min(a, b);
+		}
+		if (c <= Math.min(a, b)) {
+			return Math.max(a, b);
+		}
+		return a + b - c;
+	}
+
+	/**
+	 * Get the parameter of the Rice code, the smallest k for which the mean of
+	 * the last differences is not bigger than 2^k.
+	 */
+	private static int parameter(int sum, int count) {
+		int k = 0;
+		while ((count << k) < sum && k < MAX_PARAMETER) {
+			k++;
+		}
+		return k;
+	}
+
+	private static class BitWriter {
+
+		private byte[] data;
+		private int size = 0;
+		private long buffer = 0;
+		private int bits = 0;
+
+		BitWriter(int capacity) {
+			data = new byte[Math.max(capacity, 16)];
+		}
+
+		/** Write the n lowest bits of the value, with n up to 32. */
+		void write(int value, int n) {
+			buffer = (buffer << n) | (value & ((1L << n) - 1));
+			bits += n;
+			while (bits >= 8) {
+				bits -= 8;
+				if (size == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				data[size++] = (byte) (buffer >>> bits);
+			}
+		}
+
+		void writeRice(int value, int k, int limit) {
+			int q = value >>> k;
+			if (q < limit) {
+				/* q ones and a zero */
+				write(((1 << q) - 1) << 1, q + 1);
+				if (k > 0) {
+					write(value, k);
+				}
+			} else {
+				write((1 << limit) - 1, limit);
+				write(value, 16);
+			}
+		}
+
+		/** Write a positive value with the Elias gamma code. */
+		void writeGamma(int value) {
+			int n = 32 - Integer.numberOfLeadingZeros(value);
+			if (n > 1) {
+				write(0, n - 1);
+			}
+			write(value, n);
+		}
+
+		byte[] toByteArray() {
+			if (bits > 0) {
+				write(0, 8 - bits);
+			}
+			return Arrays.copyOf(data, size);
+		}
+	}
+
+	private static class BitReader {
+
+		private byte[] data;
+		private int position = 0;
+		private long buffer = 0;
+		private int bits = 0;
+
+		BitReader(byte[] data) {
+			this.data = data;
+		}
+
+		/** Read n bits, with n up to 32. After the end of the data, the bits are 0. */
+		int read(int n) {
+			while (bits < n) {
+				buffer = (buffer << 8) | (position < data.length ? data[position++] & 0xFF : 0);
+				bits += 8;
+			}
+			bits -= n;
+			return (int) ((buffer >>> bits) & ((1L << n) - 1));
+		}
+
+		int readRice(int k, int limit) {
+			int q = 0;
+			while (q < limit && read(1) == 1) {
+				q++;
+			}
+			if (q == limit) {
+				return read(16);
+			}
+			return k > 0 ? (q << k) | read(k) : q;
+		}
+
+		int readGamma() {
+			int n = 1;
+			while (read(1) == 0) {
+				if (++n > 32) {
+					throw new IllegalArgumentException("Invalid run in the depth frame");
+				}
+			}
+			return n == 1 ? 1 : (1 << (n - 1)) | read(n - 1);
+		}
+	}
+
+	/**
+	 * Measure how fast the frames are encoded and decoded, and how much they
+	 * are compressed. The arguments are the depth frame, saved with two bytes
+	 * per pixel, its width and height, and the amount of times it is encoded.
+	 */
+	public static void main(String args[]) throws IOException {
+		File file = new File(args.length > 0 ? args[0] : "data/Depth Data.bin");
+		int width = args.length > 2 ? Integer.parseInt(args[1]) : 640;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 480;
+		int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+
+		ByteBuffer pixels = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		DepthCodec codec = new DepthCodec();
+
+		/* Let the compiler optimize the codec before measuring it */
+		byte[] encoded = null;
+		for (int i = 0; i < Math.max(iterations / 4, 10); i++) {
+			encoded = codec.encode(pixels, width, height);
+			codec.decode(encoded);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			encoded = codec.encode(pixels, width, height);
+		}
+		long encoding = (System.nanoTime() - start) / iterations;
+
+		ByteBuffer decoded = null;
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			decoded = codec.decode(encoded);
+		}
+		long decoding = (System.nanoTime() - start) / iterations;
+
+		pixels.rewind();
+		System.out.println("Frame: " + file.getName() + " (" + width + "x" + height + ", " + pixels.limit()
+				+ " bytes)");
+		System.out.println("Encoded: " + encoded.length + " bytes, "
+				+ String.format("%.2f", (double) pixels.limit() / encoded.length) + "x smaller");
+		System.out.println("Lossless: " + pixels.equals(decoded));
+		System.out.println(String.format("Encode: %.2f ms per frame, %.0f frames/s", encoding / 1e6, 1e9 / encoding));
+		System.out.println(String.format("Decode: %.2f ms per frame, %.0f frames/s", decoding / 1e6, 1e9 / decoding));
+	}
+}
@@ -0,0 +1,212 @@
+package br.edu.ifsp.capturer;
+
+import org.openni.Device;
+import org.openni.SensorType;
+import org.openni.VideoStream;
+
+/**
+ * The projection model of the depth camera. It converts coordinates between
+ * the real world coordinate system, in millimetres, and the depth coordinate
+ * system, in pixels, using only the field of view and the resolution of the
+ * depth camera. It does the same conversion of
+ * {@code UserTracker.convertJointCoordinatesToDepth}, without calling the
+ * middleware for each joint, and it also works without a sensor attached.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class DepthProjection {
+
+	/** Field of view of the depth camera of the PrimeSense sensors. */
+	public static final float DEFAULT_HORIZONTAL_FOV = 1.0210176f, DEFAULT_VERTICAL_FOV = 0.7958701f;
+
+	private int width, height;
+	private float horizontalFov, verticalFov;
+	private float xzFactor, yzFactor;
+
+	/**
+	 * Create a projection model.
+	 *
+	 * @param width
+	 *            The horizontal resolution of the depth frames.
+	 * @param height
+	 *            The vertical resolution of the depth frames.
+	 * @param horizontalFov
+	 *            The horizontal field of view, in radians.
+	 * @param verticalFov
+	 *            The vertical field of view, in radians.
+	 */
+	public DepthProjection(int width, int height, float horizontalFov, float verticalFov) {
+		this.width = width;
+		this.height = height;
+		this.horizontalFov = horizontalFov;
+		this.verticalFov = verticalFov;
+		this.xzFactor = (float) (Math.tan(horizontalFov / 2) * 2);
+		this.yzFactor = (float) (Math.tan(verticalFov / 2) * 2);
+	}
+
+	/**
+	 * Create a projection model with the field of view of the PrimeSense
+	 * sensors. Used when the recording does not inform the field of view.
+	 */
+	public DepthProjection(int width, int height) {
+		this(width, height, DEFAULT_HORIZONTAL_FOV, DEFAULT_VERTICAL_FOV);
+	}
+
+	/**
+	 * Read the field of view of the depth camera of the device informed. A
+	 * depth stream is created just to read it, and destroyed right away.
+	 *
+	 * @param device
+	 *            The sensor.
+	 * @return The projection model of the sensor.
+	 */
+	public static DepthProjection fromDevice(Device device) {
+		VideoStream stream = VideoStream.create(device, SensorType.DEPTH);
+		try {
+			return fromStream(stream);
+		} finally {
+			stream.destroy();
+		}
+	}
+
+	/**
+	 * Read the field of view and the resolution of the depth stream informed.
+	 *
+	 * @param stream
+	 *            The depth stream.
+	 * @return The projection model of the stream.
+	 */
+	public static DepthProjection fromStream(VideoStream stream) {
+		return new DepthProjection(stream.getVideoMode().getResolutionX(), stream.getVideoMode().getResolutionY(),
+				stream.getHorizontalFieldOfView(), stream.getVerticalFieldOfView());
+	}
+
+	/**
+	 * Get a projection model with the same field of view and another
+	 * resolution.
+	 *
+	 * @return This object, if the resolution is the same, or a new one.
+	 */
+	public DepthProjection withResolution(int width, int height) {
+		if (width == this.width && height == this.height) {
+			return this;
+		}
+		return new DepthProjection(width, height, horizontalFov, verticalFov);
+	}
+
+	/**
+	 * Convert points from the real world coordinate system to the depth
+	 * coordinate system. The points are stored in the order X, Y, Z. The
+	 * arrays can be the same.
+	 *
+	 * @param real
+	 *            The points in the real world coordinate system.
+	 * @param realOffset
+	 *            The position of the first point in the array real.
+	 * @param depth
+	 *            The array which will receive the points in the depth
+	 *            coordinate system.
+	 * @param depthOffset
+	 *            The position of the first point in the array depth.
+	 * @param count
+	 *            The amount of points.
+	 */
+	public void realToDepth(float[] real, int realOffset, float[] depth, int depthOffset, int count) {
+		float coeffX = width / xzFactor, coeffY = height / yzFactor;
+		float halfWidth = width / 2f, halfHeight = height / 2f;
+
+		for (int i = 0; i < count * 3; i += 3) {
+			float x = real[realOffset + i], y = real[realOffset + i + 1], z = real[realOffset + i + 2];
+			if (z == 0) {
+				depth[depthOffset + i] = 0;
+				depth[depthOffset + i + 1] = 0;
+			} else {
+				depth[depthOffset + i] = coeffX * x / z + halfWidth;
+				depth[depthOffset + i + 1] = halfHeight - coeffY * y / z;
+			}
+			depth[depthOffset + i + 2] = z;
+		}
+	}
+
+	/**
+	 * Convert points from the depth coordinate system to the real world
+	 * coordinate system. The points are stored in the order X, Y, Z. The
+	 * arrays can be the same.
+	 *
+	 * @param depth
+	 *            The points in the depth coordinate system.
+	 * @param depthOffset
+	 *            The position of the first point in the array depth.
+	 * @param real
+	 *            The array which will receive the points in the real world
+	 *            coordinate system.
+	 * @param realOffset
+	 *            The position of the first point in the array real.
+	 * @param count
+	 *            The amount of points.
+	 */
+	public void depthToReal(float[] depth, int depthOffset, float[] real, int realOffset, int count) {
+		for (int i = 0; i < count * 3; i += 3) {
+			float x = depth[depthOffset + i], y = depth[depthOffset + i + 1], z = depth[depthOffset + i + 2];
+			real[realOffset + i] = (x / width - 0.5f) * z * xzFactor;
+			real[realOffset + i + 1] = (0.5f - y / height) * z * yzFactor;
+			real[realOffset + i + 2] = z;
+		}
+	}
+
+	/**
+	 * Convert all the frames of a track from the real world coordinate system
+	 * to the depth coordinate system.
+	 *
+	 * @param real
+	 *            The track in the real world coordinate system.
+	 * @return A new track in the depth coordinate system.
+	 */
+	public SkeletonTrack realToDepth(SkeletonTrack real) {
+		return convert(real, true);
+	}
+
+	/**
+	 * Convert all the frames of a track from the depth coordinate system to
+	 * the real world coordinate system.
+	 *
+	 * @param depth
+	 *            The track in the depth coordinate system.
+	 * @return A new track in the real world coordinate system.
+	 */
+	public SkeletonTrack depthToReal(SkeletonTrack depth) {
+		return convert(depth, false);
+	}
+
+	private SkeletonTrack convert(SkeletonTrack source, boolean toDepth) {
+		SkeletonTrack track = new SkeletonTrack(source.size(), false);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		for (int i = 0; i < source.size(); i++) {
+			source.getJoints(i, joints, 0);
+			if (toDepth) {
+				realToDepth(joints, 0, joints, 0, SkeletonTrack.JOINTS);
+			} else {
+				depthToReal(joints, 0, joints, 0, SkeletonTrack.JOINTS);
+			}
+			track.add(source.getTimestamp(i), joints);
+		}
+		return track;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public float getHorizontalFov() {
+		return horizontalFov;
+	}
+
+	public float getVerticalFov() {
+		return verticalFov;
+	}
+}
@@ -0,0 +1,158 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame kept compressed by a {@link FrameCodec}. The frame can be created
+ * from a frame not yet encoded, which is kept until {@link #encode()} is
+ * called, usually by another thread, so the thread that records the frames
+ * does not wait for the codec.
+ * <p>
+ * The pixels are decoded each time {@link #getData()} is called, so the
+ * buffer returned belongs to the caller.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class EncodedFrame extends Frame {
+
+	private FrameCodec codec;
+	private byte[] encoded;
+	private Frame source;
+
+	/**
+	 * Create a frame with the data already encoded.
+	 *
+	 * @param codec
+	 *            The codec which encoded the data.
+	 * @param stream
+	 *            The stream which created the frame. Please, use the
+	 *            constants {@link Frame}.COLOR, {@link Frame}.DEPTH or
+	 *            {@link Frame}.SEGMENTATION.
+	 * @param encoded
+	 *            The frame encoded.
+	 * @param timestamp
+	 *            The timestamp informed by the sensor.
+	 * @param width
+	 *            The width of the frame.
+	 * @param height
+	 *            The height of the frame.
+	 */
+	public EncodedFrame(FrameCodec codec, int stream, byte[] encoded, long timestamp, int width, int height) {
+		super(stream, null, timestamp, width, height);
+		this.codec = codec;
+		this.encoded = encoded;
+	}
+
+	/**
+	 * Create a frame whose data encoded is not kept in memory, but read by
+	 * {@link #read()} each time it is used.
+	 *
+	 * @param codec
+	 *            The codec which encoded the data.
+	 * @param stream
+	 *            The stream which created the frame. Please, use the
+	 *            constants {@link Frame}.COLOR, {@link Frame}.DEPTH or
+	 *            {@link Frame}.SEGMENTATION.
+	 * @param timestamp
+	 *            The timestamp informed by the sensor.
+	 * @param width
+	 *            The width of the frame.
+	 * @param height
+	 *            The height of the frame.
+	 */
+	protected EncodedFrame(FrameCodec codec, int stream, long timestamp, int width, int height) {
+		super(stream, null, timestamp, width, height);
+		this.codec = codec;
+	}
+
+	/**
+	 * Create a frame which is encoded later. It keeps a reference of the frame
+	 * informed, which is released when the frame is encoded.
+	 *
+	 * @param codec
+	 *            The codec used to encode the frame.
+	 * @param source
+	 *            The frame to encode.
+	 */
+	public EncodedFrame(FrameCodec codec, Frame source) {
+		super(source.getStream(), null, source.getTimestamp(), source.getWidth(), source.getHeight());
+		this.codec = codec;
+		this.source = source.retain();
+	}
+
+	/**
+	 * Encode the frame, if it was not encoded yet, and release the frame
+	 * which was encoded.
+	 *
+	 * @return The frame encoded.
+	 */
+	public synchronized byte[] encode() {
+		if (encoded == null) {
+			if (source == null) {
+				return read();
+			}
+			encoded = codec.encode(source.getData(), getWidth(), getHeight());
+			source.release();
+			source = null;
+		}
+		return encoded;
+	}
+
+	/**
+	 * Read the data encoded of a frame which does not keep it in memory.
+	 *
+	 * @return The frame encoded.
+	 * @throws IllegalStateException
+	 *             If the frame was discarded before being encoded.
+	 */
+	protected byte[] read() {
+		throw new IllegalStateException("The frame " + getTimestamp() + " was discarded before being encoded.");
+	}
+
+	/**
+	 * Release the frame which would be encoded, without encoding it. Used
+	 * when the frame is discarded before being encoded, so it must not be
+	 * read anymore.
+	 */
+	public synchronized void discard() {
+		if (source != null) {
+			source.release();
+			source = null;
+		}
+	}
+
+	/**
+	 * Check the frame was already encoded.
+	 */
+	public synchronized boolean isEncoded() {
+		return encoded != null || source == null;
+	}
+
+	public FrameCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Get the amount of bytes kept by this frame: the size of the frame
+	 * encoded, the size of the buffer of the frame not yet encoded, or 0 if
+	 * the data is not kept in memory.
+	 */
+	public synchronized long getRetainedBytes() {
+		if (encoded != null) {
+			return encoded.length;
+		}
+		return source != null ? source.getData().capacity() : 0;
+	}
+
+	/**
+	 * Decode the pixels of the frame. If the frame was not encoded yet, it is
+	 * encoded first.
+	 *
+	 * @return A new buffer with the pixels of the frame.
+	 */
+	@Override
+	public ByteBuffer getData() {
+		return codec.decode(encode());
+	}
+}
@@ -0,0 +1,238 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The frames of one stream, by timestamp, kept compressed by a
+ * {@link FrameCodec}. It can be used wherever the buffers of a stream are
+ * expected: the frames are decoded when they are read, and encoded when a
+ * buffer is stored.
+ * <p>
+ * The frames recorded can be stored with {@link #put(Frame)}, which keeps them
+ * until they are encoded, so they can be encoded by other threads.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class EncodedFrameMap extends AbstractMap<Long, ByteBuffer> implements FrameMap {
+
+	private FrameCodec codec;
+	private int stream, width, height;
+	private Map<Long, EncodedFrame> frames = new HashMap<>();
+
+	/**
+	 * Create an empty map.
+	 *
+	 * @param codec
+	 *            The codec of the frames.
+	 * @param stream
+	 *            The stream of the frames. Please, use the constants
+	 *            {@link Frame}.COLOR, {@link Frame}.DEPTH or
+	 *            {@link Frame}.SEGMENTATION.
+	 * @param width
+	 *            The width of the buffers stored by
+	 *            {@link #put(Long, ByteBuffer)}, until a frame is stored.
+	 * @param height
+	 *            The height of the buffers stored by
+	 *            {@link #put(Long, ByteBuffer)}, until a frame is stored.
+	 */
+	public EncodedFrameMap(FrameCodec codec, int stream, int width, int height) {
+		this.codec = codec;
+		this.stream = stream;
+		this.width = width;
+		this.height = height;
+	}
+
+	public FrameCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Store a frame without encoding it. The frame is kept until
+	 * {@link EncodedFrame#encode()} is called. The frames already encoded by
+	 * the codec of this map are stored as they are. The next buffers stored
+	 * must have the size of this frame.
+	 *
+	 * @param frame
+	 *            The frame to store.
+	 * @return The frame stored, to be encoded.
+	 */
+	public synchronized EncodedFrame put(Frame frame) {
+		EncodedFrame encoded;
+		if (frame instanceof EncodedFrame && ((EncodedFrame) frame).getCodec().getExtension()
+				.equals(codec.getExtension())) {
+			encoded = (EncodedFrame) frame;
+		} else {
+			encoded = new EncodedFrame(codec, frame);
+		}
+		frames.put(frame.getTimestamp(), encoded);
+		width = frame.getWidth();
+		height = frame.getHeight();
+		return encoded;
+	}
+
+	/**
+	 * Store a frame already encoded by the codec of this map.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param encoded
+	 *            The frame encoded.
+	 */
+	public synchronized void putEncoded(long timestamp, byte[] encoded) {
+		frames.put(timestamp, new EncodedFrame(codec, stream, encoded, timestamp, width, height));
+	}
+
+	/**
+	 * Get a frame stored, without decoding it.
+	 *
+	 * @return The frame, or null if there is no frame with this timestamp.
+	 */
+	@Override
+	public synchronized EncodedFrame getFrame(long timestamp) {
+		return frames.get(timestamp);
+	}
+
+	/**
+	 * Remove a frame stored, without decoding it.
+	 *
+	 * @return The frame removed, or null if there is no frame with this
+	 *         timestamp.
+	 */
+	public synchronized EncodedFrame removeFrame(long timestamp) {
+		return frames.remove(timestamp);
+	}
+
+	/**
+	 * Get a frame encoded. If the frame is still waiting to be encoded, it is
+	 * encoded by the caller.
+	 *
+	 * @return The frame encoded, or null if there is no frame with this
+	 *         timestamp.
+	 */
+	public byte[] getEncoded(long timestamp) {
+		EncodedFrame frame = getFrame(timestamp);
+		return frame == null ? null : frame.encode();
+	}
+
+	/**
+	 * Get the amount of bytes of the frames stored, as they are kept in
+	 * memory.
+	 */
+	public synchronized long getRetainedBytes() {
+		long bytes = 0;
+		for (EncodedFrame frame : frames.values()) {
+			bytes += frame.getRetainedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encode a buffer and store it. The buffer must have the size of the last
+	 * frame stored, or the size informed to the constructor.
+	 *
+	 * @return The buffer stored before with this timestamp, or null.
+	 */
+	@Override
+	public ByteBuffer put(Long timestamp, ByteBuffer pixels) {
+		int width, height;
+		synchronized (this) {
+			width = this.width;
+			height = this.height;
+		}
+		EncodedFrame frame = new EncodedFrame(codec, stream, codec.encode(pixels, width, height), timestamp, width,
+				height);
+		EncodedFrame previous;
+		synchronized (this) {
+			previous = frames.put(timestamp, frame);
+		}
+		return previous == null ? null : previous.getData();
+	}
+
+	/**
+	 * Decode a frame stored.
+	 *
+	 * @return A new buffer with the pixels of the frame, or null if there is no
+	 *         frame with this timestamp.
+	 */
+	@Override
+	public ByteBuffer get(Object timestamp) {
+		EncodedFrame frame;
+		synchronized (this) {
+			frame = frames.get(timestamp);
+		}
+		return frame == null ? null : frame.getData();
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object timestamp) {
+		return frames.containsKey(timestamp);
+	}
+
+	@Override
+	public synchronized ByteBuffer remove(Object timestamp) {
+		EncodedFrame frame = frames.remove(timestamp);
+		return frame == null ? null : frame.getData();
+	}
+
+	@Override
+	public synchronized int size() {
+		return frames.size();
+	}
+
+	@Override
+	public synchronized void clear() {
+		frames.clear();
+	}
+
+	@Override
+	public Set<Long> keySet() {
+		return Collections.unmodifiableSet(frames.keySet());
+	}
+
+	/**
+	 * Get the entries of the map. Each frame is only decoded when its entry is
+	 * read by the iterator.
+	 */
+	@Override
+	public Set<Map.Entry<Long, ByteBuffer>> entrySet() {
+		return new AbstractSet<Map.Entry<Long, ByteBuffer>>() {
+
+			@Override
+			public Iterator<Map.Entry<Long, ByteBuffer>> iterator() {
+				final Iterator<Map.Entry<Long, EncodedFrame>> iterator = frames.entrySet().iterator();
+				return new Iterator<Map.Entry<Long, ByteBuffer>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Map.Entry<Long, ByteBuffer> next() {
+						Map.Entry<Long, EncodedFrame> entry = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<Long, ByteBuffer>(entry.getKey(),
+								entry.getValue().getData());
+					}
+
+					@Override
+					public void remove() {
+						iterator.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return EncodedFrameMap.this.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,152 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A copy of one image created by the sensor. The sensor releases its own
+ * buffers as soon as the listener returns, so every frame that has to travel
+ * through a {@link FramePipeline} is copied into a {@link Frame} first.
+ * <p>
+ * When the buffer of the frame belongs to a {@link FrameBufferPool}, the frame
+ * counts how many objects are still using it. Each object that keeps the frame
+ * calls {@link #retain()}, and {@link #release()} when it does not need it
+ * anymore. The buffer goes back to the pool when nobody is using it.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class Frame {
+
+	public static final int COLOR = ImageCapture.COLOR, DEPTH = ImageCapture.DEPTH, SEGMENTATION = 2;
+
+	private int stream;
+	private long timestamp;
+	private int width, height;
+	private ByteBuffer data;
+	private FrameBufferPool pool;
+	private AtomicInteger references = new AtomicInteger(1);
+	private long created = System.nanoTime();
+
+	/**
+	 * Create a frame which uses the buffer informed as its data.
+	 *
+	 * @param stream
+	 *            The stream which created the frame. Please, use the
+	 *            constants {@link Frame}.COLOR, {@link Frame}.DEPTH or
+	 *            {@link Frame}.SEGMENTATION.
+	 * @param data
+	 *            The pixels of the frame.
+	 * @param timestamp
+	 *            The timestamp informed by the sensor.
+	 * @param width
+	 *            The width of the frame.
+	 * @param height
+	 *            The height of the frame.
+	 */
+	public Frame(int stream, ByteBuffer data, long timestamp, int width, int height) {
+		this.stream = stream;
+		this.data = data;
+		this.timestamp = timestamp;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Create a frame with a copy of the pixels of the buffer informed. The
+	 * buffer is read from the position 0 until its limit.
+	 *
+	 * @return The new frame.
+	 */
+	public static Frame copyOf(int stream, ByteBuffer source, long timestamp, int width, int height) {
+		source.rewind();
+		ByteBuffer copy = ByteBuffer.allocate(source.limit()).order(ByteOrder.LITTLE_ENDIAN);
+		copy.put(source);
+		copy.flip();
+		source.rewind();
+		return new Frame(stream, copy, timestamp, width, height);
+	}
+
+	/**
+	 * Create a frame which uses a buffer acquired from the pool informed. The
+	 * buffer goes back to the pool when the frame is released.
+	 *
+	 * @return The new frame.
+	 */
+	public static Frame wrap(FrameBufferPool pool, int stream, ByteBuffer data, long timestamp, int width,
+			int height) {
+		Frame frame = new Frame(stream, data, timestamp, width, height);
+		frame.pool = pool;
+		return frame;
+	}
+
+	/**
+	 * Create a frame with a copy of the pixels of the buffer informed, using
+	 * a buffer of the pool. The frame starts with one reference.
+	 *
+	 * @return The new frame.
+	 */
+	public static Frame copyOf(FrameBufferPool pool, int stream, ByteBuffer source, long timestamp, int width,
+			int height) {
+		return wrap(pool, stream, pool.copy(source), timestamp, width, height);
+	}
+
+	/**
+	 * Inform that one more object is using this frame.
+	 *
+	 * @return This frame.
+	 */
+	public Frame retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Inform that an object is not using this frame anymore. When nobody is
+	 * using it, its buffer goes back to the pool.
+	 */
+	public void release() {
+		if (references.decrementAndGet() == 0 && pool != null) {
+			pool.release(data);
+		}
+	}
+
+	public int getStream() {
+		return stream;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the instant this object was created, as returned by
+	 * {@link System#nanoTime()}. Used to measure how long the frame took to go
+	 * through each stage.
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the pixels of the frame. Each call returns a new view of the same
+	 * pixels, from the position 0 and with the byte order of the frame, so the
+	 * threads which share the frame do not move the position of each other.
+	 *
+	 * @return The pixels of the frame.
+	 */
+	public ByteBuffer getData() {
+		ByteBuffer view = data.duplicate().order(data.order());
+		view.rewind();
+		return view;
+	}
+}
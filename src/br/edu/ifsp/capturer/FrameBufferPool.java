@@ -0,0 +1,168 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openni.PixelFormat;
+import org.openni.VideoMode;
+
+/**
+ * A pool of buffers with the size of one frame. The buffers of the frames
+ * which are no longer used are given back to the pool and reused by the next
+ * frames, so the copy of each frame does not create a new array.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class FrameBufferPool {
+
+	private int bufferSize;
+	private boolean direct;
+	private ArrayBlockingQueue<ByteBuffer> available;
+	private AtomicLong allocated = new AtomicLong();
+
+	/**
+	 * Create a pool of buffers.
+	 *
+	 * @param bufferSize
+	 *            The size, in bytes, of each buffer.
+	 * @param capacity
+	 *            The maximum amount of free buffers kept by the pool.
+	 * @param preallocate
+	 *            The amount of buffers created right away.
+	 * @param direct
+	 *            true to create the buffers outside the heap, false
+	 *            otherwise.
+	 */
+	public FrameBufferPool(int bufferSize, int capacity, int preallocate, boolean direct) {
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		this.available = new ArrayBlockingQueue<>(capacity);
+
+		for (int i = 0; i < Math.min(preallocate, capacity); i++) {
+			available.offer(allocate(bufferSize));
+		}
+	}
+
+	/**
+	 * Create a pool whose buffers have the size of a frame of the video mode
+	 * informed.
+	 *
+	 * @param mode
+	 *            The video mode of the stream.
+	 * @param capacity
+	 *            The maximum amount of free buffers kept by the pool.
+	 * @param direct
+	 *            true to create the buffers outside the heap, false
+	 *            otherwise.
+	 * @return The new pool.
+	 */
+	public static FrameBufferPool forVideoMode(VideoMode mode, int capacity, boolean direct) {
+		return new FrameBufferPool(getFrameSize(mode), capacity, capacity / 2, direct);
+	}
+
+	/**
+	 * Get the size, in bytes, of one frame of the video mode informed.
+	 *
+	 * @param mode
+	 *            The video mode of the stream.
+	 * @return The size of one frame.
+	 */
+	public static int getFrameSize(VideoMode mode) {
+		return mode.getResolutionX() * mode.getResolutionY() * getBytesPerPixel(mode.getPixelFormat());
+	}
+
+	private static int getBytesPerPixel(PixelFormat format) {
+		switch (format) {
+		case RGB888:
+			return 3;
+		case GRAY8:
+		case JPEG:
+			return 1;
+		default:
+			return 2;
+		}
+	}
+
+	/**
+	 * Get a buffer with, at least, the size informed. The limit of the buffer
+	 * is set to the size informed.
+	 *
+	 * @param size
+	 *            The amount of bytes needed.
+	 * @return A buffer ready to be written.
+	 */
+	public ByteBuffer acquire(int size) {
+		ByteBuffer buff = null;
+		if (size <= bufferSize) {
+			buff = available.poll();
+		}
+		if (buff == null) {
+			buff = allocate(Math.max(size, bufferSize));
+		}
+		buff.clear();
+		buff.limit(size);
+		return buff;
+	}
+
+	/**
+	 * Give a buffer back to the pool. Buffers that do not have the size of
+	 * the pool, or that do not fit in the pool anymore, are left to the
+	 * garbage collector.
+	 *
+	 * @param buff
+	 *            The buffer which is no longer used.
+	 */
+	public void release(ByteBuffer buff) {
+		if (buff.capacity() == bufferSize && buff.isDirect() == direct) {
+			available.offer(buff);
+		}
+	}
+
+	/**
+	 * Copy the buffer informed into a buffer of the pool. The buffer is read
+	 * from the position 0 until its limit, and its position is restored.
+	 *
+	 * @param source
+	 *            The buffer to copy.
+	 * @return The copy.
+	 */
+	public ByteBuffer copy(ByteBuffer source) {
+		ByteBuffer buff = acquire(source.limit());
+		source.rewind();
+		buff.put(source);
+		buff.flip();
+		source.rewind();
+		return buff;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Get the amount of buffers created by this pool since it was created.
+	 *
+	 * @return The amount of buffers created.
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * Get the amount of buffers waiting to be reused.
+	 *
+	 * @return The amount of free buffers.
+	 */
+	public int getAvailable() {
+		return available.size();
+	}
+
+	private ByteBuffer allocate(int size) {
+		allocated.incrementAndGet();
+		ByteBuffer buff = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		return buff.order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
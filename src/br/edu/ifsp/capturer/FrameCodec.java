@@ -0,0 +1,48 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compress the pixels of the frames of one stream. The frames encoded carry
+ * their own size, so they can be decoded without any other information.
+ * <p>
+ * The codecs must be thread safe, since the frames of a stream are encoded by
+ * a pool of threads.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public interface FrameCodec {
+
+	/**
+	 * Encode the pixels of a frame. The buffer is read from the position 0,
+	 * and its position is not changed.
+	 *
+	 * @param pixels
+	 *            The pixels of the frame.
+	 * @param width
+	 *            The width of the frame.
+	 * @param height
+	 *            The height of the frame.
+	 * @return The frame encoded.
+	 */
+	public byte[] encode(ByteBuffer pixels, int width, int height);
+
+	/**
+	 * Decode a frame encoded by {@link #encode(ByteBuffer, int, int)}.
+	 *
+	 * @param encoded
+	 *            The frame encoded.
+	 * @return A new buffer with the pixels of the frame, in little endian.
+	 * @throws IllegalArgumentException
+	 *             If the data was not encoded by this codec.
+	 */
+	public ByteBuffer decode(byte[] encoded);
+
+	/**
+	 * Get the extension of the files of the frames encoded, without the dot.
+	 * It must not have digits, since the name of the file is the timestamp of
+	 * the frame.
+	 */
+	public String getExtension();
+}
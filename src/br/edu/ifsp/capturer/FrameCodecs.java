@@ -0,0 +1,58 @@
+package br.edu.ifsp.capturer;
+
+import java.io.File;
+
+/**
+ * The codecs known by the classes which read the recordings. The frames saved
+ * compressed are found by the extension of their files.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public final class FrameCodecs {
+
+	private static final FrameCodec[] CODECS = { new DepthCodec(), ColorCodec.png(),
+			ColorCodec.jpeg(ColorCodec.DEFAULT_QUALITY), new MaskCodec() };
+
+	private FrameCodecs() {
+	}
+
+	/**
+	 * Get the codec of a frame saved compressed, by the extension of its file.
+	 *
+	 * @return The codec, or null if the frame was saved as it was captured.
+	 */
+	public static FrameCodec forFile(File file) {
+		String name = file.getName();
+		for (FrameCodec codec : CODECS) {
+			if (name.endsWith("." + codec.getExtension())) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the file of a frame saved in a directory, either as it was
+	 * captured or compressed by one of the codecs.
+	 *
+	 * @param directory
+	 *            The directory of the stream.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @return The file, or null if there is no file of this frame.
+	 */
+	public static File find(File directory, long timestamp) {
+		File file = new File(directory, timestamp + ".bin");
+		if (file.exists()) {
+			return file;
+		}
+		for (FrameCodec codec : CODECS) {
+			file = new File(directory, timestamp + "." + codec.getExtension());
+			if (file.exists()) {
+				return file;
+			}
+		}
+		return null;
+	}
+}
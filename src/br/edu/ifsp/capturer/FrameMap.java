@@ -0,0 +1,20 @@
+package br.edu.ifsp.capturer;
+
+/**
+ * A map of frames, by timestamp, which can give a frame without reading its
+ * pixels. The pixels are only read, or decoded, when
+ * {@link Frame#getData()} is called, so the frames of a long recording can
+ * be aligned without keeping them in memory.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public interface FrameMap {
+
+	/**
+	 * Get a frame without reading its pixels.
+	 *
+	 * @return The frame, or null if there is no frame with this timestamp.
+	 */
+	Frame getFrame(long timestamp);
+}
@@ -0,0 +1,344 @@
+package br.edu.ifsp.capturer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of stages which process the frames created by the sensor. Each
+ * stage has its own thread and a bounded queue, so the sensor thread only has
+ * to hand the frame to the first stage and return. The threads are created
+ * once, when the pipeline starts, instead of once per frame.
+ * <p>
+ * The pipeline owns the reference of the frames submitted to it. The frame is
+ * released after the last stage, or when it is discarded. A stage that keeps
+ * the frame must call {@link Frame#retain()}.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class FramePipeline {
+
+	/**
+	 * What a stage does when its queue is full.
+	 */
+	public static enum DropPolicy {
+		/** The thread that delivers the frame waits for a free slot. */
+		BLOCK,
+		/** The oldest frame waiting in the queue is discarded. */
+		DROP_OLDEST,
+		/** The frame being delivered is discarded. */
+		DROP_NEWEST,
+		/**
+		 * While the queue is more than half full, one of every two frames is
+		 * discarded. When it is full, the thread that delivers the frame
+		 * waits for a free slot.
+		 */
+		DECIMATE
+	}
+
+	/**
+	 * The work done by one stage of the pipeline.
+	 */
+	public static interface Stage {
+
+		/**
+		 * Method called by the thread of the stage for each frame received.
+		 *
+		 * @param frame
+		 *            The frame to process.
+		 */
+		public void process(Frame frame);
+	}
+
+	private String name;
+	private List<Worker> workers = new ArrayList<>();
+	private List<Worker> heads = new ArrayList<>();
+	private Worker tail;
+	private volatile boolean running = false;
+
+	/**
+	 * Create an empty pipeline.
+	 *
+	 * @param name
+	 *            Name used to identify the threads of the pipeline.
+	 */
+	public FramePipeline(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Add a new stage at the end of the pipeline. The stages must be added
+	 * before the pipeline starts.
+	 *
+	 * @param name
+	 *            Name of the stage.
+	 * @param stage
+	 *            The work done by the stage.
+	 * @param capacity
+	 *            The amount of frames that can wait in the queue of the stage.
+	 * @param policy
+	 *            What to do when the queue of the stage is full.
+	 * @return This pipeline.
+	 */
+	public synchronized FramePipeline addStage(String name, Stage stage, int capacity, DropPolicy policy) {
+		if (running) {
+			throw new IllegalStateException("The pipeline " + this.name + " has already been started.");
+		}
+		Worker worker = new Worker(name, stage, capacity, policy);
+		if (tail != null) {
+			tail.next = worker;
+		} else {
+			heads.add(worker);
+		}
+		tail = worker;
+		workers.add(worker);
+		return this;
+	}
+
+	/**
+	 * Add a new stage which receives the frames submitted at the same time as
+	 * the first stage, instead of after the last one. A full or slow branch
+	 * does not delay the other stages, and the other stages do not delay it.
+	 * The branches must be added before the pipeline starts.
+	 *
+	 * @param name
+	 *            Name of the stage.
+	 * @param stage
+	 *            The work done by the stage.
+	 * @param capacity
+	 *            The amount of frames that can wait in the queue of the stage.
+	 * @param policy
+	 *            What to do when the queue of the stage is full.
+	 * @return This pipeline.
+	 */
+	public synchronized FramePipeline addBranch(String name, Stage stage, int capacity, DropPolicy policy) {
+		if (running) {
+			throw new IllegalStateException("The pipeline " + this.name + " has already been started.");
+		}
+		Worker worker = new Worker(name, stage, capacity, policy);
+		heads.add(worker);
+		workers.add(worker);
+		return this;
+	}
+
+	/**
+	 * Start the threads of all stages.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		for (Worker worker : workers) {
+			worker.thread = new Thread(worker, this.name + "-" + worker.name);
+			worker.thread.setDaemon(true);
+			worker.thread.start();
+		}
+	}
+
+	/**
+	 * Stop the threads of all stages. The frames still waiting in the queues
+	 * are discarded.
+	 */
+	public synchronized void stop() {
+		running = false;
+		for (Worker worker : workers) {
+			if (worker.thread != null) {
+				worker.thread.interrupt();
+				worker.thread = null;
+			}
+			Frame frame;
+			while ((frame = worker.queue.poll()) != null) {
+				frame.release();
+			}
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Wait until the frames submitted before this call have left all the
+	 * stages. The frames submitted meanwhile are not waited for, so it
+	 * returns even if the sensor keeps sending frames.
+	 *
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public void drain() throws InterruptedException {
+		/* The stages of a chain are added after the stages that feed them */
+		for (Worker worker : workers) {
+			worker.drain();
+		}
+	}
+
+	/**
+	 * Deliver a frame to the first stage of the pipeline and to each branch.
+	 * The branches receive the frame first, so a first stage that blocks does
+	 * not delay them.
+	 *
+	 * @param frame
+	 *            The frame to process.
+	 * @return true if the frame was accepted by the first stage, false if it
+	 *         was discarded.
+	 */
+	public boolean submit(Frame frame) {
+		if (!running || heads.isEmpty()) {
+			frame.release();
+			return false;
+		}
+		/* One reference for each head, taken before any head can release it */
+		for (int i = 1; i < heads.size(); i++) {
+			frame.retain();
+		}
+		for (int i = 1; i < heads.size(); i++) {
+			heads.get(i).offer(frame);
+		}
+		return heads.get(0).offer(frame);
+	}
+
+	/**
+	 * Get the amount of frames discarded by the stages of this pipeline.
+	 *
+	 * @return The amount of frames discarded.
+	 */
+	public long getDropped() {
+		long dropped = 0;
+		for (Worker worker : workers) {
+			dropped += worker.dropped.get();
+		}
+		return dropped;
+	}
+
+	/**
+	 * Get the amount of frames discarded by one stage of this pipeline.
+	 *
+	 * @param name
+	 *            The name of the stage.
+	 * @return The amount of frames discarded, or 0 if there is no stage with
+	 *         this name.
+	 */
+	public long getDropped(String name) {
+		for (Worker worker : workers) {
+			if (worker.name.equals(name)) {
+				return worker.dropped.get();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * The thread and the queue of one stage.
+	 */
+	private class Worker implements Runnable {
+
+		private String name;
+		private Stage stage;
+		private DropPolicy policy;
+		private ArrayBlockingQueue<Frame> queue;
+		private int capacity;
+		private boolean skip = false;
+		private AtomicLong dropped = new AtomicLong();
+		private AtomicLong entered = new AtomicLong(), left = new AtomicLong();
+		private Worker next;
+		private Thread thread;
+
+		private Worker(String name, Stage stage, int capacity, DropPolicy policy) {
+			this.name = name;
+			this.stage = stage;
+			this.policy = policy;
+			this.capacity = capacity;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		private boolean offer(Frame frame) {
+			switch (policy) {
+			case DECIMATE:
+				/* Each queue is fed by only one thread, so skip needs no lock */
+				skip = queue.size() >= capacity / 2 && !skip;
+				if (skip) {
+					drop(frame);
+					return false;
+				}
+				/* Otherwise, the frame is delivered as in BLOCK */
+				return put(frame);
+			case BLOCK:
+				return put(frame);
+			case DROP_OLDEST:
+				while (!queue.offer(frame)) {
+					Frame oldest = queue.poll();
+					if (oldest != null) {
+						drop(oldest);
+						leave();
+					}
+				}
+				entered.incrementAndGet();
+				return true;
+			default:
+				if (queue.offer(frame)) {
+					entered.incrementAndGet();
+					return true;
+				}
+				drop(frame);
+				return false;
+			}
+		}
+
+		private boolean put(Frame frame) {
+			try {
+				queue.put(frame);
+				entered.incrementAndGet();
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				drop(frame);
+				return false;
+			}
+		}
+
+		private void drop(Frame frame) {
+			dropped.incrementAndGet();
+			frame.release();
+		}
+
+		private synchronized void leave() {
+			left.incrementAndGet();
+			notifyAll();
+		}
+
+		private synchronized void drain() throws InterruptedException {
+			long target = entered.get();
+			while (running && left.get() < target) {
+				wait(100);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Frame frame;
+				try {
+					frame = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					stage.process(frame);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+
+				if (next != null) {
+					next.offer(frame);
+				} else {
+					frame.release();
+				}
+				leave();
+			}
+		}
+	}
+}
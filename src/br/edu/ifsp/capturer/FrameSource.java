@@ -0,0 +1,95 @@
+package br.edu.ifsp.capturer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.primesense.nite.PoseType;
+
+/**
+ * Where the frames recorded come from. The capture classes only depend on
+ * this interface, so the same pipeline records the frames of a sensor,
+ * through {@link SensorFrameSource}, or of a recording saved before, through
+ * {@link ReplayFrameSource}.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public interface FrameSource {
+
+	/**
+	 * A listener which receives the frames of the source. The buffers are only
+	 * valid during the call, so the listener must copy what it keeps.
+	 */
+	public static interface Listener {
+
+		/**
+		 * Method called for each color frame.
+		 *
+		 * @param pixels
+		 *            The pixels, with three bytes per pixel.
+		 * @param timestamp
+		 *            The timestamp, in microseconds.
+		 * @param width
+		 *            The width of the frame.
+		 * @param height
+		 *            The height of the frame.
+		 */
+		public void onColorFrame(ByteBuffer pixels, long timestamp, int width, int height);
+
+		/**
+		 * Method called for each depth frame, with the users found in it.
+		 *
+		 * @param frame
+		 *            The depth frame and its users.
+		 */
+		public void onUserFrame(UserFrame frame);
+	}
+
+	public void setListener(Listener listener);
+
+	/**
+	 * Start creating frames.
+	 *
+	 * @throws IOException
+	 *             If the source could not be opened.
+	 */
+	public void start() throws IOException;
+
+	/**
+	 * Stop creating frames.
+	 */
+	public void stop();
+
+	public boolean isRunning();
+
+	/**
+	 * Get the projection model of the depth camera of this source.
+	 */
+	public DepthProjection getProjection();
+
+	/**
+	 * Get the frame rate of the color frames.
+	 */
+	public int getFps();
+
+	/**
+	 * Start detecting a pose of a user. Sources that do not detect poses
+	 * ignore this call.
+	 *
+	 * @param user
+	 *            The id of the user.
+	 * @param pose
+	 *            The pose.
+	 */
+	public void startPoseDetection(short user, PoseType pose);
+
+	/**
+	 * Stop detecting a pose of a user.
+	 *
+	 * @param user
+	 *            The id of the user.
+	 * @param pose
+	 *            The pose.
+	 */
+	public void stopPoseDetection(short user, PoseType pose);
+}
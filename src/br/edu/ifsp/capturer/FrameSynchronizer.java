@@ -0,0 +1,340 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Join the color frames created by OpenNI with the depth frames created by
+ * NiTE. Each depth frame is matched with the color frame with the nearest
+ * timestamp, as long as the difference is not greater than the tolerance. The
+ * frames wait in two small queues until the match can be decided, so a color
+ * frame that arrives a little after its depth frame is still matched.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class FrameSynchronizer {
+
+	/** Half of the interval between two frames at 30 fps, in microseconds. */
+	public static final long DEFAULT_TOLERANCE = 16_667;
+
+	/**
+	 * A listener which receives the composite frames created.
+	 */
+	public static interface CompositeFrameListener {
+
+		/**
+		 * Method called for each composite frame created. The listener owns
+		 * the composite frame and must call {@link CompositeFrame#release()}
+		 * when it does not need it anymore.
+		 *
+		 * @param frame
+		 *            The composite frame.
+		 */
+		public void onCompositeFrame(CompositeFrame frame);
+	}
+
+	private long tolerance;
+	private int capacity;
+	private ArrayDeque<Frame> colors, depths;
+	private ArrayDeque<CompositeFrame> resolved = new ArrayDeque<>();
+	private boolean dispatching = false;
+	private CompositeFrameListener listener;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private long matched = 0, unmatched = 0, late = 0, dropped = 0;
+
+	/**
+	 * Create a synchronizer.
+	 *
+	 * @param tolerance
+	 *            The biggest difference, in microseconds, between the
+	 *            timestamps of two frames that can be joined.
+	 * @param capacity
+	 *            The amount of frames of each stream that can wait for a
+	 *            match.
+	 * @param listener
+	 *            The listener which receives the composite frames.
+	 */
+	public FrameSynchronizer(long tolerance, int capacity, CompositeFrameListener listener) {
+		this.tolerance = tolerance;
+		this.capacity = capacity;
+		this.listener = listener;
+		this.colors = new ArrayDeque<>(capacity + 1);
+		this.depths = new ArrayDeque<>(capacity + 1);
+	}
+
+	/**
+	 * Deliver a color frame. The synchronizer keeps the reference of the
+	 * frame.
+	 *
+	 * @param frame
+	 *            The color frame.
+	 */
+	public void offerColor(Frame frame) {
+		synchronized (this) {
+			/* It is too late to join this frame to a depth frame */
+			if (lastTimestamp != Long.MIN_VALUE && frame.getTimestamp() < lastTimestamp - tolerance) {
+				late++;
+				frame.release();
+				return;
+			}
+
+			colors.addLast(frame);
+			if (colors.size() > capacity) {
+				dropped++;
+				colors.removeFirst().release();
+			}
+			resolve(false);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Deliver a depth frame. The synchronizer keeps the reference of the
+	 * frame.
+	 *
+	 * @param frame
+	 *            The depth frame.
+	 */
+	public void offerDepth(Frame frame) {
+		synchronized (this) {
+			depths.addLast(frame);
+			resolve(depths.size() > capacity);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Create the composite frames of all the depth frames still waiting,
+	 * using the color frames already received, and release the color frames.
+	 * It returns after the listener has received all of them.
+	 */
+	public void flush() {
+		synchronized (this) {
+			while (!depths.isEmpty()) {
+				resolve(true);
+			}
+			while (!colors.isEmpty()) {
+				colors.removeFirst().release();
+			}
+			lastTimestamp = Long.MIN_VALUE;
+		}
+		dispatch();
+
+		/* Another thread may still be delivering the last frames */
+		synchronized (this) {
+			while (dispatching) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deliver the composite frames created to the listener. The listener is
+	 * called without the lock of this object, since it may wait for the
+	 * threads which store the frames. Only one thread delivers the frames at
+	 * a time, so the listener receives them in order.
+	 */
+	private void dispatch() {
+		synchronized (this) {
+			if (dispatching) {
+				return;
+			}
+			dispatching = true;
+		}
+
+		CompositeFrame frame = null;
+		try {
+			while ((frame = nextResolved()) != null) {
+				listener.onCompositeFrame(frame);
+			}
+		} finally {
+			/* The listener failed, so the next thread delivers the others */
+			if (frame != null) {
+				synchronized (this) {
+					dispatching = false;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private synchronized CompositeFrame nextResolved() {
+		CompositeFrame frame = resolved.pollFirst();
+		if (frame == null) {
+			dispatching = false;
+			notifyAll();
+		}
+		return frame;
+	}
+
+	/**
+	 * Create the composite frames of the depth frames whose match is already
+	 * known. The match is known when a color frame newer than the depth frame
+	 * has arrived, because the color frames arrive in order. The composite
+	 * frames wait to be delivered by {@link #dispatch()}.
+	 */
+	private void resolve(boolean force) {
+		while (!depths.isEmpty()) {
+			Frame depth = depths.peekFirst();
+			Frame newest = colors.peekLast();
+
+			if (!force && (newest == null || newest.getTimestamp() < depth.getTimestamp())) {
+				return;
+			}
+			force = false;
+			depths.removeFirst();
+
+			/* The color frames too old to match this or the next depth frames */
+			while (!colors.isEmpty() && colors.peekFirst().getTimestamp() < depth.getTimestamp() - tolerance) {
+				colors.removeFirst().release();
+			}
+
+			Frame color = null;
+			long distance = tolerance + 1;
+			for (Frame candidate : colors) {
+				long d = Math.abs(candidate.getTimestamp() - depth.getTimestamp());
+				if (d < distance) {
+					distance = d;
+					color = candidate;
+				}
+			}
+
+			if (color != null) {
+				color.retain();
+				matched++;
+			} else {
+				unmatched++;
+			}
+
+			lastTimestamp = depth.getTimestamp();
+			resolved.addLast(new CompositeFrame(depth, color));
+		}
+	}
+
+	/**
+	 * Get the amount of depth frames joined to a color frame.
+	 */
+	public synchronized long getMatched() {
+		return matched;
+	}
+
+	/**
+	 * Get the amount of depth frames without a color frame within the
+	 * tolerance.
+	 */
+	public synchronized long getUnmatched() {
+		return unmatched;
+	}
+
+	/**
+	 * Get the amount of color frames that arrived after their depth frame had
+	 * already been used.
+	 */
+	public synchronized long getLate() {
+		return late;
+	}
+
+	/**
+	 * Get the amount of color frames discarded because the queue was full.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Join the frames of a recording already finished. Used when the
+	 * recording is loaded, since the streams are saved apart.
+	 *
+	 * @param depth
+	 *            The depth frames, by timestamp.
+	 * @param color
+	 *            The color frames, by timestamp, or null.
+	 * @param segmentation
+	 *            The segmentation of the depth frames, by timestamp, or null.
+	 * @param skeleton
+	 *            The skeleton of the user, or null.
+	 * @param tolerance
+	 *            The biggest difference, in microseconds, between the
+	 *            timestamps of a depth frame and a color frame.
+	 * @param width
+	 *            The width of the frames.
+	 * @param height
+	 *            The height of the frames.
+	 * @return The composite frames, ordered by timestamp.
+	 */
+	public static List<CompositeFrame> align(Map<Long, ByteBuffer> depth, Map<Long, ByteBuffer> color,
+			Map<Long, ByteBuffer> segmentation, SkeletonTrack skeleton, long tolerance, int width, int height) {
+		long[] depthTimes = sortedKeys(depth);
+		long[] colorTimes = sortedKeys(color);
+
+		List<CompositeFrame> frames = new ArrayList<>(depthTimes.length);
+		int c = 0;
+		for (long time : depthTimes) {
+			/* Move to the last color frame which is not after the depth frame */
+			while (c + 1 < colorTimes.length && colorTimes[c + 1] <= time) {
+				c++;
+			}
+
+			Frame colorFrame = null;
+			int nearest = nearest(colorTimes, c, time);
+			if (nearest >= 0 && Math.abs(colorTimes[nearest] - time) <= tolerance) {
+				colorFrame = getFrame(color, Frame.COLOR, colorTimes[nearest], width, height);
+			}
+
+			CompositeFrame frame = new CompositeFrame(getFrame(depth, Frame.DEPTH, time, width, height), colorFrame);
+
+			if (segmentation != null && segmentation.containsKey(time)) {
+				frame.setSegmentation(getFrame(segmentation, Frame.SEGMENTATION, time, width, height));
+			}
+			if (skeleton != null) {
+				frame.setSkeleton(skeleton.indexOf(time));
+			}
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+	/**
+	 * Get a frame of a map. The frames compressed are kept compressed, and the
+	 * frames not read yet are not read, until they are shown.
+	 */
+	private static Frame getFrame(Map<Long, ByteBuffer> map, int stream, long time, int width, int height) {
+		if (map instanceof FrameMap) {
+			return ((FrameMap) map).getFrame(time);
+		}
+		return new Frame(stream, map.get(time), time, width, height);
+	}
+
+	private static int nearest(long[] times, int index, long time) {
+		if (times.length == 0) {
+			return -1;
+		}
+		if (index + 1 < times.length && Math.abs(times[index + 1] - time) < Math.abs(times[index] - time)) {
+			return index + 1;
+		}
+		return index;
+	}
+
+	private static long[] sortedKeys(Map<Long, ?> map) {
+		if (map == null) {
+			return new long[0];
+		}
+		long[] keys = new long[map.size()];
+		int i = 0;
+		for (Long key : map.keySet()) {
+			keys[i++] = key;
+		}
+		Arrays.sort(keys);
+		return keys;
+	}
+}
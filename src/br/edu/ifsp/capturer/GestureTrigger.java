@@ -0,0 +1,252 @@
+package br.edu.ifsp.capturer;
+
+import java.util.Arrays;
+
+import com.primesense.nite.PoseType;
+
+/**
+ * A gesture that starts or stops the recording. The gesture is a condition
+ * over the joints of a user, or a pose detected by the middleware NiTE, which
+ * must be held for some time. The trigger is evaluated once per frame, and
+ * keeps only the instant when each user started holding the gesture, so the
+ * cost of each frame does not depend on how long the gesture is held.
+ * <p>
+ * The trigger fires once when the gesture has been held for the time
+ * informed. It only fires again for the same user after the gesture is
+ * released.
+ * <p>
+ * The joints are in the real world coordinate system, where the axis Y points
+ * up.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class GestureTrigger {
+
+	/** The smallest confidence of a joint used by a condition. */
+	public static final float MIN_CONFIDENCE = 0.5f;
+
+	/**
+	 * A condition over the joints of one user of a frame.
+	 */
+	public static interface Condition {
+
+		/**
+		 * Check the condition.
+		 *
+		 * @param frame
+		 *            The current frame.
+		 * @param user
+		 *            The index of the user in the frame.
+		 * @return true if the user satisfies the condition, false otherwise.
+		 */
+		public boolean test(UserFrame frame, int user);
+	}
+
+	private static final String[] PRESETS = { "Crossed Hands", "PSI", "Right Hand Above Head",
+			"Both Hands Below Hips" };
+
+	private String name;
+	private Condition condition;
+	private PoseType pose;
+	private long holdTime;
+	private long[] since = new long[0];
+	private boolean[] fired = new boolean[0];
+
+	/**
+	 * Create a trigger.
+	 *
+	 * @param name
+	 *            The name of the gesture.
+	 * @param condition
+	 *            The condition which must be held.
+	 * @param holdTime
+	 *            For how long the condition must be held, in microseconds.
+	 */
+	public GestureTrigger(String name, Condition condition, long holdTime) {
+		this(name, condition, holdTime, null);
+	}
+
+	private GestureTrigger(String name, Condition condition, long holdTime, PoseType pose) {
+		this.name = name;
+		this.condition = condition;
+		this.holdTime = holdTime;
+		this.pose = pose;
+	}
+
+	/**
+	 * Create a trigger which fires when the middleware NiTE detects that the
+	 * pose informed is held.
+	 */
+	public static GestureTrigger pose(PoseType pose) {
+		final int bit = UserFrame.getPoseBit(pose);
+		return new GestureTrigger(pose.toString(), new Condition() {
+
+			@Override
+			public boolean test(UserFrame frame, int user) {
+				return (frame.getPoses(user) & bit) != 0;
+			}
+		}, 0, pose);
+	}
+
+	/**
+	 * Create a condition which is true when the joint informed is above the
+	 * reference joint.
+	 *
+	 * @param joint
+	 *            The joint. Please, use the constants of {@link Coordinate}.
+	 * @param reference
+	 *            The reference joint.
+	 */
+	public static Condition above(final int joint, final int reference) {
+		return new Condition() {
+
+			@Override
+			public boolean test(UserFrame frame, int user) {
+				return isConfident(frame, user, joint, reference)
+						&& getY(frame, user, joint) > getY(frame, user, reference);
+			}
+		};
+	}
+
+	/**
+	 * Create a condition which is true when the joint informed is below the
+	 * reference joint.
+	 *
+	 * @param joint
+	 *            The joint. Please, use the constants of {@link Coordinate}.
+	 * @param reference
+	 *            The reference joint.
+	 */
+	public static Condition below(final int joint, final int reference) {
+		return new Condition() {
+
+			@Override
+			public boolean test(UserFrame frame, int user) {
+				return isConfident(frame, user, joint, reference)
+						&& getY(frame, user, joint) < getY(frame, user, reference);
+			}
+		};
+	}
+
+	/**
+	 * Create a condition which is true when all the conditions informed are
+	 * true.
+	 */
+	public static Condition and(final Condition... conditions) {
+		return new Condition() {
+
+			@Override
+			public boolean test(UserFrame frame, int user) {
+				for (Condition condition : conditions) {
+					if (!condition.test(frame, user)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+
+	private static float getY(UserFrame frame, int user, int joint) {
+		return frame.getJoints()[user * SkeletonTrack.FRAME_SIZE + joint * SkeletonTrack.AXES + Coordinate.Y];
+	}
+
+	private static boolean isConfident(UserFrame frame, int user, int joint, int reference) {
+		float[] confidences = frame.getConfidences();
+		return confidences[user * SkeletonTrack.JOINTS + joint] >= MIN_CONFIDENCE
+				&& confidences[user * SkeletonTrack.JOINTS + reference] >= MIN_CONFIDENCE;
+	}
+
+	/**
+	 * Get the names of the gestures created by {@link #forName(String)}.
+	 */
+	public static String[] getPresetNames() {
+		return PRESETS.clone();
+	}
+
+	/**
+	 * Create the trigger of a gesture known by its name.
+	 *
+	 * @param name
+	 *            One of the names of {@link #getPresetNames()}.
+	 * @return The trigger, or null if there is no gesture with this name.
+	 */
+	public static GestureTrigger forName(String name) {
+		switch (name) {
+		case "Crossed Hands":
+			return pose(PoseType.CROSSED_HANDS);
+		case "PSI":
+			return pose(PoseType.PSI);
+		case "Right Hand Above Head":
+			return new GestureTrigger(name, above(Coordinate.RIGHT_HAND, Coordinate.HEAD), 500_000);
+		case "Both Hands Below Hips":
+			return new GestureTrigger(name, and(below(Coordinate.LEFT_HAND, Coordinate.LEFT_HIP),
+					below(Coordinate.RIGHT_HAND, Coordinate.RIGHT_HIP)), 500_000);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Evaluate the gesture for one user of a frame.
+	 *
+	 * @param frame
+	 *            The current frame.
+	 * @param user
+	 *            The index of the user in the frame.
+	 * @return true if the gesture has just been held for the time required,
+	 *         false otherwise.
+	 */
+	public boolean update(UserFrame frame, int user) {
+		int id = frame.getId(user);
+		if (id >= since.length) {
+			int capacity = Math.max(id + 1, since.length * 2);
+			int old = since.length;
+			since = Arrays.copyOf(since, capacity);
+			fired = Arrays.copyOf(fired, capacity);
+			Arrays.fill(since, old, capacity, Long.MIN_VALUE);
+		}
+
+		if (!condition.test(frame, user)) {
+			since[id] = Long.MIN_VALUE;
+			fired[id] = false;
+			return false;
+		}
+
+		long timestamp = frame.getTimestamp();
+		if (since[id] == Long.MIN_VALUE) {
+			since[id] = timestamp;
+		}
+		if (!fired[id] && timestamp - since[id] >= holdTime) {
+			fired[id] = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forget the state of all the users.
+	 */
+	public void reset() {
+		Arrays.fill(since, Long.MIN_VALUE);
+		Arrays.fill(fired, false);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the pose of NiTE used by this trigger.
+	 *
+	 * @return The pose, or null if the trigger does not use a pose of NiTE.
+	 */
+	public PoseType getPose() {
+		return pose;
+	}
+
+	public long getHoldTime() {
+		return holdTime;
+	}
+}
@@ -3,8 +3,19 @@ package br.edu.ifsp.capturer;
 import java.awt.EventQueue;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFrame;
 
@@ -14,6 +25,8 @@ import org.openni.SensorType;
 import org.openni.VideoFrameRef;
 import org.openni.VideoStream;
 
+import br.edu.ifsp.capturer.FramePipeline.DropPolicy;
+
 public class ImageCapture implements VideoStream.NewFrameListener {
 
 	public static final int COLOR = 0, DEPTH = 1;
@@ -24,6 +37,24 @@ public class ImageCapture implements VideoStream.NewFrameListener {
 	private int camera;
 	private ShowObject view;
 	private Map<Long, ByteBuffer> imageCapture;
+	private List<Frame> recordedFrames = new ArrayList<>();
+	private Frame displayedFrame;
+	private FrameBufferPool pool;
+	private int poolCapacity = 8;
+	private boolean directBuffers = false;
+	private FramePipeline pipeline;
+	private FramePipeline.Stage sink;
+	private int recordCapacity = 60, displayCapacity = 2;
+	private DropPolicy recordPolicy = DropPolicy.BLOCK, displayPolicy = DropPolicy.DROP_OLDEST;
+	private long dropped = 0;
+	private volatile AtomicLong retained = new AtomicLong();
+	private LatencyStats latency;
+	private FrameCodec codec;
+	private ExecutorService encoders;
+	private AtomicInteger encoding = new AtomicInteger();
+	private AtomicLong encoderDropped = new AtomicLong();
+	/* Guards the frames recorded, apart from the monitor used by the sensor thread */
+	private final Object recordLock = new Object();
 
 	public ImageCapture(int camera) {
 		this(null, camera);
@@ -34,13 +65,28 @@ public class ImageCapture implements VideoStream.NewFrameListener {
 		this.camera = camera;
 		this.imageCapture = createMapStructure();
 
-		view.setCamera(camera);
+		if (view != null) {
+			view.setCamera(camera);
+		}
 	}
 
 	public static Map<Long, ByteBuffer> createMapStructure() {
 		return new HashMap<>();
 	}
 
+	/**
+	 * Create the structure to store the frames of a stream, compressed by the
+	 * codec informed.
+	 * 
+	 * @param codec
+	 *            The codec of the frames, or null to keep them as they are.
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 */
+	public static Map<Long, ByteBuffer> createMapStructure(FrameCodec codec, int stream) {
+		return codec == null ? createMapStructure() : new EncodedFrameMap(codec, stream, 0, 0);
+	}
+
 	public void captureData() {
 		SensorType sensor;
 		if (camera == COLOR) {
@@ -70,40 +116,444 @@ public class ImageCapture implements VideoStream.NewFrameListener {
 		this.frame.release();
 	}
 
-	public synchronized void setImageData(VideoFrameRef frame) {
+	/**
+	 * Receive a new frame from the sensor. The frame is copied in the thread
+	 * of the sensor, since the sensor reuses its buffer after this method
+	 * returns, and then it is handed to the pipeline that records and shows
+	 * it.
+	 * 
+	 * @param frame
+	 *            The frame created by the sensor.
+	 */
+	public void setImageData(VideoFrameRef frame) {
 		this.frame = frame;
-		ByteBuffer buff = frame.getData().order(ByteOrder.LITTLE_ENDIAN);
-		
-		if (startRecording) {
-			byte b[] = new byte[buff.limit()];
-			buff.rewind();
-			while(buff.remaining() > 0){
-				int pos = buff.position();
-				b[pos] = buff.get();
+
+		setImageData(frame.getData().order(ByteOrder.LITTLE_ENDIAN), frame.getTimestamp(), frame.getWidth(),
+				frame.getHeight());
+	}
+
+	/**
+	 * Receive a new frame from a {@link FrameSource}. The pixels are copied
+	 * before this method returns. The frame is handed to the pipeline after
+	 * the lock of this object is released, since the record stage may block
+	 * the caller while it stores the frames waiting.
+	 * 
+	 * @param buff
+	 *            The pixels of the frame.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param width
+	 *            The width of the frame.
+	 * @param height
+	 *            The height of the frame.
+	 */
+	public void setImageData(ByteBuffer buff, long timestamp, int width, int height) {
+		/* If nobody is interested in this frame, there is no need to copy it */
+		if (!startRecording && !isDisplayed()) {
+			return;
+		}
+
+		Frame frame;
+		FramePipeline pipeline;
+		synchronized (this) {
+			long start = System.nanoTime();
+			frame = Frame.copyOf(getPool(buff.limit()), camera, buff, timestamp, width, height);
+			if (latency != null) {
+				latency.recordSince(camera == COLOR ? LatencyStats.COLOR_COPY : LatencyStats.DEPTH_COPY, start);
 			}
-			ByteBuffer newBuffer = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
-			
-			imageCapture.put(frame.getTimestamp(), newBuffer);
-			//System.out.println("Image " + (camera == COLOR ? "Color" :
-			// "Depth") + " Received");
+			pipeline = getPipeline();
 		}
-		
-		if (view != null) {
-			// view.setCamera(camera);
-			if (view.getCamera() == camera) {
+		pipeline.submit(frame);
+	}
+
+	/**
+	 * Set where the latency of the copy, the record and the display of the
+	 * frames is counted.
+	 * 
+	 * @param latency
+	 *            The latency of the stages, or null to count nothing.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		this.latency = latency;
+	}
 
-				new Thread(new Runnable() {
+	/**
+	 * Get the pool of buffers used to copy the frames. The pool is created
+	 * with the size of the first frame received, and created again if a
+	 * bigger frame arrives.
+	 * 
+	 * @param size
+	 *            The size of the frame, in bytes.
+	 * @return The pool of buffers of this object.
+	 */
+	private FrameBufferPool getPool(int size) {
+		if (pool == null || pool.getBufferSize() < size) {
+			pool = new FrameBufferPool(size, poolCapacity, poolCapacity / 2, directBuffers);
+		}
+		return pool;
+	}
+
+	/**
+	 * Set how the buffers used to copy the frames are created. It must be
+	 * called before the first frame arrives.
+	 * 
+	 * @param capacity
+	 *            The maximum amount of free buffers kept to be reused.
+	 * @param direct
+	 *            true to create the buffers outside the heap, false
+	 *            otherwise.
+	 */
+	public void setBufferPolicy(int capacity, boolean direct) {
+		this.poolCapacity = capacity;
+		this.directBuffers = direct;
+	}
+
+	/**
+	 * Get the pipeline used to record and to show the frames. The threads of
+	 * the pipeline are only created when the first frame arrives. The display
+	 * is a branch of the pipeline, so a record stage slowed down by the disk
+	 * does not freeze the preview.
+	 * 
+	 * @return The pipeline of this object.
+	 */
+	private FramePipeline getPipeline() {
+		if (pipeline == null) {
+			String name = "ImageCapture-" + (camera == COLOR ? "Color" : "Depth");
+			pipeline = new FramePipeline(name);
+			pipeline.addStage("record", new FramePipeline.Stage() {
+
+				@Override
+				public void process(Frame frame) {
+					record(frame);
+				}
+			}, recordCapacity, recordPolicy);
+			/* Without a view, there is no need of a thread to show the frames */
+			if (view != null) {
+				pipeline.addBranch("display", new FramePipeline.Stage() {
 
 					@Override
-					public void run() {
-						buff.rewind();
-						view.setBackground(buff, frame.getWidth(), frame.getHeight());
-						view.repaint();
+					public void process(Frame frame) {
+						display(frame);
 					}
-				}).start();
+				}, displayCapacity, displayPolicy);
+			}
+			pipeline.start();
+		}
+		return pipeline;
+	}
+
+	private void record(Frame frame) {
+		if (startRecording) {
+			LatencyStats latency = this.latency;
+			long start = System.nanoTime();
+			if (latency != null) {
+				latency.get(camera == COLOR ? LatencyStats.COLOR_QUEUE : LatencyStats.DEPTH_QUEUE)
+						.record(start - frame.getCreated());
+			}
+			if (sink != null) {
+				sink.process(frame);
+			} else {
+				store(frame);
+			}
+			if (latency != null) {
+				latency.recordSince(LatencyStats.RECORD, start);
+			}
+		}
+	}
+
+	/**
+	 * Store a frame in the recorded data of this object. When there is a
+	 * codec, the frame is compressed by another thread, and the frame returned
+	 * must be kept instead of the one informed. It does not use the lock of
+	 * this object, so the sensor thread is never waiting for it, and the frame
+	 * is handed to the encoders after the frames recorded are unlocked.
+	 * 
+	 * @param frame
+	 *            The frame to store.
+	 * @return The frame stored, or null if the encoders are too far behind
+	 *         and the frame was discarded.
+	 */
+	public Frame store(Frame frame) {
+		EncodedFrameMap map;
+		synchronized (recordLock) {
+			if (!(imageCapture instanceof EncodedFrameMap)) {
+				recordedFrames.add(frame.retain());
+				imageCapture.put(frame.getTimestamp(), frame.getData());
+				retained.addAndGet(frame.getData().capacity());
+				return frame;
+			}
+			map = (EncodedFrameMap) imageCapture;
+		}
+		return encode(map, frame);
+	}
+
+	/**
+	 * Store a frame in the map of frames encoded. The frame is encoded by the
+	 * pool of threads of the codec, and kept until it is encoded. When the
+	 * queue of the encoders is full, the frame is discarded and counted by
+	 * {@link #getDropped()}, so the frames not encoded do not pile up in
+	 * memory and the record stage never encodes them itself.
+	 * 
+	 * @return The frame stored, or null if it was discarded.
+	 */
+	private Frame encode(EncodedFrameMap map, Frame frame) {
+		EncodedFrame encoded = map.put(frame);
+		long size = encoded.getRetainedBytes();
+		/* The counter of the take, since it is replaced when the take is cleared */
+		AtomicLong retained = this.retained;
+		retained.addAndGet(size);
+		if (!schedule(Collections.singletonList(encoded), retained)) {
+			map.removeFrame(frame.getTimestamp());
+			encoded.discard();
+			retained.addAndGet(-size);
+			encoderDropped.incrementAndGet();
+			return null;
+		}
+		return encoded;
+	}
+
+	/**
+	 * Hand frames to the pool of threads of the codec, to be encoded one after
+	 * the other by the same thread.
+	 * 
+	 * @return true if the frames will be encoded, false if the queue of the
+	 *         encoders is full.
+	 */
+	private boolean schedule(final List<EncodedFrame> frames, final AtomicLong retained) {
+		encoding.addAndGet(frames.size());
+		try {
+			getEncoders().execute(new Runnable() {
+
+				@Override
+				public void run() {
+					for (EncodedFrame frame : frames) {
+						try {
+							long size = frame.getRetainedBytes();
+							retained.addAndGet(frame.encode().length - size);
+						} finally {
+							encoding.decrementAndGet();
+						}
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			encoding.addAndGet(-frames.size());
+			return false;
+		}
+	}
+
+	/**
+	 * Get the amount of frames stored which are still waiting to be encoded.
+	 */
+	public int getPendingEncodes() {
+		return encoding.get();
+	}
+
+	/**
+	 * Get the threads which encode the frames recorded. The queue of the
+	 * threads has the size of the queue of the record stage, and the frames
+	 * which do not fit are refused.
+	 */
+	private ExecutorService getEncoders() {
+		synchronized (recordLock) {
+			if (encoders == null) {
+				final String name = "ImageCapture-" + (camera == COLOR ? "Color" : "Depth") + "-encoder-";
+				encoders = new ThreadPoolExecutor(getEncoderCount(), getEncoderCount(), 0, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(recordCapacity), new ThreadFactory() {
+
+							private AtomicInteger count = new AtomicInteger();
+
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r, name + count.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}
+						}, new ThreadPoolExecutor.AbortPolicy());
+			}
+			return encoders;
+		}
+	}
+
+	private static int getEncoderCount() {
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+
+	/**
+	 * Set the codec used to compress the frames recorded. The codec is used
+	 * from the next take, or at once if nothing was recorded yet.
+	 * 
+	 * @param codec
+	 *            The codec, or null to keep the frames as they are captured.
+	 */
+	public void setCodec(FrameCodec codec) {
+		synchronized (recordLock) {
+			this.codec = codec;
+			if (imageCapture.isEmpty()) {
+				imageCapture = createMapStructure(codec, camera);
 			}
-		}		
-		
+		}
+	}
+
+	public FrameCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Compress the frames already recorded with the codec informed, and use
+	 * the codec for the next frames, without waiting for the next take. The
+	 * frames are encoded by the pool of threads of the codec, so the memory
+	 * is only released as they are encoded.
+	 * 
+	 * @param codec
+	 *            The codec used to compress the frames.
+	 * @return The frames stored, by timestamp, which must be kept instead of
+	 *         the ones recorded. It is empty if the frames were already
+	 *         compressed.
+	 */
+	public Map<Long, Frame> compressRecordedData(FrameCodec codec) {
+		Map<Long, Frame> stored = new HashMap<>();
+		List<EncodedFrame> backlog = new ArrayList<>();
+		AtomicLong retained = new AtomicLong();
+		synchronized (recordLock) {
+			if (imageCapture instanceof EncodedFrameMap) {
+				return stored;
+			}
+			List<Frame> frames = recordedFrames;
+			this.codec = codec;
+			EncodedFrameMap map = new EncodedFrameMap(codec, camera, 0, 0);
+			imageCapture = map;
+			recordedFrames = new ArrayList<>();
+			this.retained = retained;
+			for (Frame frame : frames) {
+				/* The frame encoded keeps the frame until it is encoded */
+				EncodedFrame encoded = map.put(frame);
+				stored.put(frame.getTimestamp(), encoded);
+				backlog.add(encoded);
+				retained.addAndGet(encoded.getRetainedBytes());
+				frame.release();
+			}
+		}
+
+		/*
+		 * The frames of the take are split among the encoders, so they do not
+		 * fill the queue. A part refused is encoded when it is read.
+		 */
+		int part = (backlog.size() + getEncoderCount() - 1) / getEncoderCount();
+		for (int i = 0; i < backlog.size(); i += part) {
+			schedule(backlog.subList(i, Math.min(backlog.size(), i + part)), retained);
+		}
+		return stored;
+	}
+
+	/**
+	 * Get the amount of bytes of the buffers of the frames stored. It can be
+	 * read by any thread without waiting for the frames being stored.
+	 * 
+	 * @return The amount of bytes retained by the frames stored.
+	 */
+	public long getRetainedBytes() {
+		return retained.get();
+	}
+
+	/**
+	 * Set who receives the frames recorded, instead of this object. The sink
+	 * is called by the thread of the record stage, and it must call
+	 * {@link Frame#retain()} if it keeps the frame.
+	 * 
+	 * @param sink
+	 *            The object which receives the frames recorded, or null to
+	 *            store them in this object.
+	 */
+	public void setFrameSink(FramePipeline.Stage sink) {
+		this.sink = sink;
+	}
+
+	private void display(Frame frame) {
+		if (isDisplayed()) {
+			/* The view keeps the buffer until the next frame is shown */
+			Frame previous = displayedFrame;
+			displayedFrame = frame.retain();
+			view.setBackground(frame.getData(), frame.getWidth(), frame.getHeight());
+			view.repaint();
+			if (latency != null) {
+				latency.recordSince(LatencyStats.DISPLAY, frame.getCreated());
+			}
+
+			if (previous != null) {
+				previous.release();
+			}
+		}
+	}
+
+	private boolean isDisplayed() {
+		return view != null && view.getCamera() == camera;
+	}
+
+	/**
+	 * Set the size of the queues of the pipeline and what to do when they are
+	 * full. If the pipeline is already running, it is stopped, the frames
+	 * waiting are discarded, and a new pipeline is created when the next frame
+	 * arrives.
+	 * 
+	 * @param recordCapacity
+	 *            The amount of frames waiting to be recorded.
+	 * @param recordPolicy
+	 *            What to do when there are too many frames waiting to be
+	 *            recorded.
+	 * @param displayCapacity
+	 *            The amount of frames waiting to be shown.
+	 * @param displayPolicy
+	 *            What to do when there are too many frames waiting to be
+	 *            shown.
+	 */
+	public synchronized void setPipelinePolicy(int recordCapacity, DropPolicy recordPolicy, int displayCapacity,
+			DropPolicy displayPolicy) {
+		this.recordCapacity = recordCapacity;
+		this.recordPolicy = recordPolicy;
+		this.displayCapacity = displayCapacity;
+		this.displayPolicy = displayPolicy;
+		close();
+	}
+
+	/**
+	 * Get the amount of frames discarded before being recorded, because the
+	 * queue of the record stage or the queue of the encoders was full. The
+	 * frames not shown are not counted.
+	 * 
+	 * @return The amount of frames discarded.
+	 */
+	public synchronized long getDropped() {
+		return dropped + encoderDropped.get() + (pipeline == null ? 0 : pipeline.getDropped("record"));
+	}
+
+	/**
+	 * Wait until the frames already received have been recorded and shown.
+	 * The frames received meanwhile are not waited for.
+	 * 
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting.
+	 */
+	public void drain() throws InterruptedException {
+		FramePipeline pipeline;
+		synchronized (this) {
+			pipeline = this.pipeline;
+		}
+		if (pipeline != null) {
+			pipeline.drain();
+		}
+	}
+
+	/**
+	 * Stop the threads used to record and to show the frames.
+	 */
+	public synchronized void close() {
+		if (pipeline != null) {
+			dropped += pipeline.getDropped("record");
+			pipeline.stop();
+			pipeline = null;
+		}
 	}
 
 	public void startRecording() {
@@ -115,7 +565,14 @@ public class ImageCapture implements VideoStream.NewFrameListener {
 	}
 
 	public void clearRecordedData() {
-		imageCapture = createMapStructure();
+		synchronized (recordLock) {
+			imageCapture = createMapStructure(codec, camera);
+			for (Frame frame : recordedFrames) {
+				frame.release();
+			}
+			recordedFrames = new ArrayList<>();
+			retained = new AtomicLong();
+		}
 	}
 
 	public Map<Long, ByteBuffer> getRecordedData() {
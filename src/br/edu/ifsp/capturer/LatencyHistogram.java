@@ -0,0 +1,145 @@
+package br.edu.ifsp.capturer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of the durations of one stage. The durations are counted
+ * in buckets whose width grows with the duration: each power of two is split
+ * in 8 buckets, so any duration is known with an error smaller than 12.5%,
+ * and a few hundred buckets cover from one nanosecond to centuries.
+ * <p>
+ * Recording a duration does not create any object and does not lock, so it
+ * can be called by the threads of the sensor for every frame.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private String name;
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong(), max = new AtomicLong();
+
+	/**
+	 * Create an empty histogram.
+	 *
+	 * @param name
+	 *            The name of the stage.
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Count one duration.
+	 *
+	 * @param nanos
+	 *            The duration, in nanoseconds. The negative values are counted
+	 *            as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+		}
+	}
+
+	/**
+	 * Count the time passed since the instant informed.
+	 *
+	 * @param start
+	 *            The instant, as returned by {@link System#nanoTime()}.
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Get the biggest value counted in the bucket informed.
+	 */
+	static long highestOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return ((SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+	}
+
+	/**
+	 * Get the duration which is not exceeded by the percentage of the
+	 * durations informed.
+	 *
+	 * @param percentile
+	 *            The percentage, between 0 and 100.
+	 * @return The duration, in nanoseconds, or 0 if nothing was counted.
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the amount of durations counted.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the biggest duration counted, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Forget all the durations counted.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-14s %8d   p50 %9.3f ms   p99 %9.3f ms   max %9.3f ms", name, getCount(),
+				getPercentile(50) / 1e6, getPercentile(99) / 1e6, getMax() / 1e6);
+	}
+}
@@ -0,0 +1,93 @@
+package br.edu.ifsp.capturer;
+
+/**
+ * The latency of each stage of the life of a frame, from the moment it is
+ * received from the sensor until it is recorded or painted. Each stage has its
+ * own {@link LatencyHistogram}.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class LatencyStats {
+
+	/** Copy of the pixels received from the sensor. */
+	public static final int COLOR_COPY = 0, DEPTH_COPY = 1;
+	/** Time waiting in the queue of the record stage. */
+	public static final int COLOR_QUEUE = 2, DEPTH_QUEUE = 3;
+	/** Work of the record stage. */
+	public static final int RECORD = 4;
+	/** Copy of the map of users. */
+	public static final int SEGMENTATION = 5;
+	/** Conversion and recording of the joints of one user. */
+	public static final int SKELETON = 6;
+	/** From the copy until the frame is given to the view. */
+	public static final int DISPLAY = 7;
+	/** Paint of the view. */
+	public static final int PAINT = 8;
+	/** From the copy of the depth frame until its composite frame is recorded. */
+	public static final int END_TO_END = 9;
+
+	private static final String[] NAMES = { "Color copy", "Depth copy", "Color queue", "Depth queue", "Record",
+			"Segmentation", "Skeleton", "Display", "Paint", "End to end" };
+
+	private LatencyHistogram[] stages = new LatencyHistogram[NAMES.length];
+
+	public LatencyStats() {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram(NAMES[i]);
+		}
+	}
+
+	/**
+	 * Get the histogram of one stage.
+	 *
+	 * @param stage
+	 *            The stage. Please, use the constants of this class.
+	 */
+	public LatencyHistogram get(int stage) {
+		return stages[stage];
+	}
+
+	/**
+	 * Count the time passed since the instant informed in one stage.
+	 *
+	 * @param stage
+	 *            The stage. Please, use the constants of this class.
+	 * @param start
+	 *            The instant, as returned by {@link System#nanoTime()}.
+	 */
+	public void recordSince(int stage, long start) {
+		stages[stage].recordSince(start);
+	}
+
+	/**
+	 * Get the amount of stages.
+	 */
+	public int getStageCount() {
+		return stages.length;
+	}
+
+	/**
+	 * Forget the durations of all the stages.
+	 */
+	public void reset() {
+		for (LatencyHistogram stage : stages) {
+			stage.reset();
+		}
+	}
+
+	/**
+	 * Get a table with the count, p50, p99 and max of the stages which have
+	 * durations counted.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Latency by stage:");
+		for (LatencyHistogram stage : stages) {
+			if (stage.getCount() > 0) {
+				sb.append("\n  ").append(stage);
+			}
+		}
+		return sb.toString();
+	}
+}
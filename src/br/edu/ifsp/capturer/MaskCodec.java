@@ -0,0 +1,36 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A codec for the segmentation frames, with one byte per pixel, which keeps
+ * them as a {@link RunLengthMask}. The segmentation is decoded with one byte
+ * per pixel, but it can be read without decoding by
+ * {@link RunLengthMask#fromByteArray(byte[])}.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class MaskCodec implements FrameCodec {
+
+	public static final String EXTENSION = "rle";
+
+	@Override
+	public byte[] encode(ByteBuffer pixels, int width, int height) {
+		return RunLengthMask.fromMask(pixels, width, height).toByteArray();
+	}
+
+	@Override
+	public ByteBuffer decode(byte[] encoded) {
+		RunLengthMask mask = RunLengthMask.fromByteArray(encoded);
+		ByteBuffer pixels = ByteBuffer.allocate(mask.getWidth() * mask.getHeight()).order(ByteOrder.LITTLE_ENDIAN);
+		mask.toMask(pixels);
+		return pixels;
+	}
+
+	@Override
+	public String getExtension() {
+		return EXTENSION;
+	}
+}
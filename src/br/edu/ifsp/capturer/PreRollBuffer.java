@@ -0,0 +1,325 @@
+package br.edu.ifsp.capturer;
+
+/**
+ * The last frames received while nothing is being recorded. When the
+ * recording starts, these frames are moved to the recording, so the
+ * beginning of a movement is not lost while the user holds the pose or the
+ * chronometer counts the seconds.
+ * <p>
+ * The buffer keeps, in rings with a fixed capacity created once, the
+ * composite frames, the segmentation frames and the skeletons of all the
+ * users. When a ring is full, the oldest item is discarded, and its frames
+ * are released.
+ * <p>
+ * The buffer stops keeping items when {@link #stopKeeping()} is called, at the
+ * beginning of a recording, and the methods which add items return false, so
+ * the caller records the item instead. The items are moved to the recording
+ * out of the lock of the buffer, so the threads which add items do not wait
+ * for the recording.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class PreRollBuffer {
+
+	/**
+	 * An object which receives the skeletons moved out of the buffer.
+	 */
+	public static interface SkeletonListener {
+
+		/**
+		 * Method called for each skeleton moved out of the buffer.
+		 *
+		 * @param user
+		 *            The id of the user.
+		 * @param timestamp
+		 *            The timestamp of the skeleton.
+		 * @param real
+		 *            The joints in the real world coordinate system.
+		 * @param offset
+		 *            The position of the first coordinate in the array real.
+		 * @param confidence
+		 *            The confidence of the joints.
+		 * @param confidenceOffset
+		 *            The position of the first joint in the array confidence.
+		 */
+		public void onSkeleton(short user, long timestamp, float[] real, int offset, float[] confidence,
+				int confidenceOffset);
+	}
+
+	private CompositeFrame[] composites;
+	private Frame[] segmentation;
+	private int compositeStart = 0, compositeSize = 0;
+	private int segmentationStart = 0, segmentationSize = 0;
+
+	private long[] skeletonTimes;
+	private short[] skeletonUsers;
+	private float[] skeletonJoints, skeletonConfidences;
+	private int skeletonStart = 0, skeletonSize = 0;
+
+	private boolean keeping = true;
+	/* The timestamp of the oldest composite frame when the buffer stopped keeping */
+	private long windowStart = Long.MIN_VALUE;
+
+	/**
+	 * Create a buffer.
+	 *
+	 * @param capacity
+	 *            The amount of frames kept, that is, the seconds kept times
+	 *            the frame rate.
+	 * @param users
+	 *            The amount of users whose skeletons can be kept in each
+	 *            frame. When fewer users are tracked, the skeletons older than
+	 *            the composite frames are discarded when they are moved.
+	 */
+	public PreRollBuffer(int capacity, int users) {
+		capacity = Math.max(capacity, 1);
+		composites = new CompositeFrame[capacity];
+		segmentation = new Frame[capacity];
+
+		int skeletons = capacity * Math.max(users, 1);
+		skeletonTimes = new long[skeletons];
+		skeletonUsers = new short[skeletons];
+		skeletonJoints = new float[skeletons * SkeletonTrack.FRAME_SIZE];
+		skeletonConfidences = new float[skeletons * SkeletonTrack.JOINTS];
+	}
+
+	/**
+	 * Keep a composite frame. The buffer becomes the owner of the composite
+	 * frame, if it is kept.
+	 *
+	 * @param frame
+	 *            The composite frame.
+	 * @return true if the frame was kept, false if the buffer has stopped
+	 *         keeping the frames.
+	 */
+	public synchronized boolean addComposite(CompositeFrame frame) {
+		if (!keeping) {
+			return false;
+		}
+		if (compositeSize == composites.length) {
+			composites[compositeStart].release();
+			composites[compositeStart] = frame;
+			compositeStart = (compositeStart + 1) % composites.length;
+		} else {
+			composites[(compositeStart + compositeSize++) % composites.length] = frame;
+		}
+		return true;
+	}
+
+	/**
+	 * Keep a segmentation frame. The frame is retained by the buffer, if it is
+	 * kept.
+	 *
+	 * @param frame
+	 *            The segmentation frame.
+	 * @return true if the frame was kept, false if the buffer has stopped
+	 *         keeping the frames.
+	 */
+	public synchronized boolean addSegmentation(Frame frame) {
+		if (!keeping) {
+			return false;
+		}
+		frame.retain();
+		if (segmentationSize == segmentation.length) {
+			segmentation[segmentationStart].release();
+			segmentation[segmentationStart] = frame;
+			segmentationStart = (segmentationStart + 1) % segmentation.length;
+		} else {
+			segmentation[(segmentationStart + segmentationSize++) % segmentation.length] = frame;
+		}
+		return true;
+	}
+
+	/**
+	 * Keep a copy of the skeleton of a user.
+	 *
+	 * @param user
+	 *            The id of the user.
+	 * @param timestamp
+	 *            The timestamp of the skeleton.
+	 * @param real
+	 *            The joints in the real world coordinate system.
+	 * @param offset
+	 *            The position of the first coordinate in the array real.
+	 * @param confidence
+	 *            The confidence of the joints.
+	 * @param confidenceOffset
+	 *            The position of the first joint in the array confidence.
+	 * @return true if the skeleton was kept, false if the buffer has stopped
+	 *         keeping the skeletons.
+	 */
+	public synchronized boolean addSkeleton(short user, long timestamp, float[] real, int offset,
+			float[] confidence, int confidenceOffset) {
+		if (!keeping) {
+			return false;
+		}
+		int index;
+		if (skeletonSize == skeletonTimes.length) {
+			index = skeletonStart;
+			skeletonStart = (skeletonStart + 1) % skeletonTimes.length;
+		} else {
+			index = (skeletonStart + skeletonSize++) % skeletonTimes.length;
+		}
+		skeletonTimes[index] = timestamp;
+		skeletonUsers[index] = user;
+		System.arraycopy(real, offset, skeletonJoints, index * SkeletonTrack.FRAME_SIZE, SkeletonTrack.FRAME_SIZE);
+		System.arraycopy(confidence, confidenceOffset, skeletonConfidences, index * SkeletonTrack.JOINTS,
+				SkeletonTrack.JOINTS);
+		return true;
+	}
+
+	/**
+	 * Stop keeping the items added, so they can be moved to the recording
+	 * without missing any item. The segmentation and the skeletons older than
+	 * the oldest composite frame kept will not be moved, so all the streams
+	 * cover the same seconds.
+	 */
+	public synchronized void stopKeeping() {
+		keeping = false;
+		windowStart = compositeSize > 0 ? composites[compositeStart].getTimestamp() : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Keep the items added again, when the recording ends.
+	 */
+	public synchronized void startKeeping() {
+		keeping = true;
+		windowStart = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Move all the composite frames to the listener informed, from the oldest
+	 * to the newest. The listener becomes the owner of the frames, and is
+	 * called without the lock of the buffer.
+	 */
+	public void drainComposites(FrameSynchronizer.CompositeFrameListener listener) {
+		CompositeFrame[] drained;
+		synchronized (this) {
+			drained = new CompositeFrame[compositeSize];
+			for (int i = 0; i < compositeSize; i++) {
+				int index = (compositeStart + i) % composites.length;
+				drained[i] = composites[index];
+				composites[index] = null;
+			}
+			compositeStart = compositeSize = 0;
+		}
+		for (CompositeFrame frame : drained) {
+			listener.onCompositeFrame(frame);
+		}
+	}
+
+	/**
+	 * Move all the segmentation frames to the stage informed, from the oldest
+	 * to the newest. The stage must retain the frames it keeps, and is called
+	 * without the lock of the buffer.
+	 */
+	public void drainSegmentation(FramePipeline.Stage stage) {
+		Frame[] drained;
+		int count = 0;
+		synchronized (this) {
+			drained = new Frame[segmentationSize];
+			for (int i = 0; i < segmentationSize; i++) {
+				int index = (segmentationStart + i) % segmentation.length;
+				Frame frame = segmentation[index];
+				segmentation[index] = null;
+				if (frame.getTimestamp() < windowStart) {
+					frame.release();
+				} else {
+					drained[count++] = frame;
+				}
+			}
+			segmentationStart = segmentationSize = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			try {
+				stage.process(drained[i]);
+			} finally {
+				drained[i].release();
+			}
+		}
+	}
+
+	/**
+	 * Move all the skeletons to the listener informed, from the oldest to the
+	 * newest. The listener is called without the lock of the buffer, with
+	 * arrays which are not kept by the buffer.
+	 */
+	public void drainSkeletons(SkeletonListener listener) {
+		long[] times;
+		short[] users;
+		float[] joints, confidences;
+		int count = 0;
+		synchronized (this) {
+			times = new long[skeletonSize];
+			users = new short[skeletonSize];
+			joints = new float[skeletonSize * SkeletonTrack.FRAME_SIZE];
+			confidences = new float[skeletonSize * SkeletonTrack.JOINTS];
+			for (int i = 0; i < skeletonSize; i++) {
+				int index = (skeletonStart + i) % skeletonTimes.length;
+				if (skeletonTimes[index] < windowStart) {
+					continue;
+				}
+				times[count] = skeletonTimes[index];
+				users[count] = skeletonUsers[index];
+				System.arraycopy(skeletonJoints, index * SkeletonTrack.FRAME_SIZE, joints,
+						count * SkeletonTrack.FRAME_SIZE, SkeletonTrack.FRAME_SIZE);
+				System.arraycopy(skeletonConfidences, index * SkeletonTrack.JOINTS, confidences,
+						count * SkeletonTrack.JOINTS, SkeletonTrack.JOINTS);
+				count++;
+			}
+			skeletonStart = skeletonSize = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			listener.onSkeleton(users[i], times[i], joints, i * SkeletonTrack.FRAME_SIZE, confidences,
+					i * SkeletonTrack.JOINTS);
+		}
+	}
+
+	/**
+	 * Discard everything kept, and release the frames.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < compositeSize; i++) {
+			int index = (compositeStart + i) % composites.length;
+			composites[index].release();
+			composites[index] = null;
+		}
+		for (int i = 0; i < segmentationSize; i++) {
+			int index = (segmentationStart + i) % segmentation.length;
+			segmentation[index].release();
+			segmentation[index] = null;
+		}
+		compositeStart = compositeSize = 0;
+		segmentationStart = segmentationSize = 0;
+		skeletonStart = skeletonSize = 0;
+	}
+
+	/**
+	 * Get the amount of frames the buffer can keep.
+	 */
+	public int getCapacity() {
+		return composites.length;
+	}
+
+	/**
+	 * Get the amount of composite frames kept.
+	 */
+	public synchronized int getCompositeCount() {
+		return compositeSize;
+	}
+
+	/**
+	 * Get the amount of segmentation frames kept.
+	 */
+	public synchronized int getSegmentationCount() {
+		return segmentationSize;
+	}
+
+	/**
+	 * Get the amount of skeletons kept, of all the users.
+	 */
+	public synchronized int getSkeletonCount() {
+		return skeletonSize;
+	}
+}
@@ -0,0 +1,364 @@
+package br.edu.ifsp.capturer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.primesense.nite.PoseType;
+
+/**
+ * The frames of a recording saved before, read from its directory (Depth,
+ * Color, Segmentation and Coordinates). The frames are delivered in the order
+ * of their timestamps, by a thread of this object, either at the speed they
+ * were recorded or as fast as possible. It allows the pipeline to be used and
+ * measured without a sensor.
+ * <p>
+ * The files are read into buffers reused for all the frames. The skeleton is
+ * delivered as the user 1, and no pose is detected.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class ReplayFrameSource implements FrameSource, Runnable {
+
+	private File directory;
+	private boolean realTime;
+	private Listener listener;
+	private int width = 640, height = 480, fps = 30;
+	private DepthProjection projection;
+	private long[] depthTimes, colorTimes;
+	private SkeletonTrack skeleton;
+	private ByteBuffer depth, color, segmentation, userMap;
+	private UserFrame userFrame = new UserFrame();
+	private Thread thread;
+	private volatile boolean running = false;
+	private volatile long delivered = 0;
+
+	/**
+	 * Create a source which reads the recording informed.
+	 *
+	 * @param directory
+	 *            The directory of the recording.
+	 * @param realTime
+	 *            true to deliver the frames at the speed they were recorded,
+	 *            false to deliver them as fast as possible.
+	 */
+	public ReplayFrameSource(File directory, boolean realTime) throws IOException {
+		this.directory = directory;
+		this.realTime = realTime;
+
+		float hFov = DepthProjection.DEFAULT_HORIZONTAL_FOV, vFov = DepthProjection.DEFAULT_VERTICAL_FOV;
+		File config = getFile("Config.txt");
+		if (config.exists()) {
+			for (String line : Files.readAllLines(config.toPath())) {
+				String temp[] = line.split(":", 2);
+				if (temp.length < 2) {
+					continue;
+				}
+				String value = temp[1].trim();
+				switch (temp[0].trim()) {
+				case "Width":
+					width = Integer.parseInt(value);
+					break;
+				case "Height":
+					height = Integer.parseInt(value);
+					break;
+				case "FPS":
+					fps = Integer.parseInt(value);
+					break;
+				case "HFOV":
+					hFov = Float.parseFloat(value);
+					break;
+				case "VFOV":
+					vFov = Float.parseFloat(value);
+					break;
+				}
+			}
+		}
+		projection = new DepthProjection(width, height, hFov, vFov);
+
+		depthTimes = listTimestamps(getFile("Depth"));
+		colorTimes = listTimestamps(getFile("Color"));
+
+		skeleton = readTrack("Real");
+		if (skeleton == null) {
+			SkeletonTrack depth = readTrack("Depth");
+			if (depth != null) {
+				skeleton = projection.depthToReal(depth);
+			}
+		}
+	}
+
+	private File getFile(String name) {
+		return new File(directory.getAbsolutePath() + File.separator + name);
+	}
+
+	private static long[] listTimestamps(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new long[0];
+		}
+		long[] times = new long[files.length];
+		int count = 0;
+		for (File f : files) {
+			String name = f.getName();
+			if (name.endsWith(".bin") || FrameCodecs.forFile(f) != null) {
+				try {
+					times[count++] = Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+				} catch (NumberFormatException e) {
+					System.out.println("Ignoring the file " + f);
+				}
+			}
+		}
+		times = Arrays.copyOf(times, count);
+		Arrays.sort(times);
+		return times;
+	}
+
+	/**
+	 * Read the movements of the main user in one coordinate system, saved by
+	 * {@link SkeletonFile}, by {@link SkeletonCodec} or as text by the old
+	 * versions.
+	 *
+	 * @param name
+	 *            The name of the file in the directory Coordinates, without
+	 *            the extension.
+	 * @return The movements, or null if they were not saved.
+	 */
+	private SkeletonTrack readTrack(String name) throws IOException {
+		String path = "Coordinates" + File.separator + name;
+		File binary = getFile(path + "." + SkeletonFile.EXTENSION);
+		if (binary.exists()) {
+			return SkeletonFile.read(binary);
+		}
+		File text = getFile(path + ".txt");
+		if (text.exists()) {
+			return SkeletonFile.readText(text);
+		}
+		File compressed = getFile(path + "." + SkeletonCodec.EXTENSION);
+		return compressed.exists() ? SkeletonCodec.read(compressed) : null;
+	}
+
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		if (depthTimes.length == 0 && colorTimes.length == 0) {
+			throw new IOException("There is no frame in " + directory);
+		}
+		running = true;
+		delivered = 0;
+		thread = new Thread(this, "ReplayFrameSource");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		Thread thread = this.thread;
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Wait until all the frames are delivered, or the source is stopped.
+	 */
+	public void waitFinished() throws InterruptedException {
+		Thread thread = this.thread;
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	@Override
+	public void run() {
+		int d = 0, c = 0;
+		long first = Math.min(depthTimes.length > 0 ? depthTimes[0] : Long.MAX_VALUE,
+				colorTimes.length > 0 ? colorTimes[0] : Long.MAX_VALUE);
+		long start = System.nanoTime();
+
+		try {
+			while (running && (d < depthTimes.length || c < colorTimes.length)) {
+				boolean isDepth = c >= colorTimes.length || (d < depthTimes.length && depthTimes[d] <= colorTimes[c]);
+				long timestamp = isDepth ? depthTimes[d++] : colorTimes[c++];
+
+				if (realTime) {
+					long wait = start + (timestamp - first) * 1000 - System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+					}
+				}
+
+				if (isDepth) {
+					deliverDepth(timestamp);
+				} else {
+					deliverColor(timestamp);
+				}
+				delivered++;
+			}
+		} catch (InterruptedException e) {
+			/* Stopped */
+		} catch (IOException e) {
+			/* The channel is closed when the thread is interrupted by stop() */
+			if (running) {
+				e.printStackTrace();
+			}
+		} finally {
+			running = false;
+		}
+	}
+
+	private void deliverColor(long timestamp) throws IOException {
+		color = read(getFile("Color"), timestamp, color);
+		if (listener != null) {
+			listener.onColorFrame(color, timestamp, width, height);
+		}
+	}
+
+	private void deliverDepth(long timestamp) throws IOException {
+		depth = read(getFile("Depth"), timestamp, depth);
+
+		ByteBuffer map = null;
+		File fileSegmentation = FrameCodecs.find(getFile("Segmentation"), timestamp);
+		if (fileSegmentation == null) {
+			/* Frame without segmentation */
+		} else if (FrameCodecs.forFile(fileSegmentation) instanceof MaskCodec) {
+			map = toUserMap(RunLengthMask.fromByteArray(Files.readAllBytes(fileSegmentation.toPath())));
+		} else {
+			segmentation = read(getFile("Segmentation"), timestamp, segmentation);
+			map = toUserMap(segmentation);
+		}
+		userFrame.reset(timestamp, width, height, depth, map, width * 2);
+
+		int index = skeleton == null ? -1 : skeleton.indexOf(timestamp);
+		if (index >= 0) {
+			int user = userFrame.addUser((short) 1, false, true, 0);
+			skeleton.getJoints(index, userFrame.getJoints(), user * SkeletonTrack.FRAME_SIZE);
+			Arrays.fill(userFrame.getConfidences(), user * SkeletonTrack.JOINTS, (user + 1) * SkeletonTrack.JOINTS,
+					1f);
+		}
+
+		if (listener != null) {
+			listener.onUserFrame(userFrame);
+		}
+	}
+
+	/**
+	 * Convert the segmentation saved, with one byte per pixel, to a map of
+	 * users with two bytes per pixel, as created by NiTE.
+	 */
+	private ByteBuffer toUserMap(ByteBuffer segmentation) {
+		int pixels = Math.min(width * height, segmentation.limit());
+		if (userMap == null || userMap.capacity() < pixels * 2) {
+			userMap = ByteBuffer.allocate(pixels * 2).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		for (int i = 0; i < pixels; i++) {
+			userMap.putShort(i * 2, (short) (segmentation.get(i) & 0xFF));
+		}
+		userMap.limit(pixels * 2);
+		userMap.rewind();
+		return userMap;
+	}
+
+	/**
+	 * Expand the segmentation saved as runs to a map of users with two bytes
+	 * per pixel, as created by NiTE.
+	 */
+	private ByteBuffer toUserMap(RunLengthMask mask) {
+		int pixels = mask.getWidth() * mask.getHeight();
+		if (userMap == null || userMap.capacity() < pixels * 2) {
+			userMap = ByteBuffer.allocate(pixels * 2).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		mask.toUserMap(userMap);
+		userMap.limit(pixels * 2);
+		userMap.rewind();
+		return userMap;
+	}
+
+	/**
+	 * Read a frame saved either as it was captured or compressed. The frames
+	 * compressed are decoded into a new buffer.
+	 */
+	private static ByteBuffer read(File directory, long timestamp, ByteBuffer buff) throws IOException {
+		File file = FrameCodecs.find(directory, timestamp);
+		FrameCodec codec = file == null ? null : FrameCodecs.forFile(file);
+		if (codec != null) {
+			return codec.decode(Files.readAllBytes(file.toPath()));
+		}
+		return read(file == null ? new File(directory, timestamp + ".bin") : file, buff);
+	}
+
+	/**
+	 * Read a whole file into the buffer informed, which is replaced by a
+	 * bigger one when the file does not fit.
+	 */
+	private static ByteBuffer read(File file, ByteBuffer buff) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			int size = (int) channel.size();
+			if (buff == null || buff.capacity() < size) {
+				buff = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			buff.clear();
+			buff.limit(size);
+			while (buff.hasRemaining() && channel.read(buff) >= 0) {
+			}
+			buff.flip();
+			return buff;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public DepthProjection getProjection() {
+		return projection;
+	}
+
+	@Override
+	public int getFps() {
+		return fps;
+	}
+
+	public boolean isRealTime() {
+		return realTime;
+	}
+
+	/**
+	 * Get the amount of frames, of both streams, delivered since the source
+	 * started.
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Get the amount of frames, of both streams, of the recording.
+	 */
+	public int getFrameCount() {
+		return depthTimes.length + colorTimes.length;
+	}
+
+	@Override
+	public void startPoseDetection(short user, PoseType pose) {
+	}
+
+	@Override
+	public void stopPoseDetection(short user, PoseType pose) {
+	}
+}
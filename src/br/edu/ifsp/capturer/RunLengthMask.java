@@ -0,0 +1,402 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The segmentation of one depth frame, kept as the runs of pixels of each
+ * user in each line. The background, which is most of the frame, takes no
+ * space, so a mask of 640x480 pixels usually has a few KB instead of 300 KB.
+ * <p>
+ * The operations of this class work on the runs, without expanding the mask
+ * to one value per pixel. The ids of the users greater than 255 are stored as
+ * 255.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class RunLengthMask {
+
+	private static final int MAGIC = 0x524C4D31;
+	private static final int HEADER = 16;
+
+	private int width, height;
+	/** The runs of the line y are the ones from rows[y] until rows[y + 1]. */
+	private int[] rows;
+	private char[] starts, lengths;
+	private byte[] users;
+
+	private RunLengthMask(int width, int height, int[] rows, char[] starts, char[] lengths, byte[] users) {
+		this.width = width;
+		this.height = height;
+		this.rows = rows;
+		this.starts = starts;
+		this.lengths = lengths;
+		this.users = users;
+	}
+
+	/**
+	 * Create the mask of a buffer with one byte per pixel, where 0 is the
+	 * background and any other value is the id of the user.
+	 *
+	 * @param mask
+	 *            The buffer, read from the position 0.
+	 * @param width
+	 *            The width of the mask.
+	 * @param height
+	 *            The height of the mask.
+	 * @return The new mask.
+	 */
+	public static RunLengthMask fromMask(ByteBuffer mask, int width, int height) {
+		check(width, height);
+		if (mask.limit() < width * height) {
+			throw new IllegalArgumentException("The mask does not have " + width + "x" + height + " pixels");
+		}
+		Builder builder = new Builder(width, height);
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				builder.add(x, mask.get(i) & 0xFF);
+			}
+			builder.endRow();
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Create the mask of a map of users created by NiTE, with two bytes per
+	 * pixel in little endian.
+	 *
+	 * @param pixels
+	 *            The map of users.
+	 * @param width
+	 *            The width of the map.
+	 * @param height
+	 *            The height of the map.
+	 * @param stride
+	 *            The amount of bytes of each line of the map, or 0 if the
+	 *            lines have no padding.
+	 * @return The new mask.
+	 */
+	public static RunLengthMask fromUserMap(ByteBuffer pixels, int width, int height, int stride) {
+		check(width, height);
+		if (stride <= 0) {
+			stride = width * 2;
+		}
+		ByteBuffer map = pixels.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		Builder builder = new Builder(width, height);
+		for (int y = 0; y < height; y++) {
+			int line = y * stride;
+			for (int x = 0; x < width; x++) {
+				int id = map.getShort(line + x * 2) & 0xFFFF;
+				builder.add(x, id > 0xFF ? 0xFF : id);
+			}
+			builder.endRow();
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Get the mask of a segmentation frame, either kept as runs, with
+	 * {@link MaskCodec}, or with one byte per pixel.
+	 *
+	 * @param frame
+	 *            The segmentation frame.
+	 * @return The mask, or null if the frame is null.
+	 */
+	public static RunLengthMask of(Frame frame) {
+		if (frame == null) {
+			return null;
+		}
+		if (frame instanceof EncodedFrame && ((EncodedFrame) frame).getCodec() instanceof MaskCodec) {
+			return fromByteArray(((EncodedFrame) frame).encode());
+		}
+		return fromMask(frame.getData(), frame.getWidth(), frame.getHeight());
+	}
+
+	private static void check(int width, int height) {
+		if (width <= 0 || height <= 0 || width > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the amount of runs of users of the mask.
+	 */
+	public int getRunCount() {
+		return users.length;
+	}
+
+	/**
+	 * Get the user of one pixel.
+	 *
+	 * @return The id of the user, or 0 if the pixel is background.
+	 */
+	public int getUser(int x, int y) {
+		if (y < 0 || y >= height) {
+			return 0;
+		}
+		for (int r = rows[y]; r < rows[y + 1]; r++) {
+			if (x < starts[r]) {
+				break;
+			}
+			if (x < starts[r] + lengths[r]) {
+				return users[r] & 0xFF;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Count the pixels of one user.
+	 *
+	 * @param user
+	 *            The id of the user, or 0 to count the pixels of all the users.
+	 * @return The amount of pixels.
+	 */
+	public int getArea(int user) {
+		int area = 0;
+		for (int r = 0; r < users.length; r++) {
+			if (user == 0 || (users[r] & 0xFF) == user) {
+				area += lengths[r];
+			}
+		}
+		return area;
+	}
+
+	/**
+	 * Get the smallest rectangle with all the pixels of one user.
+	 *
+	 * @param user
+	 *            The id of the user, or 0 for all the users.
+	 * @return The rectangle, as {x, y, width, height}, or null if the user has
+	 *         no pixels.
+	 */
+	public int[] getBounds(int user) {
+		int minX = Integer.MAX_VALUE, minY = -1, maxX = -1, maxY = -1;
+		for (int y = 0; y < height; y++) {
+			for (int r = rows[y]; r < rows[y + 1]; r++) {
+				if (user == 0 || (users[r] & 0xFF) == user) {
+					minX = Math.min(minX, starts[r]);
+					maxX = Math.max(maxX, starts[r] + lengths[r] - 1);
+					if (minY < 0) {
+						minY = y;
+					}
+					maxY = y;
+				}
+			}
+		}
+		return minY < 0 ? null : new int[] { minX, minY, maxX - minX + 1, maxY - minY + 1 };
+	}
+
+	/**
+	 * Write the mask with one byte per pixel.
+	 *
+	 * @param dst
+	 *            The buffer, with at least width * height bytes.
+	 */
+	public void toMask(ByteBuffer dst) {
+		for (int i = 0, size = width * height; i < size; i++) {
+			dst.put(i, (byte) 0);
+		}
+		for (int y = 0; y < height; y++) {
+			for (int r = rows[y]; r < rows[y + 1]; r++) {
+				for (int i = y * width + starts[r], end = i + lengths[r]; i < end; i++) {
+					dst.put(i, users[r]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the mask as a map of users, with two bytes per pixel in little
+	 * endian, as created by NiTE.
+	 *
+	 * @param dst
+	 *            The buffer, with at least width * height * 2 bytes.
+	 */
+	public void toUserMap(ByteBuffer dst) {
+		ByteBuffer map = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0, size = width * height; i < size; i++) {
+			map.putShort(i * 2, (short) 0);
+		}
+		for (int y = 0; y < height; y++) {
+			for (int r = rows[y]; r < rows[y + 1]; r++) {
+				short user = (short) (users[r] & 0xFF);
+				for (int i = y * width + starts[r], end = i + lengths[r]; i < end; i++) {
+					map.putShort(i * 2, user);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Erase the background of a frame with the size of the mask, that is,
+	 * set to 0 every pixel which does not belong to a user.
+	 *
+	 * @param pixels
+	 *            The pixels of the frame.
+	 * @param bytesPerPixel
+	 *            The amount of bytes of each pixel: 2 for the depth frames and
+	 *            3 for the color frames.
+	 */
+	public void clearBackground(ByteBuffer pixels, int bytesPerPixel) {
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			for (int r = rows[y]; r <= rows[y + 1]; r++) {
+				int end = r < rows[y + 1] ? starts[r] : width;
+				for (int i = (y * width + x) * bytesPerPixel, last = (y * width + end) * bytesPerPixel; i < last; i++) {
+					pixels.put(i, (byte) 0);
+				}
+				if (r < rows[y + 1]) {
+					x = starts[r] + lengths[r];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Paint the users over an image with one int per pixel, in ARGB. The
+	 * pixels of each user are multiplied by the color of the user, and the
+	 * background is not changed.
+	 *
+	 * @param argb
+	 *            The pixels of the image, with the size of the mask.
+	 * @param colors
+	 *            The colors of the users, chosen by the id of the user.
+	 */
+	public void tint(int[] argb, int[] colors) {
+		for (int y = 0; y < height; y++) {
+			for (int r = rows[y]; r < rows[y + 1]; r++) {
+				int color = colors[(users[r] & 0xFF) % colors.length];
+				for (int i = y * width + starts[r], end = i + lengths[r]; i < end; i++) {
+					argb[i] &= color;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the amount of bytes of the mask returned by {@link #toByteArray()}.
+	 */
+	public int getEncodedSize() {
+		return HEADER + height * 2 + users.length * 5;
+	}
+
+	/**
+	 * Write the mask in a compact format, read by
+	 * {@link #fromByteArray(byte[])}: a header with the size of the mask and
+	 * the amount of runs, the amount of runs of each line, and the start, the
+	 * length and the user of each run.
+	 *
+	 * @return The mask encoded.
+	 */
+	public byte[] toByteArray() {
+		ByteBuffer buff = ByteBuffer.allocate(getEncodedSize()).order(ByteOrder.LITTLE_ENDIAN);
+		buff.putInt(MAGIC).putInt(width).putInt(height).putInt(users.length);
+		for (int y = 0; y < height; y++) {
+			buff.putChar((char) (rows[y + 1] - rows[y]));
+		}
+		for (int r = 0; r < users.length; r++) {
+			buff.putChar(starts[r]).putChar(lengths[r]).put(users[r]);
+		}
+		return buff.array();
+	}
+
+	/**
+	 * Read a mask written by {@link #toByteArray()}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the data is not a mask.
+	 */
+	public static RunLengthMask fromByteArray(byte[] data) {
+		ByteBuffer buff = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		if (data.length < HEADER || buff.getInt() != MAGIC) {
+			throw new IllegalArgumentException("The data is not a mask");
+		}
+		int width = buff.getInt(), height = buff.getInt(), count = buff.getInt();
+		check(width, height);
+		if (count < 0 || data.length < HEADER + height * 2L + count * 5L) {
+			throw new IllegalArgumentException("The mask is incomplete");
+		}
+
+		int[] rows = new int[height + 1];
+		for (int y = 0; y < height; y++) {
+			rows[y + 1] = rows[y] + buff.getChar();
+		}
+		if (rows[height] != count) {
+			throw new IllegalArgumentException("The mask is corrupted");
+		}
+		char[] starts = new char[count], lengths = new char[count];
+		byte[] users = new byte[count];
+		for (int r = 0; r < count; r++) {
+			starts[r] = buff.getChar();
+			lengths[r] = buff.getChar();
+			users[r] = buff.get();
+			if (starts[r] + lengths[r] > width) {
+				throw new IllegalArgumentException("The mask is corrupted");
+			}
+		}
+		return new RunLengthMask(width, height, rows, starts, lengths, users);
+	}
+
+	/**
+	 * Join the pixels of each line into runs.
+	 */
+	private static class Builder {
+
+		private int width, height, y = 0, count = 0;
+		private int[] rows;
+		private char[] starts = new char[64], lengths = new char[64];
+		private byte[] users = new byte[64];
+		private int user = 0, start = 0;
+
+		Builder(int width, int height) {
+			this.width = width;
+			this.height = height;
+			this.rows = new int[height + 1];
+		}
+
+		void add(int x, int id) {
+			if (id == user) {
+				return;
+			}
+			close(x);
+			user = id;
+			start = x;
+		}
+
+		private void close(int x) {
+			if (user == 0) {
+				return;
+			}
+			if (count == users.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+				users = Arrays.copyOf(users, count * 2);
+			}
+			starts[count] = (char) start;
+			lengths[count] = (char) (x - start);
+			users[count++] = (byte) user;
+		}
+
+		void endRow() {
+			close(width);
+			user = 0;
+			rows[++y] = count;
+		}
+
+		RunLengthMask build() {
+			return new RunLengthMask(width, height, rows, Arrays.copyOf(starts, count), Arrays.copyOf(lengths, count),
+					Arrays.copyOf(users, count));
+		}
+	}
+}
@@ -3,10 +3,7 @@ package br.edu.ifsp.capturer;
 import java.awt.EventQueue;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.swing.JFrame;
@@ -16,13 +13,26 @@ import com.primesense.nite.UserMap;
 import com.primesense.nite.UserTracker;
 import com.primesense.nite.UserTrackerFrameRef;
 
+/**
+ * Record the segmentation created by the middleware NiTE, that is, which user
+ * each pixel of the depth frame belongs to. The map of users is converted when
+ * it arrives, at the frame rate of the sensor, to a {@link RunLengthMask},
+ * which keeps only the runs of pixels of the users, so a frame takes a few KB
+ * instead of one byte per pixel. The recorded frames are decoded with one byte
+ * per pixel, where 0 is the background and any other value is the id of the
+ * user. The view only shows the map, it does not take part in the recording.
+ */
 public class Segmentation implements UserTracker.NewFrameListener {
 
 	private UserTracker user;
 	private UserTrackerFrameRef frame;
 	private boolean startRecording = false;
 	private ShowObject view;
-	private Map<Long, ByteBuffer> segmentation;
+	private Map<Long, Frame> segmentation;
+	private MaskCodec codec = new MaskCodec();
+	private FramePipeline.Stage sink;
+	private LatencyStats latency;
+	private long retained = 0;
 
 	public Segmentation() {
 		this(null);
@@ -33,7 +43,7 @@ public class Segmentation implements UserTracker.NewFrameListener {
 		this.view = view;
 	}
 
-	public static Map<Long, ByteBuffer> createMapStructure() {
+	public static <T> Map<Long, T> createMapStructure() {
 		return new HashMap<>();
 	}
 
@@ -55,24 +65,105 @@ public class Segmentation implements UserTracker.NewFrameListener {
 		this.frame.release();
 	}
 
-	public synchronized void setUserMap(UserMap user, long timestamp) {
-		ByteBuffer buff = user.getPixels().order(ByteOrder.LITTLE_ENDIAN);
+	public void setUserMap(UserMap user, long timestamp) {
+		setUserMap(user.getPixels().order(ByteOrder.LITTLE_ENDIAN), user.getWidth(), user.getHeight(),
+				user.getStride(), timestamp);
+	}
 
+	/**
+	 * Receive the map of users of a depth frame, show it and record it if the
+	 * recording is allowed.
+	 * 
+	 * @param buff
+	 *            The id of the user of each pixel, with two bytes per pixel in
+	 *            little endian.
+	 * @param width
+	 *            The width of the map.
+	 * @param height
+	 *            The height of the map.
+	 * @param stride
+	 *            The amount of bytes of each line of the map.
+	 * @param timestamp
+	 *            The timestamp of the depth frame.
+	 */
+	public synchronized void setUserMap(ByteBuffer buff, int width, int height, int stride, long timestamp) {
 		if (view != null) {
-			view.setUserMap(this, buff, timestamp);
+			view.setUserMap(buff, timestamp);
+		}
 
+		if (startRecording) {
+			long start = System.nanoTime();
+			RunLengthMask mask = RunLengthMask.fromUserMap(buff, width, height, stride);
+
+			Frame frame = new EncodedFrame(codec, Frame.SEGMENTATION, mask.toByteArray(), timestamp, width, height);
+			record(frame);
+			frame.release();
+			if (latency != null) {
+				latency.recordSince(LatencyStats.SEGMENTATION, start);
+			}
 		}
+	}
 
+	/**
+	 * Set where the latency of the copy of the maps of users is counted.
+	 * 
+	 * @param latency
+	 *            The latency of the stages, or null to count nothing.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		this.latency = latency;
 	}
-	
-	public void store(byte values[], long timestamp){
-		if (startRecording) {
-			// System.out.println("Segmentation Received");
-			ByteBuffer buff = ByteBuffer.wrap(values).order(ByteOrder.LITTLE_ENDIAN);
-			segmentation.put(timestamp, buff);
+
+	private void record(Frame frame) {
+		if (sink != null) {
+			sink.process(frame);
+		} else {
+			store(frame);
 		}
 	}
 
+	/**
+	 * Store a segmentation frame. The frame is retained until the recorded
+	 * data is cleared.
+	 * 
+	 * @param frame
+	 *            The segmentation frame.
+	 */
+	public synchronized void store(Frame frame) {
+		Frame old = segmentation.put(frame.getTimestamp(), frame.retain());
+		retained += sizeOf(frame);
+		if (old != null) {
+			retained -= sizeOf(old);
+			old.release();
+		}
+	}
+
+	private static long sizeOf(Frame frame) {
+		if (frame instanceof EncodedFrame) {
+			return ((EncodedFrame) frame).getRetainedBytes();
+		}
+		return frame.getData().capacity();
+	}
+
+	/**
+	 * Get the amount of bytes of the segmentation stored, as it is kept in
+	 * memory.
+	 */
+	public synchronized long getRetainedBytes() {
+		return retained;
+	}
+
+	/**
+	 * Set the object which receives the segmentation frames, instead of
+	 * storing them in this object. The sink must retain the frames it keeps.
+	 * 
+	 * @param sink
+	 *            The sink, or null to store the frames in this object.
+	 */
+	public void setFrameSink(FramePipeline.Stage sink) {
+		this.sink = sink;
+	}
+
 	public void startRecording() {
 		this.startRecording = true;
 	}
@@ -81,12 +172,35 @@ public class Segmentation implements UserTracker.NewFrameListener {
 		this.startRecording = false;
 	}
 
-	public void clearRecordedData() {
+	public synchronized void clearRecordedData() {
+		for (Frame frame : segmentation.values()) {
+			frame.release();
+		}
 		segmentation = createMapStructure();
+		retained = 0;
+	}
+
+	/**
+	 * Get the segmentation recorded. The frames are kept as masks, and they
+	 * are decoded with one byte per pixel when they are read.
+	 * 
+	 * @return The buffers of the segmentation frames, by timestamp.
+	 */
+	public synchronized Map<Long, ByteBuffer> getRecordedData() {
+		EncodedFrameMap data = new EncodedFrameMap(codec, Frame.SEGMENTATION, 0, 0);
+		for (Frame frame : segmentation.values()) {
+			data.put(frame);
+		}
+		return data;
 	}
 
-	public Map<Long, ByteBuffer> getRecordedData() {
-		return segmentation;
+	/**
+	 * Get the segmentation frames recorded.
+	 * 
+	 * @return The segmentation frames, by timestamp.
+	 */
+	public synchronized Map<Long, Frame> getRecordedFrames() {
+		return new HashMap<>(segmentation);
 	}
 
 	public static void main(String args[]) {
@@ -0,0 +1,199 @@
+package br.edu.ifsp.capturer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import org.openni.Device;
+import org.openni.ImageRegistrationMode;
+import org.openni.OpenNI;
+import org.openni.SensorType;
+import org.openni.VideoFrameRef;
+import org.openni.VideoStream;
+
+import com.primesense.nite.JointType;
+import com.primesense.nite.NiTE;
+import com.primesense.nite.Point3D;
+import com.primesense.nite.PoseType;
+import com.primesense.nite.Skeleton;
+import com.primesense.nite.SkeletonJoint;
+import com.primesense.nite.SkeletonState;
+import com.primesense.nite.UserData;
+import com.primesense.nite.UserMap;
+import com.primesense.nite.UserTracker;
+import com.primesense.nite.UserTrackerFrameRef;
+
+/**
+ * The frames of the first sensor connected, read by OpenNI and NiTE. The
+ * color frames come from a color stream of OpenNI, and the depth frames, the
+ * map of users and the joints come from the user tracker of NiTE.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class SensorFrameSource implements FrameSource, UserTracker.NewFrameListener, VideoStream.NewFrameListener {
+
+	private static final JointType[] JOINT_TYPES = JointType.values();
+
+	private Device device;
+	private UserTracker userTracker;
+	private VideoStream videoColor;
+	private DepthProjection projection;
+	private Listener listener;
+	private UserFrame userFrame = new UserFrame();
+	private volatile boolean running = false;
+
+	@Override
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		try {
+			OpenNI.initialize();
+			NiTE.initialize();
+
+			device = Device.open(OpenNI.enumerateDevices().get(0).getUri());
+			projection = getProjection(device);
+
+			userTracker = UserTracker.create();
+			userTracker.addNewFrameListener(this);
+
+			if (device.isImageRegistrationModeSupported(ImageRegistrationMode.DEPTH_TO_COLOR)) {
+				device.setImageRegistrationMode(ImageRegistrationMode.DEPTH_TO_COLOR);
+			}
+
+			videoColor = VideoStream.create(device, SensorType.COLOR);
+			videoColor.addNewFrameListener(this);
+			videoColor.start();
+		} catch (Exception e) {
+			throw new IOException("The sensor could not be opened: " + e.getMessage(), e);
+		}
+		running = true;
+	}
+
+	/**
+	 * Read the projection model of the depth camera once, so the joints do not
+	 * have to be converted by the middleware NiTE in every frame.
+	 */
+	private static DepthProjection getProjection(Device device) {
+		try {
+			return DepthProjection.fromDevice(device);
+		} catch (Exception e) {
+			System.out.println("Error reading the field of view of the sensor. Using the default values.");
+			e.printStackTrace();
+			return new DepthProjection(640, 480);
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		videoColor.removeNewFrameListener(this);
+		videoColor.stop();
+		userTracker.removeNewFrameListener(this);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public DepthProjection getProjection() {
+		return projection;
+	}
+
+	@Override
+	public int getFps() {
+		return videoColor == null ? 0 : videoColor.getVideoMode().getFps();
+	}
+
+	@Override
+	public void startPoseDetection(short user, PoseType pose) {
+		userTracker.startPoseDetection(user, pose);
+	}
+
+	@Override
+	public void stopPoseDetection(short user, PoseType pose) {
+		userTracker.stopPoseDetection(user, pose);
+	}
+
+	@Override
+	public void onFrameReady(VideoStream videoStream) {
+		VideoFrameRef frame = videoStream.readFrame();
+		if (listener != null) {
+			listener.onColorFrame(frame.getData().order(ByteOrder.LITTLE_ENDIAN), frame.getTimestamp(),
+					frame.getWidth(), frame.getHeight());
+		}
+		frame.release();
+	}
+
+	@Override
+	public void onNewFrame(UserTracker userTracker) {
+		UserTrackerFrameRef frame = userTracker.readFrame();
+		VideoFrameRef depth = frame.getDepthFrame();
+		UserMap userMap = frame.getUserMap();
+
+		userFrame.reset(depth.getTimestamp(), depth.getWidth(), depth.getHeight(),
+				depth.getData().order(ByteOrder.LITTLE_ENDIAN),
+				userMap == null ? null : userMap.getPixels().order(ByteOrder.LITTLE_ENDIAN),
+				userMap == null ? 0 : userMap.getStride());
+
+		for (UserData user : frame.getUsers()) {
+			/* The user was in the previous frame, but no longer in this one */
+			if (user.isLost()) {
+				userTracker.stopSkeletonTracking(user.getId());
+				userTracker.stopPoseDetection(user.getId(), PoseType.CROSSED_HANDS);
+				userTracker.stopPoseDetection(user.getId(), PoseType.PSI);
+				continue;
+			}
+			if (!user.isVisible()) {
+				continue;
+			}
+			userTracker.startSkeletonTracking(user.getId());
+
+			int poses = 0;
+			if (user.getPoses(PoseType.CROSSED_HANDS).isHeld()) {
+				poses |= UserFrame.POSE_CROSSED_HANDS;
+			}
+			if (user.getPoses(PoseType.PSI).isHeld()) {
+				poses |= UserFrame.POSE_PSI;
+			}
+
+			boolean tracked = user.getSkeleton().getState() == SkeletonState.TRACKED;
+			int index = userFrame.addUser(user.getId(), user.isNew(), tracked, poses);
+			if (tracked) {
+				readJoints(user.getSkeleton(), userFrame.getJoints(), index * SkeletonTrack.FRAME_SIZE,
+						userFrame.getConfidences(), index * SkeletonTrack.JOINTS);
+			}
+		}
+
+		if (listener != null) {
+			listener.onUserFrame(userFrame);
+		}
+		frame.release();
+	}
+
+	/**
+	 * Read the position of each joint of the skeleton informed.
+	 */
+	private static void readJoints(Skeleton skeleton, float[] real, int offset, float[] confidence,
+			int confidenceOffset) {
+		for (int i = 0, pos = offset; i < JOINT_TYPES.length; i++) {
+			SkeletonJoint joint = skeleton.getJoint(JOINT_TYPES[i]);
+			Point3D<Float> point3D = joint.getPosition();
+
+			real[pos++] = point3D.getX();
+			real[pos++] = point3D.getY();
+			real[pos++] = point3D.getZ();
+			confidence[confidenceOffset + i] = joint.getPositionConfidence();
+		}
+	}
+}
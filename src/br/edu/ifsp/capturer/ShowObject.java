@@ -8,8 +8,6 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ShowObject extends Component {
 
@@ -20,18 +18,17 @@ public class ShowObject extends Component {
 	private int camera = COLOR;
 	private ByteBuffer buffBackground;
 	private ByteBuffer buffUser;
-	private Segmentation seg;
+	private RunLengthMask userMask;
 	private long timestamp;
-	private List<Float[][]> coordinate;
+	private static final int MAX_USERS = 6;
+	private float[][] coordinate = new float[MAX_USERS][SkeletonTrack.FRAME_SIZE];
+	private short[] coordinateUser = new short[MAX_USERS];
+	private int coordinateCount = 0;
 	private int[] mColors = new int[] { 0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFFFFFF00, 0xFFFF00FF, 0xFF00FFFF };
 	private String status;
+	private LatencyStats latency;
 
 	public ShowObject() {
-		this.coordinate = createStructure();
-	}
-
-	private List<Float[][]> createStructure() {
-		return new CopyOnWriteArrayList<>();
 	}
 
 	public void setStatus(String status) {
@@ -46,9 +43,23 @@ public class ShowObject extends Component {
 		return camera;
 	}
 
-	public void setUserMap(Segmentation seg, ByteBuffer buff, long timestamp) {
-		this.seg = seg;
+	/**
+	 * Set the map of users shown over the depth frame, with two bytes per
+	 * pixel, in little endian.
+	 */
+	public void setUserMap(ByteBuffer buff, long timestamp) {
 		this.buffUser = buff;
+		this.userMask = null;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Set the segmentation shown over the depth frame, kept as runs. The
+	 * pixels of the users are painted run by run, without expanding the mask.
+	 */
+	public void setUserMask(RunLengthMask mask, long timestamp) {
+		this.userMask = mask;
+		this.buffUser = null;
 		this.timestamp = timestamp;
 	}
 
@@ -58,12 +69,55 @@ public class ShowObject extends Component {
 		this.height = height;
 	}
 
-	public void setUserCoordinate(Float[][] coordinate, int width, int height) {
-		this.coordinate.add(coordinate);
+	public synchronized void setUserCoordinate(Float[][] coordinate, int width, int height) {
+		if (coordinate == null) {
+			return;
+		}
+		float[] slot = getCoordinateSlot((short) 0);
+		if (slot == null) {
+			return;
+		}
+		for (int i = 0, pos = 0; i < SkeletonTrack.JOINTS; i++) {
+			for (int j = 0; j < SkeletonTrack.AXES; j++, pos++) {
+				Float value = coordinate[i][j];
+				slot[pos] = value == null ? 0f : value;
+			}
+		}
+	}
+
+	/**
+	 * Set the skeleton of one user to be drawn in the next paint. The
+	 * coordinates are copied, so the array can be reused by the caller.
+	 * 
+	 * @param user
+	 *            The id of the user.
+	 * @param coordinate
+	 *            The joints in the depth coordinate system, in the order
+	 *            joint, axis.
+	 */
+	public synchronized void setUserCoordinate(short user, float[] coordinate, int width, int height) {
+		float[] slot = getCoordinateSlot(user);
+		if (slot != null) {
+			System.arraycopy(coordinate, 0, slot, 0, SkeletonTrack.FRAME_SIZE);
+		}
+	}
+
+	private float[] getCoordinateSlot(short user) {
+		for (int i = 0; i < coordinateCount; i++) {
+			if (coordinateUser[i] == user) {
+				return coordinate[i];
+			}
+		}
+		if (coordinateCount == MAX_USERS) {
+			return null;
+		}
+		coordinateUser[coordinateCount] = user;
+		return coordinate[coordinateCount++];
 	}
 
 	@Override
 	public synchronized void paint(Graphics g) {
+		long start = System.nanoTime();
 		Graphics2D g2d = (Graphics2D) g;
 
 		int[] background = getBackgroundImage();
@@ -74,7 +128,20 @@ public class ShowObject extends Component {
 
 		drawStatus(g2d);
 
-		coordinate = createStructure();
+		coordinateCount = 0;
+		if (latency != null) {
+			latency.recordSince(LatencyStats.PAINT, start);
+		}
+	}
+
+	/**
+	 * Set where the latency of the paint is counted.
+	 * 
+	 * @param latency
+	 *            The latency of the stages, or null to count nothing.
+	 */
+	public void setLatencyStats(LatencyStats latency) {
+		this.latency = latency;
 	}
 
 	private void drawStatus(Graphics2D g) {
@@ -95,8 +162,19 @@ public class ShowObject extends Component {
 	}
 
 	public void drawUserSkeleton(Graphics2D g) {
-		for (Float[][] fs : coordinate) {
-			drawSkeleton(g, fs);
+		for (int i = 0; i < coordinateCount; i++) {
+			drawSkeleton(g, coordinate[i]);
+		}
+	}
+
+	public void drawSkeleton(Graphics2D g, float[] fs) {
+		g.setColor(Color.red);
+		g.setPaintMode();
+
+		for (int i = 0; i < skelCoor.length; i++) {
+			int from = skelCoor[i][0] * SkeletonTrack.AXES, to = skelCoor[i][1] * SkeletonTrack.AXES;
+			g.drawLine((int) (getWidth() * fs[from] / width), (int) (getHeight() * fs[from + 1] / height),
+					(int) (getWidth() * fs[to] / width), (int) (getHeight() * fs[to + 1]) / height);
 		}
 	}
 
@@ -141,7 +219,12 @@ public class ShowObject extends Component {
 
 		buffBackground.rewind();
 
-		if (buffUser == null) {
+		if (userMask != null) {
+			pixels = getPixelDepthOnly(data, mHistogram, pixels);
+			if (userMask.getWidth() == width && userMask.getHeight() == height) {
+				userMask.tint(pixels, mColors);
+			}
+		} else if (buffUser == null) {
 			pixels = getPixelDepthOnly(data, mHistogram, pixels);
 		} else {
 			pixels = getPixelDepthSegmentation(data, mHistogram, pixels);
@@ -165,7 +248,6 @@ public class ShowObject extends Component {
 	private int[] getPixelDepthSegmentation(ShortBuffer data, float mHistogram[], int pixels[]) {
 		buffBackground.rewind();
 		buffUser.rewind();
-		byte values[] = new byte[buffBackground.limit()];
 
 		int pos = 0;
 		try {
@@ -181,15 +263,11 @@ public class ShowObject extends Component {
 				}
 
 				pixels[pos] = color & (0xFF000000 | (pixel << 16) | (pixel << 8) | pixel);
-				values[pos] = (byte) index;
 				pos++;
 			}
 		} catch (ArrayIndexOutOfBoundsException e) {
 			e.printStackTrace();
 		}
-		if (seg != null) {
-			seg.store(values, timestamp);
-		}
 		return pixels;
 	}
 
@@ -0,0 +1,377 @@
+package br.edu.ifsp.capturer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact format for the movements of one user, which replaces the text
+ * written with one Arrays.toString per joint, with about 500 bytes per frame.
+ * <p>
+ * Each coordinate is rounded to 1/{@value #SCALE} of its unit, that is, less
+ * than one millimeter in the real world and less than one pixel in the depth
+ * frame, and only the difference to the same coordinate of the previous frame
+ * is written, as a varint in zigzag. The user moves a few millimeters between
+ * two frames, so most coordinates take one byte. The frames are compressed
+ * again by DEFLATE, which removes the repetitions left by the varints.
+ * <p>
+ * The frames are written and read one by one, by {@link Writer} and
+ * {@link Reader}, so a recording does not have to fit in the memory twice.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public final class SkeletonCodec {
+
+	public static final String EXTENSION = "skc";
+	/** The amount of steps of each unit of the coordinates. */
+	public static final int SCALE = 8;
+
+	private static final int MAGIC = 0x534B4331;
+	private static final int VERSION = 1;
+	private static final int FLAG_CONFIDENCE = 1;
+
+	private SkeletonCodec() {
+	}
+
+	/**
+	 * Write a whole track.
+	 *
+	 * @param track
+	 *            The movements of one user.
+	 * @param out
+	 *            The stream, which is closed at the end.
+	 */
+	public static void write(SkeletonTrack track, OutputStream out) throws IOException {
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = track.hasConfidence() ? new float[SkeletonTrack.JOINTS] : null;
+		try (Writer writer = new Writer(out, track.hasConfidence())) {
+			for (int i = 0; i < track.size(); i++) {
+				track.getJoints(i, joints, 0);
+				if (confidence != null) {
+					for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+						confidence[j] = track.getConfidence(i, j);
+					}
+				}
+				writer.write(track.getTimestamp(i), joints, 0, confidence);
+			}
+		}
+	}
+
+	/**
+	 * Read a whole track.
+	 *
+	 * @param in
+	 *            The stream, which is closed at the end.
+	 * @return The movements of one user.
+	 */
+	public static SkeletonTrack read(InputStream in) throws IOException {
+		try (Reader reader = new Reader(in)) {
+			SkeletonTrack track = new SkeletonTrack(256, reader.hasConfidence());
+			float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+			float[] confidence = reader.hasConfidence() ? new float[SkeletonTrack.JOINTS] : null;
+			while (reader.next(joints, 0, confidence)) {
+				track.add(reader.getTimestamp(), joints, 0, confidence);
+			}
+			track.sort();
+			return track;
+		}
+	}
+
+	public static void write(SkeletonTrack track, File file) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			write(track, out);
+		}
+	}
+
+	public static SkeletonTrack read(File file) throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	public static byte[] encode(SkeletonTrack track) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			write(track, out);
+		} catch (IOException e) {
+			/* The track is written to the memory */
+			throw new IllegalStateException("Could not encode the track", e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read a track encoded by {@link #encode(SkeletonTrack)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the data is not a track.
+	 */
+	public static SkeletonTrack decode(byte[] encoded) {
+		try {
+			return read(new ByteArrayInputStream(encoded));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("The data is not a track", e);
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Write the frames of one user, one by one.
+	 */
+	public static class Writer implements Closeable {
+
+		private OutputStream out;
+		private boolean withConfidence;
+		private long lastTimestamp = 0;
+		private int[] last = new int[SkeletonTrack.FRAME_SIZE];
+		private int[] lastConfidence = new int[SkeletonTrack.JOINTS];
+		/* The largest frame: the timestamp, the coordinates and the confidences */
+		private byte[] frame = new byte[10 + SkeletonTrack.FRAME_SIZE * 5 + SkeletonTrack.JOINTS * 2];
+		private int length;
+
+		/**
+		 * Create a writer and write the header of the format.
+		 *
+		 * @param out
+		 *            The stream, which is closed by {@link #close()}.
+		 * @param withConfidence
+		 *            true to write the confidence of the joints.
+		 */
+		public Writer(OutputStream out, boolean withConfidence) throws IOException {
+			DataOutputStream header = new DataOutputStream(out);
+			header.writeInt(MAGIC);
+			header.writeByte(VERSION);
+			header.writeByte(withConfidence ? FLAG_CONFIDENCE : 0);
+			header.writeShort(SCALE);
+			header.writeShort(SkeletonTrack.JOINTS);
+			header.flush();
+			this.out = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION), 8192);
+			this.withConfidence = withConfidence;
+		}
+
+		/**
+		 * Write one frame.
+		 *
+		 * @param timestamp
+		 *            The timestamp of the frame.
+		 * @param joints
+		 *            The coordinates of the joints, in the order joint, axis.
+		 * @param offset
+		 *            The position of the first coordinate in the array.
+		 * @param confidence
+		 *            The confidence of each joint, between 0 and 1, or null if
+		 *            it is not known.
+		 */
+		public void write(long timestamp, float[] joints, int offset, float[] confidence) throws IOException {
+			length = 0;
+			long delta = timestamp - lastTimestamp;
+			putVarLong((delta << 1) ^ (delta >> 63));
+			lastTimestamp = timestamp;
+
+			for (int i = 0; i < SkeletonTrack.FRAME_SIZE; i++) {
+				int value = Math.round(joints[offset + i] * SCALE);
+				putVarInt(zigzag(value - last[i]));
+				last[i] = value;
+			}
+			if (withConfidence) {
+				for (int i = 0; i < SkeletonTrack.JOINTS; i++) {
+					int value = confidence == null ? 255 : Math.round(confidence[i] * 255);
+					putVarInt(zigzag(value - lastConfidence[i]));
+					lastConfidence[i] = value;
+				}
+			}
+			out.write(frame, 0, length);
+		}
+
+		private void putVarInt(int value) {
+			while ((value & ~0x7F) != 0) {
+				frame[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			frame[length++] = (byte) value;
+		}
+
+		private void putVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				frame[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			frame[length++] = (byte) value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read the frames of one user, one by one, straight into the arrays of
+	 * the caller.
+	 */
+	public static class Reader implements Closeable {
+
+		private InputStream in;
+		private boolean withConfidence;
+		private int scale;
+		private long timestamp = 0;
+		private int[] last = new int[SkeletonTrack.FRAME_SIZE];
+		private int[] lastConfidence = new int[SkeletonTrack.JOINTS];
+
+		/**
+		 * Create a reader and read the header of the format.
+		 *
+		 * @param in
+		 *            The stream, which is closed by {@link #close()}.
+		 * @throws IOException
+		 *             If the stream is not a track of this format.
+		 */
+		public Reader(InputStream in) throws IOException {
+			DataInputStream header = new DataInputStream(in);
+			if (header.readInt() != MAGIC) {
+				throw new IOException("The data is not a track");
+			}
+			int version = header.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("Unknown version of the track: " + version);
+			}
+			withConfidence = (header.readUnsignedByte() & FLAG_CONFIDENCE) != 0;
+			scale = header.readUnsignedShort();
+			int joints = header.readUnsignedShort();
+			if (scale == 0 || joints != SkeletonTrack.JOINTS) {
+				throw new IOException("The track has " + joints + " joints");
+			}
+			this.in = new BufferedInputStream(new InflaterInputStream(in), 8192);
+		}
+
+		public boolean hasConfidence() {
+			return withConfidence;
+		}
+
+		/**
+		 * Get the timestamp of the last frame read.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Read the next frame.
+		 *
+		 * @param joints
+		 *            The array which will receive the coordinates, with at
+		 *            least offset + FRAME_SIZE positions.
+		 * @param offset
+		 *            The position of the first coordinate in the array.
+		 * @param confidence
+		 *            The array which will receive the confidence of each
+		 *            joint, or null. If the track has no confidence, it
+		 *            receives 1.
+		 * @return true if a frame was read, false at the end of the track.
+		 */
+		public boolean next(float[] joints, int offset, float[] confidence) throws IOException {
+			int first = in.read();
+			if (first < 0) {
+				return false;
+			}
+			long delta = readVarLong(first);
+			timestamp += (delta >>> 1) ^ -(delta & 1);
+
+			float step = 1f / scale;
+			for (int i = 0; i < SkeletonTrack.FRAME_SIZE; i++) {
+				last[i] += unzigzag(readVarInt());
+				joints[offset + i] = last[i] * step;
+			}
+			for (int i = 0; i < SkeletonTrack.JOINTS; i++) {
+				if (withConfidence) {
+					lastConfidence[i] += unzigzag(readVarInt());
+				}
+				if (confidence != null) {
+					confidence[i] = withConfidence ? lastConfidence[i] / 255f : 1f;
+				}
+			}
+			return true;
+		}
+
+		private int readByte() throws IOException {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("The track is incomplete");
+			}
+			return b;
+		}
+
+		private int readVarInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("The track is corrupted");
+		}
+
+		private long readVarLong(int b) throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 70; shift += 7) {
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+				b = readByte();
+			}
+			throw new IOException("The track is corrupted");
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compare the size of the text files informed with the size of the tracks
+	 * encoded, and the time to decode them.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String name : args) {
+			File file = new File(name);
+			SkeletonTrack track = SkeletonFile.readText(file);
+			byte[] encoded = encode(track);
+
+			long start = System.nanoTime();
+			int rounds = 200;
+			for (int i = 0; i < rounds; i++) {
+				decode(encoded);
+			}
+			long elapsed = (System.nanoTime() - start) / rounds;
+
+			System.out.printf("%s: %d frames, %d bytes as text, %d bytes encoded (%.1fx), %d us to decode%n", name,
+					track.size(), file.length(), encoded.length, file.length() / (double) encoded.length,
+					elapsed / 1000);
+		}
+	}
+}
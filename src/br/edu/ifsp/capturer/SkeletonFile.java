@@ -0,0 +1,457 @@
+package br.edu.ifsp.capturer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary file with the movements of one user, which replaces the text
+ * written with one Arrays.toString per joint. The coordinates are written as
+ * they were captured, without any loss, and each frame has the same size, so
+ * a file is read into the arrays of a {@link SkeletonTrack} without creating
+ * any String.
+ *
+ * <pre>
+ * header: int magic, short version, short flags, short joints, short axes,
+ *         short size of each frame, byte coordinate system, byte reserved
+ * frames: long timestamp, float coordinates[joints * axes],
+ *         byte confidence[joints] if the flag is set
+ * </pre>
+ *
+ * All the numbers are in little endian. The readers skip the bytes added to
+ * the end of the frames by the next versions.
+ * <p>
+ * The files written as text by the old versions are read by
+ * {@link #readText(File)}, and converted by {@link #main(String[])}.
+ *
+ * @see SkeletonCodec
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public final class SkeletonFile {
+
+	public static final String EXTENSION = "skb";
+
+	/** The coordinate systems of the movements. */
+	public static final byte UNKNOWN = 0, DEPTH = 1, REAL = 2;
+
+	private static final int MAGIC = 0x31424B53;
+	private static final int VERSION = 1;
+	private static final int FLAG_CONFIDENCE = 1;
+	private static final int HEADER = 16;
+
+	private SkeletonFile() {
+	}
+
+	/**
+	 * Get the size of each frame written by this version.
+	 */
+	private static int getFrameSize(boolean withConfidence) {
+		return 8 + SkeletonTrack.FRAME_SIZE * 4 + (withConfidence ? SkeletonTrack.JOINTS : 0);
+	}
+
+	/**
+	 * Get the coordinate system of a file of the directory Coordinates, as
+	 * Real.txt or Depth-2.skb, by its name.
+	 */
+	public static byte getCoordinateSystem(String name) {
+		if (name.startsWith("Real")) {
+			return REAL;
+		}
+		return name.startsWith("Depth") ? DEPTH : UNKNOWN;
+	}
+
+	/**
+	 * Write a whole track.
+	 *
+	 * @param track
+	 *            The movements of one user.
+	 * @param system
+	 *            The coordinate system of the movements.
+	 * @param out
+	 *            The stream, which is closed at the end.
+	 */
+	public static void write(SkeletonTrack track, byte system, OutputStream out) throws IOException {
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = track.hasConfidence() ? new float[SkeletonTrack.JOINTS] : null;
+		try (Writer writer = new Writer(out, system, track.hasConfidence())) {
+			for (int i = 0; i < track.size(); i++) {
+				track.getJoints(i, joints, 0);
+				if (confidence != null) {
+					for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+						confidence[j] = track.getConfidence(i, j);
+					}
+				}
+				writer.write(track.getTimestamp(i), joints, 0, confidence);
+			}
+		}
+	}
+
+	/**
+	 * Read a whole track.
+	 *
+	 * @param in
+	 *            The stream, which is closed at the end.
+	 * @param capacity
+	 *            The amount of frames expected.
+	 * @return The movements of one user.
+	 */
+	public static SkeletonTrack read(InputStream in, int capacity) throws IOException {
+		try (Reader reader = new Reader(in)) {
+			SkeletonTrack track = new SkeletonTrack(capacity, reader.hasConfidence());
+			float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+			float[] confidence = reader.hasConfidence() ? new float[SkeletonTrack.JOINTS] : null;
+			while (reader.next(joints, 0, confidence)) {
+				track.add(reader.getTimestamp(), joints, 0, confidence);
+			}
+			track.sort();
+			return track;
+		}
+	}
+
+	public static void write(SkeletonTrack track, byte system, File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(track, system, out);
+		}
+	}
+
+	public static SkeletonTrack read(File file) throws IOException {
+		/* The size of the file tells the amount of frames */
+		int capacity = (int) Math.min((file.length() - HEADER) / getFrameSize(false), Integer.MAX_VALUE);
+		try (InputStream in = new FileInputStream(file)) {
+			return read(in, capacity);
+		}
+	}
+
+	public static byte[] encode(SkeletonTrack track, byte system) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER + track.size() * getFrameSize(true));
+		try {
+			write(track, system, out);
+		} catch (IOException e) {
+			/* The track is written to the memory */
+			throw new IllegalStateException("Could not encode the track", e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read a track written by {@link #encode(SkeletonTrack, byte)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the data is not a track.
+	 */
+	public static SkeletonTrack decode(byte[] encoded) {
+		try {
+			return read(new ByteArrayInputStream(encoded), (encoded.length - HEADER) / getFrameSize(false));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("The data is not a track", e);
+		}
+	}
+
+	/**
+	 * Write the frames of one user, one by one.
+	 */
+	public static class Writer implements Closeable {
+
+		private OutputStream out;
+		private boolean withConfidence;
+		private byte[] frame;
+		private ByteBuffer buff;
+		private FloatBuffer coordinates;
+
+		/**
+		 * Create a writer and write the header.
+		 *
+		 * @param out
+		 *            The stream, which is closed by {@link #close()}.
+		 * @param system
+		 *            The coordinate system of the movements. Please, use the
+		 *            constants of this class.
+		 * @param withConfidence
+		 *            true to write the confidence of the joints.
+		 */
+		public Writer(OutputStream out, byte system, boolean withConfidence) throws IOException {
+			this.out = new BufferedOutputStream(out, 1 << 16);
+			this.withConfidence = withConfidence;
+
+			int size = getFrameSize(withConfidence);
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putShort((short) VERSION).putShort((short) (withConfidence ? FLAG_CONFIDENCE : 0));
+			header.putShort((short) SkeletonTrack.JOINTS).putShort((short) SkeletonTrack.AXES);
+			header.putShort((short) size).put(system).put((byte) 0);
+			this.out.write(header.array());
+
+			frame = new byte[size];
+			buff = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+			buff.position(8);
+			coordinates = buff.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		}
+
+		/**
+		 * Write one frame.
+		 *
+		 * @param timestamp
+		 *            The timestamp of the frame.
+		 * @param joints
+		 *            The coordinates of the joints, in the order joint, axis.
+		 * @param offset
+		 *            The position of the first coordinate in the array.
+		 * @param confidence
+		 *            The confidence of each joint, between 0 and 1, or null
+		 *            if it is 1.
+		 */
+		public void write(long timestamp, float[] joints, int offset, float[] confidence) throws IOException {
+			buff.putLong(0, timestamp);
+			coordinates.clear();
+			coordinates.put(joints, offset, SkeletonTrack.FRAME_SIZE);
+			if (withConfidence) {
+				int pos = 8 + SkeletonTrack.FRAME_SIZE * 4;
+				for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+					float value = confidence == null ? 1f : confidence[j];
+					frame[pos + j] = (byte) Math.round(Math.max(0f, Math.min(1f, value)) * 255);
+				}
+			}
+			out.write(frame);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read the frames of one user, one by one, into arrays informed.
+	 */
+	public static class Reader implements Closeable {
+
+		private DataInputStream in;
+		private boolean withConfidence;
+		private byte system;
+		private long timestamp;
+		private byte[] frame;
+		private ByteBuffer buff;
+		private FloatBuffer coordinates;
+
+		/**
+		 * Create a reader and read the header.
+		 *
+		 * @param in
+		 *            The stream, which is closed by {@link #close()}.
+		 * @throws IOException
+		 *             If the stream is not a track or its version is unknown.
+		 */
+		public Reader(InputStream in) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+
+			byte[] bytes = new byte[HEADER];
+			try {
+				this.in.readFully(bytes);
+			} catch (EOFException e) {
+				throw new IOException("The file is not a track", e);
+			}
+			ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("The file is not a track");
+			}
+			int version = header.getShort();
+			if (version != VERSION) {
+				throw new IOException("Unknown version of the track: " + version);
+			}
+			withConfidence = (header.getShort() & FLAG_CONFIDENCE) != 0;
+			int joints = header.getShort(), axes = header.getShort(), size = header.getShort() & 0xFFFF;
+			if (joints != SkeletonTrack.JOINTS || axes != SkeletonTrack.AXES) {
+				throw new IOException("The track has " + joints + " joints with " + axes + " axes");
+			}
+			if (size < getFrameSize(withConfidence)) {
+				throw new IOException("The frames of the track are too small: " + size);
+			}
+			system = header.get();
+
+			frame = new byte[size];
+			buff = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+			buff.position(8);
+			coordinates = buff.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		}
+
+		public boolean hasConfidence() {
+			return withConfidence;
+		}
+
+		/**
+		 * Get the coordinate system of the movements, as one of the constants
+		 * of this class.
+		 */
+		public byte getCoordinateSystem() {
+			return system;
+		}
+
+		/**
+		 * Get the timestamp of the last frame read.
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Read the next frame.
+		 *
+		 * @param joints
+		 *            The array where the coordinates are stored.
+		 * @param offset
+		 *            The position of the first coordinate in the array.
+		 * @param confidence
+		 *            The array where the confidence of each joint is stored,
+		 *            or null. It is 1 if it was not written.
+		 * @return true if a frame was read, false at the end of the track.
+		 * @throws IOException
+		 *             If the last frame is incomplete.
+		 */
+		public boolean next(float[] joints, int offset, float[] confidence) throws IOException {
+			int read = 0;
+			while (read < frame.length) {
+				int count = in.read(frame, read, frame.length - read);
+				if (count < 0) {
+					if (read == 0) {
+						return false;
+					}
+					throw new EOFException("The last frame of the track is incomplete");
+				}
+				read += count;
+			}
+
+			timestamp = buff.getLong(0);
+			coordinates.clear();
+			coordinates.get(joints, offset, SkeletonTrack.FRAME_SIZE);
+			if (confidence != null) {
+				int pos = 8 + SkeletonTrack.FRAME_SIZE * 4;
+				for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+					confidence[j] = withConfidence ? (frame[pos + j] & 0xFF) / 255f : 1f;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a file written as text by the old versions, with one line per
+	 * frame: the timestamp, a space and one Arrays.toString per joint. The
+	 * joints not found were written as null, and are read as 0.
+	 */
+	public static SkeletonTrack readText(File file) throws IOException {
+		return readText(Files.readAllLines(file.toPath()));
+	}
+
+	/**
+	 * Read the lines of a file written as text by the old versions.
+	 *
+	 * @see #readText(File)
+	 */
+	public static SkeletonTrack readText(List<String> lines) {
+		SkeletonTrack track = new SkeletonTrack(lines.size(), false);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		for (String line : lines) {
+			int start = line.indexOf('[');
+			if (start <= 0) {
+				continue;
+			}
+			long timestamp;
+			try {
+				timestamp = Long.parseLong(line.substring(0, start).trim());
+			} catch (NumberFormatException e) {
+				System.out.println("Ignoring the line " + line);
+				continue;
+			}
+
+			Arrays.fill(joints, 0f);
+			int count = 0;
+			for (int i = start; i < line.length() && count < joints.length;) {
+				if (isSeparator(line.charAt(i))) {
+					i++;
+					continue;
+				}
+				int end = i;
+				while (end < line.length() && !isSeparator(line.charAt(end))) {
+					end++;
+				}
+				try {
+					joints[count] = Float.parseFloat(line.substring(i, end));
+				} catch (NumberFormatException e) {
+					/* null */
+				}
+				count++;
+				i = end;
+			}
+			track.add(timestamp, joints);
+		}
+		track.sort();
+		return track;
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == '[' || c == ']' || c == ',' || c == ' ';
+	}
+
+	/**
+	 * Convert a file written as text by the old versions to a binary file
+	 * in the same directory, with the same name.
+	 *
+	 * @return The binary file.
+	 */
+	public static File convert(File text) throws IOException {
+		String name = text.getName();
+		int dot = name.lastIndexOf('.');
+		File binary = new File(text.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + "." + EXTENSION);
+		write(readText(text), getCoordinateSystem(name), binary);
+		return binary;
+	}
+
+	/**
+	 * Convert the files written as text by the old versions, informed either
+	 * one by one or by the directory Coordinates of the recordings, and show
+	 * the time to read each format. The text files are kept.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String name : args) {
+			File file = new File(name);
+			File[] files = file.isDirectory() ? file.listFiles() : new File[] { file };
+			for (File text : files) {
+				if (!text.getName().endsWith(".txt")) {
+					continue;
+				}
+				File binary = convert(text);
+
+				long start = System.nanoTime();
+				SkeletonTrack track = readText(text);
+				long readText = System.nanoTime() - start;
+				start = System.nanoTime();
+				read(binary);
+				long readBinary = System.nanoTime() - start;
+
+				System.out.printf("%s: %d frames, %d bytes as text in %d us, %d bytes as binary in %d us%n", text,
+						track.size(), text.length(), readText / 1000, binary.length(), readBinary / 1000);
+			}
+		}
+	}
+}
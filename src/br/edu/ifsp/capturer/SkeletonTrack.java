@@ -0,0 +1,455 @@
+package br.edu.ifsp.capturer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The movements of one user stored in columns. Instead of one map entry and
+ * one Float[][] per frame, the track keeps one array with the timestamps of
+ * all frames and one array with the coordinates of all joints, where the
+ * frame <i>i</i> uses the positions from <i>i * FRAME_SIZE</i> until
+ * <i>(i + 1) * FRAME_SIZE - 1</i>. Optionally, the confidence of each joint is
+ * also stored, as a value between 0 and 255.
+ * <p>
+ * The method {@link #asMap()} allows the classes that still use the structure
+ * {@code Map<Long, Float[][]>} to read the track without copying it.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class SkeletonTrack {
+
+	public static final int JOINTS = 15, AXES = 3, FRAME_SIZE = JOINTS * AXES;
+
+	private long[] timestamps;
+	private float[] joints;
+	private byte[] confidences;
+	private int size = 0;
+	private boolean sorted = true;
+
+	/**
+	 * Create an empty track without the confidence of the joints.
+	 */
+	public SkeletonTrack() {
+		this(256, false);
+	}
+
+	/**
+	 * Create an empty track.
+	 *
+	 * @param capacity
+	 *            The amount of frames that can be stored before the arrays
+	 *            grow.
+	 * @param withConfidence
+	 *            true to store the confidence of the joints, false otherwise.
+	 */
+	public SkeletonTrack(int capacity, boolean withConfidence) {
+		capacity = Math.max(capacity, 1);
+		timestamps = new long[capacity];
+		joints = new float[capacity * FRAME_SIZE];
+		if (withConfidence) {
+			confidences = new byte[capacity * JOINTS];
+		}
+	}
+
+	/**
+	 * Create a track with the frames of the map informed.
+	 *
+	 * @param map
+	 *            The movements of one user.
+	 * @return The new track, sorted by timestamp.
+	 */
+	public static SkeletonTrack fromMap(Map<Long, Float[][]> map) {
+		SkeletonTrack track = new SkeletonTrack(map.size(), false);
+		for (Map.Entry<Long, Float[][]> entry : map.entrySet()) {
+			track.add(entry.getKey(), entry.getValue());
+		}
+		track.sort();
+		return track;
+	}
+
+	/**
+	 * Add a new frame at the end of the track. If the timestamp is the same
+	 * of the last frame, the last frame is replaced.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param values
+	 *            The coordinates of the joints, in the order joint, axis.
+	 * @param offset
+	 *            The position of the first coordinate in the array.
+	 * @param confidence
+	 *            The confidence of each joint, between 0 and 1, or null.
+	 */
+	public void add(long timestamp, float[] values, int offset, float[] confidence) {
+		int index = prepare(timestamp);
+		System.arraycopy(values, offset, joints, index * FRAME_SIZE, FRAME_SIZE);
+		if (confidences != null && confidence != null) {
+			for (int i = 0; i < JOINTS; i++) {
+				confidences[index * JOINTS + i] = (byte) Math.round(confidence[i] * 255);
+			}
+		}
+	}
+
+	/**
+	 * Add a new frame at the end of the track.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param values
+	 *            The coordinates of the joints, in the order joint, axis.
+	 */
+	public void add(long timestamp, float[] values) {
+		add(timestamp, values, 0, null);
+	}
+
+	/**
+	 * Add a new frame at the end of the track.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param values
+	 *            The coordinates of the joints, where Float[] represents the
+	 *            joints and Float[][] represents the positions in the axis X,
+	 *            Y and Z.
+	 */
+	public void add(long timestamp, Float[][] values) {
+		int index = prepare(timestamp);
+		int pos = index * FRAME_SIZE;
+		for (int i = 0; i < JOINTS; i++) {
+			for (int j = 0; j < AXES; j++) {
+				Float value = values[i][j];
+				joints[pos++] = value == null ? 0f : value;
+			}
+		}
+	}
+
+	private int prepare(long timestamp) {
+		if (size > 0) {
+			long last = timestamps[size - 1];
+			if (timestamp == last) {
+				return size - 1;
+			}
+			if (timestamp < last) {
+				sorted = false;
+			}
+		}
+		if (size == timestamps.length) {
+			grow();
+		}
+		timestamps[size] = timestamp;
+		return size++;
+	}
+
+	private void grow() {
+		int capacity = timestamps.length * 2;
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		joints = Arrays.copyOf(joints, capacity * FRAME_SIZE);
+		if (confidences != null) {
+			confidences = Arrays.copyOf(confidences, capacity * JOINTS);
+		}
+	}
+
+	/**
+	 * Create a copy of this track, with arrays of the size of the frames
+	 * stored.
+	 *
+	 * @return The new track.
+	 */
+	public SkeletonTrack copy() {
+		SkeletonTrack copy = new SkeletonTrack(size, confidences != null);
+		System.arraycopy(timestamps, 0, copy.timestamps, 0, size);
+		System.arraycopy(joints, 0, copy.joints, 0, size * FRAME_SIZE);
+		if (confidences != null) {
+			System.arraycopy(confidences, 0, copy.confidences, 0, size * JOINTS);
+		}
+		copy.size = size;
+		copy.sorted = sorted;
+		return copy;
+	}
+
+	/**
+	 * Sort the frames by timestamp. It is only necessary when the frames were
+	 * not added in order.
+	 */
+	public void sort() {
+		if (sorted) {
+			return;
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(timestamps[o1], timestamps[o2]);
+			}
+		});
+
+		long[] newTimestamps = new long[timestamps.length];
+		float[] newJoints = new float[joints.length];
+		byte[] newConfidences = confidences == null ? null : new byte[confidences.length];
+		for (int i = 0; i < size; i++) {
+			int from = order[i];
+			newTimestamps[i] = timestamps[from];
+			System.arraycopy(joints, from * FRAME_SIZE, newJoints, i * FRAME_SIZE, FRAME_SIZE);
+			if (newConfidences != null) {
+				System.arraycopy(confidences, from * JOINTS, newConfidences, i * JOINTS, JOINTS);
+			}
+		}
+		timestamps = newTimestamps;
+		joints = newJoints;
+		confidences = newConfidences;
+		sorted = true;
+	}
+
+	/**
+	 * Get the amount of frames stored.
+	 *
+	 * @return The amount of frames stored.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the amount of bytes of the arrays of this track, including the
+	 * positions not used yet.
+	 *
+	 * @return The amount of bytes retained by this track.
+	 */
+	public long getRetainedBytes() {
+		return timestamps.length * 8L + joints.length * 4L + (confidences == null ? 0 : confidences.length);
+	}
+
+	public boolean hasConfidence() {
+		return confidences != null;
+	}
+
+	public long getTimestamp(int index) {
+		check(index);
+		return timestamps[index];
+	}
+
+	/**
+	 * Get one coordinate of one joint.
+	 *
+	 * @param index
+	 *            The index of the frame.
+	 * @param joint
+	 *            The joint. Please, use the constants of {@link Coordinate}.
+	 * @param axis
+	 *            The axis. Please, use the constants {@link Coordinate}.X,
+	 *            {@link Coordinate}.Y or {@link Coordinate}.Z.
+	 * @return The coordinate.
+	 */
+	public float get(int index, int joint, int axis) {
+		check(index);
+		return joints[index * FRAME_SIZE + joint * AXES + axis];
+	}
+
+	/**
+	 * Get the confidence of one joint.
+	 *
+	 * @return The confidence, between 0 and 1, or 1 if the track does not
+	 *         store the confidence.
+	 */
+	public float getConfidence(int index, int joint) {
+		check(index);
+		if (confidences == null) {
+			return 1f;
+		}
+		return (confidences[index * JOINTS + joint] & 0xFF) / 255f;
+	}
+
+	/**
+	 * Copy the coordinates of one frame to the array informed.
+	 *
+	 * @param index
+	 *            The index of the frame.
+	 * @param dst
+	 *            The array which will receive the coordinates, with at least
+	 *            offset + FRAME_SIZE positions.
+	 * @param offset
+	 *            The position of the first coordinate in the array.
+	 */
+	public void getJoints(int index, float[] dst, int offset) {
+		check(index);
+		System.arraycopy(joints, index * FRAME_SIZE, dst, offset, FRAME_SIZE);
+	}
+
+	/**
+	 * Get the coordinates of one frame in the structure Float[][].
+	 *
+	 * @param index
+	 *            The index of the frame.
+	 * @return A new array, where Float[] represents the joints and Float[][]
+	 *         represents the positions in the axis X, Y and Z.
+	 */
+	public Float[][] toArray(int index) {
+		check(index);
+		Float[][] values = new Float[JOINTS][AXES];
+		int pos = index * FRAME_SIZE;
+		for (int i = 0; i < JOINTS; i++) {
+			for (int j = 0; j < AXES; j++) {
+				values[i][j] = joints[pos++];
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Find the frame with the timestamp informed.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @return The index of the frame, or a negative value if there is no frame
+	 *         with this timestamp.
+	 */
+	public int indexOf(long timestamp) {
+		if (sorted) {
+			int index = Arrays.binarySearch(timestamps, 0, size, timestamp);
+			return index < 0 ? -1 : index;
+		}
+		for (int i = 0; i < size; i++) {
+			if (timestamps[i] == timestamp) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Delete all the frames stored.
+	 */
+	public void clear() {
+		size = 0;
+		sorted = true;
+	}
+
+	/**
+	 * Get a read only view of this track in the structure
+	 * {@code Map<Long, Float[][]>}. Each call to {@link Map#get(Object)}
+	 * creates the Float[][] of the frame requested.
+	 *
+	 * @return The view of this track.
+	 */
+	public Map<Long, Float[][]> asMap() {
+		return new MapView();
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * A read only map whose keys are the timestamps of the track.
+	 */
+	private class MapView extends AbstractMap<Long, Float[][]> {
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Long && indexOf((Long) key) >= 0;
+		}
+
+		@Override
+		public Float[][] get(Object key) {
+			if (!(key instanceof Long)) {
+				return null;
+			}
+			int index = indexOf((Long) key);
+			return index < 0 ? null : toArray(index);
+		}
+
+		@Override
+		public Set<Long> keySet() {
+			return new AbstractSet<Long>() {
+
+				@Override
+				public Iterator<Long> iterator() {
+					return new IndexIterator<Long>() {
+
+						@Override
+						protected Long get(int index) {
+							return timestamps[index];
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return containsKey(o);
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+
+		@Override
+		public Set<Map.Entry<Long, Float[][]>> entrySet() {
+			return new AbstractSet<Map.Entry<Long, Float[][]>>() {
+
+				@Override
+				public Iterator<Map.Entry<Long, Float[][]>> iterator() {
+					return new IndexIterator<Map.Entry<Long, Float[][]>>() {
+
+						@Override
+						protected Map.Entry<Long, Float[][]> get(int index) {
+							return new AbstractMap.SimpleImmutableEntry<>(timestamps[index], SkeletonTrack.this.toArray(index));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * An iterator over the indexes of the frames.
+	 */
+	private abstract class IndexIterator<E> implements Iterator<E> {
+
+		private int index = 0;
+
+		protected abstract E get(int index);
+
+		@Override
+		public boolean hasNext() {
+			return index < size;
+		}
+
+		@Override
+		public E next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return get(index++);
+		}
+	}
+}
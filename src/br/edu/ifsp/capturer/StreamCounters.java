@@ -0,0 +1,73 @@
+package br.edu.ifsp.capturer;
+
+/**
+ * What happened to the frames of one stream since the capture started: how
+ * many frames were received from the sensor, how many were recorded, how many
+ * were discarded because a stage could not keep up, and how many arrived too
+ * late to be used. The object is a copy of the counters, taken when it is
+ * created.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class StreamCounters {
+
+	private int stream;
+	private long received, recorded, dropped, late;
+
+	/**
+	 * Create the counters of one stream.
+	 *
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 */
+	public StreamCounters(int stream, long received, long recorded, long dropped, long late) {
+		this.stream = stream;
+		this.received = received;
+		this.recorded = recorded;
+		this.dropped = dropped;
+		this.late = late;
+	}
+
+	public int getStream() {
+		return stream;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	public long getRecorded() {
+		return recorded;
+	}
+
+	public long getDropped() {
+		return dropped;
+	}
+
+	public long getLate() {
+		return late;
+	}
+
+	/**
+	 * Get the name of the stream, as used in the directories of a recording.
+	 */
+	public String getName() {
+		switch (stream) {
+		case Frame.COLOR:
+			return "Color";
+		case Frame.DEPTH:
+			return "Depth";
+		case Frame.SEGMENTATION:
+			return "Segmentation";
+		default:
+			return "Stream " + stream;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getName() + ": " + received + " received, " + recorded + " recorded, " + dropped + " dropped, "
+				+ late + " late";
+	}
+}
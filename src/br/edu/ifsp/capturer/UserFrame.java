@@ -0,0 +1,179 @@
+package br.edu.ifsp.capturer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.primesense.nite.PoseType;
+
+/**
+ * Everything a {@link FrameSource} knows about one depth frame: the depth
+ * pixels, the map of users and the joints of each user. The source reuses the
+ * same object for all the frames, so the listener must copy what it keeps.
+ * <p>
+ * The joints of the user <i>i</i> are in the positions from <i>i *
+ * FRAME_SIZE</i> until <i>(i + 1) * FRAME_SIZE - 1</i> of the array returned
+ * by {@link #getJoints()}, in the real world coordinate system.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class UserFrame {
+
+	/** Bits of {@link #getPoses(int)}. */
+	public static final int POSE_CROSSED_HANDS = 1, POSE_PSI = 2;
+
+	private long timestamp;
+	private int width, height;
+	private ByteBuffer depth, userMap;
+	private int userMapStride;
+	private int users = 0;
+	private short[] ids = new short[6];
+	private boolean[] tracked = new boolean[6];
+	private boolean[] newUser = new boolean[6];
+	private int[] poses = new int[6];
+	private float[] joints = new float[6 * SkeletonTrack.FRAME_SIZE];
+	private float[] confidences = new float[6 * SkeletonTrack.JOINTS];
+
+	/**
+	 * Start a new frame, without users.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the depth frame.
+	 * @param width
+	 *            The width of the depth frame.
+	 * @param height
+	 *            The height of the depth frame.
+	 * @param depth
+	 *            The depth pixels, with two bytes per pixel in little endian.
+	 * @param userMap
+	 *            The id of the user of each pixel, with two bytes per pixel
+	 *            in little endian, or null.
+	 * @param userMapStride
+	 *            The amount of bytes of each line of the map of users.
+	 */
+	public void reset(long timestamp, int width, int height, ByteBuffer depth, ByteBuffer userMap, int userMapStride) {
+		this.timestamp = timestamp;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.userMap = userMap;
+		this.userMapStride = userMapStride;
+		this.users = 0;
+	}
+
+	/**
+	 * Add a user to this frame.
+	 *
+	 * @param id
+	 *            The id of the user.
+	 * @param isNew
+	 *            true if the user was not in the previous frame, false
+	 *            otherwise.
+	 * @param isTracked
+	 *            true if the skeleton of the user is tracked, false otherwise.
+	 * @param pose
+	 *            The poses held by the user. Please, use the constants
+	 *            POSE_CROSSED_HANDS and POSE_PSI.
+	 * @return The index of the user, where the joints of the user must be
+	 *         written.
+	 */
+	public int addUser(short id, boolean isNew, boolean isTracked, int pose) {
+		if (users == ids.length) {
+			int capacity = users * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			tracked = Arrays.copyOf(tracked, capacity);
+			newUser = Arrays.copyOf(newUser, capacity);
+			poses = Arrays.copyOf(poses, capacity);
+			joints = Arrays.copyOf(joints, capacity * SkeletonTrack.FRAME_SIZE);
+			confidences = Arrays.copyOf(confidences, capacity * SkeletonTrack.JOINTS);
+		}
+		ids[users] = id;
+		tracked[users] = isTracked;
+		newUser[users] = isNew;
+		poses[users] = pose;
+		return users++;
+	}
+
+	/**
+	 * Get the bit of the pose informed.
+	 *
+	 * @return The bit of the pose, or 0 if the pose is null.
+	 */
+	public static int getPoseBit(PoseType pose) {
+		if (pose == PoseType.CROSSED_HANDS) {
+			return POSE_CROSSED_HANDS;
+		} else if (pose == PoseType.PSI) {
+			return POSE_PSI;
+		}
+		return 0;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public ByteBuffer getDepth() {
+		return depth;
+	}
+
+	public ByteBuffer getUserMap() {
+		return userMap;
+	}
+
+	public int getUserMapStride() {
+		return userMapStride;
+	}
+
+	/**
+	 * Get the amount of users of this frame.
+	 */
+	public int getUserCount() {
+		return users;
+	}
+
+	public short getId(int index) {
+		return ids[index];
+	}
+
+	public boolean isNew(int index) {
+		return newUser[index];
+	}
+
+	public boolean isTracked(int index) {
+		return tracked[index];
+	}
+
+	public int getPoses(int index) {
+		return poses[index];
+	}
+
+	/**
+	 * Check the user informed is holding the pose informed.
+	 */
+	public boolean isPoseHeld(int index, PoseType pose) {
+		int bit = getPoseBit(pose);
+		return bit != 0 && (poses[index] & bit) != 0;
+	}
+
+	/**
+	 * Get the joints of all the users, in the real world coordinate system.
+	 */
+	public float[] getJoints() {
+		return joints;
+	}
+
+	/**
+	 * Get the confidence of the joints of all the users, between 0 and 1.
+	 */
+	public float[] getConfidences() {
+		return confidences;
+	}
+}
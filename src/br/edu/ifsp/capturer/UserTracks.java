@@ -0,0 +1,195 @@
+package br.edu.ifsp.capturer;
+
+import java.util.Arrays;
+
+/**
+ * The movements of all the users of a recording, in both coordinate systems.
+ * The tracks are found by the id of the user in an array, instead of a map,
+ * and all the methods are synchronized, so the joints can be recorded by the
+ * thread of the sensor while the recording is read by another thread.
+ * <p>
+ * The tracks returned by this object must not be changed while it is still
+ * recording. Use {@link #snapshot()} to get a copy that can be read safely.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class UserTracks {
+
+	private SkeletonTrack[] depth = new SkeletonTrack[8];
+	private SkeletonTrack[] real = new SkeletonTrack[8];
+	private short[] users = new short[4];
+	private int userCount = 0;
+
+	/**
+	 * Add the joints of one user, in both coordinate systems.
+	 *
+	 * @param id
+	 *            The id of the user.
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param realJoints
+	 *            The joints in the real world coordinate system.
+	 * @param depthJoints
+	 *            The joints in the depth coordinate system.
+	 * @param confidence
+	 *            The confidence of each joint, or null.
+	 */
+	public synchronized void record(short id, long timestamp, float[] realJoints, float[] depthJoints,
+			float[] confidence) {
+		getOrCreate(id, true).add(timestamp, depthJoints, 0, confidence);
+		getOrCreate(id, false).add(timestamp, realJoints, 0, confidence);
+	}
+
+	/**
+	 * Set the tracks of one user, replacing the tracks stored before.
+	 *
+	 * @param id
+	 *            The id of the user.
+	 * @param depthTrack
+	 *            The track in the depth coordinate system, or null.
+	 * @param realTrack
+	 *            The track in the real world coordinate system, or null.
+	 */
+	public synchronized void put(short id, SkeletonTrack depthTrack, SkeletonTrack realTrack) {
+		ensureCapacity(id);
+		if (depth[id] == null && real[id] == null) {
+			addUser(id);
+		}
+		depth[id] = depthTrack;
+		real[id] = realTrack;
+	}
+
+	private SkeletonTrack getOrCreate(short id, boolean isDepth) {
+		ensureCapacity(id);
+		SkeletonTrack[] tracks = isDepth ? depth : real;
+		SkeletonTrack track = tracks[id];
+		if (track == null) {
+			if (depth[id] == null && real[id] == null) {
+				addUser(id);
+			}
+			track = new SkeletonTrack(256, true);
+			tracks[id] = track;
+		}
+		return track;
+	}
+
+	private void ensureCapacity(short id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Invalid user: " + id);
+		}
+		if (id >= depth.length) {
+			int capacity = Math.max(id + 1, depth.length * 2);
+			depth = Arrays.copyOf(depth, capacity);
+			real = Arrays.copyOf(real, capacity);
+		}
+	}
+
+	private void addUser(short id) {
+		if (userCount == users.length) {
+			users = Arrays.copyOf(users, userCount * 2);
+		}
+		users[userCount++] = id;
+	}
+
+	/**
+	 * Get the ids of the users, in the order they were recorded.
+	 */
+	public synchronized short[] getUsers() {
+		return Arrays.copyOf(users, userCount);
+	}
+
+	/**
+	 * Get the amount of users recorded.
+	 */
+	public synchronized int getUserCount() {
+		return userCount;
+	}
+
+	/**
+	 * Get the track of one user in the depth coordinate system.
+	 *
+	 * @return The track, or null if the user was not recorded.
+	 */
+	public synchronized SkeletonTrack getDepth(short id) {
+		return id >= 0 && id < depth.length ? depth[id] : null;
+	}
+
+	/**
+	 * Get the track of one user in the real world coordinate system.
+	 *
+	 * @return The track, or null if the user was not recorded.
+	 */
+	public synchronized SkeletonTrack getReal(short id) {
+		return id >= 0 && id < real.length ? real[id] : null;
+	}
+
+	/**
+	 * Get the user with more frames recorded, who is the main user of the
+	 * recording.
+	 *
+	 * @return The id of the user, or -1 if there is no user.
+	 */
+	public synchronized short getMainUser() {
+		short main = -1;
+		int maxValue = -1;
+		for (int i = 0; i < userCount; i++) {
+			short id = users[i];
+			int size = Math.max(size(depth[id]), size(real[id]));
+			if (size > maxValue) {
+				maxValue = size;
+				main = id;
+			}
+		}
+		return main;
+	}
+
+	/**
+	 * Get the amount of bytes of the tracks of all the users.
+	 */
+	public synchronized long getRetainedBytes() {
+		long bytes = 0;
+		for (int i = 0; i < userCount; i++) {
+			short id = users[i];
+			bytes += depth[id] == null ? 0 : depth[id].getRetainedBytes();
+			bytes += real[id] == null ? 0 : real[id].getRetainedBytes();
+		}
+		return bytes;
+	}
+
+	private static int size(SkeletonTrack track) {
+		return track == null ? 0 : track.size();
+	}
+
+	/**
+	 * Copy all the tracks, sorted by timestamp.
+	 *
+	 * @return A new object, which is not changed by this one.
+	 */
+	public synchronized UserTracks snapshot() {
+		UserTracks copy = new UserTracks();
+		for (int i = 0; i < userCount; i++) {
+			short id = users[i];
+			copy.put(id, copy(depth[id]), copy(real[id]));
+		}
+		return copy;
+	}
+
+	private static SkeletonTrack copy(SkeletonTrack track) {
+		if (track == null) {
+			return null;
+		}
+		SkeletonTrack copy = track.copy();
+		copy.sort();
+		return copy;
+	}
+
+	/**
+	 * Delete the tracks of all the users.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(depth, null);
+		Arrays.fill(real, null);
+		userCount = 0;
+	}
+}
@@ -8,8 +8,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.nio.ByteBuffer;
-import java.util.Set;
-import java.util.TreeSet;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -21,10 +19,13 @@ import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import br.edu.ifsp.capturer.CompositeFrame;
 import br.edu.ifsp.capturer.Coordinate;
+import br.edu.ifsp.capturer.Frame;
 import br.edu.ifsp.capturer.ImageCapture;
-import br.edu.ifsp.capturer.Segmentation;
+import br.edu.ifsp.capturer.RunLengthMask;
 import br.edu.ifsp.capturer.ShowObject;
+import br.edu.ifsp.capturer.SkeletonTrack;
 import br.edu.ifsp.util.CaptureData;
 import br.edu.ifsp.util.Load;
 
@@ -34,9 +35,9 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 	private Load load;
 	private ShowObject view;
 	private Coordinate coor;
-	private Segmentation seg;
 	private ImageCapture imgDepth;
 	private ImageCapture imgColor;
+	private float[] joints = new float[SkeletonTrack.FRAME_SIZE];
 
 	private JSlider slider;
 	private JMenuBar menu;
@@ -55,6 +56,7 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 		setJMenuBar(getMenu());
 		setVisible(true);
 		load = new Load();
+		load.setMapped(true);
 
 		if (file != null) {
 			initialize(file);
@@ -73,7 +75,6 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 		}
 		view = new ShowObject();
 		coor = new Coordinate(view);
-		seg = new Segmentation(view);
 		imgDepth = new ImageCapture(view, ImageCapture.DEPTH);
 		imgColor = new ImageCapture(view, ImageCapture.COLOR);
 	}
@@ -138,7 +139,7 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 		c.setBorder(new TitledBorder("Control"));
 		c.setSize(640, 100);
 
-		slider = new JSlider(0, data.getTimestamp().size());
+		slider = new JSlider(0, Math.max(data.getFrameCount() - 1, 0));
 		slider.setValue(0);
 		slider.setPaintTicks(true);
 		slider.setMinorTickSpacing(1);
@@ -152,44 +153,20 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
+		/*
+		 * All the streams share the same timeline, since each index is one
+		 * composite frame. Only the background has to change.
+		 */
 		if (e.getSource() == mColor) {
 			view.setCamera(ShowObject.COLOR);
-
-			Set<Long> time = new TreeSet<>();
-			for (Long l : data.getImageColor().keySet()) {
-				time.add(l);
-			}
-			data.setTimestamp(time);
-			slider.setMaximum(time.size() - 1);
-
 		} else if (e.getSource() == mDepth) {
 			view.setCamera(ShowObject.DEPTH);
-
-			Set<Long> time = new TreeSet<>();
-			for (Long l : data.getImageDepth().keySet()) {
-				time.add(l);
-			}
-			data.setTimestamp(time);
-			slider.setMaximum(time.size() - 1);
 		} else if (e.getSource() == mSkeleton) {
-
-			Set<Long> time = new TreeSet<>();
-			for (Long l : data.getCoordinateDepth().keySet()) {
-				time.add(l);
-			}
-			data.setTimestamp(time);
-			slider.setMaximum(time.size() - 1);
+			// The skeleton is drawn over any background
 		} else if (e.getSource() == mSegmentation) {
 			view.setCamera(ShowObject.DEPTH);
-
-			Set<Long> time = new TreeSet<>();
-			for (Long l : data.getSegmentation().keySet()) {
-				time.add(l);
-			}
-			data.setTimestamp(time);
-			slider.setMaximum(time.size() - 1);
 		} else if (e.getSource() == mOpen) {
-			File file = load.openDirectory(this);
+			File file = load.openRecording(this);
 
 			initialize(file);
 			
@@ -203,37 +180,38 @@ public class SimpleEditor extends JFrame implements ActionListener, ChangeListen
 		if (e.getSource() == slider) {
 			int index = slider.getValue();
 
-			Long timestamp = data.getTimestampByIndex(index);
+			CompositeFrame frame = data.getFrame(index);
+			if (frame == null) {
+				return;
+			}
+			long timestamp = frame.getTimestamp();
 
 			view.setStatus("Time: " + timestamp);
-			view.setUserCoordinate(data.getCoordinateDepth().get(timestamp), 0, 0);
-
-			ByteBuffer buffSegmentation = data.getSegmentation().get(timestamp);
+			if (frame.getSkeleton() >= 0) {
+				data.getSkeletonDepth().getJoints(frame.getSkeleton(), joints, 0);
+				view.setUserCoordinate((short) 0, joints, 0, 0);
+			}
 
 			ByteBuffer buffBackground;
 			if (view.getCamera() == ShowObject.COLOR) {
-				buffBackground = data.getImageColor().get(timestamp);
+				buffBackground = getData(frame.getColor());
 			} else if (view.getCamera() == ShowObject.DEPTH) {
-				buffBackground = data.getImageDepth().get(timestamp);
+				buffBackground = getData(frame.getDepth());
 			} else {
 				return;
 			}
 
-			if (buffBackground != null) {
-				buffBackground.rewind();
-			}
-
-			if (buffSegmentation != null) {
-				buffSegmentation.rewind();
-			}
-
-			view.setUserMap(seg, buffSegmentation, timestamp);
+			view.setUserMask(RunLengthMask.of(frame.getSegmentation()), timestamp);
 			view.setBackground(buffBackground, 640, 480);
 			view.repaint();
 
 		}
 	}
 
+	private ByteBuffer getData(Frame frame) {
+		return frame == null ? null : frame.getData();
+	}
+
 	public static void main(String args[]) {
 		EventQueue.invokeLater(new Runnable() {
 
@@ -1,20 +1,36 @@
 package br.edu.ifsp.util;
 
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import br.edu.ifsp.capturer.CompositeFrame;
+import br.edu.ifsp.capturer.DepthProjection;
+import br.edu.ifsp.capturer.EncodedFrameMap;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.SkeletonTrack;
+import br.edu.ifsp.capturer.UserTracks;
+
 public class CaptureData {
 
 	private int width, height, fps;
 	private Set<Long> timestamp;
 	private Map<Long, Float[][]> coordinateReal;
 	private Map<Long, Float[][]> coordinateDepth;
+	private SkeletonTrack skeletonReal;
+	private SkeletonTrack skeletonDepth;
+	private UserTracks userTracks;
+	private DepthProjection projection;
 	private Map<Long, ByteBuffer> segmentation;
 	private Map<Long, ByteBuffer> imageDepth;
 	private Map<Long, ByteBuffer> imageColor;
+	private List<CompositeFrame> frames;
 	
 	public Long getTimestampByIndex(int index){
+		if (frames != null) {
+			return index >= 0 && index < frames.size() ? frames.get(index).getTimestamp() : null;
+		}
 		int pos = 0;
 		for(Long l: timestamp){
 			if(pos == index){
@@ -49,6 +65,49 @@ public class CaptureData {
 		this.fps = fps;
 	}
 	
+	/**
+	 * Get the projection model of the depth camera used in the recording. If
+	 * it was not informed, the model of the PrimeSense sensors is used.
+	 * 
+	 * @return The projection model of the depth camera.
+	 */
+	public DepthProjection getProjection() {
+		if (projection == null) {
+			projection = new DepthProjection(width > 0 ? width : 640, height > 0 ? height : 480);
+		}
+		return projection;
+	}
+	
+	public void setProjection(DepthProjection projection) {
+		this.projection = projection;
+	}
+	
+	/**
+	 * Get all the data of one instant of the recording.
+	 * 
+	 * @param index
+	 *            The index of the instant.
+	 * @return The composite frame, or null if the index is not valid.
+	 */
+	public CompositeFrame getFrame(int index) {
+		if (frames == null || index < 0 || index >= frames.size()) {
+			return null;
+		}
+		return frames.get(index);
+	}
+	
+	public int getFrameCount() {
+		return frames == null ? 0 : frames.size();
+	}
+	
+	public List<CompositeFrame> getFrames() {
+		return frames;
+	}
+	
+	public void setFrames(List<CompositeFrame> frames) {
+		this.frames = frames;
+	}
+	
 	public Set<Long> getTimestamp() {
 		return timestamp;
 	}
@@ -60,12 +119,158 @@ public class CaptureData {
 	}
 	public void setCoordinateReal(Map<Long, Float[][]> coordinateReal) {
 		this.coordinateReal = coordinateReal;
+		this.skeletonReal = null;
 	}
 	public Map<Long, Float[][]> getCoordinateDepth() {
 		return coordinateDepth;
 	}
 	public void setCoordinateDepth(Map<Long, Float[][]> coordinateDepth) {
 		this.coordinateDepth = coordinateDepth;
+		this.skeletonDepth = null;
+	}
+	
+	/**
+	 * Get the movements in the real world coordinate system as a
+	 * {@link SkeletonTrack}. If the movements were informed as a map, the
+	 * track is created from it.
+	 * 
+	 * @return The track, or null if there are no movements.
+	 */
+	public SkeletonTrack getSkeletonReal() {
+		if (skeletonReal == null && coordinateReal != null) {
+			skeletonReal = SkeletonTrack.fromMap(coordinateReal);
+		}
+		return skeletonReal;
+	}
+	
+	/**
+	 * Set the movements in the real world coordinate system. The map returned
+	 * by {@link #getCoordinateReal()} becomes a view of the track.
+	 * 
+	 * @param skeletonReal
+	 *            The track of the user.
+	 */
+	public void setSkeletonReal(SkeletonTrack skeletonReal) {
+		this.skeletonReal = skeletonReal;
+		this.coordinateReal = skeletonReal == null ? null : skeletonReal.asMap();
+	}
+	
+	/**
+	 * Get the movements in the depth coordinate system as a
+	 * {@link SkeletonTrack}. If the movements were informed as a map, the
+	 * track is created from it.
+	 * 
+	 * @return The track, or null if there are no movements.
+	 */
+	public SkeletonTrack getSkeletonDepth() {
+		if (skeletonDepth == null && coordinateDepth != null) {
+			skeletonDepth = SkeletonTrack.fromMap(coordinateDepth);
+		}
+		return skeletonDepth;
+	}
+	
+	/**
+	 * Set the movements in the depth coordinate system. The map returned by
+	 * {@link #getCoordinateDepth()} becomes a view of the track.
+	 * 
+	 * @param skeletonDepth
+	 *            The track of the user.
+	 */
+	public void setSkeletonDepth(SkeletonTrack skeletonDepth) {
+		this.skeletonDepth = skeletonDepth;
+		this.coordinateDepth = skeletonDepth == null ? null : skeletonDepth.asMap();
+	}
+	
+	/**
+	 * Get the movements of all the users of the recording. The methods
+	 * {@link #getSkeletonDepth()} and {@link #getSkeletonReal()} return the
+	 * tracks of the main user, that is, the user with more frames.
+	 * 
+	 * @return The tracks of all the users, or null if they were not informed.
+	 */
+	public UserTracks getUserTracks() {
+		return userTracks;
+	}
+	
+	/**
+	 * Set the movements of all the users of the recording. The tracks of the
+	 * main user become the movements returned by {@link #getSkeletonDepth()}
+	 * and {@link #getSkeletonReal()}.
+	 * 
+	 * @param userTracks
+	 *            The tracks of all the users.
+	 */
+	public void setUserTracks(UserTracks userTracks) {
+		this.userTracks = userTracks;
+		if (userTracks != null) {
+			short main = userTracks.getMainUser();
+			setSkeletonDepth(userTracks.getDepth(main));
+			setSkeletonReal(userTracks.getReal(main));
+		}
+	}
+	
+	/**
+	 * Get the amount of bytes of the buffers of one stream of the recording.
+	 * 
+	 * @param stream
+	 *            The stream. Please, use the constants {@link Frame}.COLOR,
+	 *            {@link Frame}.DEPTH or {@link Frame}.SEGMENTATION.
+	 * @return The amount of bytes retained by the stream.
+	 */
+	public long getRetainedBytes(int stream) {
+		switch (stream) {
+		case Frame.COLOR:
+			return getRetainedBytes(imageColor);
+		case Frame.DEPTH:
+			return getRetainedBytes(imageDepth);
+		case Frame.SEGMENTATION:
+			return getRetainedBytes(segmentation);
+		default:
+			return 0;
+		}
+	}
+	
+	/**
+	 * Get the amount of bytes of the movements of all the users.
+	 */
+	public long getSkeletonRetainedBytes() {
+		if (userTracks != null) {
+			return userTracks.getRetainedBytes();
+		}
+		long bytes = 0;
+		if (getSkeletonDepth() != null) {
+			bytes += getSkeletonDepth().getRetainedBytes();
+		}
+		if (getSkeletonReal() != null) {
+			bytes += getSkeletonReal().getRetainedBytes();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Get the amount of bytes of all the streams of the recording.
+	 */
+	public long getRetainedBytes() {
+		return getRetainedBytes(Frame.COLOR) + getRetainedBytes(Frame.DEPTH) + getRetainedBytes(Frame.SEGMENTATION)
+				+ getSkeletonRetainedBytes();
+	}
+	
+	private static long getRetainedBytes(Map<Long, ByteBuffer> map) {
+		if (map == null) {
+			return 0;
+		}
+		if (map instanceof EncodedFrameMap) {
+			return ((EncodedFrameMap) map).getRetainedBytes();
+		}
+		if (map instanceof MappedFrameMap) {
+			/* The frames mapped are kept by the system, out of the heap */
+			return 0;
+		}
+		long bytes = 0;
+		for (ByteBuffer buff : map.values()) {
+			bytes += buff.capacity();
+		}
+		return bytes;
 	}
 	public Map<Long, ByteBuffer> getSegmentation() {
 		return segmentation;
@@ -0,0 +1,275 @@
+package br.edu.ifsp.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import br.edu.ifsp.capturer.FrameBufferPool;
+
+/**
+ * Read the frames of a recording saved with one file per frame. Each file is
+ * read at once by a {@link FileChannel} into a direct buffer of a
+ * {@link FrameBufferPool}, so the system copies the file straight into the
+ * buffer, and the buffers given back by {@link #release(ByteBuffer)} are
+ * reused by the next frames.
+ * <p>
+ * The reader can also read the next files ahead, in its own thread, while the
+ * current frame is used. The files informed by {@link #readAhead(List)} are
+ * read in order, a few at a time, and {@link #read(File)} returns them without
+ * waiting for the disk.
+ * <p>
+ * The thread which reads ahead ends when there is nothing to read, so a reader
+ * kept by a thread does not need to be closed. The reader must be used by one
+ * thread.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class FrameFileReader implements Closeable {
+
+	private FrameBufferPool pool;
+	private int readAhead;
+	private ExecutorService executor;
+	private Deque<File> queue = new ArrayDeque<>();
+	private Map<File, Future<ByteBuffer>> pending = new HashMap<>();
+
+	/**
+	 * Create a reader.
+	 *
+	 * @param frameSize
+	 *            The size, in bytes, of the biggest frame. Bigger files are
+	 *            read into buffers which are not reused.
+	 * @param readAhead
+	 *            The amount of files read ahead, or 0 to read each file only
+	 *            when it is asked.
+	 */
+	public FrameFileReader(int frameSize, int readAhead) {
+		this.readAhead = readAhead;
+		this.pool = new FrameBufferPool(frameSize, readAhead + 2, 1, true);
+		if (readAhead > 0) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "FrameFileReader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			/* A reader which is never closed does not keep its thread */
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+		}
+	}
+
+	/**
+	 * Inform the files which will be read next, in the order they will be
+	 * read. Nothing is done if the reader does not read ahead.
+	 */
+	public void readAhead(List<File> files) {
+		if (executor != null) {
+			queue.addAll(files);
+			fill();
+		}
+	}
+
+	/**
+	 * Read a whole file.
+	 *
+	 * @return A buffer of the pool with the bytes of the file, from the
+	 *         position 0 until its limit, in little endian. Please, give it
+	 *         back by {@link #release(ByteBuffer)} when it is no longer used.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public ByteBuffer read(File file) throws IOException {
+		Future<ByteBuffer> future = pending.remove(file);
+		if (future == null) {
+			queue.remove(file);
+			fill();
+			return load(file);
+		}
+		fill();
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + file, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not read " + file, e.getCause());
+		}
+	}
+
+	/**
+	 * Read a whole file into a new array.
+	 *
+	 * @see #read(File)
+	 */
+	public byte[] readBytes(File file) throws IOException {
+		ByteBuffer buff = read(file);
+		byte[] bytes = new byte[buff.remaining()];
+		buff.get(bytes);
+		release(buff);
+		return bytes;
+	}
+
+	/**
+	 * Give a buffer returned by {@link #read(File)} back to the pool.
+	 */
+	public void release(ByteBuffer buff) {
+		pool.release(buff);
+	}
+
+	/**
+	 * Get the amount of buffers created since the reader was created.
+	 */
+	public long getAllocated() {
+		return pool.getAllocated();
+	}
+
+	/**
+	 * Keep the amount of files informed being read ahead.
+	 */
+	private void fill() {
+		while (executor != null && pending.size() < readAhead && !queue.isEmpty()) {
+			final File file = queue.poll();
+			pending.put(file, executor.submit(new Callable<ByteBuffer>() {
+
+				@Override
+				public ByteBuffer call() throws IOException {
+					return load(file);
+				}
+			}));
+		}
+	}
+
+	private ByteBuffer load(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The file is too big: " + file);
+			}
+			ByteBuffer buff = pool.acquire((int) size);
+			while (buff.hasRemaining()) {
+				if (channel.read(buff) < 0) {
+					pool.release(buff);
+					throw new IOException("The file was truncated while it was read: " + file);
+				}
+			}
+			buff.flip();
+			return buff;
+		}
+	}
+
+	/**
+	 * Stop reading ahead. The files being read are discarded.
+	 */
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		queue.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Read the frames of a stream, as "Depth" of a recording, byte by byte as
+	 * they were read before, with {@link Files#readAllBytes}, and with the
+	 * reader, and show the average time to read one frame.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String name : args) {
+			File[] files = new File(name).listFiles();
+			if (files == null || files.length == 0) {
+				System.out.println(name + ": no frames");
+				continue;
+			}
+			Arrays.sort(files);
+			List<File> list = Arrays.asList(files);
+			int frameSize = 0;
+			for (File f : files) {
+				frameSize = (int) Math.max(frameSize, f.length());
+			}
+
+			long start = System.nanoTime();
+			for (File f : files) {
+				readBoxed(f);
+			}
+			long boxed = (System.nanoTime() - start) / files.length;
+
+			start = System.nanoTime();
+			for (File f : files) {
+				Files.readAllBytes(f.toPath());
+			}
+			long all = (System.nanoTime() - start) / files.length;
+
+			long pooled;
+			try (FrameFileReader reader = new FrameFileReader(frameSize, 0)) {
+				start = System.nanoTime();
+				for (File f : files) {
+					reader.release(reader.read(f));
+				}
+				pooled = (System.nanoTime() - start) / files.length;
+			}
+
+			long ahead;
+			try (FrameFileReader reader = new FrameFileReader(frameSize, 4)) {
+				start = System.nanoTime();
+				reader.readAhead(list);
+				for (File f : files) {
+					reader.release(reader.read(f));
+				}
+				ahead = (System.nanoTime() - start) / files.length;
+			}
+
+			System.out.printf(
+					"%s: %d frames of %d bytes, %d us byte by byte, %d us readAllBytes, %d us pooled, %d us read ahead%n",
+					name, files.length, frameSize, boxed / 1000, all / 1000, pooled / 1000, ahead / 1000);
+		}
+	}
+
+	/**
+	 * Read a file as {@link Load} did before, to compare.
+	 */
+	private static byte[] readBoxed(File file) throws IOException {
+		List<Byte> bytes = new ArrayList<>();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			int value;
+			while ((value = in.read()) != -1) {
+				bytes.add((byte) value);
+			}
+		}
+		byte[] b = new byte[bytes.size()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = bytes.get(i);
+		}
+		return b;
+	}
+}
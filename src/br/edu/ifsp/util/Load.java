@@ -2,21 +2,30 @@ package br.edu.ifsp.util;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
-import java.io.BufferedInputStream;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,12 +33,26 @@ import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JProgressBar;
-
-import br.edu.ifsp.capturer.Coordinate;
+import javax.swing.Timer;
+
+import br.edu.ifsp.capturer.CompositeFrame;
+import br.edu.ifsp.capturer.DepthProjection;
+import br.edu.ifsp.capturer.EncodedFrameMap;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameCodec;
+import br.edu.ifsp.capturer.FrameCodecs;
+import br.edu.ifsp.capturer.FrameSynchronizer;
 import br.edu.ifsp.capturer.ImageCapture;
+import br.edu.ifsp.capturer.MaskCodec;
+import br.edu.ifsp.capturer.RunLengthMask;
 import br.edu.ifsp.capturer.Segmentation;
 import br.edu.ifsp.capturer.ShowObject;
+import br.edu.ifsp.capturer.SkeletonCodec;
+import br.edu.ifsp.capturer.SkeletonFile;
+import br.edu.ifsp.capturer.SkeletonTrack;
+import br.edu.ifsp.capturer.UserTracks;
 
 public class Load extends Thread{
 
@@ -38,6 +61,84 @@ public class Load extends Thread{
 	private Component father;
 	private CaptureData data;
 	private boolean loaded;
+	private boolean mapped = false;
+	private int threads = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+	private ForkJoinPool pool;
+	private Progress[] progress = createProgress();
+
+	/* The amount of frames read by each task */
+	private static final int BATCH = 16;
+	/* The index of the coordinates in the progress, after the streams of Frame */
+	private static final int COORDINATES = 3;
+
+	/* The amount of files of a task read ahead while its frames are read */
+	private static final int READ_AHEAD = 4;
+
+	/* Each thread of the pool reads the files of each stream with its own reader */
+	private final ThreadLocal<FrameFileReader[]> readers = new ThreadLocal<FrameFileReader[]>() {
+
+		@Override
+		protected FrameFileReader[] initialValue() {
+			return new FrameFileReader[Frame.SEGMENTATION + 1];
+		}
+	};
+
+	/**
+	 * The amount of frames of one stream loaded, shown by a bar of the dialog.
+	 * The frames are counted by the threads which load them, and the bar is
+	 * updated by the thread of the interface.
+	 */
+	private static class Progress {
+
+		private String name;
+		private AtomicInteger done = new AtomicInteger();
+		private volatile int total = -1;
+		private JProgressBar bar = new JProgressBar();
+
+		Progress(String name) {
+			this.name = name;
+			bar.setStringPainted(true);
+			bar.setString(name);
+			bar.setIndeterminate(true);
+		}
+
+		void start(int total) {
+			done.set(0);
+			this.total = total;
+		}
+
+		void add() {
+			done.incrementAndGet();
+		}
+
+		void finish() {
+			if (total < 0) {
+				total = 0;
+			}
+			done.set(total);
+		}
+
+		void update() {
+			int total = this.total;
+			if (total < 0) {
+				return;
+			}
+			int done = this.done.get();
+			bar.setIndeterminate(false);
+			bar.setMaximum(Math.max(total, 1));
+			bar.setValue(total == 0 ? 1 : done);
+			bar.setString(name + ": " + done + " / " + total);
+		}
+	}
+
+	private static Progress[] createProgress() {
+		Progress[] progress = new Progress[4];
+		progress[Frame.COLOR] = new Progress("Color");
+		progress[Frame.DEPTH] = new Progress("Depth");
+		progress[Frame.SEGMENTATION] = new Progress("Segmentation");
+		progress[COORDINATES] = new Progress("Coordinates");
+		return progress;
+	}
 
 	private static String directory = "/home/matheus/Música";
 
@@ -67,6 +168,41 @@ public class Load extends Thread{
 		return open(father, JFileChooser.DIRECTORIES_ONLY);
 	}
 
+	/**
+	 * Choose how the frames are loaded: all of them at once, or only when they
+	 * are used, mapped to the memory by {@link MappedFrameMap}. The mapped
+	 * recordings are opened in the time needed to list their frames, whatever
+	 * their size.
+	 * 
+	 * @param mapped
+	 *            true to map the frames, false to read them at once.
+	 */
+	public void setMapped(boolean mapped) {
+		this.mapped = mapped;
+	}
+
+	/**
+	 * Choose how many frames are read at the same time. The streams are
+	 * loaded at the same time, and the frames of each stream are read by
+	 * several threads, but no more than the amount informed, which should
+	 * follow the cores and the disk. The default is the amount of cores, up
+	 * to 8.
+	 * 
+	 * @param threads
+	 *            The amount of threads, 1 to read one frame at a time.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+
+	/**
+	 * Choose a recording, either a directory or a file saved by
+	 * {@link RecordingContainer}.
+	 */
+	public File openRecording(Component father) {
+		return open(father, JFileChooser.FILES_AND_DIRECTORIES);
+	}
+
 	private File open(Component father, int mode){
 		JFileChooser chooser = new JFileChooser(Load.directory);
 		chooser.setFileSelectionMode(mode);
@@ -77,126 +213,531 @@ public class Load extends Thread{
 		return null;
 	}
 	
+	/**
+	 * Read a whole file at once into a new buffer.
+	 * 
+	 * @return The bytes of the file, in little endian, or an empty buffer if
+	 *         the file could not be read.
+	 */
 	public ByteBuffer loadBuffer(File file) {
-		BufferedInputStream in;
-		List<Byte> bytes = new ArrayList<>();
-
-		try {
-			in = new BufferedInputStream(new FileInputStream(file));
-			int valor;
-
-			while ((valor = in.read()) != -1) {
-				bytes.add((byte) valor);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buff = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			while (buff.hasRemaining() && channel.read(buff) >= 0) {
 			}
+			buff.flip();
+			return buff;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
 		}
-
-		byte b[] = new byte[bytes.size()];
-
-		for (int i = 0; i < b.length; i++) {
-			b[i] = bytes.get(i);
-		}
-
-		return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
 	}
 
-	private Map<Long, ByteBuffer> loadBuffers(File file, Map<Long, ByteBuffer> map) {
+	/**
+	 * Load the frames of one stream. The frames saved compressed are kept
+	 * compressed in memory, and decoded when they are shown. The files are
+	 * read in parallel by {@link ReadFrames}.
+	 * 
+	 * @param file
+	 *            The directory of the stream.
+	 * @param map
+	 *            The map where the frames saved as they were captured are
+	 *            stored.
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 * @return The frames loaded, or null if the directory does not exist.
+	 */
+	private Map<Long, ByteBuffer> loadBuffers(File file, Map<Long, ByteBuffer> map, int stream) {
 		File[] files = file.listFiles();
 
 		if (files == null) {
+			progress[stream].finish();
 			return null;
 		}
+		progress[stream].start(files.length);
+		if (mapped) {
+			map = new MappedFrameMap(stream, data.getWidth(), data.getHeight());
+		}
 
+		long[] timestamps = new long[files.length];
+		Object[] sources = new Object[files.length];
+		int count = 0;
 		for (File f : files) {
 			try {
-				long timestamp = Long.parseLong(f.getName().replaceAll("[^0-9]", ""));
-				ByteBuffer buff = loadBuffer(f);
-				// System.out.println(timestamp + " " + (buff != null));
-				map.put(timestamp, buff);
+				timestamps[count] = Long.parseLong(f.getName().replaceAll("[^0-9]", ""));
 			} catch (Exception e) {
 				e.printStackTrace();
+				progress[stream].add();
+				continue;
+			}
+			if (map instanceof MappedFrameMap) {
+				((MappedFrameMap) map).put(timestamps[count], f);
+			} else {
+				sources[count++] = f;
 			}
 		}
+		if (map instanceof MappedFrameMap) {
+			progress[stream].finish();
+			return map;
+		}
 
+		return readFrames(map, stream, null, sources, timestamps, count);
+	}
+
+	/**
+	 * Read the frames of one stream in parallel and store them in the map.
+	 * 
+	 * @param in
+	 *            The recording saved in one file, or null if the sources are
+	 *            files.
+	 * @param sources
+	 *            The files or the entries of the frames.
+	 * @param timestamps
+	 *            The timestamp of each source.
+	 * @param count
+	 *            The amount of sources.
+	 * @return The map where the frames were stored.
+	 */
+	private Map<Long, ByteBuffer> readFrames(Map<Long, ByteBuffer> map, int stream, RecordingContainer.Reader in,
+			Object[] sources, long[] timestamps, int count) {
+		Object[] read = new Object[count];
+		new ReadFrames(in, sources, read, stream, 0, count).invoke();
+
+		for (int i = 0; i < count; i++) {
+			try {
+				if (read[i] instanceof byte[]) {
+					map = putEncoded(map, stream, codecOf(sources[i]), timestamps[i], (byte[]) read[i]);
+				} else if (read[i] != null) {
+					map.put(timestamps[i], (ByteBuffer) read[i]);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
 		return map;
 	}
 
-	public byte[] loadByte(File file) {
-		BufferedInputStream in;
-		List<Byte> bytes = new ArrayList<>();
+	private static FrameCodec codecOf(Object source) {
+		if (source instanceof File) {
+			return FrameCodecs.forFile((File) source);
+		}
+		return FrameCodecs.forFile(new File(((RecordingContainer.Entry) source).getName()));
+	}
 
-		try {
-			in = new BufferedInputStream(new FileInputStream(file));
-			int valor;
+	/**
+	 * Read a range of the frames of one stream, split in tasks of
+	 * {@link #BATCH} frames. The files of a task are read ahead by a
+	 * {@link FrameFileReader}. The frames saved as they were captured are
+	 * copied into a new buffer, and the frames compressed into a new array, so
+	 * the buffers of the reader are reused. The frames which could not be read
+	 * are left null.
+	 */
+	private class ReadFrames extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private RecordingContainer.Reader in;
+		private Object[] sources, read;
+		private int stream, from, to;
+
+		ReadFrames(RecordingContainer.Reader in, Object[] sources, Object[] read, int stream, int from, int to) {
+			this.in = in;
+			this.sources = sources;
+			this.read = read;
+			this.stream = stream;
+			this.from = from;
+			this.to = to;
+		}
 
-			while ((valor = in.read()) != -1) {
-				bytes.add((byte) valor);
+		@Override
+		protected void compute() {
+			if (to - from > BATCH) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ReadFrames(in, sources, read, stream, from, middle),
+						new ReadFrames(in, sources, read, stream, middle, to));
+				return;
+			}
+			List<File> files = new ArrayList<>(to - from);
+			for (int i = from; i < to; i++) {
+				if (sources[i] instanceof File) {
+					files.add((File) sources[i]);
+				}
+			}
+			if (!files.isEmpty()) {
+				reader(files.get(0)).readAhead(files);
+			}
+
+			for (int i = from; i < to; i++) {
+				try {
+					read[i] = read(sources[i], codecOf(sources[i]) == null);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				progress[stream].add();
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 
-		byte b[] = new byte[bytes.size()];
+		private Object read(Object source, boolean raw) throws IOException {
+			if (source instanceof RecordingContainer.Entry) {
+				ByteBuffer buff = in.read((RecordingContainer.Entry) source);
+				return raw ? buff : buff.array();
+			}
+			FrameFileReader reader = reader((File) source);
+			if (!raw) {
+				return reader.readBytes((File) source);
+			}
+			/* The map keeps the frame, so it is copied to the heap and the direct buffer is reused */
+			ByteBuffer read = reader.read((File) source);
+			ByteBuffer buff = ByteBuffer.allocate(read.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+			buff.put(read).flip();
+			reader.release(read);
+			return buff;
+		}
 
-		for (int i = 0; i < b.length; i++) {
-			b[i] = bytes.get(i);
+		/**
+		 * Get the reader of this stream of the current thread. The frames of a
+		 * stream saved as they were captured have all the same size, so the
+		 * buffers are as big as the first file read.
+		 */
+		private FrameFileReader reader(File first) {
+			FrameFileReader[] streams = readers.get();
+			if (streams[stream] == null) {
+				streams[stream] = new FrameFileReader((int) Math.max(first.length(), 1), READ_AHEAD);
+			}
+			return streams[stream];
 		}
+	}
 
-		return b;
+	/**
+	 * Load the frames of one stream of a recording saved in a directory, in
+	 * the pool.
+	 */
+	private Callable<Map<Long, ByteBuffer>> loadStream(final File directory, final Map<Long, ByteBuffer> map,
+			final int stream) {
+		return new Callable<Map<Long, ByteBuffer>>() {
+
+			@Override
+			public Map<Long, ByteBuffer> call() {
+				return loadBuffers(directory, map, stream);
+			}
+		};
 	}
 
-	private Map<Long, Float[][]> loadCoords(File file, Map<Long, Float[][]> map) throws Exception {
-		List<String> lines = Files.readAllLines(Paths.get(file.toURI()));
+	/**
+	 * Load the frames of one stream of a recording saved in one file, in the
+	 * pool.
+	 */
+	private Callable<Map<Long, ByteBuffer>> loadStream(final RecordingContainer.Reader in, final String directory,
+			final Map<Long, ByteBuffer> map, final int stream) {
+		return new Callable<Map<Long, ByteBuffer>>() {
 
-		for (int i = 0; i < lines.size(); i++) {
-			String temp[] = lines.get(i).split("[0-9] ");
-			Long timestamp = 0L;
-			try {
-				timestamp = Long.parseLong(temp[0]);
-			} catch (Exception e) {
-				e.printStackTrace();
+			@Override
+			public Map<Long, ByteBuffer> call() throws IOException {
+				return loadBuffers(in, directory, map, stream);
 			}
+		};
+	}
 
-			Float[][] coords = new Float[15][3];
-			String temp2[] = temp[1].split("]\\[");
+	/**
+	 * Store a frame saved compressed. The frames are kept compressed while all
+	 * the frames of the stream have the same codec.
+	 * 
+	 * @return The map where the frame was stored, which replaces the map
+	 *         informed when the first frame is stored.
+	 */
+	private Map<Long, ByteBuffer> putEncoded(Map<Long, ByteBuffer> map, int stream, FrameCodec codec, long timestamp,
+			byte[] encoded) {
+		if (map.isEmpty() && !(map instanceof EncodedFrameMap)) {
+			map = new EncodedFrameMap(codec, stream, data.getWidth(), data.getHeight());
+		}
+		if (map instanceof EncodedFrameMap
+				&& ((EncodedFrameMap) map).getCodec().getExtension().equals(codec.getExtension())) {
+			((EncodedFrameMap) map).putEncoded(timestamp, encoded);
+		} else {
+			map.put(timestamp, codec.decode(encoded));
+		}
+		return map;
+	}
 
-			for (int j = 0; j < temp2.length; j++) {
-				temp2[j] = temp2[j].replaceAll("]", "").replaceAll("\\[", "");
-				String temp3[] = temp2[j].split(", ");
-				try {
-					coords[j][0] = Float.parseFloat(temp3[0]);
-					coords[j][1] = Float.parseFloat(temp3[1]);
-					coords[j][2] = Float.parseFloat(temp3[2]);
-				} catch (Exception e) {
-					e.printStackTrace();
+	/**
+	 * Load a recording saved in one file by {@link Save}. The frames are read
+	 * in the order they were saved, and the frames compressed are kept
+	 * compressed.
+	 * 
+	 * @see RecordingContainer
+	 */
+	private void loadContainer(File file) throws Exception {
+		try (RecordingContainer.Reader in = new RecordingContainer.Reader(file)) {
+			System.out.println("Config");
+			byte[] config = in.readBytes("Config.txt");
+			if (config != null) {
+				loadConfig(lines(config), data);
+			}
+
+			ForkJoinTask<Map<Long, ByteBuffer>> depth = pool
+					.submit(loadStream(in, "Depth", ImageCapture.createMapStructure(), Frame.DEPTH));
+			ForkJoinTask<Map<Long, ByteBuffer>> color = pool
+					.submit(loadStream(in, "Color", ImageCapture.createMapStructure(), Frame.COLOR));
+			ForkJoinTask<Map<Long, ByteBuffer>> segmentation = pool.submit(
+					loadStream(in, "Segmentation", Segmentation.<ByteBuffer> createMapStructure(), Frame.SEGMENTATION));
+
+			System.out.println("Coordinates");
+			progress[COORDINATES].start(1);
+			data.setSkeletonDepth(loadTrack(in, "Depth"));
+			data.setSkeletonReal(loadTrack(in, "Real"));
+			reprojectCoords(data);
+			Set<Short> ids = new TreeSet<>();
+			for (RecordingContainer.Entry entry : in.list("Coordinates")) {
+				String name = entry.getName().substring("Coordinates/".length());
+				if (name.matches(
+						"(Depth|Real)-[0-9]+\\.(txt|" + SkeletonFile.EXTENSION + "|" + SkeletonCodec.EXTENSION + ")")) {
+					ids.add(Short.parseShort(name.substring(name.indexOf('-') + 1, name.length() - 4)));
 				}
 			}
+			if (!ids.isEmpty()) {
+				UserTracks users = new UserTracks();
+				for (Short id : ids) {
+					SkeletonTrack trackDepth = loadTrack(in, "Depth-" + id);
+					SkeletonTrack trackReal = loadTrack(in, "Real-" + id);
+					if (trackDepth == null) {
+						trackDepth = data.getProjection().realToDepth(trackReal);
+					} else if (trackReal == null) {
+						trackReal = data.getProjection().depthToReal(trackDepth);
+					}
+					users.put(id, trackDepth, trackReal);
+				}
+				data.setUserTracks(users);
+			}
+			progress[COORDINATES].finish();
 
-			map.put(timestamp, coords);
+			data.setImageDepth(depth.get());
+			data.setImageColor(color.get());
+			data.setSegmentation(segmentation.get());
 		}
-		return map;
+	}
 
+	private static List<String> lines(byte[] text) {
+		return Arrays.asList(new String(text).split("\r?\n"));
 	}
-	
-	private void formatSegmentation(Map<Long, ByteBuffer> segmentation) {
-		for (Long v : segmentation.keySet()) {
-			ByteBuffer buff = segmentation.get(v).order(ByteOrder.LITTLE_ENDIAN);
-			byte b[] = new byte[buff.limit()];
-			buff.rewind();
-			buff.get(b);
-			buff.rewind();
-			byte bNew[] = new byte[buff.limit()];
-			for (int i = 1, j = 0; i < bNew.length; i += 2, j++) {
-				byte value = b[j];
-				bNew[i - 1] = 0;
-				bNew[i] = value;
+
+	private SkeletonTrack loadTrack(RecordingContainer.Reader in, String name) throws IOException {
+		byte[] binary = in.readBytes("Coordinates/" + name + "." + SkeletonFile.EXTENSION);
+		if (binary != null) {
+			return SkeletonFile.decode(binary);
+		}
+		byte[] text = in.readBytes("Coordinates/" + name + ".txt");
+		if (text != null) {
+			return SkeletonFile.readText(lines(text));
+		}
+		byte[] compressed = in.readBytes("Coordinates/" + name + "." + SkeletonCodec.EXTENSION);
+		return compressed == null ? null : SkeletonCodec.decode(compressed);
+	}
+
+	/**
+	 * Load the frames of one stream of a recording saved in one file.
+	 * 
+	 * @return The frames loaded, or null if the stream was not saved.
+	 */
+	private Map<Long, ByteBuffer> loadBuffers(RecordingContainer.Reader in, String directory,
+			Map<Long, ByteBuffer> map, int stream) throws IOException {
+		List<RecordingContainer.Entry> entries = in.list(directory);
+		if (entries.isEmpty()) {
+			progress[stream].finish();
+			return null;
+		}
+		progress[stream].start(entries.size());
+		if (mapped) {
+			map = new MappedFrameMap(stream, data.getWidth(), data.getHeight());
+		}
+
+		long[] timestamps = new long[entries.size()];
+		Object[] sources = new Object[entries.size()];
+		int count = 0;
+		for (RecordingContainer.Entry entry : entries) {
+			String name = entry.getName();
+			try {
+				timestamps[count] = Long.parseLong(name.substring(directory.length() + 1, name.lastIndexOf('.')));
+			} catch (RuntimeException e) {
+				System.out.println("Ignoring the entry " + name);
+				progress[stream].add();
+				continue;
+			}
+			if (map instanceof MappedFrameMap) {
+				((MappedFrameMap) map).put(timestamps[count], name, in.map(entry));
+			} else {
+				sources[count++] = entry;
+			}
+		}
+		if (map instanceof MappedFrameMap) {
+			progress[stream].finish();
+			return map;
+		}
+
+		return readFrames(map, stream, in, sources, timestamps, count);
+	}
+
+
+	/**
+	 * Read a whole file at once into a new array.
+	 * 
+	 * @return The bytes of the file, or an empty array if the file could not
+	 *         be read.
+	 */
+	public byte[] loadByte(File file) {
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new byte[0];
+		}
+	}
+
+	/**
+	 * Read the file Config.txt of a recording. The field of view of the depth
+	 * camera is only informed by the recordings made after it started being
+	 * saved, so the default values are used when it is not found.
+	 */
+	private void loadConfig(File file, CaptureData data) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		loadConfig(Files.readAllLines(file.toPath()), data);
+	}
+
+	private void loadConfig(List<String> lines, CaptureData data) {
+		float hFov = DepthProjection.DEFAULT_HORIZONTAL_FOV, vFov = DepthProjection.DEFAULT_VERTICAL_FOV;
+		for (String line : lines) {
+			String temp[] = line.split(":", 2);
+			if (temp.length < 2) {
+				continue;
 			}
-			ByteBuffer buffNew = ByteBuffer.wrap(bNew).order(ByteOrder.LITTLE_ENDIAN);
-			segmentation.put(v, buffNew);
+			String value = temp[1].trim();
+			switch (temp[0].trim()) {
+			case "Width":
+				data.setWidth(Integer.parseInt(value));
+				break;
+			case "Height":
+				data.setHeight(Integer.parseInt(value));
+				break;
+			case "FPS":
+				data.setFps(Integer.parseInt(value));
+				break;
+			case "HFOV":
+				hFov = Float.parseFloat(value);
+				break;
+			case "VFOV":
+				vFov = Float.parseFloat(value);
+				break;
+			}
+		}
+		if (data.getWidth() > 0 && data.getHeight() > 0) {
+			data.setProjection(new DepthProjection(data.getWidth(), data.getHeight(), hFov, vFov));
+		}
+	}
+
+	/**
+	 * When only one of the coordinate systems was saved, the other one is
+	 * created with the projection model of the recording.
+	 */
+	private void reprojectCoords(CaptureData data) {
+		if (data.getCoordinateDepth() == null && data.getCoordinateReal() != null) {
+			data.setSkeletonDepth(data.getProjection().realToDepth(data.getSkeletonReal()));
+		} else if (data.getCoordinateReal() == null && data.getCoordinateDepth() != null) {
+			data.setSkeletonReal(data.getProjection().depthToReal(data.getSkeletonDepth()));
 		}
 	}
 
+	/**
+	 * Load the movements of each user, saved in the files Depth-id and Real-id
+	 * by the recordings with more than one user. When only one of
+	 * the coordinate systems was saved, the other one is created with the
+	 * projection model of the recording.
+	 */
+	private void loadUserCoords(File coor, CaptureData data) throws Exception {
+		File files[] = coor.listFiles();
+		if (files == null) {
+			return;
+		}
+		Set<Short> ids = new TreeSet<>();
+		for (File f : files) {
+			String name = f.getName();
+			if (name.matches(
+					"(Depth|Real)-[0-9]+\\.(txt|" + SkeletonFile.EXTENSION + "|" + SkeletonCodec.EXTENSION + ")")) {
+				ids.add(Short.parseShort(name.substring(name.indexOf('-') + 1, name.length() - 4)));
+			}
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		UserTracks users = new UserTracks();
+		for (Short id : ids) {
+			SkeletonTrack trackDepth = loadTrack(coor, "Depth-" + id);
+			SkeletonTrack trackReal = loadTrack(coor, "Real-" + id);
+			if (trackDepth == null) {
+				trackDepth = data.getProjection().realToDepth(trackReal);
+			} else if (trackReal == null) {
+				trackReal = data.getProjection().depthToReal(trackDepth);
+			}
+			users.put(id, trackDepth, trackReal);
+		}
+		data.setUserTracks(users);
+	}
+
+	/**
+	 * Load the movements of one user, saved either by {@link SkeletonFile},
+	 * compressed by {@link SkeletonCodec} or as text by the old versions.
+	 * 
+	 * @param coor
+	 *            The directory Coordinates.
+	 * @param name
+	 *            The name of the file, without the extension.
+	 * @return The movements, or null if they were not saved.
+	 */
+	private SkeletonTrack loadTrack(File coor, String name) throws Exception {
+		File binary = new File(coor.getAbsolutePath() + File.separator + name + "." + SkeletonFile.EXTENSION);
+		if (binary.exists()) {
+			System.out.println("Coordinate " + name);
+			return SkeletonFile.read(binary);
+		}
+		File text = new File(coor.getAbsolutePath() + File.separator + name + ".txt");
+		if (text.exists()) {
+			System.out.println("Coordinate " + name);
+			return SkeletonFile.readText(text);
+		}
+		File compressed = new File(coor.getAbsolutePath() + File.separator + name + "." + SkeletonCodec.EXTENSION);
+		if (compressed.exists()) {
+			System.out.println("Coordinate " + name);
+			return SkeletonCodec.read(compressed);
+		}
+		return null;
+	}
+
+	/**
+	 * Convert the segmentation saved with one byte per pixel to masks kept as
+	 * runs, like the segmentation recorded. The old recordings have twice the
+	 * size, with the ids in the first half.
+	 * 
+	 * @return The segmentation as masks, or the segmentation informed if it
+	 *         is already kept as masks, it is mapped, or the size of the frames
+	 *         is unknown.
+	 */
+	private Map<Long, ByteBuffer> formatSegmentation(Map<Long, ByteBuffer> segmentation, int width, int height) {
+		if (segmentation == null || segmentation instanceof EncodedFrameMap || segmentation instanceof MappedFrameMap
+				|| width <= 0 || height <= 0) {
+			return segmentation;
+		}
+		EncodedFrameMap masks = new EncodedFrameMap(new MaskCodec(), Frame.SEGMENTATION, width, height);
+		for (Map.Entry<Long, ByteBuffer> entry : segmentation.entrySet()) {
+			try {
+				masks.putEncoded(entry.getKey(),
+						RunLengthMask.fromMask(entry.getValue(), width, height).toByteArray());
+			} catch (IllegalArgumentException e) {
+				System.err.println("Invalid segmentation " + entry.getKey() + ": " + e.getMessage());
+			}
+		}
+		return masks;
+	}
+
 	public synchronized CaptureData loadFile(Component father, File file) {
 		this.father = father;
 		this.file = file;
@@ -205,18 +746,35 @@ public class Load extends Thread{
 		loaded = false;
 
 		d = new JDialog((JFrame) father, "Loading...", true);
-		d.setSize(300, 75);
+		d.setSize(300, 150);
 		d.setLocationRelativeTo(father);
 		d.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
 		d.setResizable(false);
 
-		JProgressBar pb = new JProgressBar();
-		pb.setIndeterminate(true);
-		d.getContentPane().add(BorderLayout.CENTER, pb);
+		/* One bar per stream, as the streams are loaded at the same time */
+		progress = createProgress();
+		JPanel bars = new JPanel(new GridLayout(progress.length, 1, 0, 4));
+		bars.add(progress[Frame.DEPTH].bar);
+		bars.add(progress[Frame.COLOR].bar);
+		bars.add(progress[Frame.SEGMENTATION].bar);
+		bars.add(progress[COORDINATES].bar);
+		d.getContentPane().add(BorderLayout.CENTER, bars);
+
+		Timer timer = new Timer(100, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				for (Progress p : progress) {
+					p.update();
+				}
+			}
+		});
+		timer.start();
 
 		this.start();
 
 		d.setVisible(true);
+		timer.stop();
 
 		while (!loaded) {
 			try {
@@ -230,37 +788,28 @@ public class Load extends Thread{
 		return data;
 	}
 	
+	/**
+	 * Load a recording in the thread which calls it, without the dialog.
+	 * 
+	 * @param file
+	 *            The directory of the recording, or a file saved by
+	 *            {@link RecordingContainer}.
+	 * @return The recording.
+	 * @throws Exception
+	 *             If the recording could not be loaded.
+	 */
+	synchronized CaptureData loadRecording(File file) throws Exception {
+		this.file = file;
+		this.data = new CaptureData();
+		progress = createProgress();
+		load();
+		return data;
+	}
+
 	@Override
 	public void run() {
-		System.out.println("Loading " + file.getAbsolutePath());
 		try {
-			File depth = new File(file.getAbsoluteFile() + File.separator + "Depth");
-			File color = new File(file.getAbsoluteFile() + File.separator + "Color");
-			File segmentation = new File(file.getAbsoluteFile() + File.separator + "Segmentation");
-			File coor = new File(file.getAbsoluteFile() + File.separator + "Coordinates");
-
-			System.out.println("Coordinate Depth");
-			data.setCoordinateDepth(loadCoords(new File(coor.getAbsolutePath() + File.separator + "Depth.txt"),
-					Coordinate.createMapStructure()));
-			System.out.println("Coordinate Real");
-			data.setCoordinateReal(loadCoords(new File(coor.getAbsolutePath() + File.separator + "Real.txt"),
-					Coordinate.createMapStructure()));
-
-			System.out.println("Depth");
-			data.setImageDepth(loadBuffers(depth, ImageCapture.createMapStructure()));
-			System.out.println("Color");
-			data.setImageColor(loadBuffers(color, ImageCapture.createMapStructure()));
-			System.out.println("Segmentation");
-			data.setSegmentation(loadBuffers(segmentation, Segmentation.createMapStructure()));
-
-			formatSegmentation(data.getSegmentation());
-
-			Set<Long> time = new TreeSet<>();
-			for (Long l : data.getImageDepth().keySet()) {
-				time.add(l);
-			}
-			data.setTimestamp(time);
-
+			load();
 		} catch (Exception e) {
 			JOptionPane.showMessageDialog(father,
 					"An error happened. Try again later!\n" + "Message: " + e.getMessage(), "Error",
@@ -272,6 +821,64 @@ public class Load extends Thread{
 		d.dispose();
 	}
 
+	private void load() throws Exception {
+		System.out.println("Loading " + file.getAbsolutePath());
+		pool = new ForkJoinPool(threads);
+		try {
+			if (RecordingContainer.isContainer(file)) {
+				loadContainer(file);
+			} else {
+				loadDirectory(file);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		data.setSegmentation(formatSegmentation(data.getSegmentation(), data.getWidth(), data.getHeight()));
+
+		long tolerance = data.getFps() > 0 ? 1_000_000 / data.getFps() / 2 : FrameSynchronizer.DEFAULT_TOLERANCE;
+		List<CompositeFrame> frames = FrameSynchronizer.align(data.getImageDepth(), data.getImageColor(),
+				data.getSegmentation(), data.getSkeletonDepth(), tolerance, data.getWidth(), data.getHeight());
+		data.setFrames(frames);
+
+		Set<Long> time = new TreeSet<>();
+		for (CompositeFrame frame : frames) {
+			time.add(frame.getTimestamp());
+		}
+		data.setTimestamp(time);
+	}
+
+	/**
+	 * Load a recording saved in a directory, with one file per frame.
+	 */
+	private void loadDirectory(File file) throws Exception {
+		File depth = new File(file.getAbsoluteFile() + File.separator + "Depth");
+		File color = new File(file.getAbsoluteFile() + File.separator + "Color");
+		File segmentation = new File(file.getAbsoluteFile() + File.separator + "Segmentation");
+		File coor = new File(file.getAbsoluteFile() + File.separator + "Coordinates");
+
+		System.out.println("Config");
+		loadConfig(new File(file.getAbsoluteFile() + File.separator + "Config.txt"), data);
+
+		ForkJoinTask<Map<Long, ByteBuffer>> depthTask = pool
+				.submit(loadStream(depth, ImageCapture.createMapStructure(), Frame.DEPTH));
+		ForkJoinTask<Map<Long, ByteBuffer>> colorTask = pool
+				.submit(loadStream(color, ImageCapture.createMapStructure(), Frame.COLOR));
+		ForkJoinTask<Map<Long, ByteBuffer>> segmentationTask = pool.submit(
+				loadStream(segmentation, Segmentation.<ByteBuffer> createMapStructure(), Frame.SEGMENTATION));
+
+		progress[COORDINATES].start(1);
+		data.setSkeletonDepth(loadTrack(coor, "Depth"));
+		data.setSkeletonReal(loadTrack(coor, "Real"));
+		reprojectCoords(data);
+		loadUserCoords(coor, data);
+		progress[COORDINATES].finish();
+
+		data.setImageDepth(depthTask.get());
+		data.setImageColor(colorTask.get());
+		data.setSegmentation(segmentationTask.get());
+	}
+
 
 	public float[][][] loadFile(File arquivo) {
 		List<String> lines = null;;
@@ -0,0 +1,238 @@
+package br.edu.ifsp.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import br.edu.ifsp.capturer.EncodedFrame;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameCodec;
+import br.edu.ifsp.capturer.FrameCodecs;
+import br.edu.ifsp.capturer.FrameMap;
+
+/**
+ * The frames of one stream of a recording saved, by timestamp, which are only
+ * read when they are used. Opening a recording only lists its frames: each
+ * frame is mapped to the memory when it is first read, and the buffer returned
+ * is a view of the file, without any copy. The frames saved compressed are not
+ * mapped: they are read when they are used, and kept compressed by
+ * {@link #getFrame(long)}.
+ * <p>
+ * The map can not be changed.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class MappedFrameMap extends AbstractMap<Long, ByteBuffer> implements FrameMap {
+
+	private int stream, width, height;
+	private TreeMap<Long, Chunk> chunks = new TreeMap<>();
+
+	/**
+	 * Where the bytes of one frame are: a file of the directory of the
+	 * recording, or a view of a recording saved in one file. A file saved as
+	 * it was captured is mapped once, when it is first read, and the mapping
+	 * is kept. A file compressed is read again each time, without a mapping.
+	 */
+	private static class Chunk {
+
+		private File file;
+		private ByteBuffer view;
+		private FrameCodec codec;
+
+		Chunk(File file, ByteBuffer view, FrameCodec codec) {
+			this.file = file;
+			this.view = view;
+			this.codec = codec;
+		}
+
+		synchronized ByteBuffer map() throws IOException {
+			if (view == null) {
+				/* The mapping is still valid after the channel is closed */
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					view = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				}
+			}
+			return view.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		byte[] read() throws IOException {
+			if (view != null) {
+				byte[] encoded = new byte[view.remaining()];
+				view.duplicate().get(encoded);
+				return encoded;
+			}
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer encoded = ByteBuffer.allocate((int) channel.size());
+				while (encoded.hasRemaining()) {
+					if (channel.read(encoded, encoded.position()) < 0) {
+						throw new EOFException("The file " + file + " ended before its size.");
+					}
+				}
+				return encoded.array();
+			}
+		}
+	}
+
+	/**
+	 * Create an empty map.
+	 *
+	 * @param stream
+	 *            The stream of the frames. Please, use the constants of
+	 *            {@link Frame}.
+	 * @param width
+	 *            The width of the frames.
+	 * @param height
+	 *            The height of the frames.
+	 */
+	public MappedFrameMap(int stream, int width, int height) {
+		this.stream = stream;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Add a frame saved in a file of the directory of the recording. The file
+	 * is not opened until the frame is read.
+	 */
+	public void put(long timestamp, File file) {
+		chunks.put(timestamp, new Chunk(file, null, FrameCodecs.forFile(file)));
+	}
+
+	/**
+	 * Add a frame saved in a recording saved in one file.
+	 *
+	 * @param timestamp
+	 *            The timestamp of the frame.
+	 * @param name
+	 *            The name of the entry, which tells its codec.
+	 * @param view
+	 *            The view of the entry, mapped by
+	 *            {@link RecordingContainer.Reader#map(RecordingContainer.Entry)}.
+	 */
+	public void put(long timestamp, String name, ByteBuffer view) {
+		chunks.put(timestamp, new Chunk(null, view, FrameCodecs.forFile(new File(name))));
+	}
+
+	/**
+	 * Read a frame. The frames saved as they were captured are returned as a
+	 * read-only view of the file, and the frames compressed are read and
+	 * decoded into a new buffer.
+	 *
+	 * @return The pixels of the frame, or null if there is no frame with this
+	 *         timestamp.
+	 * @throws IllegalStateException
+	 *             If the frame could not be read.
+	 */
+	@Override
+	public ByteBuffer get(Object timestamp) {
+		Chunk chunk = chunks.get(timestamp);
+		if (chunk == null) {
+			return null;
+		}
+		try {
+			if (chunk.codec == null) {
+				return chunk.map();
+			}
+			return chunk.codec.decode(chunk.read());
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not read the frame " + timestamp, e);
+		}
+	}
+
+	/**
+	 * Get a frame which is only read when its pixels are used. The frames
+	 * compressed are kept compressed, so the masks can be read as runs.
+	 */
+	@Override
+	public Frame getFrame(final long timestamp) {
+		final Chunk chunk = chunks.get(timestamp);
+		if (chunk == null) {
+			return null;
+		}
+		if (chunk.codec != null) {
+			return new EncodedFrame(chunk.codec, stream, timestamp, width, height) {
+
+				@Override
+				protected byte[] read() {
+					try {
+						return chunk.read();
+					} catch (IOException e) {
+						throw new IllegalStateException("Could not read the frame " + timestamp, e);
+					}
+				}
+			};
+		}
+		return new Frame(stream, null, timestamp, width, height) {
+
+			@Override
+			public ByteBuffer getData() {
+				return get(timestamp);
+			}
+		};
+	}
+
+	@Override
+	public boolean containsKey(Object timestamp) {
+		return chunks.containsKey(timestamp);
+	}
+
+	@Override
+	public int size() {
+		return chunks.size();
+	}
+
+	@Override
+	public Set<Long> keySet() {
+		return Collections.unmodifiableSet(chunks.keySet());
+	}
+
+	/**
+	 * Get the entries of the map. Each frame is only read when its entry is
+	 * read by the iterator.
+	 */
+	@Override
+	public Set<Map.Entry<Long, ByteBuffer>> entrySet() {
+		return new AbstractSet<Map.Entry<Long, ByteBuffer>>() {
+
+			@Override
+			public Iterator<Map.Entry<Long, ByteBuffer>> iterator() {
+				final Iterator<Long> iterator = chunks.keySet().iterator();
+				return new Iterator<Map.Entry<Long, ByteBuffer>>() {
+
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Map.Entry<Long, ByteBuffer> next() {
+						Long timestamp = iterator.next();
+						return new AbstractMap.SimpleImmutableEntry<Long, ByteBuffer>(timestamp, get(timestamp));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return chunks.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,362 @@
+package br.edu.ifsp.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A recording saved in one file, instead of one directory with one file per
+ * frame. The file keeps the same names of the directory, as "Config.txt",
+ * "Depth/timestamp.bin" or "Coordinates/Real.txt", so the classes which read
+ * the recordings find the frames and their codecs in the same way.
+ * <p>
+ * The file has a header, the data of each entry, one after the other, and an
+ * index at the end, with the name, the position and the size of each entry.
+ * It is written sequentially by {@link Writer}, with large writes, and read
+ * randomly by {@link Reader}, which only reads the index when it is opened.
+ * The entries can also be mapped to the memory, so the system only reads them
+ * when they are used.
+ *
+ * <pre>
+ * header:  int magic, int version
+ * entries: the bytes of each entry
+ * index:   for each entry: short size of the name, name in UTF-8,
+ *          long position, int size
+ * trailer: long position of the index, int amount of entries, int magic
+ * </pre>
+ *
+ * All the numbers are in little endian.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public final class RecordingContainer {
+
+	public static final String EXTENSION = "clr";
+
+	private static final int MAGIC = 0x31524C43;
+	private static final int VERSION = 1;
+	private static final int HEADER = 8, TRAILER = 16;
+	/*
+	 * The file is mapped in regions, which also have the entries that start
+	 * near their end, so most entries are views of one region.
+	 */
+	private static final long REGION = 1L << 29, OVERLAP = 1L << 26;
+
+	private RecordingContainer() {
+	}
+
+	/**
+	 * Check a file is a recording saved in one file, by its extension.
+	 */
+	public static boolean isContainer(File file) {
+		return file.getName().endsWith("." + EXTENSION);
+	}
+
+	/**
+	 * The position and the size of one entry.
+	 */
+	public static class Entry {
+
+		private String name;
+		private long position;
+		private int size;
+
+		Entry(String name, long position, int size) {
+			this.name = name;
+			this.position = position;
+			this.size = size;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getPosition() {
+			return position;
+		}
+
+		public int getSize() {
+			return size;
+		}
+	}
+
+	/**
+	 * Write the entries of a recording one after the other. The index is
+	 * written by {@link #close()}, so the file can only be read after it is
+	 * closed.
+	 */
+	public static class Writer implements Closeable {
+
+		private OutputStream out;
+		private long position = 0;
+		private List<Entry> entries = new ArrayList<>();
+		private byte[] copy;
+
+		/**
+		 * Create the file and write its header.
+		 *
+		 * @param file
+		 *            The file, which is replaced if it exists.
+		 */
+		public Writer(File file) throws IOException {
+			out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION);
+			write(header.array(), 0, HEADER);
+		}
+
+		/**
+		 * Write one entry.
+		 *
+		 * @param name
+		 *            The name of the entry, as the path of the file in the
+		 *            directory of the recording, with "/" between the names.
+		 * @param data
+		 *            The data of the entry.
+		 */
+		public void put(String name, byte[] data) throws IOException {
+			entries.add(new Entry(name, position, data.length));
+			write(data, 0, data.length);
+		}
+
+		/**
+		 * Write one entry with the bytes from the position 0 until the limit
+		 * of the buffer.
+		 */
+		public void put(String name, ByteBuffer data) throws IOException {
+			int size = data.limit();
+			entries.add(new Entry(name, position, size));
+			if (data.hasArray()) {
+				write(data.array(), data.arrayOffset(), size);
+			} else {
+				if (copy == null || copy.length < size) {
+					copy = new byte[size];
+				}
+				ByteBuffer source = data.duplicate();
+				source.rewind();
+				source.get(copy, 0, size);
+				write(copy, 0, size);
+			}
+		}
+
+		private void write(byte[] data, int offset, int size) throws IOException {
+			out.write(data, offset, size);
+			position += size;
+		}
+
+		/**
+		 * Write the index and close the file.
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				long index = position;
+				for (Entry entry : entries) {
+					byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+					ByteBuffer buff = ByteBuffer.allocate(2 + name.length + 12).order(ByteOrder.LITTLE_ENDIAN);
+					buff.putShort((short) name.length).put(name).putLong(entry.position).putInt(entry.size);
+					write(buff.array(), 0, buff.limit());
+				}
+				ByteBuffer trailer = ByteBuffer.allocate(TRAILER).order(ByteOrder.LITTLE_ENDIAN);
+				trailer.putLong(index).putInt(entries.size()).putInt(MAGIC);
+				write(trailer.array(), 0, TRAILER);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the entries of a recording in any order. The entries can be read
+	 * by several threads at the same time.
+	 */
+	public static class Reader implements Closeable {
+
+		private FileChannel channel;
+		private Map<String, Entry> entries = new LinkedHashMap<>();
+		private MappedByteBuffer[] regions;
+
+		/**
+		 * Open the file and read its index.
+		 *
+		 * @throws IOException
+		 *             If the file is not a recording or it is incomplete.
+		 */
+		public Reader(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				readIndex();
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		private void readIndex() throws IOException {
+			long size = channel.size();
+			if (size < HEADER + TRAILER) {
+				throw new IOException("The file is not a recording");
+			}
+			ByteBuffer header = read(0, HEADER);
+			ByteBuffer trailer = read(size - TRAILER, TRAILER);
+			if (header.getInt(0) != MAGIC || trailer.getInt(12) != MAGIC) {
+				throw new IOException("The file is not a recording, or it was not closed");
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("Unknown version of the recording: " + header.getInt(4));
+			}
+
+			long index = trailer.getLong(0);
+			int count = trailer.getInt(8);
+			if (index < HEADER || index > size - TRAILER || count < 0) {
+				throw new IOException("The index of the recording is corrupted");
+			}
+			ByteBuffer buff = read(index, (int) (size - TRAILER - index));
+			try {
+				for (int i = 0; i < count; i++) {
+					byte[] name = new byte[buff.getShort() & 0xFFFF];
+					buff.get(name);
+					Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), buff.getLong(), buff.getInt());
+					if (entry.position < HEADER || entry.position + entry.size > index) {
+						throw new IOException("The entry " + entry.name + " is out of the recording");
+					}
+					entries.put(entry.name, entry);
+				}
+			} catch (RuntimeException e) {
+				throw new IOException("The index of the recording is corrupted", e);
+			}
+		}
+
+		/**
+		 * Get the names of all the entries, in the order they were written.
+		 */
+		public List<String> getNames() {
+			return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+		}
+
+		/**
+		 * Get the entries of one directory of the recording, as "Depth".
+		 *
+		 * @return The entries, in the order they were written.
+		 */
+		public List<Entry> list(String directory) {
+			String prefix = directory + "/";
+			List<Entry> list = new ArrayList<>();
+			for (Entry entry : entries.values()) {
+				if (entry.name.startsWith(prefix) && entry.name.indexOf('/', prefix.length()) < 0) {
+					list.add(entry);
+				}
+			}
+			return list;
+		}
+
+		/**
+		 * Get the timestamps of the frames of one directory, sorted.
+		 */
+		public long[] getTimestamps(String directory) {
+			List<Entry> list = list(directory);
+			long[] times = new long[list.size()];
+			int count = 0;
+			for (Entry entry : list) {
+				String name = entry.name.substring(directory.length() + 1);
+				int dot = name.lastIndexOf('.');
+				try {
+					times[count] = Long.parseLong(dot < 0 ? name : name.substring(0, dot));
+					count++;
+				} catch (NumberFormatException e) {
+					/* Not a frame */
+				}
+			}
+			times = Arrays.copyOf(times, count);
+			Arrays.sort(times);
+			return times;
+		}
+
+		/**
+		 * Get one entry.
+		 *
+		 * @return The entry, or null if there is no entry with this name.
+		 */
+		public Entry getEntry(String name) {
+			return entries.get(name);
+		}
+
+		/**
+		 * Read the data of one entry into a new buffer.
+		 *
+		 * @return The data, in little endian.
+		 */
+		public ByteBuffer read(Entry entry) throws IOException {
+			return read(entry.position, entry.size);
+		}
+
+		/**
+		 * Read the data of one entry into a new array.
+		 *
+		 * @return The data, or null if there is no entry with this name.
+		 */
+		public byte[] readBytes(String name) throws IOException {
+			Entry entry = entries.get(name);
+			return entry == null ? null : read(entry).array();
+		}
+
+		/**
+		 * Map one entry to the memory. Nothing is read from the file until
+		 * the buffer is used, and the buffer can still be used after the
+		 * reader is closed.
+		 *
+		 * @return A read-only view of the entry, in little endian.
+		 */
+		public synchronized ByteBuffer map(Entry entry) throws IOException {
+			if (entry.size > OVERLAP) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, entry.position, entry.size)
+						.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			if (regions == null) {
+				regions = new MappedByteBuffer[(int) (channel.size() / REGION) + 1];
+			}
+			int index = (int) (entry.position / REGION);
+			long start = index * REGION;
+			if (regions[index] == null) {
+				long size = Math.min(REGION + OVERLAP, channel.size() - start);
+				regions[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			}
+			ByteBuffer view = regions[index].duplicate();
+			view.position((int) (entry.position - start));
+			view.limit(view.position() + entry.size);
+			return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private ByteBuffer read(long position, int size) throws IOException {
+			ByteBuffer buff = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			while (buff.hasRemaining()) {
+				if (channel.read(buff, position + buff.position()) < 0) {
+					throw new IOException("The recording is incomplete");
+				}
+			}
+			buff.flip();
+			return buff;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package br.edu.ifsp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import br.edu.ifsp.capturer.CompositeFrame;
+import br.edu.ifsp.capturer.EncodedFrame;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameCodec;
+
+/**
+ * Write the frames of a recording to the disk while they are being captured.
+ * The frames wait in a queue with a fixed size until a background thread
+ * writes them, so the memory used by the recording does not grow with its
+ * length. The files follow the same structure created by {@link Save}, so the
+ * recording can be opened by {@link Load}.
+ * <p>
+ * The skeletons and the configuration are small, so they are kept by the
+ * capture and written by {@link #finish(CaptureData)}, as well as the frames
+ * kept in memory before the writer was created.
+ * <p>
+ * The frames of each stream are written to their own directory, so the
+ * segmentation can be delivered apart from the depth and color frames. The
+ * streams with a {@link FrameCodec} are written compressed.
+ *
+ * @author Matheus da Silva Ferreira
+ *
+ */
+public class RecordingWriter implements Runnable {
+
+	private File directory, depth, color, segmentation, coordinates;
+	private ArrayBlockingQueue<Frame> queue;
+	private Thread thread;
+	private volatile boolean running = false;
+	/* Held to deliver a frame, and exclusively to stop accepting them */
+	private ReadWriteLock delivery = new ReentrantReadWriteLock();
+	private volatile IOException error;
+	private AtomicLong written = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	private FrameCodec[] codecs = new FrameCodec[Frame.SEGMENTATION + 1];
+	private boolean compressCoordinates = false;
+
+	/**
+	 * Create the directories of a new recording.
+	 *
+	 * @param directory
+	 *            The directory of the recording. It must not exist.
+	 * @param window
+	 *            The amount of frames, of any stream, that can wait to be
+	 *            written. When the queue is full, the thread that delivers the
+	 *            frame waits.
+	 */
+	public RecordingWriter(File directory, int window) throws IOException {
+		this.directory = Files.createDirectory(directory.toPath()).toFile();
+		this.depth = createDirectory("Depth");
+		this.color = createDirectory("Color");
+		this.segmentation = createDirectory("Segmentation");
+		this.coordinates = createDirectory("Coordinates");
+		this.queue = new ArrayBlockingQueue<>(window);
+	}
+
+	private File createDirectory(String name) throws IOException {
+		return Files.createDirectory(new File(directory.getAbsolutePath() + File.separator + name).toPath()).toFile();
+	}
+
+	/**
+	 * Set the codec used to compress the frames of one stream. It must be
+	 * called before the writer is started.
+	 *
+	 * @param stream
+	 *            The stream. Please, use the constants of {@link Frame}.
+	 * @param codec
+	 *            The codec, or null to write the frames as they are.
+	 */
+	public void setCodec(int stream, FrameCodec codec) {
+		codecs[stream] = codec;
+	}
+
+	/**
+	 * Choose how the movements are written by {@link #finish(CaptureData)}.
+	 *
+	 * @param compress
+	 *            true to compress the movements, false to write them as they
+	 *            were captured.
+	 */
+	public void setCompressCoordinates(boolean compress) {
+		this.compressCoordinates = compress;
+	}
+
+	/**
+	 * Start the thread that writes the frames.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "RecordingWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Deliver a composite frame to be written. The writer becomes the owner of
+	 * the frame, and releases it after writing it.
+	 *
+	 * @param frame
+	 *            The frame to write.
+	 * @return true if the frame will be written, false otherwise.
+	 */
+	public boolean write(CompositeFrame frame) {
+		boolean accepted = true;
+		for (int stream = Frame.COLOR; stream <= Frame.SEGMENTATION; stream++) {
+			Frame f = frame.getFrame(stream);
+			if (f != null) {
+				accepted &= write(f.retain());
+			}
+		}
+		frame.release();
+		return accepted;
+	}
+
+	/**
+	 * Deliver a frame to be written. The writer becomes the owner of the
+	 * reference, and releases it after writing the frame. A frame accepted is
+	 * always written, even if {@link #finish(CaptureData)} is called while it
+	 * is being delivered.
+	 *
+	 * @param frame
+	 *            The frame to write.
+	 * @return true if the frame will be written, false otherwise.
+	 */
+	public boolean write(Frame frame) {
+		delivery.readLock().lock();
+		try {
+			if (!running) {
+				frame.release();
+				return false;
+			}
+			queue.put(frame);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			frame.release();
+			return false;
+		} finally {
+			delivery.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running || !queue.isEmpty()) {
+			Frame frame;
+			try {
+				/* Not interrupted by finish(), since it would close the open channel */
+				frame = queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (frame == null) {
+				continue;
+			}
+
+			try {
+				writeFrame(frame);
+				written.incrementAndGet();
+			} catch (IOException e) {
+				error = e;
+				e.printStackTrace();
+			} finally {
+				frame.release();
+			}
+		}
+	}
+
+	private void writeFrame(Frame frame) throws IOException {
+		File directory;
+		switch (frame.getStream()) {
+		case Frame.COLOR:
+			directory = color;
+			break;
+		case Frame.DEPTH:
+			directory = depth;
+			break;
+		default:
+			directory = segmentation;
+			break;
+		}
+
+		ByteBuffer buff;
+		String extension = "bin";
+		FrameCodec codec = codecs[frame.getStream()];
+		if (frame instanceof EncodedFrame) {
+			EncodedFrame encoded = (EncodedFrame) frame;
+			buff = ByteBuffer.wrap(encoded.encode());
+			extension = encoded.getCodec().getExtension();
+		} else if (codec != null) {
+			buff = ByteBuffer.wrap(codec.encode(frame.getData(), frame.getWidth(), frame.getHeight()));
+			extension = codec.getExtension();
+		} else {
+			buff = frame.getData();
+		}
+		File file = new File(
+				directory.getAbsolutePath() + File.separator + frame.getTimestamp() + "." + extension);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buff.hasRemaining()) {
+				bytes.addAndGet(channel.write(buff));
+			}
+		}
+	}
+
+	/**
+	 * Wait until all the frames are written, and then write the parts of the
+	 * recording kept in memory: the configuration, the coordinates and the
+	 * segmentation not yet written.
+	 *
+	 * @param data
+	 *            The data kept in memory by the capture.
+	 * @throws IOException
+	 *             If any file of the recording could not be written.
+	 */
+	public void finish(CaptureData data) throws IOException {
+		synchronized (this) {
+			/* Wait for the frames being delivered, which the thread still takes */
+			delivery.writeLock().lock();
+			try {
+				running = false;
+			} finally {
+				delivery.writeLock().unlock();
+			}
+			if (thread != null) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				thread = null;
+			}
+		}
+
+		if (error != null) {
+			throw error;
+		}
+
+		Save save = new Save();
+		save.setCompressCoordinates(compressCoordinates);
+		save.saveConfig(directory, data);
+		save.saveCoordinates(coordinates, data);
+		save.saveStream(segmentation, data.getSegmentation());
+		/* The frames kept in memory before the recording was spilled to the disk */
+		save.saveStream(depth, data.getImageDepth());
+		save.saveStream(color, data.getImageColor());
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the amount of frames already written.
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Get the amount of frames waiting to be written.
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the amount of bytes already written.
+	 */
+	public long getBytesWritten() {
+		return bytes.get();
+	}
+}
@@ -10,7 +10,10 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.JDialog;
@@ -19,6 +22,12 @@ import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JProgressBar;
 
+import br.edu.ifsp.capturer.EncodedFrameMap;
+import br.edu.ifsp.capturer.SkeletonCodec;
+import br.edu.ifsp.capturer.SkeletonFile;
+import br.edu.ifsp.capturer.SkeletonTrack;
+import br.edu.ifsp.capturer.UserTracks;
+
 public class Save extends Thread {
 
 	private Component father;
@@ -26,6 +35,7 @@ public class Save extends Thread {
 	private JDialog d;
 	private CaptureData data;
 	private float[][][] moviments;
+	private boolean compressCoordinates = false;
 
 	private static String directory = "/home/matheus/Música";
 	
@@ -42,32 +52,31 @@ public class Save extends Thread {
 		data = null;
 	}
 
-	private void saveString(File file, String value) throws IOException {
-		Files.write(Paths.get(file.toURI()), value.getBytes());
+	/**
+	 * Choose how the movements are saved: as they were captured, by
+	 * {@link SkeletonFile}, or compressed by {@link SkeletonCodec}, about ten
+	 * times smaller.
+	 * 
+	 * @param compress
+	 *            true to compress the movements, false to save them as they
+	 *            were captured.
+	 */
+	public void setCompressCoordinates(boolean compress) {
+		this.compressCoordinates = compress;
 	}
 
-	private void saveCoords(File file, Map<Long, Float[][]> coords) throws IOException {
-		StringBuilder sb = new StringBuilder();
-
-		for (Long timestamp : coords.keySet()) {
-			sb.append(timestamp + " ");
-			for (Float[] f : coords.get(timestamp)) {
-				sb.append(Arrays.toString(f));
-			}
-			sb.append("\n");
-		}
-
-		saveString(file, sb.toString());
-		// Files.write(Paths.get(file.toURI()),
-		// getCoords(moviments).getBytes());
+	private void saveString(File file, String value) throws IOException {
+		Files.write(Paths.get(file.toURI()), value.getBytes());
 	}
 
 	public void saveBuffer(File file, ByteBuffer buff) {
 		BufferedOutputStream out;
 		byte b[] = new byte[buff.limit()];
 
-		buff.rewind();
-		buff.get(b);
+		/* The buffer may be in use by other threads, so its position is kept */
+		ByteBuffer view = buff.duplicate();
+		view.rewind();
+		view.get(b);
 
 		try {
 			out = new BufferedOutputStream(new FileOutputStream(file));
@@ -82,6 +91,10 @@ public class Save extends Thread {
 	private void saveBuffers(File file, Map<Long, ByteBuffer> map) {
 		String caminho = file.getAbsolutePath();
 
+		if (map instanceof EncodedFrameMap) {
+			saveEncoded(file, (EncodedFrameMap) map);
+			return;
+		}
 		for (Long timestamp : map.keySet()) {
 			ByteBuffer buff = map.get(timestamp);
 			saveBuffer(new File(caminho + File.separator + timestamp + ".bin"), buff);
@@ -89,6 +102,18 @@ public class Save extends Thread {
 
 	}
 
+	/**
+	 * Save the frames compressed as they are kept in memory, with the
+	 * extension of their codec.
+	 */
+	private void saveEncoded(File file, EncodedFrameMap map) {
+		String extension = "." + map.getCodec().getExtension();
+		for (Long timestamp : map.keySet()) {
+			saveByte(new File(file.getAbsolutePath() + File.separator + timestamp + extension),
+					map.getEncoded(timestamp));
+		}
+	}
+
 	private void saveByte(File file, byte[] b) {
 		BufferedOutputStream out;
 		try {
@@ -182,6 +207,12 @@ public class Save extends Thread {
 		System.out.println("Saving");
 		try {
 
+			if (RecordingContainer.isContainer(file)) {
+				saveContainer(file, data);
+				d.dispose();
+				return;
+			}
+
 			Path directory = Files.createDirectory(file.toPath());
 			Path depth = Files.createDirectory(new File(directory.toFile().getAbsolutePath() + File.separator + "Depth").toPath());
 			Path color = Files.createDirectory(new File(directory.toFile().getAbsolutePath() + File.separator + "Color").toPath());
@@ -190,17 +221,9 @@ public class Save extends Thread {
 			Path coordinates = Files
 					.createDirectory(new File(directory.toFile().getAbsolutePath() + File.separator + "Coordinates").toPath());
 
-			StringBuilder sb = new StringBuilder();
-			sb.append("Width: " + data.getWidth() + "\n");
-			sb.append("Height: " + data.getHeight() + "\n");
-			sb.append("FPS: " + data.getFps() + "\n");
-
 			System.out.println("Config");
-			saveString(new File(directory.toFile().getAbsolutePath() + File.separator + "Config.txt"), sb.toString());
-			System.out.println("Coordinate Depth");
-			saveCoords(new File(coordinates.toFile().getAbsolutePath() + File.separator + "Depth.txt"), data.getCoordinateDepth());
-			System.out.println("Coordinate Real");
-			saveCoords(new File(coordinates.toFile().getAbsolutePath() + File.separator + "Real.txt"), data.getCoordinateReal());
+			saveConfig(directory.toFile(), data);
+			saveCoordinates(coordinates.toFile(), data);
 
 			System.out.println("Color");
 			saveBuffers(depth.toFile(), data.getImageDepth());
@@ -220,6 +243,161 @@ public class Save extends Thread {
 		d.dispose();
 	}
 
+	/**
+	 * Save the file Config.txt, with the resolution, the frame rate and the
+	 * field of view of the recording.
+	 * 
+	 * @param directory
+	 *            The directory of the recording.
+	 * @param data
+	 *            The recording.
+	 */
+	void saveConfig(File directory, CaptureData data) throws IOException {
+		saveString(new File(directory.getAbsolutePath() + File.separator + "Config.txt"), getConfig(data));
+	}
+
+	private String getConfig(CaptureData data) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Width: " + data.getWidth() + "\n");
+		sb.append("Height: " + data.getHeight() + "\n");
+		sb.append("FPS: " + data.getFps() + "\n");
+		sb.append("HFOV: " + data.getProjection().getHorizontalFov() + "\n");
+		sb.append("VFOV: " + data.getProjection().getVerticalFov() + "\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Save the files of the directory Coordinates of a recording. The files
+	 * Depth and Real have the movements of the main user, and the files
+	 * Depth-id and Real-id have the movements of each user.
+	 * 
+	 * @param coordinates
+	 *            The directory Coordinates.
+	 * @param data
+	 *            The recording.
+	 */
+	void saveCoordinates(File coordinates, CaptureData data) throws IOException {
+		System.out.println("Coordinate Depth");
+		saveTrack(coordinates, "Depth", data.getSkeletonDepth());
+		System.out.println("Coordinate Real");
+		saveTrack(coordinates, "Real", data.getSkeletonReal());
+
+		UserTracks users = data.getUserTracks();
+		if (users == null) {
+			return;
+		}
+		for (short id : users.getUsers()) {
+			System.out.println("Coordinates of the user " + id);
+			saveTrack(coordinates, "Depth-" + id, users.getDepth(id));
+			saveTrack(coordinates, "Real-" + id, users.getReal(id));
+		}
+	}
+
+	/**
+	 * Save the movements of one user, as they were captured or compressed.
+	 * 
+	 * @param coordinates
+	 *            The directory Coordinates.
+	 * @param name
+	 *            The name of the file, without the extension.
+	 * @param track
+	 *            The movements, or null to save nothing.
+	 */
+	private void saveTrack(File coordinates, String name, SkeletonTrack track) throws IOException {
+		if (track == null) {
+			return;
+		}
+		String path = coordinates.getAbsolutePath() + File.separator + name;
+		if (compressCoordinates) {
+			SkeletonCodec.write(track, new File(path + "." + SkeletonCodec.EXTENSION));
+		} else {
+			SkeletonFile.write(track, SkeletonFile.getCoordinateSystem(name),
+					new File(path + "." + SkeletonFile.EXTENSION));
+		}
+	}
+
+	/**
+	 * Save the whole recording in one file, with the same names of the files
+	 * of the directory of the recording. The frames of each stream are saved
+	 * in the order of their timestamps.
+	 * 
+	 * @param file
+	 *            The file of the recording.
+	 * @param data
+	 *            The recording.
+	 * @see RecordingContainer
+	 */
+	void saveContainer(File file, CaptureData data) throws IOException {
+		try (RecordingContainer.Writer out = new RecordingContainer.Writer(file)) {
+			System.out.println("Config");
+			out.put("Config.txt", getConfig(data).getBytes());
+
+			System.out.println("Coordinates");
+			putTrack(out, "Depth", data.getSkeletonDepth());
+			putTrack(out, "Real", data.getSkeletonReal());
+			UserTracks users = data.getUserTracks();
+			if (users != null) {
+				for (short id : users.getUsers()) {
+					putTrack(out, "Depth-" + id, users.getDepth(id));
+					putTrack(out, "Real-" + id, users.getReal(id));
+				}
+			}
+
+			System.out.println("Depth");
+			putStream(out, "Depth", data.getImageDepth());
+			System.out.println("Color");
+			putStream(out, "Color", data.getImageColor());
+			System.out.println("Segmentation");
+			putStream(out, "Segmentation", data.getSegmentation());
+		}
+	}
+
+	private void putTrack(RecordingContainer.Writer out, String name, SkeletonTrack track) throws IOException {
+		if (track == null) {
+			return;
+		}
+		if (compressCoordinates) {
+			out.put("Coordinates/" + name + "." + SkeletonCodec.EXTENSION, SkeletonCodec.encode(track));
+		} else {
+			out.put("Coordinates/" + name + "." + SkeletonFile.EXTENSION,
+					SkeletonFile.encode(track, SkeletonFile.getCoordinateSystem(name)));
+		}
+	}
+
+	private void putStream(RecordingContainer.Writer out, String directory, Map<Long, ByteBuffer> map)
+			throws IOException {
+		if (map == null) {
+			return;
+		}
+		List<Long> timestamps = new ArrayList<>(map.keySet());
+		Collections.sort(timestamps);
+		if (map instanceof EncodedFrameMap) {
+			EncodedFrameMap encoded = (EncodedFrameMap) map;
+			String extension = "." + encoded.getCodec().getExtension();
+			for (Long timestamp : timestamps) {
+				out.put(directory + "/" + timestamp + extension, encoded.getEncoded(timestamp));
+			}
+		} else {
+			for (Long timestamp : timestamps) {
+				out.put(directory + "/" + timestamp + ".bin", map.get(timestamp));
+			}
+		}
+	}
+
+	/**
+	 * Save the buffers of one stream, one file per timestamp.
+	 * 
+	 * @param directory
+	 *            The directory of the stream.
+	 * @param map
+	 *            The buffers, by timestamp.
+	 */
+	void saveStream(File directory, Map<Long, ByteBuffer> map) {
+		if (map != null) {
+			saveBuffers(directory, map);
+		}
+	}
+
 	private String getCoords(float[][][] coor) {
 		String coords = new String();
 		if (coor == null) {
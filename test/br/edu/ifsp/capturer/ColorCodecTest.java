@@ -0,0 +1,62 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColorCodecTest {
+
+	private static final int WIDTH = 64, HEIGHT = 48;
+
+	private ByteBuffer pixels;
+
+	@Before
+	public void initialize() {
+		pixels = ByteBuffer.allocate(WIDTH * HEIGHT * 3);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int i = (y * WIDTH + x) * 3;
+				pixels.put(i, (byte) (x * 4));
+				pixels.put(i + 1, (byte) (y * 5));
+				pixels.put(i + 2, (byte) 200);
+			}
+		}
+	}
+
+	@Test
+	public void pngKeepsThePixels() {
+		ColorCodec codec = ColorCodec.png();
+		assertEquals(pixels, codec.decode(codec.encode(pixels, WIDTH, HEIGHT)));
+		assertEquals("png", codec.getExtension());
+	}
+
+	@Test
+	public void jpegKeepsTheColors() {
+		ColorCodec codec = ColorCodec.jpeg(0.9f);
+		byte[] encoded = codec.encode(pixels, WIDTH, HEIGHT);
+		ByteBuffer decoded = codec.decode(encoded);
+		assertTrue(encoded.length * 4 < pixels.limit());
+		assertEquals(pixels.limit(), decoded.limit());
+
+		/* The red, green and blue channels stay in their places */
+		long error = 0;
+		for (int i = 0; i < pixels.limit(); i++) {
+			error += Math.abs((pixels.get(i) & 0xFF) - (decoded.get(i) & 0xFF));
+		}
+		assertTrue(error / pixels.limit() < 4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesOtherData() {
+		ColorCodec.png().decode(new byte[] { 1, 2, 3 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesInvalidQuality() {
+		ColorCodec.jpeg(0);
+	}
+}
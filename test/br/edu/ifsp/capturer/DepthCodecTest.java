@@ -0,0 +1,102 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DepthCodecTest {
+
+	private DepthCodec codec;
+
+	@Before
+	public void initialize() {
+		codec = new DepthCodec();
+	}
+
+	/**
+	 * Create a scene like the ones seen by the sensor: a wall, a user in front
+	 * of it, and a shadow without depth on the side of the user.
+	 */
+	private static ByteBuffer scene(int width, int height) {
+		ByteBuffer pixels = ByteBuffer.allocate(width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int depth = 3000 + y * 2;
+				int dx = x - width / 2, dy = y - height / 2;
+				if (dx * dx + dy * dy < width * width / 16) {
+					depth = 1500 + (dx * dx + dy * dy) / 64;
+				} else if (dx > 0 && dx < width / 8 + 4) {
+					depth = 0;
+				}
+				pixels.putShort((y * width + x) * 2, (short) depth);
+			}
+		}
+		return pixels;
+	}
+
+	@Test
+	public void decodesTheSamePixels() {
+		ByteBuffer pixels = scene(64, 48);
+		assertEquals(pixels, codec.decode(codec.encode(pixels, 64, 48)));
+	}
+
+	@Test
+	public void keepsNoiseAndExtremeValues() {
+		int width = 37, height = 11;
+		ByteBuffer pixels = ByteBuffer.allocate(width * height * 2).order(ByteOrder.LITTLE_ENDIAN);
+		Random random = new Random(42);
+		for (int i = 0; i < width * height; i++) {
+			int value = i % 5 == 0 ? 0xFFFF : i % 7 == 0 ? 0 : random.nextInt(0x10000);
+			pixels.putShort(i * 2, (short) value);
+		}
+		ByteBuffer decoded = codec.decode(codec.encode(pixels, width, height));
+		assertEquals(pixels, decoded);
+		assertEquals(ByteOrder.LITTLE_ENDIAN, decoded.order());
+	}
+
+	@Test
+	public void compressesTheScene() {
+		ByteBuffer pixels = scene(640, 480);
+		byte[] encoded = codec.encode(pixels, 640, 480);
+		assertTrue(encoded.length * 3 < pixels.limit());
+		assertEquals(0, pixels.position());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesOtherData() {
+		codec.decode(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 });
+	}
+
+	@Test
+	public void mapKeepsTheFramesEncoded() {
+		FrameBufferPool pool = new FrameBufferPool(640 * 480 * 2, 2, 0, false);
+		Frame frame = Frame.copyOf(pool, Frame.DEPTH, scene(640, 480), 100, 640, 480);
+		EncodedFrameMap map = new EncodedFrameMap(codec, Frame.DEPTH, 0, 0);
+
+		EncodedFrame encoded = map.put(frame);
+		frame.release();
+		assertFalse(encoded.isEncoded());
+		assertEquals(640 * 480 * 2, map.getRetainedBytes());
+		assertEquals(0, pool.getAvailable());
+
+		/* The frame goes back to the pool when it is encoded */
+		encoded.encode();
+		assertEquals(1, pool.getAvailable());
+		assertTrue(map.getRetainedBytes() * 3 < 640 * 480 * 2);
+		assertEquals(scene(640, 480), map.get(100L));
+		assertNull(map.get(200L));
+
+		List<CompositeFrame> frames = FrameSynchronizer.align(map, null, null, null, 0, 640, 480);
+		assertSame(encoded, frames.get(0).getDepth());
+	}
+}
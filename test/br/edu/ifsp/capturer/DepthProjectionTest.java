@@ -0,0 +1,64 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DepthProjectionTest {
+
+	private DepthProjection projection;
+
+	@Before
+	public void initialize() {
+		projection = new DepthProjection(640, 480);
+	}
+
+	@Test
+	public void center() {
+		float[] real = { 0, 0, 2000 };
+		float[] depth = new float[3];
+		projection.realToDepth(real, 0, depth, 0, 1);
+		assertArrayEquals(new float[] { 320, 240, 2000 }, depth, 0.001f);
+	}
+
+	@Test
+	public void zeroDepth() {
+		float[] real = { 10, 10, 0 };
+		float[] depth = new float[3];
+		projection.realToDepth(real, 0, depth, 0, 1);
+		assertArrayEquals(new float[] { 0, 0, 0 }, depth, 0f);
+	}
+
+	@Test
+	public void roundTrip() {
+		float[] real = { -352.1273f, 185.06973f, 2144.724f, 400f, -250f, 1800f };
+		float[] depth = new float[6];
+		float[] back = new float[6];
+		projection.realToDepth(real, 0, depth, 0, 2);
+		projection.depthToReal(depth, 0, back, 0, 2);
+		assertArrayEquals(real, back, 0.01f);
+
+		/* Left of the center in the real world is left in the image */
+		assertEquals(true, depth[0] < 320);
+		/* Above the center in the real world is up in the image */
+		assertEquals(true, depth[1] < 240);
+	}
+
+	@Test
+	public void inPlace() {
+		float[] values = { 100, 100, 1000 };
+		float[] expected = new float[3];
+		projection.realToDepth(values, 0, expected, 0, 1);
+		projection.realToDepth(values, 0, values, 0, 1);
+		assertArrayEquals(expected, values, 0f);
+	}
+
+	@Test
+	public void sameResolution() {
+		assertSame(projection, projection.withResolution(640, 480));
+		assertEquals(320, projection.withResolution(320, 240).getWidth());
+	}
+}
@@ -0,0 +1,60 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameBufferPoolTest {
+
+	private FrameBufferPool pool;
+
+	@Before
+	public void initialize() {
+		pool = new FrameBufferPool(16, 2, 0, false);
+	}
+
+	@Test
+	public void reuse() {
+		ByteBuffer first = pool.acquire(16);
+		pool.release(first);
+		assertSame(first, pool.acquire(16));
+		assertEquals(1, pool.getAllocated());
+	}
+
+	@Test
+	public void copy() {
+		ByteBuffer source = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+		source.position(2);
+
+		ByteBuffer copy = pool.copy(source);
+		assertEquals(4, copy.limit());
+		assertEquals(0, source.position());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 1, copy.get(i));
+		}
+	}
+
+	@Test
+	public void biggerThanPool() {
+		ByteBuffer buff = pool.acquire(32);
+		assertEquals(32, buff.limit());
+		pool.release(buff);
+		assertEquals(0, pool.getAvailable());
+	}
+
+	@Test
+	public void frameReleasedOnce() {
+		Frame frame = Frame.copyOf(pool, Frame.DEPTH, ByteBuffer.wrap(new byte[16]), 1L, 4, 2);
+		frame.retain();
+		frame.release();
+		assertEquals(0, pool.getAvailable());
+		frame.release();
+		assertEquals(1, pool.getAvailable());
+		assertTrue(pool.getAllocated() == 1);
+	}
+}
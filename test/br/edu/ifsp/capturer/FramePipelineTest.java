@@ -0,0 +1,138 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FramePipelineTest {
+
+	private FrameBufferPool pool;
+	private CountDownLatch started, blocked;
+	private FramePipeline pipeline;
+
+	@Before
+	public void initialize() {
+		pool = new FrameBufferPool(4, 16, 0, false);
+		started = new CountDownLatch(1);
+		blocked = new CountDownLatch(1);
+	}
+
+	private Frame frame(long timestamp) {
+		return Frame.wrap(pool, Frame.COLOR, pool.acquire(4), timestamp, 2, 1);
+	}
+
+	/**
+	 * Create a pipeline whose only stage waits until the test lets it go, so
+	 * the frames stay in the queue.
+	 */
+	private void create(FramePipeline.DropPolicy policy) throws InterruptedException {
+		pipeline = new FramePipeline("test");
+		pipeline.addStage("record", new FramePipeline.Stage() {
+
+			@Override
+			public void process(Frame frame) {
+				started.countDown();
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, 4, policy);
+		pipeline.start();
+		pipeline.submit(frame(0));
+		started.await();
+	}
+
+	@Test
+	public void decimateDiscardsEveryOtherFrameUnderPressure() throws InterruptedException {
+		create(FramePipeline.DropPolicy.DECIMATE);
+		assertTrue(pipeline.submit(frame(1)));
+		assertTrue(pipeline.submit(frame(2)));
+		/* The queue is half full */
+		assertFalse(pipeline.submit(frame(3)));
+		assertTrue(pipeline.submit(frame(4)));
+		assertFalse(pipeline.submit(frame(5)));
+		assertTrue(pipeline.submit(frame(6)));
+
+		assertEquals(2, pipeline.getDropped("record"));
+		assertEquals(0, pipeline.getDropped("display"));
+		blocked.countDown();
+		pipeline.stop();
+	}
+
+	@Test
+	public void dropNewestCountsTheFramesDiscarded() throws InterruptedException {
+		create(FramePipeline.DropPolicy.DROP_NEWEST);
+		for (long t = 1; t <= 4; t++) {
+			assertTrue(pipeline.submit(frame(t)));
+		}
+		assertFalse(pipeline.submit(frame(5)));
+		assertEquals(1, pipeline.getDropped());
+		blocked.countDown();
+		pipeline.stop();
+	}
+
+	@Test
+	public void branchReceivesFramesWhileTheFirstStageIsBlocked() throws InterruptedException {
+		final CountDownLatch shown = new CountDownLatch(3);
+		pipeline = new FramePipeline("test");
+		pipeline.addStage("record", new FramePipeline.Stage() {
+
+			@Override
+			public void process(Frame frame) {
+				started.countDown();
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, 4, FramePipeline.DropPolicy.BLOCK);
+		pipeline.addBranch("display", new FramePipeline.Stage() {
+
+			@Override
+			public void process(Frame frame) {
+				shown.countDown();
+			}
+		}, 4, FramePipeline.DropPolicy.DROP_OLDEST);
+		pipeline.start();
+		for (long t = 0; t < 3; t++) {
+			assertTrue(pipeline.submit(frame(t)));
+		}
+
+		assertTrue(shown.await(5, TimeUnit.SECONDS));
+		/* The record stage still holds its frames */
+		assertEquals(0, pool.getAvailable());
+		blocked.countDown();
+		pipeline.stop();
+	}
+
+	@Test
+	public void drainWaitsForTheFramesSubmitted() throws InterruptedException {
+		final AtomicInteger processed = new AtomicInteger();
+		pipeline = new FramePipeline("test");
+		pipeline.addStage("record", new FramePipeline.Stage() {
+
+			@Override
+			public void process(Frame frame) {
+				processed.incrementAndGet();
+			}
+		}, 4, FramePipeline.DropPolicy.BLOCK);
+		pipeline.start();
+		for (long t = 0; t < 10; t++) {
+			pipeline.submit(frame(t));
+		}
+
+		pipeline.drain();
+		assertEquals(10, processed.get());
+		pipeline.stop();
+	}
+}
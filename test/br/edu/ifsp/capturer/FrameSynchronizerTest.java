@@ -0,0 +1,136 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameSynchronizerTest {
+
+	private List<CompositeFrame> frames;
+	private FrameSynchronizer sync;
+
+	@Before
+	public void initialize() {
+		frames = new ArrayList<>();
+		sync = new FrameSynchronizer(10, 4, new FrameSynchronizer.CompositeFrameListener() {
+
+			@Override
+			public void onCompositeFrame(CompositeFrame frame) {
+				frames.add(frame);
+			}
+		});
+	}
+
+	private static Frame frame(int stream, long timestamp) {
+		return new Frame(stream, ByteBuffer.allocate(1), timestamp, 1, 1);
+	}
+
+	@Test
+	public void colorAfterDepth() {
+		Frame depth = frame(Frame.DEPTH, 100);
+		Frame color = frame(Frame.COLOR, 103);
+		sync.offerDepth(depth);
+		assertEquals(0, frames.size());
+
+		sync.offerColor(color);
+		assertEquals(1, frames.size());
+		assertSame(depth, frames.get(0).getDepth());
+		assertSame(color, frames.get(0).getColor());
+	}
+
+	@Test
+	public void nearestColor() {
+		sync.offerColor(frame(Frame.COLOR, 92));
+		Frame nearest = frame(Frame.COLOR, 98);
+		sync.offerColor(nearest);
+		sync.offerDepth(frame(Frame.DEPTH, 100));
+		sync.offerColor(frame(Frame.COLOR, 105));
+
+		assertEquals(1, frames.size());
+		assertSame(nearest, frames.get(0).getColor());
+	}
+
+	@Test
+	public void outsideTolerance() {
+		sync.offerDepth(frame(Frame.DEPTH, 100));
+		sync.offerColor(frame(Frame.COLOR, 150));
+
+		assertEquals(1, frames.size());
+		assertNull(frames.get(0).getColor());
+		assertEquals(1, sync.getUnmatched());
+	}
+
+	@Test
+	public void fullQueueForcesMatch() {
+		for (int i = 0; i < 5; i++) {
+			sync.offerDepth(frame(Frame.DEPTH, 100 + i * 33));
+		}
+		assertEquals(1, frames.size());
+
+		sync.flush();
+		assertEquals(5, frames.size());
+	}
+
+	@Test
+	public void lateColor() {
+		sync.offerDepth(frame(Frame.DEPTH, 100));
+		sync.offerColor(frame(Frame.COLOR, 101));
+		sync.offerColor(frame(Frame.COLOR, 50));
+		assertEquals(1, sync.getLate());
+	}
+
+	@Test
+	public void align() {
+		Map<Long, ByteBuffer> depth = new TreeMap<>();
+		Map<Long, ByteBuffer> color = new TreeMap<>();
+		Map<Long, ByteBuffer> segmentation = new TreeMap<>();
+		depth.put(100L, ByteBuffer.allocate(1));
+		depth.put(133L, ByteBuffer.allocate(1));
+		color.put(95L, ByteBuffer.allocate(1));
+		color.put(131L, ByteBuffer.allocate(1));
+		segmentation.put(133L, ByteBuffer.allocate(1));
+
+		SkeletonTrack skeleton = new SkeletonTrack();
+		skeleton.add(133L, new float[SkeletonTrack.FRAME_SIZE]);
+
+		List<CompositeFrame> aligned = FrameSynchronizer.align(depth, color, segmentation, skeleton, 10, 1, 1);
+		assertEquals(2, aligned.size());
+		assertEquals(95L, aligned.get(0).getColor().getTimestamp());
+		assertEquals(131L, aligned.get(1).getColor().getTimestamp());
+		assertNull(aligned.get(0).getSegmentation());
+		assertEquals(133L, aligned.get(1).getSegmentation().getTimestamp());
+		assertEquals(-1, aligned.get(0).getSkeleton());
+		assertEquals(0, aligned.get(1).getSkeleton());
+	}
+
+	@Test
+	public void listenerIsCalledWithoutTheLock() {
+		final boolean[] locked = new boolean[1];
+		sync = new FrameSynchronizer(10, 4, new FrameSynchronizer.CompositeFrameListener() {
+
+			@Override
+			public void onCompositeFrame(CompositeFrame frame) {
+				locked[0] |= Thread.holdsLock(sync);
+				frames.add(frame);
+			}
+		});
+		sync.offerDepth(frame(Frame.DEPTH, 100));
+		sync.offerColor(frame(Frame.COLOR, 101));
+		sync.offerDepth(frame(Frame.DEPTH, 200));
+		sync.flush();
+
+		assertEquals(2, frames.size());
+		assertEquals(200, frames.get(1).getTimestamp());
+		assertFalse(locked[0]);
+	}
+}
@@ -0,0 +1,73 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class FrameTest {
+
+	private static Frame frame(int size) {
+		ByteBuffer data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < size; i++) {
+			data.put(i, (byte) i);
+		}
+		return new Frame(Frame.COLOR, data, 100, size / 3, 1);
+	}
+
+	@Test
+	public void eachCallHasItsOwnPosition() {
+		Frame frame = frame(12);
+		ByteBuffer first = frame.getData();
+		first.position(6);
+
+		ByteBuffer second = frame.getData();
+		assertEquals(0, second.position());
+		assertEquals(12, second.remaining());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, second.order());
+		assertEquals(6, first.position());
+	}
+
+	@Test
+	public void readsTheWholeFrameWhileAnotherThreadReadsIt() throws InterruptedException {
+		final Frame frame = frame(3 * 1024);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		/* Reads the pixels one by one, as the display does */
+		Thread paint = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				ByteBuffer pixels = frame.getData();
+				while (running.get()) {
+					if (!pixels.hasRemaining()) {
+						pixels.rewind();
+					}
+					pixels.get();
+				}
+			}
+		});
+		paint.start();
+
+		boolean failed = false;
+		try {
+			for (int n = 0; n < 2000 && !failed; n++) {
+				ByteBuffer data = frame.getData();
+				byte[] copy = new byte[data.remaining()];
+				data.get(copy);
+				failed = copy.length != 3 * 1024;
+				for (int i = 0; i < copy.length && !failed; i++) {
+					failed = copy[i] != (byte) i;
+				}
+			}
+		} finally {
+			running.set(false);
+			paint.join();
+		}
+		assertFalse(failed);
+	}
+}
@@ -0,0 +1,86 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.primesense.nite.PoseType;
+
+public class GestureTriggerTest {
+
+	private UserFrame frame;
+	private GestureTrigger trigger;
+
+	@Before
+	public void initialize() {
+		frame = new UserFrame();
+		trigger = new GestureTrigger("Right Hand Above Head",
+				GestureTrigger.above(Coordinate.RIGHT_HAND, Coordinate.HEAD), 500_000);
+	}
+
+	/**
+	 * Create a frame of the user 1, with the right hand at the height informed
+	 * and the head at the height 0.
+	 */
+	private boolean update(long timestamp, float hand) {
+		frame.reset(timestamp, 2, 1, null, null, 0);
+		int user = frame.addUser((short) 1, false, true, 0);
+		Arrays.fill(frame.getJoints(), 0f);
+		Arrays.fill(frame.getConfidences(), user * SkeletonTrack.JOINTS, (user + 1) * SkeletonTrack.JOINTS, 1f);
+		frame.getJoints()[user * SkeletonTrack.FRAME_SIZE + Coordinate.RIGHT_HAND * SkeletonTrack.AXES
+				+ Coordinate.Y] = hand;
+		return trigger.update(frame, user);
+	}
+
+	@Test
+	public void firesOnceAfterTheHoldTime() {
+		assertFalse(update(0, 100));
+		assertFalse(update(300_000, 100));
+		assertTrue(update(500_000, 100));
+		assertFalse(update(800_000, 100));
+	}
+
+	@Test
+	public void releasingRestartsTheHoldTime() {
+		assertFalse(update(0, 100));
+		assertFalse(update(400_000, -100));
+		assertFalse(update(600_000, 100));
+		assertTrue(update(1_100_000, 100));
+
+		/* It only fires again after the gesture is released */
+		assertFalse(update(1_200_000, -100));
+		assertFalse(update(1_300_000, 100));
+		assertTrue(update(1_800_000, 100));
+	}
+
+	@Test
+	public void ignoresJointsWithoutConfidence() {
+		update(0, 100);
+		frame.getConfidences()[Coordinate.HEAD] = 0f;
+		assertFalse(trigger.update(frame, 0));
+	}
+
+	@Test
+	public void posesAreHeldWithoutWaiting() {
+		GestureTrigger pose = GestureTrigger.pose(PoseType.PSI);
+		frame.reset(0, 2, 1, null, null, 0);
+		int user = frame.addUser((short) 3, false, true, UserFrame.POSE_PSI);
+		assertTrue(pose.update(frame, user));
+		assertEquals(PoseType.PSI, pose.getPose());
+	}
+
+	@Test
+	public void createsThePresets() {
+		for (String name : GestureTrigger.getPresetNames()) {
+			assertNotNull(GestureTrigger.forName(name));
+		}
+		assertNull(GestureTrigger.forName("Manual"));
+	}
+}
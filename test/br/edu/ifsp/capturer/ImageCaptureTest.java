@@ -0,0 +1,92 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageCaptureTest {
+
+	private ImageCapture capture;
+
+	@Before
+	public void initialize() {
+		capture = new ImageCapture(ImageCapture.DEPTH);
+	}
+
+	private static Frame frame(long timestamp) {
+		ByteBuffer pixels = ByteBuffer.allocate(16 * 8 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 16 * 8; i++) {
+			pixels.putShort((short) (1000 + i % 16 + timestamp));
+		}
+		pixels.flip();
+		return new Frame(Frame.DEPTH, pixels, timestamp, 16, 8);
+	}
+
+	@Test
+	public void compressRecordedDataKeepsThePixels() throws InterruptedException {
+		for (long t = 0; t < 4; t++) {
+			capture.store(frame(t)).release();
+		}
+
+		Map<Long, Frame> stored = capture.compressRecordedData(new DepthCodec());
+		assertEquals(4, stored.size());
+		assertTrue(capture.getRecordedData() instanceof EncodedFrameMap);
+		for (long t = 0; t < 4; t++) {
+			assertTrue(stored.get(t) instanceof EncodedFrame);
+			assertEquals(frame(t).getData(), capture.getRecordedData().get(t));
+		}
+
+		/* The next frames of the take are compressed too */
+		assertTrue(capture.store(frame(4)) instanceof EncodedFrame);
+		/* Once compressed, there is nothing else to compress */
+		assertTrue(capture.compressRecordedData(new DepthCodec()).isEmpty());
+	}
+
+	@Test
+	public void framesRefusedByTheEncodersAreDropped() {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		capture.setPipelinePolicy(1, FramePipeline.DropPolicy.BLOCK, 1, FramePipeline.DropPolicy.DROP_OLDEST);
+		capture.setCodec(new FrameCodec() {
+
+			@Override
+			public byte[] encode(ByteBuffer pixels, int width, int height) {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new byte[1];
+			}
+
+			@Override
+			public ByteBuffer decode(byte[] encoded) {
+				return null;
+			}
+
+			@Override
+			public String getExtension() {
+				return "test";
+			}
+		});
+
+		/* Each encoder takes one frame, and the queue keeps one more */
+		Frame stored = null;
+		long t = 0;
+		do {
+			stored = capture.store(frame(t++));
+		} while (stored != null && t < 1000);
+
+		assertNull(stored);
+		assertEquals(1, capture.getDropped());
+		assertEquals(t - 1, capture.getRecordedData().size());
+		blocked.countDown();
+	}
+}
@@ -0,0 +1,53 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	private LatencyHistogram histogram;
+
+	@Before
+	public void initialize() {
+		histogram = new LatencyHistogram("test");
+	}
+
+	@Test
+	public void bucketsContainTheirValues() {
+		long[] values = { 0, 1, 7, 8, 15, 16, 1000, 999_999, 33_333_333, Long.MAX_VALUE };
+		for (long value : values) {
+			int index = LatencyHistogram.indexOf(value);
+			assertTrue(value <= LatencyHistogram.highestOf(index));
+			if (index > 0) {
+				assertTrue(value > LatencyHistogram.highestOf(index - 1));
+			}
+		}
+	}
+
+	@Test
+	public void percentilesHaveASmallError() {
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+
+		long p50 = histogram.getPercentile(50), p99 = histogram.getPercentile(99);
+		assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.125);
+		assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+		assertEquals(1_000_000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void resetForgetsEverything() {
+		histogram.record(42);
+		histogram.record(-5);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(50));
+	}
+}
@@ -0,0 +1,178 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreRollBufferTest {
+
+	private FrameBufferPool pool;
+	private PreRollBuffer buffer;
+
+	@Before
+	public void initialize() {
+		pool = new FrameBufferPool(4, 16, 0, false);
+		buffer = new PreRollBuffer(3, 1);
+	}
+
+	private Frame frame(int stream, long timestamp) {
+		return Frame.wrap(pool, stream, pool.acquire(4), timestamp, 2, 1);
+	}
+
+	private CompositeFrame composite(long timestamp) {
+		return new CompositeFrame(frame(Frame.DEPTH, timestamp), frame(Frame.COLOR, timestamp));
+	}
+
+	@Test
+	public void keepsTheNewestComposites() {
+		for (long t = 1; t <= 5; t++) {
+			buffer.addComposite(composite(t));
+		}
+		assertEquals(3, buffer.getCompositeCount());
+		/* The frames of the oldest composites were reused by the newest one */
+		assertEquals(2, pool.getAvailable());
+		assertEquals(8, pool.getAllocated());
+
+		final List<Long> drained = new ArrayList<>();
+		buffer.drainComposites(new FrameSynchronizer.CompositeFrameListener() {
+
+			@Override
+			public void onCompositeFrame(CompositeFrame frame) {
+				drained.add(frame.getTimestamp());
+				frame.release();
+			}
+		});
+		assertEquals("[3, 4, 5]", drained.toString());
+		assertEquals(0, buffer.getCompositeCount());
+		assertEquals(8, pool.getAvailable());
+	}
+
+	@Test
+	public void segmentationIsRetained() {
+		Frame frame = frame(Frame.SEGMENTATION, 1);
+		buffer.addSegmentation(frame);
+		frame.release();
+		assertEquals(0, pool.getAvailable());
+
+		buffer.drainSegmentation(new FramePipeline.Stage() {
+
+			@Override
+			public void process(Frame frame) {
+				assertEquals(1, frame.getTimestamp());
+			}
+		});
+		assertEquals(1, pool.getAvailable());
+	}
+
+	@Test
+	public void skeletonsAreCopied() {
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		for (long t = 1; t <= 4; t++) {
+			joints[0] = t;
+			buffer.addSkeleton((short) 1, t, joints, 0, confidence, 0);
+		}
+		assertEquals(3, buffer.getSkeletonCount());
+
+		final List<String> drained = new ArrayList<>();
+		buffer.drainSkeletons(new PreRollBuffer.SkeletonListener() {
+
+			@Override
+			public void onSkeleton(short user, long timestamp, float[] real, int offset, float[] confidence,
+					int confidenceOffset) {
+				drained.add(user + ":" + timestamp + ":" + real[offset]);
+			}
+		});
+		assertEquals("[1:2:2.0, 1:3:3.0, 1:4:4.0]", drained.toString());
+	}
+
+	@Test
+	public void clearReleasesFrames() {
+		buffer.addComposite(composite(1));
+		Frame frame = frame(Frame.SEGMENTATION, 1);
+		buffer.addSegmentation(frame);
+		frame.release();
+
+		buffer.clear();
+		assertEquals(3, pool.getAvailable());
+		assertEquals(0, buffer.getCompositeCount());
+		assertEquals(0, buffer.getSegmentationCount());
+	}
+
+	@Test
+	public void refusesItemsAfterItStopsKeeping() {
+		assertTrue(buffer.addComposite(composite(1)));
+		buffer.stopKeeping();
+		CompositeFrame late = composite(2);
+		assertFalse(buffer.addComposite(late));
+		assertFalse(buffer.addSegmentation(late.getDepth()));
+		assertFalse(buffer.addSkeleton((short) 1, 2, new float[SkeletonTrack.FRAME_SIZE], 0,
+				new float[SkeletonTrack.JOINTS], 0));
+		assertEquals(1, buffer.getCompositeCount());
+		late.release();
+
+		buffer.startKeeping();
+		assertTrue(buffer.addComposite(composite(3)));
+	}
+
+	@Test
+	public void skeletonsCoverTheSameSecondsAsTheComposites() {
+		buffer = new PreRollBuffer(2, 2);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		for (long t = 1; t <= 4; t++) {
+			buffer.addSkeleton((short) 1, t, joints, 0, confidence, 0);
+			buffer.addComposite(composite(t));
+		}
+		buffer.stopKeeping();
+
+		final List<Long> drained = new ArrayList<>();
+		buffer.drainSkeletons(new PreRollBuffer.SkeletonListener() {
+
+			@Override
+			public void onSkeleton(short user, long timestamp, float[] real, int offset, float[] confidence,
+					int confidenceOffset) {
+				drained.add(timestamp);
+			}
+		});
+		assertEquals("[3, 4]", drained.toString());
+		buffer.clear();
+	}
+
+	@Test
+	public void drainsWithoutTheLock() {
+		buffer.addComposite(composite(1));
+		buffer.stopKeeping();
+
+		final List<Boolean> free = new ArrayList<>();
+		buffer.drainComposites(new FrameSynchronizer.CompositeFrameListener() {
+
+			@Override
+			public void onCompositeFrame(CompositeFrame frame) {
+				/* Another thread uses the buffer while the frame is recorded */
+				Thread other = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						buffer.getCompositeCount();
+					}
+				});
+				other.start();
+				try {
+					other.join(2000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				free.add(!other.isAlive());
+				frame.release();
+			}
+		});
+		assertEquals("[true]", free.toString());
+	}
+}
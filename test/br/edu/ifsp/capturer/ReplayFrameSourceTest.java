@@ -0,0 +1,116 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayFrameSourceTest {
+
+	private File directory;
+	private List<String> events;
+	private List<short[]> userMaps;
+	private List<float[]> joints;
+
+	@Before
+	public void initialize() throws IOException {
+		directory = Files.createTempDirectory("replay").toFile();
+		write("Config.txt", "Width: 2\nHeight: 2\nFPS: 30\n".getBytes());
+		write("Depth" + File.separator + "100.bin", new byte[8]);
+		write("Depth" + File.separator + "133.bin", new byte[8]);
+		write("Color" + File.separator + "110.bin", new byte[12]);
+		write("Segmentation" + File.separator + "100.bin", new byte[] { 0, 1, 2, 0 });
+
+		StringBuilder sb = new StringBuilder("133 ");
+		for (int i = 0; i < SkeletonTrack.JOINTS; i++) {
+			sb.append(i == 1 ? "[null, null, null]" : "[" + i + ".0, 2.0, -3.5]");
+		}
+		write("Coordinates" + File.separator + "Real.txt", (sb + "\n").getBytes());
+
+		events = new ArrayList<>();
+		userMaps = new ArrayList<>();
+		joints = new ArrayList<>();
+	}
+
+	private void write(String name, byte[] data) throws IOException {
+		File file = new File(directory, name);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), data);
+		file.deleteOnExit();
+		file.getParentFile().deleteOnExit();
+	}
+
+	private ReplayFrameSource replay() throws Exception {
+		ReplayFrameSource source = new ReplayFrameSource(directory, false);
+		source.setListener(new FrameSource.Listener() {
+
+			@Override
+			public void onColorFrame(ByteBuffer pixels, long timestamp, int width, int height) {
+				events.add("C" + timestamp + ":" + pixels.limit());
+			}
+
+			@Override
+			public void onUserFrame(UserFrame frame) {
+				events.add("D" + frame.getTimestamp() + ":" + frame.getDepth().limit());
+				ByteBuffer map = frame.getUserMap();
+				if (map == null) {
+					userMaps.add(null);
+				} else {
+					short[] ids = new short[map.limit() / 2];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = map.getShort(i * 2);
+					}
+					userMaps.add(ids);
+				}
+				for (int i = 0; i < frame.getUserCount(); i++) {
+					float[] values = new float[SkeletonTrack.FRAME_SIZE];
+					System.arraycopy(frame.getJoints(), i * SkeletonTrack.FRAME_SIZE, values, 0, values.length);
+					joints.add(values);
+				}
+			}
+		});
+		source.start();
+		source.waitFinished();
+		return source;
+	}
+
+	@Test
+	public void deliversInTimestampOrder() throws Exception {
+		ReplayFrameSource source = replay();
+
+		assertEquals(3, source.getDelivered());
+		assertEquals(3, source.getFrameCount());
+		assertEquals("[D100:8, C110:12, D133:8]", events.toString());
+	}
+
+	@Test
+	public void userMapAndSkeleton() throws Exception {
+		replay();
+
+		assertArrayEquals(new short[] { 0, 1, 2, 0 }, userMaps.get(0));
+		assertNull(userMaps.get(1));
+
+		assertEquals(1, joints.size());
+		assertEquals(0f, joints.get(0)[3], 0f);
+		assertEquals(2f, joints.get(0)[6], 0f);
+		assertEquals(2f, joints.get(0)[7], 0f);
+		assertEquals(-3.5f, joints.get(0)[8], 0f);
+	}
+
+	@Test
+	public void projection() throws Exception {
+		ReplayFrameSource source = new ReplayFrameSource(directory, true);
+
+		assertEquals(2, source.getProjection().getWidth());
+		assertEquals(30, source.getFps());
+	}
+}
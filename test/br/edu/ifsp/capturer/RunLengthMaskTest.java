@@ -0,0 +1,132 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RunLengthMaskTest {
+
+	private static final byte[] PIXELS = { 0, 1, 1, 0, 2, //
+			0, 0, 0, 0, 0, //
+			3, 3, 3, 3, 3 };
+
+	private RunLengthMask mask;
+
+	@Before
+	public void initialize() {
+		mask = RunLengthMask.fromMask(ByteBuffer.wrap(PIXELS), 5, 3);
+	}
+
+	@Test
+	public void keepsOnlyTheRunsOfTheUsers() {
+		assertEquals(3, mask.getRunCount());
+		assertEquals(1, mask.getUser(2, 0));
+		assertEquals(0, mask.getUser(3, 0));
+		assertEquals(3, mask.getUser(4, 2));
+		assertEquals(8, mask.getArea(0));
+		assertEquals(5, mask.getArea(3));
+		assertArrayEquals(new int[] { 0, 0, 5, 3 }, mask.getBounds(0));
+		assertArrayEquals(new int[] { 4, 0, 1, 1 }, mask.getBounds(2));
+		assertNull(mask.getBounds(4));
+
+		ByteBuffer pixels = ByteBuffer.allocate(PIXELS.length);
+		mask.toMask(pixels);
+		assertArrayEquals(PIXELS, pixels.array());
+	}
+
+	@Test
+	public void readsTheMapOfUsers() {
+		int stride = 12;
+		ByteBuffer map = ByteBuffer.allocate(stride * 3).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < PIXELS.length; i++) {
+			map.putShort(i / 5 * stride + i % 5 * 2, PIXELS[i]);
+		}
+		map.putShort(4 * 2, (short) 300);
+
+		RunLengthMask users = RunLengthMask.fromUserMap(map, 5, 3, stride);
+		assertEquals(255, users.getUser(4, 0));
+
+		ByteBuffer expanded = ByteBuffer.allocate(5 * 3 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		users.toUserMap(expanded);
+		assertEquals(1, expanded.getShort(2 * 2));
+		assertEquals(255, expanded.getShort(4 * 2));
+		assertEquals(3, expanded.getShort(14 * 2));
+	}
+
+	@Test
+	public void paintsOnlyTheUsers() {
+		int[] argb = new int[PIXELS.length];
+		Arrays.fill(argb, 0xFFFFFFFF);
+		mask.tint(argb, new int[] { 0xFF0000FF, 0xFFFF0000, 0xFF00FF00, 0xFFFFFF00 });
+		assertEquals(0xFFFFFFFF, argb[0]);
+		assertEquals(0xFFFF0000, argb[1]);
+		assertEquals(0xFF00FF00, argb[4]);
+		assertEquals(0xFFFFFF00, argb[14]);
+
+		ByteBuffer depth = ByteBuffer.allocate(PIXELS.length * 2);
+		for (int i = 0; i < depth.limit(); i++) {
+			depth.put(i, (byte) 7);
+		}
+		mask.clearBackground(depth, 2);
+		assertEquals(0, depth.get(0));
+		assertEquals(7, depth.get(2));
+		assertEquals(0, depth.get(6));
+		assertEquals(7, depth.get(8));
+		assertEquals(0, depth.get(19));
+		assertEquals(7, depth.get(29));
+	}
+
+	@Test
+	public void encodesTheRuns() {
+		byte[] encoded = mask.toByteArray();
+		assertEquals(mask.getEncodedSize(), encoded.length);
+		RunLengthMask decoded = RunLengthMask.fromByteArray(encoded);
+		assertEquals(5, decoded.getWidth());
+		assertEquals(3, decoded.getHeight());
+		assertArrayEquals(encoded, decoded.toByteArray());
+
+		MaskCodec codec = new MaskCodec();
+		assertEquals(ByteBuffer.wrap(PIXELS), codec.decode(codec.encode(ByteBuffer.wrap(PIXELS), 5, 3)));
+
+		/* A frame of 640x480 pixels with one user has a few KB */
+		ByteBuffer frame = ByteBuffer.allocate(640 * 480);
+		for (int y = 100; y < 400; y++) {
+			for (int x = 250; x < 390; x++) {
+				frame.put(y * 640 + x, (byte) 1);
+			}
+		}
+		assertTrue(codec.encode(frame, 640, 480).length * 50 < frame.limit());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesOtherData() {
+		RunLengthMask.fromByteArray(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+	}
+
+	@Test
+	public void segmentationIsRecordedAsMasks() {
+		Segmentation segmentation = new Segmentation();
+		segmentation.startRecording();
+		ByteBuffer map = ByteBuffer.allocate(5 * 3 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < PIXELS.length; i++) {
+			map.putShort(i * 2, PIXELS[i]);
+		}
+		segmentation.setUserMap(map, 5, 3, 10, 100);
+
+		assertEquals(mask.getEncodedSize(), segmentation.getRetainedBytes());
+		Map<Long, ByteBuffer> data = segmentation.getRecordedData();
+		assertEquals(ByteBuffer.wrap(PIXELS), data.get(100L));
+
+		Frame frame = segmentation.getRecordedFrames().get(100L);
+		assertArrayEquals(mask.toByteArray(), RunLengthMask.of(frame).toByteArray());
+	}
+}
@@ -0,0 +1,46 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class SegmentationTest {
+
+	private ByteBuffer userMap(int stride, short[][] ids) {
+		ByteBuffer buff = ByteBuffer.allocate(stride * ids.length).order(ByteOrder.LITTLE_ENDIAN);
+		for (int y = 0; y < ids.length; y++) {
+			for (int x = 0; x < ids[y].length; x++) {
+				buff.putShort(y * stride + x * 2, ids[y][x]);
+			}
+		}
+		return buff;
+	}
+
+	@Test
+	public void fromUserMap() {
+		ByteBuffer pixels = userMap(6, new short[][] { { 0, 1, 2 }, { 6, 0, 300 } });
+		ByteBuffer mask = ByteBuffer.allocate(6);
+
+		RunLengthMask.fromUserMap(pixels, 3, 2, 6).toMask(mask);
+
+		byte[] values = new byte[mask.limit()];
+		mask.get(values);
+		assertArrayEquals(new byte[] { 0, 1, 2, 6, 0, (byte) 255 }, values);
+	}
+
+	@Test
+	public void fromUserMapWithPadding() {
+		ByteBuffer pixels = userMap(8, new short[][] { { 3, 4, 5 }, { 0, 0, 1 } });
+
+		RunLengthMask users = RunLengthMask.fromUserMap(pixels, 3, 2, 8);
+
+		assertEquals(5, users.getUser(2, 0));
+		assertEquals(0, users.getUser(0, 1));
+		assertEquals(1, users.getUser(2, 1));
+		assertEquals(4, users.getRunCount());
+	}
+}
@@ -0,0 +1,98 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SkeletonCodecTest {
+
+	private static final float STEP = 1f / SkeletonCodec.SCALE;
+
+	private SkeletonTrack track;
+
+	/**
+	 * Create a user which moves slowly, with the noise of the sensor.
+	 */
+	@Before
+	public void initialize() {
+		track = new SkeletonTrack(300, true);
+		Random random = new Random(7);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		for (int i = 0; i < 300; i++) {
+			for (int j = 0; j < SkeletonTrack.FRAME_SIZE; j++) {
+				joints[j] = 1000 * (j % 3 == 2 ? 2 : 0.3f) + j * 17 + (float) Math.sin(i / 20.0 + j) * 80
+						+ random.nextFloat() * 2;
+			}
+			Arrays.fill(confidence, i % 50 < 45 ? 1f : 0.5f);
+			track.add(33_333L * i, joints, 0, confidence);
+		}
+	}
+
+	@Test
+	public void decodesTheSameMovements() {
+		SkeletonTrack decoded = SkeletonCodec.decode(SkeletonCodec.encode(track));
+		assertEquals(track.size(), decoded.size());
+		assertTrue(decoded.hasConfidence());
+		for (int i = 0; i < track.size(); i++) {
+			assertEquals(track.getTimestamp(i), decoded.getTimestamp(i));
+			for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+				assertEquals(track.getConfidence(i, j), decoded.getConfidence(i, j), 0f);
+				for (int a = 0; a < SkeletonTrack.AXES; a++) {
+					assertEquals(track.get(i, j, a), decoded.get(i, j, a), STEP / 2);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void readsOneFrameAtATime() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (SkeletonCodec.Writer writer = new SkeletonCodec.Writer(out, false)) {
+			writer.write(-5, new float[SkeletonTrack.FRAME_SIZE], 0, null);
+			float[] joints = new float[SkeletonTrack.FRAME_SIZE + 1];
+			Arrays.fill(joints, -1234.5f);
+			writer.write(Long.MAX_VALUE, joints, 1, null);
+		}
+
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		try (SkeletonCodec.Reader reader = new SkeletonCodec.Reader(new ByteArrayInputStream(out.toByteArray()))) {
+			assertFalse(reader.hasConfidence());
+			assertTrue(reader.next(joints, 0, confidence));
+			assertEquals(-5, reader.getTimestamp());
+			assertEquals(0f, joints[44], 0f);
+			assertEquals(1f, confidence[0], 0f);
+			assertTrue(reader.next(joints, 0, null));
+			assertEquals(Long.MAX_VALUE, reader.getTimestamp());
+			assertEquals(-1234.5f, joints[0], 0f);
+			assertFalse(reader.next(joints, 0, null));
+		}
+	}
+
+	@Test
+	public void isMuchSmallerThanTheText() {
+		/* The text has about 500 bytes per frame */
+		int text = 0;
+		for (Float[][] frame : track.asMap().values()) {
+			for (Float[] joint : frame) {
+				text += Arrays.toString(joint).length();
+			}
+			text += 8;
+		}
+		assertTrue(SkeletonCodec.encode(track).length * 10 < text);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesOtherData() {
+		SkeletonCodec.decode(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+	}
+}
@@ -0,0 +1,109 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SkeletonFileTest {
+
+	private SkeletonTrack track;
+
+	@Before
+	public void initialize() {
+		track = new SkeletonTrack(100, true);
+		Random random = new Random(3);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j < SkeletonTrack.FRAME_SIZE; j++) {
+				joints[j] = (random.nextFloat() - 0.5f) * 4000;
+			}
+			Arrays.fill(confidence, i % 2 == 0 ? 1f : 0.5f);
+			track.add(33_333L * i + 7, joints, 0, confidence);
+		}
+	}
+
+	@Test
+	public void readsTheSameMovements() {
+		byte[] encoded = SkeletonFile.encode(track, SkeletonFile.REAL);
+		SkeletonTrack decoded = SkeletonFile.decode(encoded);
+		assertEquals(track.size(), decoded.size());
+		assertTrue(decoded.hasConfidence());
+		for (int i = 0; i < track.size(); i++) {
+			assertEquals(track.getTimestamp(i), decoded.getTimestamp(i));
+			for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+				assertEquals(track.getConfidence(i, j), decoded.getConfidence(i, j), 0f);
+				for (int a = 0; a < SkeletonTrack.AXES; a++) {
+					assertEquals(track.get(i, j, a), decoded.get(i, j, a), 0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void readsOneFrameAtATime() throws IOException {
+		byte[] encoded = SkeletonFile.encode(track, SkeletonFile.DEPTH);
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE + 2];
+		try (SkeletonFile.Reader reader = new SkeletonFile.Reader(new ByteArrayInputStream(encoded))) {
+			assertEquals(SkeletonFile.DEPTH, reader.getCoordinateSystem());
+			assertTrue(reader.next(joints, 2, null));
+			assertEquals(7, reader.getTimestamp());
+			assertEquals(track.get(0, 14, 2), joints[SkeletonTrack.FRAME_SIZE + 1], 0f);
+		}
+
+		/* The last frame was not written completely */
+		byte[] truncated = Arrays.copyOf(encoded, encoded.length - 10);
+		try (SkeletonFile.Reader reader = new SkeletonFile.Reader(new ByteArrayInputStream(truncated))) {
+			for (int i = 0; i < track.size() - 1; i++) {
+				assertTrue(reader.next(joints, 0, null));
+			}
+			reader.next(joints, 0, null);
+			fail();
+		} catch (EOFException e) {
+			/* Expected */
+		}
+	}
+
+	@Test
+	public void convertsTheText() throws IOException {
+		File directory = Files.createTempDirectory("coordinates").toFile();
+		directory.deleteOnExit();
+		File text = new File(directory, "Real-2.txt");
+		text.deleteOnExit();
+		StringBuilder sb = new StringBuilder();
+		sb.append("123456 ");
+		for (int j = 0; j < SkeletonTrack.JOINTS; j++) {
+			sb.append(j == 3 ? "[null, null, null]" : Arrays.toString(new float[] { j, -j * 1.5f, 2000.25f }));
+		}
+		sb.append("\n100 [1.0, 2.0, 3.0]\n");
+		Files.write(text.toPath(), sb.toString().getBytes());
+
+		File binary = SkeletonFile.convert(text);
+		binary.deleteOnExit();
+		assertEquals("Real-2." + SkeletonFile.EXTENSION, binary.getName());
+		SkeletonTrack read = SkeletonFile.read(binary);
+		assertFalse(read.hasConfidence());
+		assertEquals(2, read.size());
+		assertEquals(100, read.getTimestamp(0));
+		assertEquals(3f, read.get(0, 0, 2), 0f);
+		assertEquals(123456, read.getTimestamp(1));
+		assertEquals(-21f, read.get(1, 14, 1), 0f);
+		assertEquals(0f, read.get(1, 3, 0), 0f);
+		assertEquals(2000.25f, read.get(1, 7, 2), 0f);
+		try (SkeletonFile.Reader reader = new SkeletonFile.Reader(Files.newInputStream(binary.toPath()))) {
+			assertEquals(SkeletonFile.REAL, reader.getCoordinateSystem());
+		}
+	}
+}
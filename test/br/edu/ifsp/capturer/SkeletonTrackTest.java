@@ -0,0 +1,102 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SkeletonTrackTest {
+
+	private SkeletonTrack track;
+
+	@Before
+	public void initialize() {
+		track = new SkeletonTrack(1, false);
+	}
+
+	private static float[] frame(float value) {
+		float[] joints = new float[SkeletonTrack.FRAME_SIZE];
+		for (int i = 0; i < joints.length; i++) {
+			joints[i] = value + i;
+		}
+		return joints;
+	}
+
+	@Test
+	public void addAndGrow() {
+		track.add(10L, frame(0));
+		track.add(20L, frame(100));
+		track.add(30L, frame(200));
+
+		assertEquals(3, track.size());
+		assertEquals(20L, track.getTimestamp(1));
+		assertEquals(100f + Coordinate.RIGHT_HAND * 3 + Coordinate.Y,
+				track.get(1, Coordinate.RIGHT_HAND, Coordinate.Y), 0f);
+		assertEquals(2, track.indexOf(30L));
+		assertEquals(-1, track.indexOf(25L));
+	}
+
+	@Test
+	public void sameTimestampReplaces() {
+		track.add(10L, frame(0));
+		track.add(10L, frame(5));
+		assertEquals(1, track.size());
+		assertEquals(5f, track.get(0, 0, 0), 0f);
+	}
+
+	@Test
+	public void sort() {
+		track.add(30L, frame(3));
+		track.add(10L, frame(1));
+		track.add(20L, frame(2));
+		assertEquals(1, track.indexOf(10L));
+
+		track.sort();
+		assertEquals(10L, track.getTimestamp(0));
+		assertEquals(1f, track.get(0, 0, 0), 0f);
+		assertEquals(3f, track.get(2, 0, 0), 0f);
+		assertEquals(0, track.indexOf(10L));
+	}
+
+	@Test
+	public void mapView() {
+		Map<Long, Float[][]> legacy = new HashMap<>();
+		Float[][] values = new Float[SkeletonTrack.JOINTS][SkeletonTrack.AXES];
+		for (int i = 0; i < SkeletonTrack.JOINTS; i++) {
+			values[i] = new Float[] { (float) i, i + 0.5f, i * 2f };
+		}
+		legacy.put(7L, values);
+
+		track = SkeletonTrack.fromMap(legacy);
+		Map<Long, Float[][]> view = track.asMap();
+
+		assertEquals(1, view.size());
+		assertTrue(view.containsKey(7L));
+		assertFalse(view.containsKey(8L));
+		assertNull(view.get(8L));
+		assertArrayEquals(values, view.get(7L));
+
+		Iterator<Long> keys = view.keySet().iterator();
+		assertEquals(Long.valueOf(7L), keys.next());
+		assertFalse(keys.hasNext());
+	}
+
+	@Test
+	public void confidence() {
+		track = new SkeletonTrack(4, true);
+		float[] confidence = new float[SkeletonTrack.JOINTS];
+		confidence[Coordinate.HEAD] = 1f;
+		track.add(1L, frame(0), 0, confidence);
+
+		assertEquals(1f, track.getConfidence(0, Coordinate.HEAD), 0f);
+		assertEquals(0f, track.getConfidence(0, Coordinate.NECK), 0f);
+	}
+}
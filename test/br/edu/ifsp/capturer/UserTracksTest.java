@@ -0,0 +1,96 @@
+package br.edu.ifsp.capturer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserTracksTest {
+
+	private UserTracks tracks;
+	private float[] joints;
+
+	@Before
+	public void initialize() {
+		tracks = new UserTracks();
+		joints = new float[SkeletonTrack.FRAME_SIZE];
+	}
+
+	@Test
+	public void keepsEveryUser() {
+		for (long t = 0; t < 5; t++) {
+			tracks.record((short) 2, t, joints, joints, null);
+		}
+		for (long t = 0; t < 3; t++) {
+			tracks.record((short) 1, t, joints, joints, null);
+		}
+		assertArrayEquals(new short[] { 2, 1 }, tracks.getUsers());
+		assertEquals(5, tracks.getDepth((short) 2).size());
+		assertEquals(3, tracks.getReal((short) 1).size());
+		assertNull(tracks.getDepth((short) 7));
+
+		/* The main user has more frames, even when it is not the last one */
+		assertEquals(2, tracks.getMainUser());
+	}
+
+	@Test
+	public void snapshotIsSortedAndIndependent() {
+		tracks.record((short) 20, 30, joints, joints, null);
+		tracks.record((short) 20, 10, joints, joints, null);
+		UserTracks copy = tracks.snapshot();
+		tracks.record((short) 20, 40, joints, joints, null);
+
+		assertEquals(2, copy.getDepth((short) 20).size());
+		assertEquals(10, copy.getDepth((short) 20).getTimestamp(0));
+		assertEquals(30, copy.getReal((short) 20).getTimestamp(1));
+		assertEquals(3, tracks.getDepth((short) 20).size());
+	}
+
+	@Test
+	public void recordsUsersConcurrently() throws InterruptedException {
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final short id = (short) (i + 1);
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					float[] values = new float[SkeletonTrack.FRAME_SIZE];
+					for (long t = 0; t < 1000; t++) {
+						tracks.record(id, t, values, values, null);
+						if (t % 100 == 0) {
+							tracks.snapshot();
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(4, tracks.getUserCount());
+		for (short id = 1; id <= 4; id++) {
+			assertEquals(1000, tracks.getDepth(id).size());
+		}
+	}
+
+	@Test
+	public void countsTheBytesOfEveryTrack() {
+		assertEquals(0, tracks.getRetainedBytes());
+		tracks.record((short) 1, 0, joints, joints, null);
+		tracks.record((short) 2, 0, joints, joints, null);
+		long bytes = tracks.getDepth((short) 1).getRetainedBytes();
+		assertEquals(4 * bytes, tracks.getRetainedBytes());
+	}
+
+	@Test
+	public void clearRemovesTheUsers() {
+		tracks.record((short) 1, 0, joints, joints, null);
+		tracks.clear();
+		assertEquals(0, tracks.getUserCount());
+		assertEquals(-1, tracks.getMainUser());
+	}
+}
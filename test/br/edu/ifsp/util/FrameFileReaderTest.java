@@ -0,0 +1,72 @@
+package br.edu.ifsp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameFileReaderTest {
+
+	private List<File> files;
+
+	@Before
+	public void initialize() throws IOException {
+		File directory = Files.createTempDirectory("frames").toFile();
+		directory.deleteOnExit();
+		files = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			byte[] data = new byte[64];
+			for (int j = 0; j < data.length; j++) {
+				data[j] = (byte) (i + j);
+			}
+			File file = new File(directory, (i * 100) + ".bin");
+			Files.write(file.toPath(), data);
+			file.deleteOnExit();
+			files.add(file);
+		}
+	}
+
+	@Test
+	public void readsAheadIntoTheSameBuffers() throws IOException {
+		try (FrameFileReader reader = new FrameFileReader(64, 3)) {
+			reader.readAhead(files);
+			for (int i = 0; i < files.size(); i++) {
+				ByteBuffer buff = reader.read(files.get(i));
+				assertTrue(buff.isDirect());
+				assertEquals(64, buff.remaining());
+				assertEquals((byte) (i + 5), buff.get(5));
+				reader.release(buff);
+			}
+			/* The frame read, the frames read ahead and one more */
+			assertTrue(reader.getAllocated() <= 5);
+		}
+	}
+
+	@Test
+	public void readsFilesNotExpected() throws IOException {
+		File big = new File(files.get(0).getParentFile(), "big.bin");
+		big.deleteOnExit();
+		Files.write(big.toPath(), new byte[1000]);
+		try (FrameFileReader reader = new FrameFileReader(64, 2)) {
+			reader.readAhead(files.subList(0, 4));
+			assertEquals(1000, reader.read(big).remaining());
+			assertArrayEquals(Files.readAllBytes(files.get(3).toPath()), reader.readBytes(files.get(3)));
+			try {
+				reader.read(new File(big.getParentFile(), "missing.bin"));
+				fail();
+			} catch (IOException e) {
+				/* Expected */
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package br.edu.ifsp.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.edu.ifsp.capturer.DepthCodec;
+import br.edu.ifsp.capturer.EncodedFrameMap;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.ImageCapture;
+
+public class LoadTest {
+
+	private static final int WIDTH = 4, HEIGHT = 2, FRAMES = 40;
+
+	private CaptureData data;
+	private File directory;
+
+	@Before
+	public void initialize() throws IOException {
+		directory = Files.createTempDirectory("load").toFile();
+		directory.deleteOnExit();
+
+		data = new CaptureData();
+		data.setWidth(WIDTH);
+		data.setHeight(HEIGHT);
+		data.setFps(30);
+		/* The depth is saved compressed and the color as it was captured */
+		EncodedFrameMap depth = new EncodedFrameMap(new DepthCodec(), Frame.DEPTH, WIDTH, HEIGHT);
+		Map<Long, ByteBuffer> color = ImageCapture.createMapStructure();
+		for (int i = 0; i < FRAMES; i++) {
+			long timestamp = 1000 + i * 33_333L;
+			depth.put(new Frame(Frame.DEPTH, frame(WIDTH * HEIGHT * 2, i), timestamp, WIDTH, HEIGHT));
+			color.put(timestamp, frame(WIDTH * HEIGHT * 3, i));
+		}
+		data.setImageDepth(depth);
+		data.setImageColor(color);
+	}
+
+	private static ByteBuffer frame(int size, int value) {
+		ByteBuffer buff = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < size; i++) {
+			buff.put(i, (byte) (value + i));
+		}
+		return buff;
+	}
+
+	private File saveDirectory() throws IOException {
+		File recording = new File(directory, "take");
+		Save save = new Save();
+		File depth = new File(recording, "Depth"), color = new File(recording, "Color");
+		Files.createDirectories(depth.toPath());
+		Files.createDirectories(color.toPath());
+		Files.createDirectories(new File(recording, "Segmentation").toPath());
+		Files.createDirectories(new File(recording, "Coordinates").toPath());
+		save.saveConfig(recording, data);
+		save.saveStream(depth, data.getImageDepth());
+		save.saveStream(color, data.getImageColor());
+		return recording;
+	}
+
+	private static CaptureData load(File recording, int threads) throws Exception {
+		Load load = new Load();
+		load.setThreads(threads);
+		return load.loadRecording(recording);
+	}
+
+	private static void assertFrames(CaptureData loaded) {
+		assertEquals(FRAMES, loaded.getFrameCount());
+		assertEquals(FRAMES, loaded.getImageDepth().size());
+		assertEquals(FRAMES, loaded.getImageColor().size());
+		for (int i = 0; i < FRAMES; i++) {
+			long timestamp = 1000 + i * 33_333L;
+			assertEquals(frame(WIDTH * HEIGHT * 2, i), loaded.getImageDepth().get(timestamp));
+			assertEquals(frame(WIDTH * HEIGHT * 3, i), loaded.getImageColor().get(timestamp));
+		}
+	}
+
+	@Test
+	public void loadsADirectoryInParallelAsOneFrameAtATime() throws Exception {
+		File recording = saveDirectory();
+
+		assertFrames(load(recording, 1));
+		assertFrames(load(recording, 4));
+	}
+
+	@Test
+	public void loadsAContainerInParallelAsOneFrameAtATime() throws Exception {
+		File recording = new File(directory, "take." + RecordingContainer.EXTENSION);
+		recording.deleteOnExit();
+		new Save().saveContainer(recording, data);
+
+		assertFrames(load(recording, 1));
+		assertFrames(load(recording, 4));
+	}
+}
@@ -0,0 +1,117 @@
+package br.edu.ifsp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import br.edu.ifsp.capturer.CompositeFrame;
+import br.edu.ifsp.capturer.DepthCodec;
+import br.edu.ifsp.capturer.EncodedFrame;
+import br.edu.ifsp.capturer.Frame;
+import br.edu.ifsp.capturer.FrameSynchronizer;
+
+public class MappedFrameMapTest {
+
+	private File directory;
+
+	@Before
+	public void initialize() throws IOException {
+		directory = Files.createTempDirectory("mapped").toFile();
+		directory.deleteOnExit();
+	}
+
+	private static ByteBuffer depth(int value) {
+		ByteBuffer buff = ByteBuffer.allocate(4 * 2 * 2).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 8; i++) {
+			buff.putShort(i * 2, (short) (value + i));
+		}
+		return buff;
+	}
+
+	private File write(String name, byte[] data) throws IOException {
+		File file = new File(directory, name);
+		Files.write(file.toPath(), data);
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void readsTheFilesOnlyWhenTheyAreUsed() throws IOException {
+		MappedFrameMap map = new MappedFrameMap(Frame.DEPTH, 4, 2);
+		map.put(100, write("100.bin", depth(1000).array()));
+		map.put(200, write("200." + DepthCodec.EXTENSION, new DepthCodec().encode(depth(2000), 4, 2)));
+		File missing = new File(directory, "300.bin");
+		map.put(300, missing);
+
+		assertEquals(3, map.size());
+		assertEquals(depth(1000), map.get(100L));
+		assertTrue(map.get(100L).isReadOnly());
+		assertEquals(depth(2000), map.get(200L));
+		assertNull(map.get(400L));
+
+		/* The missing file is only noticed when its frame is read */
+		List<CompositeFrame> frames = FrameSynchronizer.align(map, null, null, null, 0, 4, 2);
+		assertEquals(3, frames.size());
+		assertEquals(1007, frames.get(0).getDepth().getData().getShort(14));
+		try {
+			frames.get(2).getDepth().getData();
+			fail();
+		} catch (IllegalStateException e) {
+			/* Expected */
+		}
+	}
+
+	@Test
+	public void mapsTheEntriesOfOneFile() throws IOException {
+		File file = new File(directory, "take." + RecordingContainer.EXTENSION);
+		file.deleteOnExit();
+		try (RecordingContainer.Writer out = new RecordingContainer.Writer(file)) {
+			out.put("Depth/100.bin", depth(1000));
+			out.put("Depth/200.bin", depth(2000));
+		}
+
+		MappedFrameMap map = new MappedFrameMap(Frame.DEPTH, 4, 2);
+		try (RecordingContainer.Reader in = new RecordingContainer.Reader(file)) {
+			for (RecordingContainer.Entry entry : in.list("Depth")) {
+				String name = entry.getName();
+				map.put(Long.parseLong(name.substring(6, name.length() - 4)), name, in.map(entry));
+			}
+		}
+
+		/* The views are still valid after the file is closed */
+		assertEquals(depth(2000), map.get(200L));
+		assertEquals(depth(1000), map.getFrame(100).getData());
+		CaptureData data = new CaptureData();
+		data.setImageDepth(map);
+		assertEquals(0, data.getRetainedBytes(Frame.DEPTH));
+	}
+
+	@Test
+	public void keepsTheFramesCompressedAndTheMappingsRead() throws IOException {
+		MappedFrameMap map = new MappedFrameMap(Frame.DEPTH, 4, 2);
+		map.put(100, write("100.bin", depth(1000).array()));
+		map.put(200, write("200." + DepthCodec.EXTENSION, new DepthCodec().encode(depth(2000), 4, 2)));
+
+		Frame encoded = map.getFrame(200);
+		assertTrue(encoded instanceof EncodedFrame);
+		assertEquals(0, ((EncodedFrame) encoded).getRetainedBytes());
+		assertEquals(depth(2000), encoded.getData());
+
+		/* Each read is a new view of the mapping kept, so they do not share positions */
+		ByteBuffer first = map.get(100L), second = map.get(100L);
+		first.position(4);
+		assertEquals(0, second.position());
+		assertEquals(first.getShort(14), second.getShort(14));
+	}
+}
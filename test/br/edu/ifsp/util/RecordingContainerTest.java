@@ -0,0 +1,67 @@
+package br.edu.ifsp.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordingContainerTest {
+
+	private File file;
+
+	@Before
+	public void initialize() throws IOException {
+		file = File.createTempFile("recording", "." + RecordingContainer.EXTENSION);
+		file.deleteOnExit();
+	}
+
+	@Test
+	public void readsTheEntriesInAnyOrder() throws IOException {
+		ByteBuffer direct = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+		direct.putInt(0, 1234);
+		try (RecordingContainer.Writer out = new RecordingContainer.Writer(file)) {
+			out.put("Config.txt", "Width: 640\n".getBytes());
+			out.put("Depth/300.bin", new byte[] { 3 });
+			out.put("Depth/100.dpk", new byte[] { 1, 1 });
+			out.put("Depth/notes.txt", new byte[0]);
+			out.put("Color/100.bin", direct);
+			out.put("Coordinates/Depth-1/old.txt", new byte[] { 9 });
+		}
+
+		try (RecordingContainer.Reader in = new RecordingContainer.Reader(file)) {
+			assertEquals(6, in.getNames().size());
+			assertEquals(3, in.list("Depth").size());
+			assertArrayEquals(new long[] { 100, 300 }, in.getTimestamps("Depth"));
+			assertEquals(0, in.list("Coordinates").size());
+
+			assertEquals(1234, in.read(in.getEntry("Color/100.bin")).getInt());
+			assertArrayEquals(new byte[] { 1, 1 }, in.readBytes("Depth/100.dpk"));
+			assertEquals("Width: 640\n", new String(in.readBytes("Config.txt")));
+			assertNull(in.readBytes("Depth/200.bin"));
+		}
+		assertTrue(RecordingContainer.isContainer(file));
+	}
+
+	@Test(expected = IOException.class)
+	public void refusesFilesNotClosed() throws IOException {
+		try (RecordingContainer.Writer out = new RecordingContainer.Writer(file)) {
+			byte[] data = new byte[64];
+			Arrays.fill(data, (byte) 7);
+			out.put("Depth/100.bin", data);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		new RecordingContainer.Reader(file).close();
+	}
+}